@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.api;
+
+import java.util.Map;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQueCmp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQueRsp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataRes;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataResCmp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataResRsp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataRev;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataRevCmp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataRevRsp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlRxStat;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlRxStatCmp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlRxStatQry;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlRxStatQryCmp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlRxStatQryRsp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlRxStatRsp;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlDataCmp;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlDataRsp;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmDlData;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmDlDataCmp;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmDlDataRsp;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmUlData;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmUlDataCmp;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmUlDataRsp;
+
+import lombok.Getter;
+
+/**
+ * Traffic class of the BSSCI messages, to prioritize the control plane over the data plane.
+ *
+ * @author FendtC
+ */
+public enum EnumTrafficClass {
+    /** Connection, keepalive, status, attachment and error messages. */
+    CONTROL(16),
+    /** Uplink and downlink data of the main channel. */
+    DATA(4),
+    /** Data of the sub channels, e.g. the variable MAC. */
+    BULK(1);
+
+    /** Classification of the data plane messages, by message class; the other messages are CONTROL. */
+    private static final Map<Class<? extends Api>, EnumTrafficClass> CLASSES = Map.ofEntries(
+            Map.entry(UlData.class, EnumTrafficClass.DATA), Map.entry(UlDataRsp.class, EnumTrafficClass.DATA),
+            Map.entry(UlDataCmp.class, EnumTrafficClass.DATA), Map.entry(DlDataQue.class, EnumTrafficClass.DATA),
+            Map.entry(DlDataQueRsp.class, EnumTrafficClass.DATA), Map.entry(DlDataQueCmp.class, EnumTrafficClass.DATA),
+            Map.entry(DlDataRev.class, EnumTrafficClass.DATA), Map.entry(DlDataRevRsp.class, EnumTrafficClass.DATA),
+            Map.entry(DlDataRevCmp.class, EnumTrafficClass.DATA), Map.entry(DlDataRes.class, EnumTrafficClass.DATA),
+            Map.entry(DlDataResRsp.class, EnumTrafficClass.DATA), Map.entry(DlDataResCmp.class, EnumTrafficClass.DATA),
+            Map.entry(DlRxStat.class, EnumTrafficClass.DATA), Map.entry(DlRxStatRsp.class, EnumTrafficClass.DATA),
+            Map.entry(DlRxStatCmp.class, EnumTrafficClass.DATA), Map.entry(DlRxStatQry.class, EnumTrafficClass.DATA),
+            Map.entry(DlRxStatQryRsp.class, EnumTrafficClass.DATA),
+            Map.entry(DlRxStatQryCmp.class, EnumTrafficClass.DATA),
+            Map.entry(VmUlData.class, EnumTrafficClass.BULK), Map.entry(VmUlDataRsp.class, EnumTrafficClass.BULK),
+            Map.entry(VmUlDataCmp.class, EnumTrafficClass.BULK), Map.entry(VmDlData.class, EnumTrafficClass.BULK),
+            Map.entry(VmDlDataRsp.class, EnumTrafficClass.BULK), Map.entry(VmDlDataCmp.class, EnumTrafficClass.BULK));
+
+    /** Number of messages of the class drained per round of the weighted draining. */
+    @Getter
+    private final int weight;
+
+    EnumTrafficClass(final int weight) {
+        this.weight = weight;
+    }
+
+    /**
+     * Method to classify a message.
+     *
+     * @param apiObj
+     *               the message.
+     * @return the traffic class of the message.
+     */
+    public static EnumTrafficClass classify(final Api apiObj) {
+        return EnumTrafficClass.CLASSES.getOrDefault(apiObj.getClass(), EnumTrafficClass.CONTROL);
+    }
+}
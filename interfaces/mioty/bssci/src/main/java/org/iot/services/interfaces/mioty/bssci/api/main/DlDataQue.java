@@ -38,6 +38,7 @@ public class DlDataQue extends Api {
     /** End Point EUI64. */
     private EUI64 epEui;
     /** Queue ID. */
+    @Setter
     private long queId;
     /** True if userData is counter dependent (encryption etc.). */
     private boolean cntDepend;
@@ -50,6 +51,7 @@ public class DlDataQue extends Api {
     /** User data format identifier, 8 bit, optional. */
     private Byte format;
     /** Priority. */
+    @Setter
     private float prio;
     /** True if End Point response is expected, optional. */
     private Boolean responseExp;
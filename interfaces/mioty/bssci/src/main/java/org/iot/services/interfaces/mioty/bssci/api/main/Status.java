@@ -18,7 +18,6 @@ package org.iot.services.interfaces.mioty.bssci.api.main;
 
 import org.iot.services.interfaces.mioty.bssci.api.Api;
 
-import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 
@@ -26,7 +25,7 @@ import lombok.NoArgsConstructor;
  * The status operation can be initiated by the Service Center to retrieve status information from the Base Station
  */
 @Getter
-@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@NoArgsConstructor
 public class Status extends Api {
     // do nothing
 }
@@ -18,7 +18,6 @@ package org.iot.services.interfaces.mioty.bssci.api.subchannel.vm;
 
 import org.iot.services.interfaces.mioty.bssci.api.Api;
 
-import lombok.AccessLevel;
 import lombok.Getter;
 import lombok.NoArgsConstructor;
 
@@ -28,7 +27,7 @@ import lombok.NoArgsConstructor;
  * @author FendtC
  */
 @Getter
-@NoArgsConstructor(access = AccessLevel.PROTECTED)
+@NoArgsConstructor
 public class VmStatus extends Api {
 
     @Override
@@ -17,17 +17,35 @@
 package org.iot.services.interfaces.mioty.bssci.servicecenter;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Predicate;
 
 import javax.net.ssl.SSLContext;
 import javax.net.ssl.SSLServerSocket;
 
 import org.apache.commons.lang3.Validate;
 import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.cluster.RemoteConnection;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.cluster.ServiceCenterCluster;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.journal.UplinkJournal;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.overload.OverloadController;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.propagation.BulkPropagator;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.propagation.IAttachmentProvider;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ratelimit.IngressRateLimiter;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.session.SessionRegistry;
 import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
 import lombok.Getter;
 
 /**
@@ -47,18 +65,43 @@ public class BssciServiceCenter {
     private String identifier;
 
     /** Message handler. */
-    private Optional<IServiceCenterConnectionEventHandler<Void>> onConnectHandler;
+    private Optional<IServiceCenterConnectionEventHandler<Void>> onConnectHandler = Optional.empty();
     /** Message handler. */
-    private Optional<IServiceCenterConnectionEventHandler<Void>> onDisconnectHandler;
+    private Optional<IServiceCenterConnectionEventHandler<Void>> onDisconnectHandler = Optional.empty();
     /** Message handler. */
-    private Optional<IServiceCenterConnectionEventHandler<Api>> onIncommingHandler;
+    private Optional<IServiceCenterConnectionEventHandler<Api>> onIncommingHandler = Optional.empty();
     /** Message handler. */
-    private Optional<IServiceCenterConnectionEventHandler<Api>> onOutgoingHandler;
+    private Optional<IServiceCenterConnectionEventHandler<Api>> onOutgoingHandler = Optional.empty();
     /** Message handler. */
-    private Optional<IServiceCenterConnectionEventHandler<Exception>> onErrorHandler;
+    private Optional<IServiceCenterConnectionEventHandler<Exception>> onErrorHandler = Optional.empty();
+    /** Controller shedding the uplinks on overload. */
+    @Getter
+    private Optional<OverloadController> overloadController = Optional.empty();
+    /** Rate limiter of the incoming uplinks. */
+    @Getter
+    private Optional<IngressRateLimiter> ingressRateLimiter = Optional.empty();
+    /** Journal of the received uplinks. */
+    @Getter
+    private Optional<UplinkJournal> journal = Optional.empty();
+    /** Cluster of service centers sharing the end points. */
+    @Getter
+    private Optional<ServiceCenterCluster> cluster = Optional.empty();
+
+    /** Provider of the attachments to propagate on connection. */
+    private Optional<IAttachmentProvider> attachmentProvider = Optional.empty();
+    /** Engine used for the propagation on connection. */
+    private BulkPropagator propagator;
+
+    /** Interceptors of the incoming messages. */
+    private final List<IMessageInterceptor> interceptors = new CopyOnWriteArrayList<>();
 
     /** List of connected clients. */
     private final Set<ServiceCenterConnection> clients = ConcurrentHashMap.newKeySet();
+    /** Connected clients, by base station EUI64. */
+    private final Map<EUI64, ServiceCenterConnection> clientsByEui = new ConcurrentHashMap<>();
+    /** Sessions of the base stations, kept for resumption. */
+    @Getter
+    private final SessionRegistry sessions = new SessionRegistry();
 
     /**
      * Method to start the test server.
@@ -125,6 +168,10 @@ public class BssciServiceCenter {
      */
     protected void disconnect(final ServiceCenterConnection client) {
         this.clients.remove(client);
+        if (client.getEui() != null) {
+            this.clientsByEui.remove(client.getEui(), client);
+            this.cluster.ifPresent(c -> c.disconnected(client.getEui()));
+        }
         this.onDisconnectHandler.ifPresent(h -> h.handle(client, null));
     }
 
@@ -147,9 +194,100 @@ public class BssciServiceCenter {
      *               the client connection.
      */
     protected void connected(final ServiceCenterConnection client) {
+        final var previous = this.clientsByEui.put(client.getEui(), client);
+        if ((previous != null) && (previous != client)) {
+            // the base station reconnected without closing its previous connection
+            previous.disconnect();
+        }
+        if (client.isResumed()) {
+            // the base station still knows the attachments, only the unacknowledged operations are sent again
+            final var timeout = this.propagator == null ? BulkPropagator.DEFAULT_TIMEOUT : this.propagator.getTimeout();
+            client.resendUnacknowledged(timeout).whenComplete((v, ex) -> {
+                if (ex != null) {
+                    this.error(client, ex);
+                }
+            });
+        } else {
+            this.propagateAttachments(client);
+        }
         this.onConnectHandler.ifPresent(h -> h.handle(client, null));
     }
 
+    private void propagateAttachments(final ServiceCenterConnection client) {
+        this.attachmentProvider.ifPresent(p -> this.propagator.attach(client, p.attachments(client.getEui()), null)
+                .whenComplete((progress, ex) -> {
+                    if (ex != null) {
+                        this.error(client, ex);
+                    } else if (progress.getFailed() > 0) {
+                        this.error(client, new IllegalStateException("Incomplete propagation: " + progress)); //$NON-NLS-1$
+                    }
+                }));
+    }
+
+    /**
+     * Method to propagate the end point attachments to every base station, as soon as it is connected.
+     *
+     * @param provider
+     *                   Provider of the attachments to propagate.
+     * @param propagator
+     *                   Engine to use for the propagation.
+     * @return the service center.
+     */
+    public BssciServiceCenter propagateOnConnect(final IAttachmentProvider provider,
+            final BulkPropagator propagator) {
+        this.propagator = Validate.notNull(propagator);
+        this.attachmentProvider = Optional.of(provider);
+        return this;
+    }
+
+    /**
+     * Method to shed the uplinks when the handlers fall behind the incoming traffic.
+     *
+     * @param controller
+     *                   Controller of the overload.
+     * @return the service center.
+     */
+    public BssciServiceCenter shedOnOverload(final OverloadController controller) {
+        this.overloadController = Optional.of(controller);
+        return this;
+    }
+
+    /**
+     * Method to limit the rate of the incoming uplinks, before their decoding.
+     *
+     * @param limiter
+     *                Rate limiter of the uplinks.
+     * @return the service center.
+     */
+    public BssciServiceCenter limitIngress(final IngressRateLimiter limiter) {
+        this.ingressRateLimiter = Optional.of(limiter);
+        return this;
+    }
+
+    /**
+     * Method to journal the received uplinks before their dispatching, so they survive a crash of the consumers.
+     *
+     * @param uplinkJournal
+     *                      Journal of the uplinks.
+     * @return the service center.
+     */
+    public BssciServiceCenter journalUplinks(final UplinkJournal uplinkJournal) {
+        this.journal = Optional.of(uplinkJournal);
+        return this;
+    }
+
+    /**
+     * Method to join a cluster: the uplinks of the end points owned by other nodes are forwarded to them.
+     *
+     * @param serviceCenterCluster
+     *                             the cluster, started.
+     * @return the service center.
+     */
+    public BssciServiceCenter joinCluster(final ServiceCenterCluster serviceCenterCluster) {
+        this.cluster = Optional.of(serviceCenterCluster);
+        return this;
+    }
+
     /**
      * Event handler.
      *
@@ -175,7 +313,8 @@ public class BssciServiceCenter {
     }
 
     /**
-     * Event handler.
+     * Event handler, called on the dispatcher thread of the connection for the messages not consumed by the
+     * interceptors.
      *
      * @param client
      *               Client associated to the connection.
@@ -187,6 +326,40 @@ public class BssciServiceCenter {
         this.onIncommingHandler.ifPresent(h -> h.handle(client, apiObj));
     }
 
+    /**
+     * Method to pass an incoming message to the interceptors, called on the receiver thread of the connection.
+     *
+     * @param client
+     *               Client associated to the connection.
+     * @param apiObj
+     *               Object received.
+     * @return TRUE if an interceptor consumed the message.
+     */
+    protected boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        for (final IMessageInterceptor interceptor : this.interceptors) {
+            try {
+                if (interceptor.intercept(client, apiObj)) {
+                    return true;
+                }
+            } catch (final Exception e) {
+                this.error(client, e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to add an interceptor of the incoming messages. Interceptors are called in their registration order.
+     *
+     * @param interceptor
+     *                    the interceptor to add.
+     * @return the service center.
+     */
+    public BssciServiceCenter addInterceptor(final IMessageInterceptor interceptor) {
+        this.interceptors.add(Validate.notNull(interceptor));
+        return this;
+    }
+
     /**
      * Event handler.
      *
@@ -225,6 +398,60 @@ public class BssciServiceCenter {
         this.onErrorHandler.ifPresent(h -> h.handle(client, e));
     }
 
+    /**
+     * Event handler, for asynchronous failures.
+     *
+     * @param client
+     *               Client associated to the connection.
+     * @param t
+     *               error received.
+     */
+    protected void error(final ServiceCenterConnection client, final Throwable t) {
+        this.error(client, t instanceof Exception ? (Exception) t : new Exception(t));
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the connected clients.
+     */
+    public Collection<ServiceCenterConnection> getClients() {
+        return Collections.unmodifiableSet(this.clients);
+    }
+
+    /**
+     * Method to retrieve the connection of a base station.
+     *
+     * @param bsEui
+     *              EUI64 of the base station.
+     * @return the connection, or NULL if the base station is not connected.
+     */
+    public ServiceCenterConnection getClient(final EUI64 bsEui) {
+        return this.clientsByEui.get(bsEui);
+    }
+
+    /**
+     * Method to register the proxy of a base station connected to another node of the cluster, so the handlers find it
+     * by {@link #getClient(EUI64)}. A local connection of the base station takes precedence.
+     *
+     * @param proxy
+     *              the proxy.
+     */
+    public void addRemote(final RemoteConnection proxy) {
+        this.clientsByEui.compute(proxy.getEui(),
+                (k, current) -> (current == null) || (current instanceof RemoteConnection) ? proxy : current);
+    }
+
+    /**
+     * Method to unregister the proxy of a base station connected to another node of the cluster.
+     *
+     * @param proxy
+     *              the proxy.
+     */
+    public void removeRemote(final RemoteConnection proxy) {
+        this.clientsByEui.remove(proxy.getEui(), proxy);
+    }
+
     /**
      * Method to send a message to all clients.
      *
@@ -237,6 +464,61 @@ public class BssciServiceCenter {
         return this;
     }
 
+    /**
+     * Method to send a request to every base station connected to this node and to collect their responses.
+     *
+     * @param request
+     *                Request to send, e.g. Status, VmStatus or DlRxStatQry.
+     * @param timeout
+     *                Maximum time to wait for the responses.
+     * @return the responses by base station EUI64; base stations that failed or did not answer in time are missing.
+     */
+    public CompletableFuture<Map<EUI64, Api>> queryAll(final Api request, final Duration timeout) {
+        return this.queryAll(request, timeout, c -> true);
+    }
+
+    /**
+     * Method to send a request to a subset of the connected base stations and to collect their responses. The requests
+     * are pipelined: every request is sent before the first response is awaited. Each base station gets its own copy
+     * of the request, as the operation ID is set per connection.
+     *
+     * @param request
+     *                Request to send, e.g. Status, VmStatus or DlRxStatQry.
+     * @param timeout
+     *                Maximum time to wait for the responses.
+     * @param filter
+     *                Filter of the base stations to query.
+     * @return the responses by base station EUI64; base stations that failed or did not answer in time are missing.
+     */
+    public CompletableFuture<Map<EUI64, Api>> queryAll(final Api request, final Duration timeout,
+            final Predicate<ServiceCenterConnection> filter) {
+        final byte[] encoded;
+        try {
+            encoded = request.toMsgPack();
+        } catch (final JsonProcessingException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        final Map<EUI64, Api> responses = new ConcurrentHashMap<>();
+        final var futures = this.clientsByEui.values().stream()
+                .filter(c -> !(c instanceof RemoteConnection) && filter.test(c))
+                .map(c -> BssciServiceCenter.requestCopy(c, encoded, timeout).handle((rsp, ex) -> {
+                    if (ex == null) {
+                        responses.put(c.getEui(), rsp);
+                    }
+                    return null;
+                })).toArray(CompletableFuture[]::new);
+        return CompletableFuture.allOf(futures).thenApply(v -> Collections.unmodifiableMap(responses));
+    }
+
+    private static CompletableFuture<Api> requestCopy(final ServiceCenterConnection client, final byte[] encoded,
+            final Duration timeout) {
+        try {
+            return client.request(Api.fromMsgPack(encoded), timeout);
+        } catch (final IOException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
     /**
      * Method to close the server instance and therefore all client connections.
      *
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter;
+
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+
+/**
+ * Interceptor of the incoming messages, called on the receiver thread of the connection before the incoming handler.
+ * Interceptors also observe the responses to the operations initiated with
+ * {@link ServiceCenterConnection#request(Api, java.time.Duration)}, whatever they return.
+ *
+ * @author FendtC
+ */
+@FunctionalInterface
+public interface IMessageInterceptor {
+
+    /**
+     * Handling method.
+     *
+     * @param client
+     *               Client associated to the message.
+     * @param apiObj
+     *               Message received.
+     * @return TRUE if the message is consumed and must not be forwarded to the incoming handler.
+     */
+    boolean intercept(ServiceCenterConnection client, Api apiObj);
+}
@@ -21,12 +21,26 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.EnumTrafficClass;
 import org.iot.services.interfaces.mioty.bssci.api.main.Connect;
 import org.iot.services.interfaces.mioty.bssci.api.main.ConnectCmp;
 import org.iot.services.interfaces.mioty.bssci.api.main.ConnectRsp;
+import org.iot.services.interfaces.mioty.bssci.api.main.Error;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.overload.EnumShedAction;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ratelimit.EnumOverLimitAction;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ratelimit.IngressRateLimiter;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.session.Session;
 import org.iot.services.interfaces.mioty.bssci.utils.BytesUtils;
 import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
 import org.iot.services.interfaces.mioty.bssci.utils.UuidUtils;
@@ -39,55 +53,350 @@ import lombok.Getter;
  * @author FendtC
  */
 public class ServiceCenterConnection {
+    /** Maximum number of received messages waiting for their dispatching, per traffic class. */
+    public static final int INBOUND_CAPACITY = 1024;
+    /** Maximum number of frames waiting for their transmission, per traffic class. */
+    public static final int OUTBOUND_CAPACITY = 4096;
+
     private final BssciServiceCenter scs;
     @Getter
     private EUI64 eui;
     private final AtomicInteger opid;
-    private Socket sock;
+    /** First operation ID of the service center, the next one after the last. */
+    private final int firstOpId;
+    /** Last operation ID of the service center, before wrapping to the first. */
+    private final int lastOpId;
+    private volatile Socket sock;
     private final InputStream in;
     private final OutputStream out;
+    /** Operations initiated by the service center and still waiting for their response, by operation ID. */
+    private final Map<Integer, CompletableFuture<Api>> pending = new ConcurrentHashMap<>();
+    /** The BSSCI session, set on connection. */
+    @Getter
+    private Session session;
+    /** TRUE if the connection resumed a previous session. */
+    @Getter
+    private boolean resumed;
+    /** Received messages waiting for their dispatching to the handler, full queues block the receiver thread. */
+    private final TrafficQueues<Received> inbound = new TrafficQueues<>(ServiceCenterConnection.INBOUND_CAPACITY);
+    /** Serialized frames waiting for their transmission, full queues block the senders. */
+    private final TrafficQueues<byte[]> outbound = new TrafficQueues<>(ServiceCenterConnection.OUTBOUND_CAPACITY);
+    /** Received messages already acknowledged on overload, their responses by the handlers are suppressed. */
+    private final Set<Api> acknowledged = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+    /** Decoder of the received frames. */
+    private final Receiver receiver = new Receiver();
+    /** Local reception time of the frame being decoded, in ns. */
+    private volatile long receivedAt;
+    /** FALSE if the received frames are given by a thread shared with other connections, which must never block. */
+    private final boolean blocking;
 
     protected ServiceCenterConnection(final BssciServiceCenter scs, final Socket sock) throws Exception {
         this.scs = scs;
         this.opid = new AtomicInteger(-1);
+        this.firstOpId = -1;
+        this.lastOpId = Integer.MIN_VALUE;
+        this.blocking = true;
         this.sock = sock;
         this.in = sock.getInputStream();
         this.out = sock.getOutputStream();
 
         // start receiver in separate thread
-        new Thread(new Receiver()).start();
+        new Thread(this.receiver).start();
+        // dispatcher and writer, draining the traffic classes by weight
+        final var dispatcher = new Thread(this::dispatch, "bssci-dispatcher"); //$NON-NLS-1$
+        dispatcher.setDaemon(true);
+        dispatcher.start();
+        final var writer = new Thread(this::writeFrames, "bssci-writer"); //$NON-NLS-1$
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Constructor of a connection without socket, e.g. a proxy of a base station connected to another node of a
+     * cluster: the frames are given to {@link #receive(byte[])} and sent by {@link #transmit(int, EnumTrafficClass,
+     * byte[], boolean)}. The caller of {@link #receive(byte[])} may feed several connections, so a received message is
+     * dropped rather than blocking it when the queue of its traffic class is full.
+     *
+     * @param scs
+     *                  the service center.
+     * @param eui
+     *                  EUI64 of the base station.
+     * @param firstOpId
+     *                  first operation ID of the service center, negative.
+     * @param opIdRange
+     *                  number of operation IDs of the service center, below the first one they wrap to.
+     */
+    protected ServiceCenterConnection(final BssciServiceCenter scs, final EUI64 eui, final int firstOpId,
+            final int opIdRange) {
+        this.scs = scs;
+        this.eui = eui;
+        this.opid = new AtomicInteger(firstOpId);
+        this.firstOpId = firstOpId;
+        this.lastOpId = firstOpId - (opIdRange - 1);
+        this.blocking = false;
+        this.in = null;
+        this.out = null;
+        final var dispatcher = new Thread(this::dispatch, "bssci-dispatcher"); //$NON-NLS-1$
+        dispatcher.setDaemon(true);
+        dispatcher.start();
     }
 
     public ServiceCenterConnection send(final Api apiObj) {
-        return this.send(apiObj, this.opid.getAndDecrement());
+        return this.send(apiObj, this.nextOpId());
     }
 
     public ServiceCenterConnection respond(final Api responseMsg, final Api receivedMsg) {
+        if (this.acknowledged.remove(receivedMsg)) {
+            // already acknowledged on reception
+            return this;
+        }
         return this.send(responseMsg, receivedMsg.getOpId());
     }
 
+    /**
+     * Method to initiate an operation and to wait asynchronously for the response of the base station.
+     * <p>
+     * The response is consumed by the returned future: the completion message is sent back automatically and the
+     * response is not forwarded to the incoming handler. An {@link Error} of the base station completes the future
+     * exceptionally.
+     *
+     * @param apiObj
+     *                Message to send.
+     * @param timeout
+     *                Maximum time to wait for the response.
+     * @return the future response of the base station.
+     */
+    public CompletableFuture<Api> request(final Api apiObj, final Duration timeout) {
+        return this.request(apiObj, this.nextOpId(), timeout, EnumTrafficClass.classify(apiObj));
+    }
+
+    /**
+     * Method to initiate an operation with an explicit traffic class, e.g. a latency critical downlink sent with the
+     * control plane priority.
+     *
+     * @param apiObj
+     *                Message to send.
+     * @param timeout
+     *                Maximum time to wait for the response.
+     * @param cls
+     *                Traffic class of the message.
+     * @return the future response of the base station.
+     * @see #request(Api, Duration)
+     */
+    public CompletableFuture<Api> request(final Api apiObj, final Duration timeout, final EnumTrafficClass cls) {
+        return this.request(apiObj, this.nextOpId(), timeout, cls);
+    }
+
+    /**
+     * Method to retrieve the number of messages waiting in the queues of a traffic class.
+     *
+     * @param cls
+     *            Traffic class.
+     * @return the number of received messages waiting for their dispatching and of messages waiting for their
+     *         transmission.
+     */
+    public int getBacklog(final EnumTrafficClass cls) {
+        return this.inbound.size(cls) + this.outbound.size(cls);
+    }
+
+    private int nextOpId() {
+        // wrap within the range, e.g. the one of the proxies of a cluster node, skipping the operations still pending
+        int opId;
+        do {
+            opId = this.opid.getAndUpdate(id -> id == this.lastOpId ? this.firstOpId : id - 1);
+        } while (this.pending.containsKey(opId));
+        return opId;
+    }
+
+    private CompletableFuture<Api> request(final Api apiObj, final int opId, final Duration timeout,
+            final EnumTrafficClass cls) {
+        final var future = new CompletableFuture<Api>();
+        this.pending.put(opId, future);
+        future.whenComplete((rsp, ex) -> {
+            this.pending.remove(opId);
+            // an operation answered, failed or timed out is finished, only the ones cut by a disconnection are
+            // sent again on resumption
+            if ((this.session != null) && ((ex == null) || this.isConnected())) {
+                this.session.acknowledged(opId);
+            }
+        });
+        final var payload = this.encode(apiObj, opId);
+        if (this.session != null) {
+            // the encoding is reused by the persistence of the session
+            this.session.sent(opId, payload == null ? null : apiObj, payload);
+        }
+        if ((payload == null) || !this.write(payload, opId, cls, true)) {
+            future.completeExceptionally(new IOException("Connection closed")); //$NON-NLS-1$
+        }
+        return future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method to retrieve the local reception time of the message being intercepted, on the receiver thread, e.g. to
+     * measure a deadline without depending on the clock of the base station.
+     *
+     * @return the reception time, see {@link System#nanoTime()}.
+     */
+    public long getReceivedAt() {
+        return this.receivedAt;
+    }
+
+    /**
+     * Method to check if the underlying socket is still open.
+     *
+     * @return TRUE if the connection is still open.
+     */
+    public boolean isConnected() {
+        return this.sock != null;
+    }
+
+    /**
+     * Method to send again every operation of the resumed session that is not acknowledged by the base station.
+     *
+     * @param timeout
+     *                Maximum time to wait for each response.
+     * @return the future responses of the base station.
+     */
+    protected CompletableFuture<Void> resendUnacknowledged(final Duration timeout) {
+        if (!this.resumed) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.allOf(this.session.getUnacknowledged().entrySet().stream()
+                .map(e -> this.request(e.getValue(), e.getKey(), timeout,
+                        EnumTrafficClass.classify(e.getValue()))).toArray(CompletableFuture[]::new));
+    }
+
+    /**
+     * Method to queue a frame serialized by another node of a cluster, for a base station of this connection.
+     *
+     * @param cls
+     *              Traffic class of the frame.
+     * @param frame
+     *              the complete BSSCI frame.
+     * @return FALSE if the connection is closed, or if its queue of the traffic class is full.
+     */
+    public boolean relay(final EnumTrafficClass cls, final byte[] frame) {
+        // never block the cluster link shared by every base station
+        return this.outbound.tryOffer(cls, frame);
+    }
+
+    /**
+     * Method to handle a received frame: journaling, decoding and dispatching.
+     *
+     * @param payload
+     *                the raw MsgPack message.
+     * @return FALSE if the message is dropped, the queue of its traffic class being full.
+     * @throws IOException
+     *                     on invalid message.
+     */
+    protected boolean receive(final byte[] payload) throws IOException {
+        this.receivedAt = System.nanoTime();
+        final var journal = this.scs.getJournal();
+        if (journal.isPresent() && (this.eui != null) && journal.get().accepts(payload)) {
+            try {
+                journal.get().append(this.eui.asLong(), payload);
+            } catch (final IOException e) {
+                this.scs.error(this, e);
+            }
+        }
+        return this.receiver.handle(Api.fromMsgPack(payload));
+    }
+
+    /**
+     * Method to transmit a serialized frame.
+     *
+     * @param opId
+     *                operation ID of the message.
+     * @param cls
+     *                Traffic class of the message.
+     * @param frame
+     *                the complete BSSCI frame.
+     * @param request
+     *                TRUE if the message initiates an operation waiting for a response.
+     * @return FALSE if the connection is closed.
+     */
+    protected boolean transmit(final int opId, final EnumTrafficClass cls, final byte[] frame,
+            final boolean request) {
+        return this.outbound.offer(cls, frame);
+    }
+
     protected ServiceCenterConnection send(final Api apiObj, final int opId) {
+        if ((this.session != null) && (opId < 0)) {
+            this.session.sent(opId, null);
+        }
+        this.write(apiObj, opId, EnumTrafficClass.classify(apiObj), false);
+        return this;
+    }
+
+    private boolean write(final Api apiObj, final int opId, final EnumTrafficClass cls, final boolean request) {
+        final var payload = this.encode(apiObj, opId);
+        return (payload != null) && this.write(payload, opId, cls, request);
+    }
+
+    private byte[] encode(final Api apiObj, final int opId) {
         this.scs.sending(this, apiObj);
         apiObj.setOpId(opId);
         try {
-            final var payload = apiObj.toMsgPack();
-            // create a 4 byte payload length, in little endian!
-            final var payloadsize = BytesUtils.reverse(java.nio.ByteBuffer.allocate(4).putInt(payload.length).array());
-
-            // it has to be 'this' static name, I do not know why...
-            final var size = 8 + 4 + payload.length;// Identifier(8Byte) + payload size(4Byte) + payload(variable)
-            final var bytesdd = java.nio.ByteBuffer.allocate(size)
-                    .put(this.scs.getIdentifier().getBytes(StandardCharsets.US_ASCII)).put(payloadsize).put(payload)
-                    .array();
-
-            this.out.write(bytesdd);
+            return apiObj.toMsgPack();
         } catch (final Exception e) {
             this.scs.error(this, e);
         }
-        return this;
+        return null;
+    }
+
+    private boolean write(final byte[] payload, final int opId, final EnumTrafficClass cls, final boolean request) {
+        // create a 4 byte payload length, in little endian!
+        final var payloadsize = BytesUtils.reverse(java.nio.ByteBuffer.allocate(4).putInt(payload.length).array());
+
+        // it has to be 'this' static name, I do not know why...
+        final var size = 8 + 4 + payload.length;// Identifier(8Byte) + payload size(4Byte) + payload(variable)
+        final var bytesdd = java.nio.ByteBuffer.allocate(size)
+                .put(this.scs.getIdentifier().getBytes(StandardCharsets.US_ASCII)).put(payloadsize).put(payload)
+                .array();
+
+        return this.transmit(opId, cls, bytesdd, request);
+    }
+
+    private void writeFrames() {
+        try {
+            byte[] frame;
+            while ((frame = this.outbound.take()) != null) {
+                this.out.write(frame);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final IOException e) {
+            if (this.isConnected()) {
+                this.scs.error(this, e);
+                this.disconnect();
+            }
+        }
+    }
+
+    private void dispatch() {
+        try {
+            Received received;
+            while ((received = this.inbound.take()) != null) {
+                final var start = System.nanoTime();
+                try {
+                    this.scs.received(this, received.apiObj);
+                } catch (final RuntimeException e) {
+                    this.scs.error(this, e);
+                }
+                final var controller = this.scs.getOverloadController();
+                if (controller.isPresent()) {
+                    controller.get().dispatched(start - received.at, System.nanoTime() - start);
+                }
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     public void disconnect() {
+        // the received messages are still dispatched, the unsent ones are dropped
+        this.inbound.close(false);
+        this.outbound.close(true);
         try {
             if (this.sock != null) {
                 this.sock.close();
@@ -95,10 +404,14 @@ public class ServiceCenterConnection {
                 this.in.close();
                 this.out.close();
                 this.sock = null;
+                if (this.session != null) {
+                    this.session.connected(false);
+                }
             }
         } catch (final IOException e) {
             this.scs.error(this, e);
         }
+        this.pending.values().forEach(f -> f.completeExceptionally(new IOException("Connection closed"))); //$NON-NLS-1$
     }
 
     private class Receiver implements Runnable {
@@ -127,23 +440,152 @@ public class ServiceCenterConnection {
             // read payload size, 4 Bytes little endian!
             final var payloadSize = java.nio.ByteBuffer
                     .wrap(BytesUtils.reverse(ServiceCenterConnection.this.in.readNBytes(4))).getInt();
-            this.handle(Api.fromMsgPack(ServiceCenterConnection.this.in.readNBytes(payloadSize)));
+            final var payload = ServiceCenterConnection.this.in.readNBytes(payloadSize);
+            final var limiter = ServiceCenterConnection.this.scs.getIngressRateLimiter();
+            if (limiter.isPresent() && !limiter.get().admit(ServiceCenterConnection.this.eui, payload)) {
+                return this.overLimit(limiter.get().getAction(), payload);
+            }
+            final var cluster = ServiceCenterConnection.this.scs.getCluster();
+            if (cluster.isPresent() && (ServiceCenterConnection.this.eui != null)
+                    && cluster.get().forward(ServiceCenterConnection.this.eui, payload)) {
+                // handled by the node owning the end point, the operation ID is still the one of this session
+                final var opId = IngressRateLimiter.peekOpId(payload);
+                if ((ServiceCenterConnection.this.session != null) && (opId > 0)) {
+                    ServiceCenterConnection.this.session.received(opId);
+                }
+                return true;
+            }
+            ServiceCenterConnection.this.receive(payload);
+            return true;
+        }
+
+        private boolean overLimit(final EnumOverLimitAction action, final byte[] payload) {
+            if (action == EnumOverLimitAction.DISCONNECT) {
+                ServiceCenterConnection.this.scs.error(ServiceCenterConnection.this,
+                        new IOException("Rate limit exceeded, disconnecting")); //$NON-NLS-1$
+                return false;
+            }
+            if (action == EnumOverLimitAction.REJECT) {
+                ServiceCenterConnection.this.send(
+                        new Error(IngressRateLimiter.ERROR_LIMITED, "rate limit exceeded"), //$NON-NLS-1$
+                        IngressRateLimiter.peekOpId(payload));
+            } else if (action == EnumOverLimitAction.DROP) {
+                // answered anyway, the base station must not wait for its timeout
+                ServiceCenterConnection.this.send(
+                        new Error(IngressRateLimiter.ERROR_DROPPED, "rate limit exceeded, dropped"), //$NON-NLS-1$
+                        IngressRateLimiter.peekOpId(payload));
+            }
             return true;
         }
 
-        private void handle(final Api apiObj) {
+        private boolean handle(final Api apiObj) {
             // connect messages
             if (apiObj instanceof Connect) {
-                ServiceCenterConnection.this.eui = ((Connect) apiObj).getBsEui();
-                final var conRsp = new ConnectRsp(ServiceCenterConnection.this.scs.getId(), false);
-                conRsp.setSnScUuid(UuidUtils.convertUuidToBytes(null));
-                ServiceCenterConnection.this.send(conRsp, 0);
+                this.connect((Connect) apiObj);
             } else if (apiObj instanceof ConnectCmp) {
                 ServiceCenterConnection.this.scs.connected(ServiceCenterConnection.this);
+            } else if (this.complete(apiObj)) {
+                // response to an operation initiated by the service center, already handled
             } else {
-                ServiceCenterConnection.this.scs.received(ServiceCenterConnection.this, apiObj);
+                if ((ServiceCenterConnection.this.session != null) && (apiObj.getOpId() > 0)) {
+                    ServiceCenterConnection.this.session.received(apiObj.getOpId());
+                }
+                if (!ServiceCenterConnection.this.scs.intercept(ServiceCenterConnection.this, apiObj)) {
+                    return this.dispatch(apiObj);
+                }
+            }
+            return true;
+        }
+
+        private boolean dispatch(final Api apiObj) {
+            final var cls = EnumTrafficClass.classify(apiObj);
+            final var controller = ServiceCenterConnection.this.scs.getOverloadController();
+            final var action = (cls == EnumTrafficClass.CONTROL) || controller.isEmpty() ? EnumShedAction.DISPATCH
+                    : controller.get().admit(apiObj,
+                            ServiceCenterConnection.this.inbound.size(EnumTrafficClass.DATA));
+            final var received = new Received(apiObj);
+            switch (action) {
+            case DROP:
+                ServiceCenterConnection.this.send(apiObj.createResponse(), apiObj.getOpId());
+                break;
+            case DELAY:
+                ServiceCenterConnection.this.send(apiObj.createResponse(), apiObj.getOpId());
+                ServiceCenterConnection.this.acknowledged.add(apiObj);
+                // acknowledged already, so shed rather than block the receiver once the bulk queue is full
+                if (!ServiceCenterConnection.this.inbound.tryOffer(EnumTrafficClass.BULK, received)) {
+                    ServiceCenterConnection.this.acknowledged.remove(apiObj);
+                    controller.get().overflowed();
+                }
+                break;
+            default:
+                if (!ServiceCenterConnection.this.blocking) {
+                    return ServiceCenterConnection.this.inbound.tryOffer(cls, received);
+                }
+                ServiceCenterConnection.this.inbound.offer(cls, received);
+                break;
+            }
+            return true;
+        }
+
+        private void connect(final Connect con) {
+            final var sessions = ServiceCenterConnection.this.scs.getSessions();
+            final var previous = sessions.resume(con);
+            final var current = previous.orElseGet(() -> sessions.create(con));
+            final var before = ServiceCenterConnection.this.session;
+            ServiceCenterConnection.this.eui = con.getBsEui();
+            ServiceCenterConnection.this.session = current;
+            if (current != before) {
+                // counted once per connection, a repeated connect of the same session is not a new connection
+                if (before != null) {
+                    before.connected(false);
+                }
+                current.connected(true);
             }
+            ServiceCenterConnection.this.resumed = previous.isPresent();
+            if (ServiceCenterConnection.this.resumed) {
+                // continue the operation IDs of the previous session
+                ServiceCenterConnection.this.opid.set(Math.min(-1, current.getLastScOpId() - 1));
+            }
+            final var conRsp = new ConnectRsp(ServiceCenterConnection.this.scs.getId(),
+                    ServiceCenterConnection.this.resumed);
+            conRsp.setSnScUuid(UuidUtils.convertUuidToBytes(current.getScUuid()));
+            ServiceCenterConnection.this.send(conRsp, con.getOpId());
+        }
+
+        private boolean complete(final Api apiObj) {
+            final var future = ServiceCenterConnection.this.pending.get(apiObj.getOpId());
+            if (future == null) {
+                return false;
+            }
+            final var cmp = apiObj.createResponse();
+            if (cmp != null) {
+                ServiceCenterConnection.this.respond(cmp, apiObj);
+            }
+            // interceptors still observe the responses, e.g. for the statistics
+            ServiceCenterConnection.this.scs.intercept(ServiceCenterConnection.this, apiObj);
+            if (apiObj instanceof Error) {
+                final var error = (Error) apiObj;
+                future.completeExceptionally(new IOException(
+                        String.format("Operation %d failed: %d %s", apiObj.getOpId(), error.getCode(), //$NON-NLS-1$
+                                error.getMessage())));
+            } else {
+                future.complete(apiObj);
+            }
+            return true;
         }
     }
 
+    /**
+     * Received message waiting for its dispatching.
+     */
+    private static final class Received {
+        /** The message. */
+        private final Api apiObj;
+        /** Reception time, in ns. */
+        private final long at = System.nanoTime();
+
+        private Received(final Api apiObj) {
+            this.apiObj = apiObj;
+        }
+    }
 }
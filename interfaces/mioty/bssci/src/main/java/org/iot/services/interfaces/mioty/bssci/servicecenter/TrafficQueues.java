@@ -0,0 +1,181 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.iot.services.interfaces.mioty.bssci.api.EnumTrafficClass;
+
+/**
+ * Queues by traffic class, drained in weighted rounds: each round takes up to {@link EnumTrafficClass#getWeight()}
+ * elements of each class, the control plane first. The control plane never waits behind more than one round of the
+ * other classes, and the bulk traffic is never starved. Each class is bounded: the producers wait for room, or shed
+ * with {@link #tryOffer(EnumTrafficClass, Object)}.
+ *
+ * @param <T>
+ *            Type of the queued elements.
+ * @author FendtC
+ */
+final class TrafficQueues<T> {
+
+    /** Traffic classes, by ordinal. */
+    private static final EnumTrafficClass[] CLASSES = EnumTrafficClass.values();
+
+    /** Queues, by traffic class ordinal. */
+    private final List<ArrayDeque<T>> queues;
+    /** Maximum number of queued elements per traffic class. */
+    private final int capacity;
+    /** Remaining credits of the current round, by traffic class ordinal. */
+    private final int[] credits;
+    /** Number of queued elements. */
+    private int size;
+    /** TRUE once closed. */
+    private boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *                 Maximum number of queued elements per traffic class.
+     */
+    TrafficQueues(final int capacity) {
+        this.capacity = capacity;
+        this.queues = new ArrayList<>(TrafficQueues.CLASSES.length);
+        this.credits = new int[TrafficQueues.CLASSES.length];
+        for (var i = 0; i < TrafficQueues.CLASSES.length; i++) {
+            this.queues.add(new ArrayDeque<>());
+            this.credits[i] = TrafficQueues.CLASSES[i].getWeight();
+        }
+    }
+
+    /**
+     * Method to queue an element, waiting for room if the class is full.
+     *
+     * @param cls
+     *             the traffic class.
+     * @param item
+     *             the element.
+     * @return FALSE if the queues are closed, or if interrupted while waiting.
+     */
+    synchronized boolean offer(final EnumTrafficClass cls, final T item) {
+        final var queue = this.queues.get(cls.ordinal());
+        while (!this.closed && (queue.size() >= this.capacity)) {
+            try {
+                this.wait();
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return this.add(queue, item);
+    }
+
+    /**
+     * Method to queue an element without waiting.
+     *
+     * @param cls
+     *             the traffic class.
+     * @param item
+     *             the element.
+     * @return FALSE if the queues are closed, or if the class is full.
+     */
+    synchronized boolean tryOffer(final EnumTrafficClass cls, final T item) {
+        final var queue = this.queues.get(cls.ordinal());
+        return (queue.size() < this.capacity) && this.add(queue, item);
+    }
+
+    /**
+     * Method to wait for the next element.
+     *
+     * @return the element, or NULL once closed and drained.
+     * @throws InterruptedException
+     *                              if interrupted while waiting.
+     */
+    synchronized T take() throws InterruptedException {
+        while (this.size == 0) {
+            if (this.closed) {
+                return null;
+            }
+            this.wait();
+        }
+        while (true) {
+            for (var i = 0; i < this.credits.length; i++) {
+                final var queue = this.queues.get(i);
+                if ((this.credits[i] > 0) && !queue.isEmpty()) {
+                    this.credits[i]--;
+                    this.size--;
+                    // wake up the producers waiting for room
+                    this.notifyAll();
+                    return queue.pollFirst();
+                }
+            }
+            // round completed for every non-empty class
+            for (var i = 0; i < this.credits.length; i++) {
+                this.credits[i] = TrafficQueues.CLASSES[i].getWeight();
+            }
+        }
+    }
+
+    /**
+     * Method to retrieve the number of queued elements of a traffic class.
+     *
+     * @param cls
+     *            the traffic class.
+     * @return the number of elements.
+     */
+    synchronized int size(final EnumTrafficClass cls) {
+        return this.queues.get(cls.ordinal()).size();
+    }
+
+    /**
+     * Method to retrieve the number of queued elements.
+     *
+     * @return the number of elements.
+     */
+    synchronized int size() {
+        return this.size;
+    }
+
+    /**
+     * Method to close the queues, the waiting consumers are released.
+     *
+     * @param discard
+     *                TRUE to drop the queued elements, FALSE to let the consumers drain them.
+     */
+    synchronized void close(final boolean discard) {
+        this.closed = true;
+        if (discard) {
+            for (final var queue : this.queues) {
+                queue.clear();
+            }
+            this.size = 0;
+        }
+        this.notifyAll();
+    }
+
+    private boolean add(final ArrayDeque<T> queue, final T item) {
+        if (this.closed) {
+            return false;
+        }
+        queue.addLast(item);
+        this.size++;
+        this.notifyAll();
+        return true;
+    }
+}
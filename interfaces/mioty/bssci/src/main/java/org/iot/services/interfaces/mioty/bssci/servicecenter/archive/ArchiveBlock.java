@@ -0,0 +1,142 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.archive;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import lombok.Getter;
+
+/**
+ * Block of the archive: its row count and the min/max statistics used to skip it, and the location of its compressed
+ * columns.
+ *
+ * @author FendtC
+ */
+@Getter
+public final class ArchiveBlock {
+    /** Number of rows. */
+    private final int rows;
+    /** Oldest reception time by the service center, in ms. */
+    private final long minReceivedAt;
+    /** Newest reception time by the service center, in ms. */
+    private final long maxReceivedAt;
+    /** Oldest reception time by the base station, in ns. */
+    private final long minRxTime;
+    /** Newest reception time by the base station, in ns. */
+    private final long maxRxTime;
+    /** Lowest RSSI. */
+    private final double minRssi;
+    /** Highest RSSI. */
+    private final double maxRssi;
+    /** Lowest SNR. */
+    private final double minSnr;
+    /** Highest SNR. */
+    private final double maxSnr;
+    /** File positions of the compressed columns, by column ordinal. */
+    final long[] positions;
+    /** Compressed lengths of the columns. */
+    final int[] lengths;
+    /** Encoded lengths of the columns, before compression. */
+    final int[] rawLengths;
+
+    /**
+     * Constructor.
+     *
+     * @param rows
+     *                      Number of rows.
+     * @param minReceivedAt
+     *                      Oldest reception time by the service center.
+     * @param maxReceivedAt
+     *                      Newest reception time by the service center.
+     * @param minRxTime
+     *                      Oldest reception time by the base station.
+     * @param maxRxTime
+     *                      Newest reception time by the base station.
+     * @param minRssi
+     *                      Lowest RSSI.
+     * @param maxRssi
+     *                      Highest RSSI.
+     * @param minSnr
+     *                      Lowest SNR.
+     * @param maxSnr
+     *                      Highest SNR.
+     */
+    ArchiveBlock(final int rows, final long minReceivedAt, final long maxReceivedAt, final long minRxTime,
+            final long maxRxTime, final double minRssi, final double maxRssi, final double minSnr,
+            final double maxSnr) {
+        this.rows = rows;
+        this.minReceivedAt = minReceivedAt;
+        this.maxReceivedAt = maxReceivedAt;
+        this.minRxTime = minRxTime;
+        this.maxRxTime = maxRxTime;
+        this.minRssi = minRssi;
+        this.maxRssi = maxRssi;
+        this.minSnr = minSnr;
+        this.maxSnr = maxSnr;
+        final var columns = EnumArchiveColumn.values().length;
+        this.positions = new long[columns];
+        this.lengths = new int[columns];
+        this.rawLengths = new int[columns];
+    }
+
+    /**
+     * Method to write the block to the footer of the archive.
+     *
+     * @param out
+     *            the footer.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    void write(final DataOutput out) throws IOException {
+        out.writeInt(this.rows);
+        out.writeLong(this.minReceivedAt);
+        out.writeLong(this.maxReceivedAt);
+        out.writeLong(this.minRxTime);
+        out.writeLong(this.maxRxTime);
+        out.writeDouble(this.minRssi);
+        out.writeDouble(this.maxRssi);
+        out.writeDouble(this.minSnr);
+        out.writeDouble(this.maxSnr);
+        for (var i = 0; i < this.positions.length; i++) {
+            out.writeLong(this.positions[i]);
+            out.writeInt(this.lengths[i]);
+            out.writeInt(this.rawLengths[i]);
+        }
+    }
+
+    /**
+     * Method to read a block from the footer of the archive.
+     *
+     * @param in
+     *           the footer.
+     * @return the block.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    static ArchiveBlock read(final DataInput in) throws IOException {
+        final var block = new ArchiveBlock(in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readLong(),
+                in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+        for (var i = 0; i < block.positions.length; i++) {
+            block.positions[i] = in.readLong();
+            block.lengths[i] = in.readInt();
+            block.rawLengths[i] = in.readInt();
+        }
+        return block;
+    }
+}
@@ -0,0 +1,159 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.archive;
+
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Filter of an archive scan, every criterion is optional. The blocks whose statistics exclude the ranges are skipped
+ * without being read.
+ *
+ * @author FendtC
+ */
+public final class ArchiveFilter {
+    /** Start of the reception time range, in ns, inclusive. */
+    private long fromRxTime = Long.MIN_VALUE;
+    /** End of the reception time range, in ns, inclusive. */
+    private long toRxTime = Long.MAX_VALUE;
+    /** Lowest RSSI. */
+    private double minRssi = Double.NEGATIVE_INFINITY;
+    /** Highest RSSI. */
+    private double maxRssi = Double.POSITIVE_INFINITY;
+    /** Lowest SNR. */
+    private double minSnr = Double.NEGATIVE_INFINITY;
+    /** Highest SNR. */
+    private double maxSnr = Double.POSITIVE_INFINITY;
+    /** End point, NULL for every end point. */
+    private EUI64 epEui;
+
+    /**
+     * Setter method.
+     *
+     * @param from
+     *             Start of the reception time range by the base station, in ns, inclusive.
+     * @param to
+     *             End of the reception time range by the base station, in ns, inclusive.
+     * @return the current object, after modification.
+     */
+    public ArchiveFilter rxTime(final long from, final long to) {
+        this.fromRxTime = from;
+        this.toRxTime = to;
+        return this;
+    }
+
+    /**
+     * Setter method.
+     *
+     * @param min
+     *            Lowest RSSI, inclusive.
+     * @param max
+     *            Highest RSSI, inclusive.
+     * @return the current object, after modification.
+     */
+    public ArchiveFilter rssi(final double min, final double max) {
+        this.minRssi = min;
+        this.maxRssi = max;
+        return this;
+    }
+
+    /**
+     * Setter method.
+     *
+     * @param min
+     *            Lowest SNR, inclusive.
+     * @param max
+     *            Highest SNR, inclusive.
+     * @return the current object, after modification.
+     */
+    public ArchiveFilter snr(final double min, final double max) {
+        this.minSnr = min;
+        this.maxSnr = max;
+        return this;
+    }
+
+    /**
+     * Setter method.
+     *
+     * @param endpoint
+     *                 End point EUI64.
+     * @return the current object, after modification.
+     */
+    public ArchiveFilter endpoint(final EUI64 endpoint) {
+        this.epEui = endpoint;
+        return this;
+    }
+
+    /**
+     * Method to check whether a block may hold matching rows.
+     *
+     * @param block
+     *              the block.
+     * @return FALSE if the block can be skipped.
+     */
+    boolean mayMatch(final ArchiveBlock block) {
+        return (block.getMaxRxTime() >= this.fromRxTime) && (block.getMinRxTime() <= this.toRxTime)
+                && (block.getMaxRssi() >= this.minRssi) && (block.getMinRssi() <= this.maxRssi)
+                && (block.getMaxSnr() >= this.minSnr) && (block.getMinSnr() <= this.maxSnr);
+    }
+
+    /**
+     * Method to check a row.
+     *
+     * @param batch
+     *              the decoded block.
+     * @param row
+     *              the row.
+     * @return TRUE if the row matches.
+     */
+    boolean matches(final ColumnBatch batch, final int row) {
+        if ((batch.rxTime != null) && ((batch.rxTime[row] < this.fromRxTime) || (batch.rxTime[row] > this.toRxTime))) {
+            return false;
+        }
+        if ((batch.rssi != null) && ((batch.rssi[row] < this.minRssi) || (batch.rssi[row] > this.maxRssi))) {
+            return false;
+        }
+        if ((batch.snr != null) && ((batch.snr[row] < this.minSnr) || (batch.snr[row] > this.maxSnr))) {
+            return false;
+        }
+        return (this.epEui == null) || (batch.epEui[row] == this.epEui.asLong());
+    }
+
+    /**
+     * Method to get the columns the filter needs.
+     *
+     * @return the columns.
+     */
+    Set<EnumArchiveColumn> columns() {
+        final var columns = EnumSet.noneOf(EnumArchiveColumn.class);
+        if ((this.fromRxTime != Long.MIN_VALUE) || (this.toRxTime != Long.MAX_VALUE)) {
+            columns.add(EnumArchiveColumn.RX_TIME);
+        }
+        if ((this.minRssi != Double.NEGATIVE_INFINITY) || (this.maxRssi != Double.POSITIVE_INFINITY)) {
+            columns.add(EnumArchiveColumn.RSSI);
+        }
+        if ((this.minSnr != Double.NEGATIVE_INFINITY) || (this.maxSnr != Double.POSITIVE_INFINITY)) {
+            columns.add(EnumArchiveColumn.SNR);
+        }
+        if (this.epEui != null) {
+            columns.add(EnumArchiveColumn.EP_EUI);
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,192 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.archive;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import org.iot.services.interfaces.mioty.bssci.utils.BitReader;
+
+import lombok.Getter;
+
+/**
+ * Reader of an uplink archive file. A scan skips the blocks excluded by the statistics, and only reads and decodes the
+ * requested columns of the others. A reader is used by a single thread.
+ *
+ * @author FendtC
+ */
+public final class ArchiveReader implements AutoCloseable {
+
+    /** Size of the trailer: footer position and magic. */
+    private static final int TRAILER = Long.BYTES + Integer.BYTES;
+
+    /** The archive. */
+    private final FileChannel channel;
+    /** The blocks. */
+    @Getter
+    private final List<ArchiveBlock> blocks;
+    /** Decompressor. */
+    private final Inflater inflater = new Inflater();
+
+    /**
+     * Constructor.
+     *
+     * @param path
+     *             the archive to read.
+     * @throws IOException
+     *                     on I/O failure or invalid archive.
+     */
+    public ArchiveReader(final Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            final var size = this.channel.size();
+            if (size < ((Integer.BYTES * 2) + ArchiveReader.TRAILER)) {
+                throw new IOException("Truncated archive " + path); //$NON-NLS-1$
+            }
+            final var trailer = this.read(size - ArchiveReader.TRAILER, ArchiveReader.TRAILER);
+            final var footer = ByteBuffer.wrap(trailer).getLong();
+            if ((ByteBuffer.wrap(trailer).getInt(Long.BYTES) != ArchiveWriter.MAGIC) || (footer < 0)
+                    || (footer > (size - ArchiveReader.TRAILER))) {
+                throw new IOException("Invalid archive " + path); //$NON-NLS-1$
+            }
+            final var in = new DataInputStream(new ByteArrayInputStream(
+                    this.read(footer, (int) (size - ArchiveReader.TRAILER - footer))));
+            final var count = in.readInt();
+            final List<ArchiveBlock> list = new ArrayList<>(count);
+            for (var i = 0; i < count; i++) {
+                list.add(ArchiveBlock.read(in));
+            }
+            this.blocks = Collections.unmodifiableList(list);
+        } catch (final IOException | RuntimeException e) {
+            this.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Method to scan the archive. The blocks are decoded lazily while the stream is consumed; the columns of the filter
+     * are loaded in addition to the requested ones, see {@link ColumnBatch#select(ArchiveFilter)}.
+     *
+     * @param filter
+     *                the filter of the blocks.
+     * @param columns
+     *                the columns to load.
+     * @return the decoded blocks.
+     * @throws UncheckedIOException
+     *                              on I/O failure, while the stream is consumed.
+     */
+    public Stream<ColumnBatch> scan(final ArchiveFilter filter, final Set<EnumArchiveColumn> columns) {
+        final var projection = EnumSet.noneOf(EnumArchiveColumn.class);
+        projection.addAll(columns);
+        projection.addAll(filter.columns());
+        return this.blocks.stream().filter(filter::mayMatch).map(block -> {
+            try {
+                return this.decode(block, projection);
+            } catch (final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.inflater.end();
+        this.channel.close();
+    }
+
+    private ColumnBatch decode(final ArchiveBlock block, final Set<EnumArchiveColumn> columns) throws IOException {
+        final var batch = new ColumnBatch(block);
+        final var rows = block.getRows();
+        for (final var column : columns) {
+            final var i = column.ordinal();
+            final var in = new BitReader(this.inflate(this.read(block.positions[i], block.lengths[i]),
+                    block.rawLengths[i]));
+            switch (column) {
+            case RECEIVED_AT:
+                batch.receivedAt = ColumnCodec.readTimestamps(in, rows);
+                break;
+            case BS_EUI:
+                batch.bsEui = ColumnCodec.readDictionary(in, rows);
+                break;
+            case EP_EUI:
+                batch.epEui = ColumnCodec.readDictionary(in, rows);
+                break;
+            case RX_TIME:
+                batch.rxTime = ColumnCodec.readTimestamps(in, rows);
+                break;
+            case PACKET_CNT:
+                batch.packetCnt = ColumnCodec.readCounters(in, rows);
+                break;
+            case RSSI:
+                batch.rssi = ColumnCodec.readDoubles(in, rows);
+                break;
+            case SNR:
+                batch.snr = ColumnCodec.readDoubles(in, rows);
+                break;
+            case USER_DATA:
+            default:
+                batch.userData = ColumnCodec.readBytes(in, rows);
+                break;
+            }
+        }
+        return batch;
+    }
+
+    private byte[] inflate(final byte[] compressed, final int length) throws IOException {
+        final var raw = new byte[length];
+        this.inflater.reset();
+        this.inflater.setInput(compressed);
+        try {
+            var done = 0;
+            while (done < length) {
+                final var n = this.inflater.inflate(raw, done, length - done);
+                if ((n == 0) && (this.inflater.finished() || this.inflater.needsInput())) {
+                    throw new EOFException("Truncated archive column"); //$NON-NLS-1$
+                }
+                done += n;
+            }
+        } catch (final DataFormatException e) {
+            throw new IOException(e);
+        }
+        return raw;
+    }
+
+    private byte[] read(final long position, final int length) throws IOException {
+        final var buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+        return buffer.array();
+    }
+}
@@ -0,0 +1,265 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.archive;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.utils.BitWriter;
+
+/**
+ * Writer of an uplink archive file. The rows are buffered by column and written as compressed blocks; the footer lists
+ * the blocks with their statistics. The file is written aside and moved in place on {@link #close()}, so a partial
+ * archive is never visible.
+ * <p>
+ * Layout: magic, version, the blocks (each column deflated on its own), the footer, the footer position and the magic.
+ *
+ * @author FendtC
+ */
+public final class ArchiveWriter implements Closeable {
+
+    /** Default number of rows of a block. */
+    public static final int DEFAULT_BLOCK_ROWS = 4096;
+    /** Magic number of the archives, "BSSA". */
+    static final int MAGIC = 0x42535341;
+    /** Version of the file format. */
+    static final int VERSION = 1;
+
+    /** The archive. */
+    private final Path path;
+    /** The file being written. */
+    private final Path tmp;
+    /** Output of the file being written. */
+    private final DataOutputStream out;
+    /** Position in the file being written. */
+    private long position;
+    /** Written blocks. */
+    private final List<ArchiveBlock> blocks = new ArrayList<>();
+    /** Scratch bit stream. */
+    private final BitWriter bits = new BitWriter(16 << 10);
+    /** Compressor. */
+    private final Deflater deflater = new Deflater();
+    /** Scratch compression buffer. */
+    private byte[] compressed = new byte[16 << 10];
+    /** Number of buffered rows. */
+    private int rows;
+    /** Buffered reception times by the service center. */
+    private final long[] receivedAt;
+    /** Buffered base station EUI64. */
+    private final long[] bsEui;
+    /** Buffered end point EUI64. */
+    private final long[] epEui;
+    /** Buffered reception times by the base stations. */
+    private final long[] rxTime;
+    /** Buffered packet counters. */
+    private final int[] packetCnt;
+    /** Buffered RSSI. */
+    private final double[] rssi;
+    /** Buffered SNR. */
+    private final double[] snr;
+    /** Buffered user data. */
+    private final byte[][] userData;
+
+    /**
+     * Constructor.
+     *
+     * @param path
+     *                  the archive to write.
+     * @param blockRows
+     *                  number of rows of a block.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public ArchiveWriter(final Path path, final int blockRows) throws IOException {
+        Validate.isTrue(blockRows > 0);
+        this.path = path;
+        this.tmp = path.resolveSibling(path.getFileName() + ".tmp"); //$NON-NLS-1$
+        this.out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(this.tmp), 64 << 10));
+        this.out.writeInt(ArchiveWriter.MAGIC);
+        this.out.writeInt(ArchiveWriter.VERSION);
+        this.position = Integer.BYTES * 2;
+        this.receivedAt = new long[blockRows];
+        this.bsEui = new long[blockRows];
+        this.epEui = new long[blockRows];
+        this.rxTime = new long[blockRows];
+        this.packetCnt = new int[blockRows];
+        this.rssi = new double[blockRows];
+        this.snr = new double[blockRows];
+        this.userData = new byte[blockRows][];
+    }
+
+    /**
+     * Method to add an uplink.
+     *
+     * @param received
+     *                 reception time by the service center, in ms.
+     * @param bs
+     *                 EUI64 of the base station, as long.
+     * @param ulData
+     *                 the uplink.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public void add(final long received, final long bs, final UlData ulData) throws IOException {
+        final var row = this.rows;
+        this.receivedAt[row] = received;
+        this.bsEui[row] = bs;
+        this.epEui[row] = ulData.getEpEui().asLong();
+        this.rxTime[row] = ulData.getRxTime();
+        this.packetCnt[row] = ulData.getPacketCnt();
+        this.rssi[row] = ulData.getRssi();
+        this.snr[row] = ulData.getSnr();
+        final var data = ulData.getUserData();
+        final var bytes = new byte[data == null ? 0 : data.length];
+        for (var i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) data[i];
+        }
+        this.userData[row] = bytes;
+        this.rows++;
+        if (this.rows == this.receivedAt.length) {
+            this.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            this.flush();
+            final var footer = this.position;
+            this.out.writeInt(this.blocks.size());
+            for (final var block : this.blocks) {
+                block.write(this.out);
+            }
+            this.out.writeLong(footer);
+            this.out.writeInt(ArchiveWriter.MAGIC);
+            this.out.close();
+            Files.move(this.tmp, this.path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            this.deflater.end();
+            this.out.close();
+            Files.deleteIfExists(this.tmp);
+        }
+    }
+
+    private void flush() throws IOException {
+        if (this.rows == 0) {
+            return;
+        }
+        final var count = this.rows;
+        final var block = new ArchiveBlock(count, ArchiveWriter.min(this.receivedAt, count),
+                ArchiveWriter.max(this.receivedAt, count), ArchiveWriter.min(this.rxTime, count),
+                ArchiveWriter.max(this.rxTime, count), ArchiveWriter.min(this.rssi, count),
+                ArchiveWriter.max(this.rssi, count), ArchiveWriter.min(this.snr, count),
+                ArchiveWriter.max(this.snr, count));
+        for (final var column : EnumArchiveColumn.values()) {
+            this.bits.reset();
+            switch (column) {
+            case RECEIVED_AT:
+                ColumnCodec.writeTimestamps(this.receivedAt, count, this.bits);
+                break;
+            case BS_EUI:
+                ColumnCodec.writeDictionary(this.bsEui, count, this.bits);
+                break;
+            case EP_EUI:
+                ColumnCodec.writeDictionary(this.epEui, count, this.bits);
+                break;
+            case RX_TIME:
+                ColumnCodec.writeTimestamps(this.rxTime, count, this.bits);
+                break;
+            case PACKET_CNT:
+                ColumnCodec.writeCounters(this.packetCnt, count, this.bits);
+                break;
+            case RSSI:
+                ColumnCodec.writeDoubles(this.rssi, count, this.bits);
+                break;
+            case SNR:
+                ColumnCodec.writeDoubles(this.snr, count, this.bits);
+                break;
+            case USER_DATA:
+            default:
+                ColumnCodec.writeBytes(this.userData, count, this.bits);
+                break;
+            }
+            final var raw = this.bits.toByteArray();
+            final var length = this.deflate(raw);
+            this.out.write(this.compressed, 0, length);
+            block.positions[column.ordinal()] = this.position;
+            block.lengths[column.ordinal()] = length;
+            block.rawLengths[column.ordinal()] = raw.length;
+            this.position += length;
+        }
+        this.blocks.add(block);
+        this.rows = 0;
+    }
+
+    private int deflate(final byte[] raw) {
+        this.deflater.reset();
+        this.deflater.setInput(raw);
+        this.deflater.finish();
+        var length = 0;
+        while (!this.deflater.finished()) {
+            if (length == this.compressed.length) {
+                this.compressed = Arrays.copyOf(this.compressed, this.compressed.length * 2);
+            }
+            length += this.deflater.deflate(this.compressed, length, this.compressed.length - length);
+        }
+        return length;
+    }
+
+    private static long min(final long[] values, final int count) {
+        var result = Long.MAX_VALUE;
+        for (var i = 0; i < count; i++) {
+            result = Math.min(result, values[i]);
+        }
+        return result;
+    }
+
+    private static long max(final long[] values, final int count) {
+        var result = Long.MIN_VALUE;
+        for (var i = 0; i < count; i++) {
+            result = Math.max(result, values[i]);
+        }
+        return result;
+    }
+
+    private static double min(final double[] values, final int count) {
+        var result = Double.POSITIVE_INFINITY;
+        for (var i = 0; i < count; i++) {
+            result = Math.min(result, values[i]);
+        }
+        return result;
+    }
+
+    private static double max(final double[] values, final int count) {
+        var result = Double.NEGATIVE_INFINITY;
+        for (var i = 0; i < count; i++) {
+            result = Math.max(result, values[i]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,80 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.archive;
+
+import java.util.Arrays;
+
+import lombok.Getter;
+
+/**
+ * Decoded block of the archive, as one primitive array per loaded column so analytics scan them in tight loops. The
+ * columns which were not requested are NULL.
+ *
+ * @author FendtC
+ */
+@Getter
+public final class ColumnBatch {
+    /** The block. */
+    private final ArchiveBlock block;
+    /** Number of rows. */
+    private final int rows;
+    /** Reception times by the service center, in ms. */
+    long[] receivedAt;
+    /** EUI64 of the base stations, as long. */
+    long[] bsEui;
+    /** EUI64 of the end points, as long. */
+    long[] epEui;
+    /** Reception times by the base stations, in ns. */
+    long[] rxTime;
+    /** Packet counters. */
+    int[] packetCnt;
+    /** RSSI. */
+    double[] rssi;
+    /** SNR. */
+    double[] snr;
+    /** User data. */
+    byte[][] userData;
+
+    /**
+     * Constructor.
+     *
+     * @param block
+     *              the block.
+     */
+    ColumnBatch(final ArchiveBlock block) {
+        this.block = block;
+        this.rows = block.getRows();
+    }
+
+    /**
+     * Method to select the rows matching a filter. The columns of the filter must be loaded, which
+     * {@link ArchiveReader#scan(ArchiveFilter, java.util.Set)} ensures.
+     *
+     * @param filter
+     *               the filter.
+     * @return the indexes of the matching rows.
+     */
+    public int[] select(final ArchiveFilter filter) {
+        final var selection = new int[this.rows];
+        var count = 0;
+        for (var i = 0; i < this.rows; i++) {
+            selection[count] = i;
+            count += filter.matches(this, i) ? 1 : 0;
+        }
+        return count == this.rows ? selection : Arrays.copyOf(selection, count);
+    }
+}
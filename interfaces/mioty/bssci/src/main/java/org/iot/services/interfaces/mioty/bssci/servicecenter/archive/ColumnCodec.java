@@ -0,0 +1,255 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.archive;
+
+import java.util.HashMap;
+
+import org.iot.services.interfaces.mioty.bssci.utils.BitReader;
+import org.iot.services.interfaces.mioty.bssci.utils.BitWriter;
+import org.iot.services.interfaces.mioty.bssci.utils.XorDoubleDecoder;
+import org.iot.services.interfaces.mioty.bssci.utils.XorDoubleEncoder;
+
+/**
+ * Encodings of the archive columns, before their compression.
+ *
+ * @author FendtC
+ */
+final class ColumnCodec {
+
+    /**
+     * hidden constructor.
+     */
+    private ColumnCodec() {
+        super();
+    }
+
+    /**
+     * Method to encode timestamps: the first value, then the zig-zag delta-of-delta. Regularly spaced timestamps encode
+     * to a byte each.
+     *
+     * @param values
+     *               the values.
+     * @param count
+     *               number of values.
+     * @param out
+     *               the bit stream.
+     */
+    static void writeTimestamps(final long[] values, final int count, final BitWriter out) {
+        long delta = 0;
+        for (var i = 0; i < count; i++) {
+            if (i == 0) {
+                out.writeBits(values[0], Long.SIZE);
+            } else {
+                final var next = values[i] - values[i - 1];
+                out.writeZigZag(next - delta);
+                delta = next;
+            }
+        }
+    }
+
+    /**
+     * Method to decode timestamps.
+     *
+     * @param in
+     *              the bit stream.
+     * @param count
+     *              number of values.
+     * @return the values.
+     */
+    static long[] readTimestamps(final BitReader in, final int count) {
+        final var values = new long[count];
+        long delta = 0;
+        for (var i = 0; i < count; i++) {
+            if (i == 0) {
+                values[0] = in.readBits(Long.SIZE);
+            } else {
+                delta += in.readZigZag();
+                values[i] = values[i - 1] + delta;
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Method to encode identifiers: the dictionary of the distinct values, then the fixed width index of each value.
+     *
+     * @param values
+     *               the values.
+     * @param count
+     *               number of values.
+     * @param out
+     *               the bit stream.
+     */
+    static void writeDictionary(final long[] values, final int count, final BitWriter out) {
+        final var dictionary = new HashMap<Long, Integer>();
+        final var entries = new long[count];
+        final var indexes = new int[count];
+        for (var i = 0; i < count; i++) {
+            final var value = values[i];
+            final var size = dictionary.size();
+            final int index = dictionary.computeIfAbsent(value, v -> size);
+            if (index == size) {
+                entries[size] = value;
+            }
+            indexes[i] = index;
+        }
+        final var size = dictionary.size();
+        out.writeVarLong(size);
+        for (var i = 0; i < size; i++) {
+            out.writeBits(entries[i], Long.SIZE);
+        }
+        final var width = ColumnCodec.width(size);
+        for (var i = 0; i < count; i++) {
+            out.writeBits(indexes[i], width);
+        }
+    }
+
+    /**
+     * Method to decode identifiers.
+     *
+     * @param in
+     *              the bit stream.
+     * @param count
+     *              number of values.
+     * @return the values.
+     */
+    static long[] readDictionary(final BitReader in, final int count) {
+        final var size = (int) in.readVarLong();
+        final var entries = new long[size];
+        for (var i = 0; i < size; i++) {
+            entries[i] = in.readBits(Long.SIZE);
+        }
+        final var width = ColumnCodec.width(size);
+        final var values = new long[count];
+        for (var i = 0; i < count; i++) {
+            values[i] = entries[(int) in.readBits(width)];
+        }
+        return values;
+    }
+
+    /**
+     * Method to encode counters as variable length values.
+     *
+     * @param values
+     *               the values, unsigned.
+     * @param count
+     *               number of values.
+     * @param out
+     *               the bit stream.
+     */
+    static void writeCounters(final int[] values, final int count, final BitWriter out) {
+        for (var i = 0; i < count; i++) {
+            out.writeVarLong(Integer.toUnsignedLong(values[i]));
+        }
+    }
+
+    /**
+     * Method to decode counters.
+     *
+     * @param in
+     *              the bit stream.
+     * @param count
+     *              number of values.
+     * @return the values.
+     */
+    static int[] readCounters(final BitReader in, final int count) {
+        final var values = new int[count];
+        for (var i = 0; i < count; i++) {
+            values[i] = (int) in.readVarLong();
+        }
+        return values;
+    }
+
+    /**
+     * Method to encode measurements, XOR'ed with the previous one.
+     *
+     * @param values
+     *               the values.
+     * @param count
+     *               number of values.
+     * @param out
+     *               the bit stream.
+     */
+    static void writeDoubles(final double[] values, final int count, final BitWriter out) {
+        final var encoder = new XorDoubleEncoder();
+        for (var i = 0; i < count; i++) {
+            encoder.write(out, values[i]);
+        }
+    }
+
+    /**
+     * Method to decode measurements.
+     *
+     * @param in
+     *              the bit stream.
+     * @param count
+     *              number of values.
+     * @return the values.
+     */
+    static double[] readDoubles(final BitReader in, final int count) {
+        final var decoder = new XorDoubleDecoder();
+        final var values = new double[count];
+        for (var i = 0; i < count; i++) {
+            values[i] = decoder.read(in);
+        }
+        return values;
+    }
+
+    /**
+     * Method to encode byte arrays, each one length prefixed.
+     *
+     * @param values
+     *               the values.
+     * @param count
+     *               number of values.
+     * @param out
+     *               the bit stream.
+     */
+    static void writeBytes(final byte[][] values, final int count, final BitWriter out) {
+        for (var i = 0; i < count; i++) {
+            out.writeVarLong(values[i].length);
+            for (final var b : values[i]) {
+                out.writeBits(b, Byte.SIZE);
+            }
+        }
+    }
+
+    /**
+     * Method to decode byte arrays.
+     *
+     * @param in
+     *              the bit stream.
+     * @param count
+     *              number of values.
+     * @return the values.
+     */
+    static byte[][] readBytes(final BitReader in, final int count) {
+        final var values = new byte[count][];
+        for (var i = 0; i < count; i++) {
+            final var value = new byte[(int) in.readVarLong()];
+            for (var j = 0; j < value.length; j++) {
+                value[j] = (byte) in.readBits(Byte.SIZE);
+            }
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private static int width(final int size) {
+        return size <= 1 ? 0 : Integer.SIZE - Integer.numberOfLeadingZeros(size - 1);
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.archive;
+
+/**
+ * Columns of the uplink archive.
+ *
+ * @author FendtC
+ */
+public enum EnumArchiveColumn {
+    /** Reception time by the service center, in ms, delta-of-delta encoded. */
+    RECEIVED_AT,
+    /** EUI64 of the base station, dictionary encoded. */
+    BS_EUI,
+    /** EUI64 of the end point, dictionary encoded. */
+    EP_EUI,
+    /** Reception time by the base station, in ns, delta-of-delta encoded. */
+    RX_TIME,
+    /** Packet counter, variable length encoded. */
+    PACKET_CNT,
+    /** RSSI, XOR encoded. */
+    RSSI,
+    /** SNR, XOR encoded. */
+    SNR,
+    /** User data, length prefixed. */
+    USER_DATA;
+}
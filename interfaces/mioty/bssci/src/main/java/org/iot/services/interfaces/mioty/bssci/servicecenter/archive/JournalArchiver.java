@@ -0,0 +1,174 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.archive;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.journal.JournalReader;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.journal.UplinkJournal;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Archiver rolling the sealed segments of the uplink journal into archive files, one per segment and named after its
+ * base offset. Only the UlData records are archived. The archiver resumes from its persisted journal offset, so a
+ * segment is archived once even across restarts.
+ *
+ * @author FendtC
+ */
+public class JournalArchiver implements AutoCloseable {
+
+    /** Default interval of the archiving. */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(1);
+    /** Suffix of the archive files. */
+    public static final String SUFFIX = ".archive"; //$NON-NLS-1$
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(JournalArchiver.class);
+    /** Name of the journal reader. */
+    private static final String READER = "archiver"; //$NON-NLS-1$
+
+    /** The journal. */
+    private final UplinkJournal journal;
+    /** Directory of the archives. */
+    private final Path directory;
+    /** Number of rows of a block. */
+    private final int blockRows;
+    /** Reader of the journal. */
+    private final JournalReader reader;
+    /** Background archiving. */
+    private final ScheduledExecutorService scheduler;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param journal
+     *                  the journal to archive.
+     * @param directory
+     *                  directory of the archives.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public JournalArchiver(final UplinkJournal journal, final Path directory) throws IOException {
+        this(journal, directory, ArchiveWriter.DEFAULT_BLOCK_ROWS, JournalArchiver.DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param journal
+     *                  the journal to archive.
+     * @param directory
+     *                  directory of the archives.
+     * @param blockRows
+     *                  number of rows of a block.
+     * @param interval
+     *                  interval of the archiving.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public JournalArchiver(final UplinkJournal journal, final Path directory, final int blockRows,
+            final Duration interval) throws IOException {
+        this.journal = Validate.notNull(journal);
+        this.directory = Files.createDirectories(directory);
+        this.blockRows = blockRows;
+        this.reader = journal.reader(JournalArchiver.READER);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-journal-archiver"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var millis = interval.toMillis();
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            try {
+                this.archive();
+            } catch (final IOException | RuntimeException e) {
+                JournalArchiver.LOG.error("Journal archiving failed", e); //$NON-NLS-1$
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method to archive the sealed segments not archived yet.
+     *
+     * @return the number of archived segments.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public synchronized int archive() throws IOException {
+        var archived = 0;
+        while (true) {
+            final var offset = Math.max(this.reader.getOffset(), this.journal.getFirstOffset());
+            final var base = this.journal.segmentOf(offset);
+            final var next = this.journal.segmentAfter(base);
+            if ((base < 0) || (next < 0)) {
+                // the segment being appended is archived once sealed
+                return archived;
+            }
+            this.reader.seek(offset);
+            final var path = this.directory.resolve(String.format("%020d%s", base, JournalArchiver.SUFFIX)); //$NON-NLS-1$
+            try (var writer = new ArchiveWriter(path, this.blockRows)) {
+                for (var rec = this.reader.poll(); rec != null; rec = this.reader.poll()) {
+                    if (rec.getOffset() >= next) {
+                        this.reader.seek(rec.getOffset());
+                        break;
+                    }
+                    try {
+                        final var apiObj = rec.decode();
+                        if (apiObj instanceof UlData) {
+                            writer.add(rec.getReceivedAt(), rec.getBsEui().asLong(), (UlData) apiObj);
+                        }
+                    } catch (final IOException e) {
+                        JournalArchiver.LOG.warn("Skipping the invalid journal record {}", rec.getOffset(), e); //$NON-NLS-1$
+                    }
+                }
+            }
+            if (this.reader.getOffset() < next) {
+                this.reader.seek(next);
+            }
+            this.reader.commit();
+            archived++;
+            JournalArchiver.LOG.info("Journal segment {} archived to {}", base, path); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method to open an archive of the directory.
+     *
+     * @param base
+     *             base offset of the archived segment.
+     * @return the reader.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public ArchiveReader open(final long base) throws IOException {
+        return new ArchiveReader(this.directory.resolve(String.format("%020d%s", base, JournalArchiver.SUFFIX))); //$NON-NLS-1$
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.attach;
+
+import java.security.GeneralSecurityException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.Att;
+import org.iot.services.interfaces.mioty.bssci.api.main.AttRsp;
+import org.iot.services.interfaces.mioty.bssci.api.main.Error;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Pipeline handling the attachment requests of the end points.
+ * <p>
+ * The {@link Att} messages are consumed on the receiver threads and authenticated on a dedicated bounded worker pool,
+ * so an attach storm neither blocks the base station connections nor waits behind the uplink data processing. The
+ * same attachment received via several base stations (same end point and attachment counter) is authenticated once,
+ * every base station gets its {@link AttRsp}. A rejected or overflowing attachment is answered with an {@link Error}.
+ * The pipeline has to be registered as interceptor of the service center.
+ *
+ * @author FendtC
+ */
+public class AttachPipeline implements IMessageInterceptor, AutoCloseable {
+
+    /** Default capacity of the work queue. */
+    public static final int DEFAULT_QUEUE = 10_000;
+    /** Default retention of the completed attachments, for the late duplicates. */
+    public static final Duration DEFAULT_RETENTION = Duration.ofSeconds(30);
+    /** Error code of a rejected attachment (EACCES). */
+    public static final int ERROR_REJECTED = 13;
+    /** Error code of an attachment dropped on overload (EBUSY). */
+    public static final int ERROR_OVERLOADED = 16;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(AttachPipeline.class);
+
+    /** The authenticator. */
+    private final IAttachAuthenticator authenticator;
+    /** Retention of the completed attachments. */
+    @Getter
+    private final Duration retention;
+    /** Attachments in progress or recently completed. */
+    private final Map<AttachKey, Attachment> attachments = new ConcurrentHashMap<>();
+    /** The workers. */
+    private final ThreadPoolExecutor workers;
+    /** Purge of the completed attachments. */
+    private final ScheduledExecutorService scheduler;
+    /** Number of accepted attachments. */
+    private final LongAdder accepted = new LongAdder();
+    /** Number of rejected attachments. */
+    private final LongAdder rejected = new LongAdder();
+    /** Number of attachments dropped on overload. */
+    private final LongAdder overloaded = new LongAdder();
+    /** Number of duplicated attachment requests. */
+    private final LongAdder duplicates = new LongAdder();
+
+    /**
+     * Constructor with the default settings: one worker per processor.
+     *
+     * @param authenticator
+     *                      the authenticator.
+     */
+    public AttachPipeline(final IAttachAuthenticator authenticator) {
+        this(authenticator, Runtime.getRuntime().availableProcessors(), AttachPipeline.DEFAULT_QUEUE,
+                AttachPipeline.DEFAULT_RETENTION);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param authenticator
+     *                      the authenticator.
+     * @param workers
+     *                      number of worker threads.
+     * @param queue
+     *                      capacity of the work queue, further attachments are answered with an error.
+     * @param retention
+     *                      retention of the completed attachments, for the late duplicates.
+     */
+    public AttachPipeline(final IAttachAuthenticator authenticator, final int workers, final int queue,
+            final Duration retention) {
+        Validate.isTrue(workers > 0, "workers must be positive, is: %d", workers); //$NON-NLS-1$
+        Validate.isTrue(queue > 0, "queue must be positive, is: %d", queue); //$NON-NLS-1$
+        this.authenticator = Validate.notNull(authenticator);
+        this.retention = Validate.notNull(retention);
+        final var counter = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(workers, workers, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queue), r -> {
+                    final var thread = new Thread(r, "bssci-attach-" + counter.incrementAndGet()); //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-attach-expiration"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::purge, 1, 1, TimeUnit.SECONDS);
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        if (apiObj instanceof Att) {
+            this.attach(client, (Att) apiObj);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Method to retrieve the number of accepted attachments.
+     *
+     * @return the number of attachments.
+     */
+    public long getAccepted() {
+        return this.accepted.sum();
+    }
+
+    /**
+     * Method to retrieve the number of rejected attachments.
+     *
+     * @return the number of attachments.
+     */
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    /**
+     * Method to retrieve the number of attachments dropped on overload.
+     *
+     * @return the number of attachments.
+     */
+    public long getOverloaded() {
+        return this.overloaded.sum();
+    }
+
+    /**
+     * Method to retrieve the number of duplicated attachment requests.
+     *
+     * @return the number of requests.
+     */
+    public long getDuplicates() {
+        return this.duplicates.sum();
+    }
+
+    /**
+     * Method to retrieve the number of attachments waiting for a worker.
+     *
+     * @return the number of attachments.
+     */
+    public int getBacklog() {
+        return this.workers.getQueue().size();
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+        this.workers.shutdownNow();
+    }
+
+    private void attach(final ServiceCenterConnection client, final Att att) {
+        final var key = new AttachKey(att.getEpEui(), att.getAttachCnt());
+        final var created = new Attachment();
+        final var attachment = this.attachments.computeIfAbsent(key, k -> created);
+        if (attachment == created) {
+            try {
+                this.workers.execute(() -> this.authenticate(att, attachment));
+            } catch (final RejectedExecutionException e) {
+                this.overloaded.increment();
+                this.attachments.remove(key, attachment);
+                attachment.result.completeExceptionally(e);
+            }
+        } else {
+            this.duplicates.increment();
+        }
+        attachment.result.whenComplete((nwkSnKey, t) -> {
+            if (t == null) {
+                client.respond(new AttRsp(nwkSnKey), att);
+            } else if (t instanceof RejectedExecutionException) {
+                client.respond(new Error(AttachPipeline.ERROR_OVERLOADED, "attach overload"), att); //$NON-NLS-1$
+            } else {
+                client.respond(new Error(AttachPipeline.ERROR_REJECTED, "attach rejected"), att); //$NON-NLS-1$
+            }
+        });
+    }
+
+    private void authenticate(final Att att, final Attachment attachment) {
+        try {
+            final var nwkSnKey = this.authenticator.authenticate(att);
+            this.accepted.increment();
+            attachment.completedAt = System.nanoTime();
+            attachment.result.complete(nwkSnKey);
+        } catch (final GeneralSecurityException | RuntimeException e) {
+            AttachPipeline.LOG.info("Attach of {} rejected: {}", att.getEpEui(), e.getMessage()); //$NON-NLS-1$
+            this.rejected.increment();
+            attachment.completedAt = System.nanoTime();
+            attachment.result.completeExceptionally(e);
+        }
+    }
+
+    private void purge() {
+        final var limit = System.nanoTime() - this.retention.toNanos();
+        this.attachments.values().removeIf(a -> (a.completedAt != 0) && ((a.completedAt - limit) < 0));
+    }
+
+    /**
+     * Attachment in progress or recently completed.
+     */
+    private static final class Attachment {
+        /** The network session key. */
+        private final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        /** Completion time, 0 while in progress. */
+        private volatile long completedAt;
+    }
+
+    /**
+     * Identification of an attachment.
+     */
+    private static final class AttachKey {
+        /** End point EUI64. */
+        private final EUI64 epEui;
+        /** Attachment counter. */
+        private final int attachCnt;
+
+        private AttachKey(final EUI64 epEui, final int attachCnt) {
+            this.epEui = epEui;
+            this.attachCnt = attachCnt;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof AttachKey) {
+                final var other = (AttachKey) obj;
+                return (this.attachCnt == other.attachCnt) && this.epEui.equals(other.epEui);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.epEui, Integer.valueOf(this.attachCnt));
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.attach;
+
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.SignatureException;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.main.Att;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.crypto.EndpointCryptoService;
+
+/**
+ * Default authenticator, based on the AES-CMAC with the end point key.
+ * <p>
+ * The signature is the leading 4 bytes of the CMAC over {@code epEui | attachCnt | nonce}, the network session key the
+ * CMAC over {@code 0x01 | epEui | attachCnt | nonce}. Deployments using another derivation provide their own
+ * {@link IAttachAuthenticator}.
+ *
+ * @author FendtC
+ */
+public class CmacAttachAuthenticator implements IAttachAuthenticator {
+
+    /** Prefix of the session key derivation. */
+    private static final byte SESSION_KEY = 0x01;
+
+    /** The crypto service. */
+    private final EndpointCryptoService crypto;
+
+    /**
+     * Constructor.
+     *
+     * @param crypto
+     *               the crypto service, holding the end point keys.
+     */
+    public CmacAttachAuthenticator(final EndpointCryptoService crypto) {
+        this.crypto = Validate.notNull(crypto);
+    }
+
+    @Override
+    public byte[] authenticate(final Att att) throws GeneralSecurityException {
+        final var buffer = ByteBuffer.allocate(1 + Long.BYTES + Integer.BYTES + att.getNonce().length);
+        buffer.put(CmacAttachAuthenticator.SESSION_KEY);
+        buffer.putLong(att.getEpEui().asBI().longValue());
+        buffer.putInt(att.getAttachCnt());
+        for (final int b : att.getNonce()) {
+            buffer.put((byte) b);
+        }
+        final var data = buffer.array();
+        final var signed = new byte[data.length - 1];
+        System.arraycopy(data, 1, signed, 0, signed.length);
+        final var sign = new byte[att.getSign().length];
+        for (var i = 0; i < sign.length; i++) {
+            sign[i] = (byte) att.getSign()[i];
+        }
+        if (!this.crypto.verify(att.getEpEui(), signed, sign)) {
+            throw new SignatureException("Invalid attach signature of " + att.getEpEui()); //$NON-NLS-1$
+        }
+        return this.crypto.cmac(att.getEpEui(), data);
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.attach;
+
+import java.security.GeneralSecurityException;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.Att;
+
+/**
+ * Authenticator of the attachment requests of the end points.
+ *
+ * @author FendtC
+ */
+@FunctionalInterface
+public interface IAttachAuthenticator {
+
+    /**
+     * Method to verify an attachment request and to derive the network session key. Called on a worker thread of the
+     * attach pipeline.
+     *
+     * @param att
+     *            the attachment request.
+     * @return the 16 bytes network session key.
+     * @throws GeneralSecurityException
+     *                                  if the attachment is rejected.
+     */
+    byte[] authenticate(Att att) throws GeneralSecurityException;
+}
@@ -0,0 +1,190 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.cluster;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Outgoing inter-node link to one member of the cluster: a bounded queue of frames written by a dedicated thread,
+ * which flushes when the queue is drained, so the frames of a burst share the TCP segments. The link connects lazily
+ * and reconnects with a backoff; the frames queued while the member is unreachable are dropped when the queue is full.
+ *
+ * @author FendtC
+ */
+final class ClusterLink implements AutoCloseable {
+
+    /** Size of the frame header after the length: type and EUI. */
+    static final int HEADER = 1 + Long.BYTES;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(ClusterLink.class);
+    /** Minimal delay between two connection attempts, in ms. */
+    private static final long MIN_BACKOFF = 100;
+    /** Maximal delay between two connection attempts, in ms. */
+    private static final long MAX_BACKOFF = 5000;
+    /** Size of the output buffer. */
+    private static final int BUFFER_SIZE = 64 << 10;
+
+    /** The member at the other end. */
+    @Getter
+    private final ClusterMember member;
+    /** ID of this node. */
+    private final long self;
+    /** Frames waiting for their transmission. */
+    private final BlockingQueue<byte[]> queue;
+    /** Number of frames dropped, queue full or connection lost. */
+    private final LongAdder dropped = new LongAdder();
+    /** The writer. */
+    private final Thread writer;
+    /** TRUE while connected. */
+    @Getter
+    private volatile boolean connected;
+    /** FALSE once closed. */
+    private volatile boolean running = true;
+    /** The socket, NULL while disconnected. */
+    private volatile Socket socket;
+
+    /**
+     * Constructor.
+     *
+     * @param member
+     *                 the member at the other end.
+     * @param self
+     *                 ID of this node.
+     * @param capacity
+     *                 capacity of the queue, in frames.
+     */
+    ClusterLink(final ClusterMember member, final long self, final int capacity) {
+        this.member = member;
+        this.self = self;
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.writer = new Thread(this::run, "bssci-cluster-link-" + member.getId()); //$NON-NLS-1$
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+
+    /**
+     * Method to encode a frame.
+     *
+     * @param type
+     *             the type of the frame.
+     * @param eui
+     *             the EUI of the frame.
+     * @param size
+     *             size of the body.
+     * @return the buffer, positioned at the body.
+     */
+    static ByteBuffer frame(final EnumLinkFrame type, final long eui, final int size) {
+        return ByteBuffer.allocate(Integer.BYTES + ClusterLink.HEADER + size)
+                .putInt(ClusterLink.HEADER + size).put((byte) type.ordinal()).putLong(eui);
+    }
+
+    /**
+     * Method to queue a frame, without blocking.
+     *
+     * @param frame
+     *              the frame.
+     * @return FALSE if the frame is dropped.
+     */
+    boolean offer(final byte[] frame) {
+        if (this.queue.offer(frame)) {
+            return true;
+        }
+        this.dropped.increment();
+        return false;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of dropped frames.
+     */
+    long getDropped() {
+        return this.dropped.sum();
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        this.writer.interrupt();
+        this.disconnect();
+    }
+
+    private void run() {
+        var backoff = ClusterLink.MIN_BACKOFF;
+        while (this.running) {
+            try (var sock = new Socket()) {
+                sock.setTcpNoDelay(true);
+                sock.connect(this.member.getAddress());
+                this.socket = sock;
+                final var out = new BufferedOutputStream(sock.getOutputStream(), ClusterLink.BUFFER_SIZE);
+                out.write(ClusterLink.frame(EnumLinkFrame.HELLO, this.self, 0).array());
+                out.flush();
+                this.connected = true;
+                backoff = ClusterLink.MIN_BACKOFF;
+                ClusterLink.LOG.info("Cluster link to {} connected", this.member); //$NON-NLS-1$
+                while (this.running) {
+                    var frame = this.queue.take();
+                    do {
+                        out.write(frame);
+                    } while ((frame = this.queue.poll()) != null);
+                    out.flush();
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final IOException e) {
+                if (this.connected) {
+                    ClusterLink.LOG.warn("Cluster link to {} lost", this.member, e); //$NON-NLS-1$
+                }
+            } finally {
+                this.disconnect();
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, ClusterLink.MAX_BACKOFF);
+        }
+    }
+
+    private void disconnect() {
+        this.connected = false;
+        final var sock = this.socket;
+        this.socket = null;
+        if (sock != null) {
+            try {
+                sock.close();
+            } catch (final IOException e) {
+                ClusterLink.LOG.debug("Cannot close the cluster link to {}", this.member, e); //$NON-NLS-1$
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.cluster;
+
+import java.net.InetSocketAddress;
+
+import org.apache.commons.lang3.Validate;
+
+import lombok.Getter;
+
+/**
+ * Node of a service center cluster. Immutable.
+ *
+ * @author FendtC
+ */
+@Getter
+public final class ClusterMember {
+    /** Unique ID of the node, stable across restarts: the ownership of the end points depends on it. */
+    private final long id;
+    /** Address of the inter-node link of the node. */
+    private final InetSocketAddress address;
+
+    /**
+     * Constructor.
+     *
+     * @param id
+     *                Unique ID of the node.
+     * @param address
+     *                Address of the inter-node link of the node.
+     */
+    public ClusterMember(final long id, final InetSocketAddress address) {
+        this.id = id;
+        this.address = Validate.notNull(address);
+    }
+
+    /**
+     * Method to parse a member, e.g. from the configuration.
+     *
+     * @param value
+     *              the member, as {@code id@host:port}.
+     * @return the member.
+     */
+    public static ClusterMember parse(final String value) {
+        Validate.matchesPattern(value, "\\d+@[^:@]+:\\d+", "Cluster member must be id@host:port, is: %s", value); //$NON-NLS-1$ //$NON-NLS-2$
+        final var at = value.indexOf('@');
+        final var colon = value.lastIndexOf(':');
+        return new ClusterMember(Long.parseLong(value.substring(0, at)), new InetSocketAddress(
+                value.substring(at + 1, colon), Integer.parseInt(value.substring(colon + 1))));
+    }
+
+    @Override
+    public String toString() {
+        return this.id + "@" + this.address.getHostString() + ":" + this.address.getPort(); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
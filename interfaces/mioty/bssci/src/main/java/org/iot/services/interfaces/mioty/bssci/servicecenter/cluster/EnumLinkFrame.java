@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.cluster;
+
+/**
+ * Types of the frames of the inter-node link. A frame is {@code [int length][byte type][long eui][body]}, the length
+ * counting what follows it.
+ *
+ * @author FendtC
+ */
+public enum EnumLinkFrame {
+    /** First frame of a link, the EUI being the ID of the sending node. No body. */
+    HELLO,
+    /** Message received from a base station, for the owner of its end point. Body: the raw MsgPack message. */
+    FORWARD,
+    /** Message for a base station, to its node. Body: traffic class, operation ID or 0, the BSSCI frame. */
+    RELAY,
+    /** Disconnection of a base station, to every node. No body. */
+    DISCONNECT;
+
+    /** The values, by ordinal. */
+    private static final EnumLinkFrame[] VALUES = EnumLinkFrame.values();
+
+    /**
+     * Method to decode a type.
+     *
+     * @param code
+     *             the code, see {@link #ordinal()}.
+     * @return the type.
+     * @throws IllegalArgumentException
+     *                                  on unknown code.
+     */
+    public static EnumLinkFrame of(final int code) {
+        if ((code < 0) || (code >= EnumLinkFrame.VALUES.length)) {
+            throw new IllegalArgumentException("Unknown link frame type: " + code); //$NON-NLS-1$
+        }
+        return EnumLinkFrame.VALUES[code];
+    }
+}
@@ -0,0 +1,94 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.cluster;
+
+import java.io.IOException;
+
+import org.iot.services.interfaces.mioty.bssci.api.EnumTrafficClass;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.BssciServiceCenter;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Proxy, on the owner of an end point, of a base station connected to another node of the cluster. The handlers use it
+ * as a local connection: the received messages are forwarded by the node of the base station, the sent ones are
+ * relayed back to it. Its operation IDs start at {@link ServiceCenterCluster#getRemoteFirstOpId()}, below the ones of
+ * the real connection, and wrap within {@link ServiceCenterCluster#REMOTE_OP_ID_RANGE}, distinct from the proxies of
+ * the other nodes.
+ *
+ * @author FendtC
+ */
+public class RemoteConnection extends ServiceCenterConnection {
+    /** The cluster. */
+    private final ServiceCenterCluster cluster;
+    /** ID of the node of the base station. */
+    @Getter
+    private final long origin;
+    /** FALSE once disconnected. */
+    private volatile boolean open = true;
+
+    /**
+     * Constructor.
+     *
+     * @param scs
+     *                the service center.
+     * @param cluster
+     *                the cluster.
+     * @param bsEui
+     *                EUI64 of the base station.
+     * @param origin
+     *                ID of the node of the base station.
+     */
+    RemoteConnection(final BssciServiceCenter scs, final ServiceCenterCluster cluster, final EUI64 bsEui,
+            final long origin) {
+        super(scs, bsEui, cluster.getRemoteFirstOpId(), ServiceCenterCluster.REMOTE_OP_ID_RANGE);
+        this.cluster = cluster;
+        this.origin = origin;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return this.open;
+    }
+
+    @Override
+    public void disconnect() {
+        this.open = false;
+        super.disconnect();
+    }
+
+    /**
+     * Method to handle a message forwarded by the node of the base station.
+     *
+     * @param payload
+     *                the raw MsgPack message.
+     * @return FALSE if the message is dropped, the queue of its traffic class being full.
+     * @throws IOException
+     *                     on invalid message.
+     */
+    boolean forwarded(final byte[] payload) throws IOException {
+        return this.receive(payload);
+    }
+
+    @Override
+    protected boolean transmit(final int opId, final EnumTrafficClass cls, final byte[] frame,
+            final boolean request) {
+        return this.open && this.cluster.relay(this.origin, this.getEui(), cls, request ? opId : 0, frame);
+    }
+}
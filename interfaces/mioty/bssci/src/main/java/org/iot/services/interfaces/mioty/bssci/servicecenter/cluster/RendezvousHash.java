@@ -0,0 +1,95 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.cluster;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Ownership of 64 bit keys by the members of a cluster, by rendezvous (highest random weight) hashing: the owner of a
+ * key is the member with the highest hash of the key and its ID. Every node computes the same owner without
+ * coordination, and a member joining or leaving only moves the keys it wins or owned. Immutable.
+ *
+ * @author FendtC
+ */
+public final class RendezvousHash {
+
+    /** The members. */
+    private final ClusterMember[] members;
+    /** Hashes of the member IDs. */
+    private final long[] seeds;
+
+    /**
+     * Constructor.
+     *
+     * @param members
+     *                the members, with unique IDs.
+     */
+    public RendezvousHash(final Collection<ClusterMember> members) {
+        Validate.notEmpty(members);
+        final var ids = new HashSet<Long>();
+        members.forEach(m -> Validate.isTrue(ids.add(m.getId()), "Duplicate cluster member ID: %d", m.getId())); //$NON-NLS-1$
+        this.members = members.toArray(new ClusterMember[0]);
+        this.seeds = new long[this.members.length];
+        for (var i = 0; i < this.members.length; i++) {
+            this.seeds[i] = RendezvousHash.mix(this.members[i].getId());
+        }
+    }
+
+    /**
+     * Method to retrieve the owner of a key.
+     *
+     * @param key
+     *            the key, e.g. an EUI64 as long.
+     * @return the owner.
+     */
+    public ClusterMember owner(final long key) {
+        var best = 0;
+        var bestWeight = RendezvousHash.mix(key ^ this.seeds[0]);
+        for (var i = 1; i < this.seeds.length; i++) {
+            final var weight = RendezvousHash.mix(key ^ this.seeds[i]);
+            if (Long.compareUnsigned(weight, bestWeight) > 0) {
+                best = i;
+                bestWeight = weight;
+            }
+        }
+        return this.members[best];
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the members.
+     */
+    public List<ClusterMember> getMembers() {
+        return List.of(this.members);
+    }
+
+    private static long mix(final long value) {
+        // murmur3 finalizer
+        var h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,446 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.EnumTrafficClass;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.BssciServiceCenter;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.iot.services.interfaces.mioty.bssci.utils.MsgPackPeek;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Cluster of service centers, each node owning a slice of the end points by {@link RendezvousHash rendezvous hashing}
+ * of their EUI64, so the uplinks of an end point are handled by one node whatever the base stations receiving them.
+ * <p>
+ * The node of a base station peeks the end point EUI64 of the received messages without decoding them; the messages of
+ * the end points owned by another node are forwarded to it over a binary TCP link ({@link EnumLinkFrame}). The owner
+ * handles them through a {@link RemoteConnection}, whose sent messages are relayed back. The node of the base station
+ * routes the follow-ups of a forwarded operation (completion, response) to the same node, by operation ID: each node
+ * gives its proxies a distinct range of operation IDs, so the operations of several owners never collide at the base
+ * station. The proxies are registered in the service center, so the handlers find the remote base stations by
+ * {@link BssciServiceCenter#getClient(EUI64)}. Every node must be configured with the same members; the nodes may be
+ * several JVMs on the same host.
+ *
+ * @author FendtC
+ */
+public class ServiceCenterCluster implements AutoCloseable {
+
+    /** Default capacity of the queue of a link, in frames. */
+    public static final int DEFAULT_QUEUE_CAPACITY = 65536;
+    /** First operation ID of the remote connections, far below the ones of the real connections. */
+    public static final int REMOTE_FIRST_OP_ID = -(1 << 30);
+    /** Number of operation IDs of the remote connections of a node, below the ones of the previous node. */
+    public static final int REMOTE_OP_ID_RANGE = 1 << 24;
+    /** Maximal number of members, for distinct operation ID ranges. */
+    public static final int MAX_MEMBERS = (1 << 30) / ServiceCenterCluster.REMOTE_OP_ID_RANGE;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceCenterCluster.class);
+    /** Field name. */
+    private static final byte[] KEY_EP_EUI = MsgPackPeek.key("epEui"); //$NON-NLS-1$
+    /** Field name. */
+    private static final byte[] KEY_OP_ID = MsgPackPeek.key("opId"); //$NON-NLS-1$
+    /** Maximal size of a link frame. */
+    private static final int MAX_FRAME = 16 << 20;
+
+    /** The service center of this node. */
+    private final BssciServiceCenter scs;
+    /** This node. */
+    @Getter
+    private final ClusterMember self;
+    /** Ownership of the end points. */
+    @Getter
+    private final RendezvousHash ring;
+    /** First operation ID of the remote connections of this node, by rank of its ID among the members. */
+    @Getter
+    private final int remoteFirstOpId;
+    /** Links to the other members, by ID. */
+    private final Map<Long, ClusterLink> links = new ConcurrentHashMap<>();
+    /** Nodes of the forwarded operations, by operation ID, by local base station. */
+    private final Map<EUI64, Map<Integer, Long>> routes = new ConcurrentHashMap<>();
+    /** Proxies of the remote base stations. */
+    private final Map<EUI64, RemoteConnection> proxies = new ConcurrentHashMap<>();
+    /** Number of messages forwarded to their owner. */
+    private final LongAdder forwarded = new LongAdder();
+    /** Number of messages received from the other nodes. */
+    private final LongAdder received = new LongAdder();
+    /** Number of messages relayed to local base stations. */
+    private final LongAdder relayed = new LongAdder();
+    /** Number of relayed messages whose base station is not connected anymore. */
+    private final LongAdder unroutable = new LongAdder();
+    /** Number of received messages dropped, the queue of their proxy being full. */
+    private final LongAdder rejected = new LongAdder();
+    /** Server of the incoming links, NULL until started. */
+    private volatile ServerSocket server;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param scs
+     *                the service center of this node.
+     * @param selfId
+     *                ID of this node, one of the members.
+     * @param members
+     *                the members of the cluster, this node included.
+     */
+    public ServiceCenterCluster(final BssciServiceCenter scs, final long selfId,
+            final Collection<ClusterMember> members) {
+        this(scs, selfId, members, ServiceCenterCluster.DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param scs
+     *                      the service center of this node.
+     * @param selfId
+     *                      ID of this node, one of the members.
+     * @param members
+     *                      the members of the cluster, this node included.
+     * @param queueCapacity
+     *                      capacity of the queue of a link, in frames.
+     */
+    public ServiceCenterCluster(final BssciServiceCenter scs, final long selfId,
+            final Collection<ClusterMember> members, final int queueCapacity) {
+        Validate.isTrue(members.size() <= ServiceCenterCluster.MAX_MEMBERS, "at most %d members, are: %d", //$NON-NLS-1$
+                ServiceCenterCluster.MAX_MEMBERS, members.size());
+        this.scs = Validate.notNull(scs);
+        this.ring = new RendezvousHash(members);
+        final var rank = (int) members.stream().filter(m -> m.getId() < selfId).count();
+        this.remoteFirstOpId = ServiceCenterCluster.REMOTE_FIRST_OP_ID
+                - (rank * ServiceCenterCluster.REMOTE_OP_ID_RANGE);
+        this.self = members.stream().filter(m -> m.getId() == selfId).findFirst().orElseThrow(
+                () -> new IllegalArgumentException("Node " + selfId + " is not a member of the cluster")); //$NON-NLS-1$ //$NON-NLS-2$
+        for (final var member : members) {
+            if (member.getId() != selfId) {
+                this.links.put(member.getId(), new ClusterLink(member, selfId, queueCapacity));
+            }
+        }
+    }
+
+    /**
+     * Method to accept the links of the other members.
+     *
+     * @return the cluster.
+     * @throws IOException
+     *                     if the address of this node cannot be bound.
+     */
+    public ServiceCenterCluster start() throws IOException {
+        final var serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(this.self.getAddress());
+        this.server = serverSocket;
+        final var acceptor = new Thread(() -> {
+            while (!serverSocket.isClosed()) {
+                try {
+                    final var sock = serverSocket.accept();
+                    sock.setTcpNoDelay(true);
+                    final var reader = new Thread(() -> this.read(sock), "bssci-cluster-reader"); //$NON-NLS-1$
+                    reader.setDaemon(true);
+                    reader.start();
+                } catch (final IOException e) {
+                    if (!serverSocket.isClosed()) {
+                        ServiceCenterCluster.LOG.warn("Cluster link not accepted", e); //$NON-NLS-1$
+                    }
+                }
+            }
+        }, "bssci-cluster-accept"); //$NON-NLS-1$
+        acceptor.setDaemon(true);
+        acceptor.start();
+        ServiceCenterCluster.LOG.info("Cluster node {} started, {} members", this.self, //$NON-NLS-1$
+                this.ring.getMembers().size());
+        return this;
+    }
+
+    /**
+     * Method to retrieve the owner of an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @return the owner.
+     */
+    public ClusterMember owner(final EUI64 epEui) {
+        return this.ring.owner(epEui.asLong());
+    }
+
+    /**
+     * Method to check if this node owns an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @return TRUE if this node owns the end point.
+     */
+    public boolean isOwner(final EUI64 epEui) {
+        return this.owner(epEui).getId() == this.self.getId();
+    }
+
+    /**
+     * Method to forward a message received from a local base station, if another node handles it: a message of an end
+     * point owned by another node, or a follow-up of an operation forwarded to another node.
+     *
+     * @param bsEui
+     *                EUI64 of the base station.
+     * @param payload
+     *                the raw MsgPack message.
+     * @return TRUE if the message is forwarded, FALSE if it is handled locally, the link being full or down included.
+     */
+    public boolean forward(final EUI64 bsEui, final byte[] payload) {
+        final var opId = (int) MsgPackPeek.readLong(payload,
+                MsgPackPeek.find(payload, ServiceCenterCluster.KEY_OP_ID), 0);
+        final var pending = this.routes.get(bsEui);
+        final var route = pending == null ? null : pending.remove(opId);
+        if (route != null) {
+            return this.send(route, bsEui, payload);
+        }
+        if (opId <= 0) {
+            // responses of the local operations
+            return false;
+        }
+        final var epEui = MsgPackPeek.find(payload, ServiceCenterCluster.KEY_EP_EUI);
+        if (epEui == MsgPackPeek.NOT_FOUND) {
+            return false;
+        }
+        final var owner = this.ring.owner(MsgPackPeek.readLong(payload, epEui, 0)).getId();
+        if (owner == this.self.getId()) {
+            return false;
+        }
+        // the completion of the operation follows the message
+        final var routed = this.routes.computeIfAbsent(bsEui, k -> new ConcurrentHashMap<>());
+        routed.put(opId, owner);
+        if (!this.send(owner, bsEui, payload)) {
+            routed.remove(opId, owner);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method to notify the other nodes of the disconnection of a local base station.
+     *
+     * @param bsEui
+     *              EUI64 of the base station.
+     */
+    public void disconnected(final EUI64 bsEui) {
+        this.routes.remove(bsEui);
+        for (final var link : this.links.values()) {
+            link.offer(ClusterLink.frame(EnumLinkFrame.DISCONNECT, bsEui.asLong(), 0).array());
+        }
+    }
+
+    /**
+     * Method to retrieve the proxy of a base station connected to another node.
+     *
+     * @param bsEui
+     *              EUI64 of the base station.
+     * @return the proxy, NULL if no message of the base station was forwarded to this node.
+     */
+    public RemoteConnection getRemote(final EUI64 bsEui) {
+        return this.proxies.get(bsEui);
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of messages forwarded to their owner.
+     */
+    public long getForwarded() {
+        return this.forwarded.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of messages received from the other nodes.
+     */
+    public long getReceived() {
+        return this.received.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of messages relayed to local base stations.
+     */
+    public long getRelayed() {
+        return this.relayed.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of messages lost: link queue full or link down, base station not connected anymore, or queue
+     *         of the proxy full.
+     */
+    public long getDropped() {
+        return this.unroutable.sum() + this.rejected.sum()
+                + this.links.values().stream().mapToLong(ClusterLink::getDropped).sum();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.links.values().forEach(ClusterLink::close);
+        this.proxies.values().forEach(this::drop);
+        this.proxies.clear();
+        if (this.server != null) {
+            this.server.close();
+        }
+    }
+
+    /**
+     * Method to relay a message of a proxy to the node of its base station.
+     *
+     * @param origin
+     *               ID of the node of the base station.
+     * @param bsEui
+     *               EUI64 of the base station.
+     * @param cls
+     *               Traffic class of the message.
+     * @param opId
+     *               operation ID of a request waiting for a response, 0 if none.
+     * @param frame
+     *               the BSSCI frame.
+     * @return FALSE if the message is dropped.
+     */
+    boolean relay(final long origin, final EUI64 bsEui, final EnumTrafficClass cls, final int opId,
+            final byte[] frame) {
+        final var link = this.links.get(origin);
+        if (link == null) {
+            return false;
+        }
+        final var buffer = ClusterLink.frame(EnumLinkFrame.RELAY, bsEui.asLong(), 1 + Integer.BYTES + frame.length)
+                .put((byte) cls.ordinal()).putInt(opId).put(frame);
+        return link.offer(buffer.array());
+    }
+
+    private boolean send(final long member, final EUI64 bsEui, final byte[] payload) {
+        final var link = this.links.get(member);
+        // a message that cannot be forwarded is handled by this node rather than lost
+        if ((link != null) && link.isConnected() && link.offer(ClusterLink.frame(EnumLinkFrame.FORWARD,
+                bsEui.asLong(), payload.length).put(payload).array())) {
+            this.forwarded.increment();
+            return true;
+        }
+        return false;
+    }
+
+    private void drop(final RemoteConnection proxy) {
+        this.scs.removeRemote(proxy);
+        proxy.disconnect();
+    }
+
+    private void read(final Socket sock) {
+        var peer = -1L;
+        try (sock; var in = new DataInputStream(new BufferedInputStream(sock.getInputStream()))) {
+            while (true) {
+                final int length;
+                try {
+                    length = in.readInt();
+                } catch (final EOFException e) {
+                    return;
+                }
+                if ((length < ClusterLink.HEADER) || (length > ServiceCenterCluster.MAX_FRAME)) {
+                    throw new IOException("Invalid cluster frame length: " + length); //$NON-NLS-1$
+                }
+                final var type = EnumLinkFrame.of(in.readByte());
+                final var eui = in.readLong();
+                final var body = new byte[length - ClusterLink.HEADER];
+                in.readFully(body);
+                if (type == EnumLinkFrame.HELLO) {
+                    peer = eui;
+                } else if (peer < 0) {
+                    throw new IOException("Cluster link without hello"); //$NON-NLS-1$
+                } else {
+                    this.handle(peer, type, EUI64.fromLong(eui), body);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            ServiceCenterCluster.LOG.warn("Cluster link from node {} closed", peer, e); //$NON-NLS-1$
+        }
+    }
+
+    private void handle(final long peer, final EnumLinkFrame type, final EUI64 bsEui, final byte[] body)
+            throws IOException {
+        switch (type) {
+        case FORWARD: {
+            this.received.increment();
+            var proxy = this.proxies.get(bsEui);
+            if ((proxy == null) || (proxy.getOrigin() != peer)) {
+                // first message of the base station, or the base station moved to another node
+                final var created = new RemoteConnection(this.scs, this, bsEui, peer);
+                final var previous = this.proxies.put(bsEui, created);
+                if (previous != null) {
+                    this.drop(previous);
+                }
+                this.scs.addRemote(created);
+                proxy = created;
+            }
+            try {
+                // never block the reader of the link shared by every base station of the peer
+                if (!proxy.forwarded(body)) {
+                    this.rejected.increment();
+                }
+            } catch (final IOException e) {
+                ServiceCenterCluster.LOG.warn("Invalid message forwarded by node {} for {}", peer, bsEui, e); //$NON-NLS-1$
+            }
+            break;
+        }
+        case RELAY: {
+            final var buffer = ByteBuffer.wrap(body);
+            final var cls = EnumTrafficClass.values()[buffer.get()];
+            final var opId = buffer.getInt();
+            final var frame = new byte[buffer.remaining()];
+            buffer.get(frame);
+            if (opId != 0) {
+                // the response of the base station goes back to the proxy
+                this.routes.computeIfAbsent(bsEui, k -> new ConcurrentHashMap<>()).put(opId, peer);
+            }
+            final var client = this.scs.getClient(bsEui);
+            if ((client != null) && client.relay(cls, frame)) {
+                this.relayed.increment();
+            } else {
+                this.unroutable.increment();
+            }
+            break;
+        }
+        case DISCONNECT: {
+            final var proxy = this.proxies.get(bsEui);
+            if ((proxy != null) && (proxy.getOrigin() == peer) && this.proxies.remove(bsEui, proxy)) {
+                this.drop(proxy);
+            }
+            break;
+        }
+        default:
+            throw new IOException("Unexpected cluster frame: " + type); //$NON-NLS-1$
+        }
+    }
+}
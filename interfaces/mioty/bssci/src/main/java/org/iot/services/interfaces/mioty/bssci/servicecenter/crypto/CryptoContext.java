@@ -0,0 +1,124 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Initialized cryptographic context of an end point: the key, the CMAC sub keys and a pool of initialized ciphers.
+ *
+ * @author FendtC
+ */
+final class CryptoContext {
+
+    /** Size of an AES block. */
+    static final int BLOCK = 16;
+    /** Transformation of the block cipher. */
+    private static final String TRANSFORMATION = "AES/ECB/NoPadding"; //$NON-NLS-1$
+    /** CMAC constant Rb. */
+    private static final int RB = 0x87;
+
+    /** The key. */
+    private final SecretKeySpec key;
+    /** CMAC sub key K1. */
+    final byte[] k1 = new byte[CryptoContext.BLOCK];
+    /** CMAC sub key K2. */
+    final byte[] k2 = new byte[CryptoContext.BLOCK];
+    /** Pool of initialized ciphers, each used by a single thread at a time. */
+    private final ConcurrentLinkedDeque<Slot> pool = new ConcurrentLinkedDeque<>();
+
+    /**
+     * Constructor.
+     *
+     * @param key
+     *            the 16 bytes key.
+     * @throws GeneralSecurityException
+     *                                  on invalid key.
+     */
+    CryptoContext(final byte[] key) throws GeneralSecurityException {
+        this.key = new SecretKeySpec(key, "AES"); //$NON-NLS-1$
+        final var slot = this.borrow();
+        try {
+            // L = AES(K, 0)
+            final var l = new byte[CryptoContext.BLOCK];
+            slot.cipher.update(l, 0, CryptoContext.BLOCK, l, 0);
+            CryptoContext.shift(l, this.k1);
+            CryptoContext.shift(this.k1, this.k2);
+        } finally {
+            this.release(slot);
+        }
+    }
+
+    /**
+     * Method to borrow a cipher of the pool, created if the pool is empty.
+     *
+     * @return the cipher slot.
+     * @throws GeneralSecurityException
+     *                                  on cipher creation failure.
+     */
+    Slot borrow() throws GeneralSecurityException {
+        final var slot = this.pool.pollFirst();
+        if (slot != null) {
+            return slot;
+        }
+        final var cipher = Cipher.getInstance(CryptoContext.TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, this.key);
+        return new Slot(cipher);
+    }
+
+    /**
+     * Method to give back a borrowed cipher.
+     *
+     * @param slot
+     *             the cipher slot.
+     */
+    void release(final Slot slot) {
+        this.pool.offerFirst(slot);
+    }
+
+    private static void shift(final byte[] in, final byte[] out) {
+        var carry = 0;
+        for (var i = CryptoContext.BLOCK - 1; i >= 0; i--) {
+            final var b = in[i] & 0xFF;
+            out[i] = (byte) ((b << 1) | carry);
+            carry = b >>> 7;
+        }
+        if ((in[0] & 0x80) != 0) {
+            out[CryptoContext.BLOCK - 1] ^= CryptoContext.RB;
+        }
+    }
+
+    /**
+     * Initialized cipher with its work buffers.
+     */
+    static final class Slot {
+        /** The cipher, in encryption mode. */
+        final Cipher cipher;
+        /** Work buffer. */
+        final byte[] x = new byte[CryptoContext.BLOCK];
+        /** Work buffer. */
+        final byte[] y = new byte[CryptoContext.BLOCK];
+
+        private Slot(final Cipher cipher) {
+            this.cipher = cipher;
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.crypto;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Cryptographic service of the end points: AES-CMAC signatures (RFC 4493) and AES-CTR payload encryption.
+ * <p>
+ * Building a {@link javax.crypto.Cipher} and its key schedule is far more expensive than the few blocks of a mioty
+ * message, so the initialized contexts (key schedule, CMAC sub keys, pooled ciphers) are kept in a bounded LRU cache
+ * by end point. A cipher is borrowed by a single thread for one operation and given back to the pool. Large sets of
+ * signatures are verified in batches across a pool of worker threads.
+ *
+ * @author FendtC
+ */
+public class EndpointCryptoService implements AutoCloseable {
+
+    /** Default maximum number of cached end point contexts. */
+    public static final int DEFAULT_CAPACITY = 10_000;
+
+    /** The logger. */
+    private static final Logger LOG = LoggerFactory.getLogger(EndpointCryptoService.class);
+
+    /** Provider of the keys. */
+    private final IKeyProvider keyProvider;
+    /** Maximum number of cached contexts. */
+    @Getter
+    private final int capacity;
+    /** Number of worker threads of the batch verification. */
+    @Getter
+    private final int workers;
+    /** Cached contexts, in access order. */
+    private final LinkedHashMap<EUI64, CryptoContext> contexts;
+    /** Batch verification workers. */
+    private final ExecutorService executor;
+
+    /**
+     * Constructor with the default settings: one worker per processor.
+     *
+     * @param keyProvider
+     *                    Provider of the keys.
+     */
+    public EndpointCryptoService(final IKeyProvider keyProvider) {
+        this(keyProvider, EndpointCryptoService.DEFAULT_CAPACITY, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param keyProvider
+     *                    Provider of the keys.
+     * @param capacity
+     *                    Maximum number of cached end point contexts.
+     * @param workers
+     *                    Number of worker threads of the batch verification.
+     */
+    public EndpointCryptoService(final IKeyProvider keyProvider, final int capacity, final int workers) {
+        Validate.isTrue(capacity > 0, "capacity must be positive, is: %d", capacity); //$NON-NLS-1$
+        Validate.isTrue(workers > 0, "workers must be positive, is: %d", workers); //$NON-NLS-1$
+        this.keyProvider = Validate.notNull(keyProvider);
+        this.capacity = capacity;
+        this.workers = workers;
+        this.contexts = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<EUI64, CryptoContext> eldest) {
+                return this.size() > EndpointCryptoService.this.capacity;
+            }
+        };
+        final var counter = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(workers, r -> {
+            final var thread = new Thread(r, "bssci-crypto-" + counter.incrementAndGet()); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Method to compute the AES-CMAC of data.
+     *
+     * @param epEui
+     *              the end point EUI64, selecting the key.
+     * @param data
+     *              the data.
+     * @return the 16 bytes CMAC.
+     * @throws GeneralSecurityException
+     *                                  if the end point has no key or on cipher failure.
+     */
+    public byte[] cmac(final EUI64 epEui, final byte[] data) throws GeneralSecurityException {
+        final var mac = new byte[CryptoContext.BLOCK];
+        this.cmac(this.context(epEui), data, mac);
+        return mac;
+    }
+
+    /**
+     * Method to verify a signature, the leading bytes of the AES-CMAC of data.
+     *
+     * @param epEui
+     *              the end point EUI64, selecting the key.
+     * @param data
+     *              the signed data.
+     * @param mic
+     *              the signature, 1 to 16 bytes.
+     * @return TRUE if the signature is valid, FALSE if invalid or if the end point has no key.
+     */
+    public boolean verify(final EUI64 epEui, final byte[] data, final byte[] mic) {
+        if ((mic == null) || (mic.length == 0) || (mic.length > CryptoContext.BLOCK)) {
+            return false;
+        }
+        try {
+            final var mac = new byte[CryptoContext.BLOCK];
+            this.cmac(this.context(epEui), data, mac);
+            var diff = 0;
+            for (var i = 0; i < mic.length; i++) {
+                diff |= mac[i] ^ mic[i];
+            }
+            return diff == 0;
+        } catch (final GeneralSecurityException e) {
+            EndpointCryptoService.LOG.debug("Verification failed for {}: {}", epEui, e.getMessage()); //$NON-NLS-1$
+            return false;
+        }
+    }
+
+    /**
+     * Method to verify a batch of signatures, split across the workers.
+     *
+     * @param checks
+     *               the signatures to verify.
+     * @return the results, in the order of the checks.
+     */
+    public CompletableFuture<boolean[]> verifyAll(final List<MicCheck> checks) {
+        final var results = new boolean[checks.size()];
+        final var chunk = Math.max(1, (checks.size() + this.workers - 1) / this.workers);
+        final var futures = new ArrayList<CompletableFuture<Void>>(this.workers);
+        for (var start = 0; start < checks.size(); start += chunk) {
+            final var from = start;
+            final var to = Math.min(checks.size(), start + chunk);
+            futures.add(CompletableFuture.runAsync(() -> {
+                for (var i = from; i < to; i++) {
+                    final var check = checks.get(i);
+                    results[i] = this.verify(check.getEpEui(), check.getData(), check.getMic());
+                }
+            }, this.executor));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(v -> results);
+    }
+
+    /**
+     * Method to encrypt or decrypt data with AES-CTR. The counter block is incremented as a big-endian 128 bit
+     * integer.
+     *
+     * @param epEui
+     *              the end point EUI64, selecting the key.
+     * @param iv
+     *              the initial counter block, 16 bytes.
+     * @param data
+     *              the data, encrypted or decrypted in place.
+     * @throws GeneralSecurityException
+     *                                  if the end point has no key or on cipher failure.
+     */
+    public void crypt(final EUI64 epEui, final byte[] iv, final byte[] data) throws GeneralSecurityException {
+        Validate.isTrue(iv.length == CryptoContext.BLOCK, "iv must be 16 bytes, is: %d", iv.length); //$NON-NLS-1$
+        final var ctx = this.context(epEui);
+        final var slot = ctx.borrow();
+        try {
+            System.arraycopy(iv, 0, slot.x, 0, CryptoContext.BLOCK);
+            for (var off = 0; off < data.length; off += CryptoContext.BLOCK) {
+                slot.cipher.update(slot.x, 0, CryptoContext.BLOCK, slot.y, 0);
+                final var len = Math.min(CryptoContext.BLOCK, data.length - off);
+                for (var i = 0; i < len; i++) {
+                    data[off + i] ^= slot.y[i];
+                }
+                for (var i = CryptoContext.BLOCK - 1; (i >= 0) && (++slot.x[i] == 0); i--) {
+                    // carry
+                }
+            }
+        } finally {
+            ctx.release(slot);
+        }
+    }
+
+    /**
+     * Method to drop the cached context of an end point, e.g. when its key changes.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     */
+    public void invalidate(final EUI64 epEui) {
+        synchronized (this.contexts) {
+            this.contexts.remove(epEui);
+        }
+    }
+
+    /**
+     * Method to retrieve the number of cached contexts.
+     *
+     * @return the number of contexts.
+     */
+    public int size() {
+        synchronized (this.contexts) {
+            return this.contexts.size();
+        }
+    }
+
+    @Override
+    public void close() {
+        this.executor.shutdownNow();
+    }
+
+    private CryptoContext context(final EUI64 epEui) throws GeneralSecurityException {
+        synchronized (this.contexts) {
+            final var ctx = this.contexts.get(epEui);
+            if (ctx != null) {
+                return ctx;
+            }
+        }
+        final var key = this.keyProvider.key(epEui);
+        if (key == null) {
+            throw new GeneralSecurityException("No key for " + epEui); //$NON-NLS-1$
+        }
+        // built outside of the lock, a concurrent build for the same end point is harmless
+        final var ctx = new CryptoContext(key);
+        synchronized (this.contexts) {
+            final var previous = this.contexts.putIfAbsent(epEui, ctx);
+            return previous == null ? ctx : previous;
+        }
+    }
+
+    private void cmac(final CryptoContext ctx, final byte[] data, final byte[] mac) throws GeneralSecurityException {
+        final var slot = ctx.borrow();
+        try {
+            final var x = slot.x;
+            final var y = slot.y;
+            Arrays.fill(x, (byte) 0);
+            final var blocks = Math.max(1, (data.length + CryptoContext.BLOCK - 1) / CryptoContext.BLOCK);
+            final var complete = (data.length > 0) && ((data.length % CryptoContext.BLOCK) == 0);
+            var off = 0;
+            for (var n = 1; n < blocks; n++, off += CryptoContext.BLOCK) {
+                for (var i = 0; i < CryptoContext.BLOCK; i++) {
+                    y[i] = (byte) (x[i] ^ data[off + i]);
+                }
+                slot.cipher.update(y, 0, CryptoContext.BLOCK, x, 0);
+            }
+            // last block: complete with K1, padded with K2
+            final var subKey = complete ? ctx.k1 : ctx.k2;
+            final var len = data.length - off;
+            for (var i = 0; i < CryptoContext.BLOCK; i++) {
+                final int m;
+                if (i < len) {
+                    m = data[off + i];
+                } else {
+                    m = i == len ? 0x80 : 0;
+                }
+                y[i] = (byte) (x[i] ^ m ^ subKey[i]);
+            }
+            slot.cipher.update(y, 0, CryptoContext.BLOCK, mac, 0);
+        } finally {
+            ctx.release(slot);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.BssciServiceCenter;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Router queueing every downlink at all connected base stations.
+ *
+ * @author FendtC
+ */
+public class BroadcastRouter implements IDownlinkRouter {
+    /** The service center. */
+    private final BssciServiceCenter scs;
+    /** Admission control of the downlinks. */
+    private IDownlinkAdmission admission = IDownlinkAdmission.ALL;
+
+    /**
+     * Constructor.
+     *
+     * @param scs
+     *            the service center.
+     */
+    public BroadcastRouter(final BssciServiceCenter scs) {
+        this.scs = scs;
+    }
+
+    /**
+     * Method to set the admission control of the downlinks.
+     *
+     * @param admissionCtrl
+     *                      the admission control.
+     * @return the router.
+     */
+    public BroadcastRouter withAdmission(final IDownlinkAdmission admissionCtrl) {
+        this.admission = Validate.notNull(admissionCtrl);
+        return this;
+    }
+
+    @Override
+    public List<ServiceCenterConnection> route(final DlDataQue msg, final int attempt, final Set<EUI64> tried) {
+        if (attempt > 0) {
+            return Collections.emptyList();
+        }
+        return this.scs.getClients().stream().filter(c -> !tried.contains(c.getEui()) && this.admission.admit(c, msg))
+                .collect(Collectors.toList());
+    }
+
+    @Override
+    public void completed(final DlDataQue msg, final ServiceCenterConnection client, final boolean sent) {
+        this.admission.completed(client, msg, sent);
+    }
+}
@@ -0,0 +1,119 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataRes;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Downlink handled by the downlink queue manager.
+ *
+ * @author FendtC
+ */
+final class DownlinkEntry {
+
+    /** Scheduling order: highest priority first, then first enqueued first. */
+    static final Comparator<DownlinkEntry> ORDER = Comparator.comparingDouble((final DownlinkEntry e) -> -e.msg.getPrio())
+            .thenComparingLong(e -> e.sequence);
+
+    /**
+     * State of the entry.
+     */
+    enum EnumState {
+        /** Waiting in the service center queue. */
+        WAITING,
+        /** Queued at one or more base stations. */
+        DISPATCHED,
+        /** Finished: sent, failed, expired or revoked. */
+        DONE;
+    }
+
+    /** The downlink. */
+    final DlDataQue msg;
+    /** Sequence number of the entry, for the FIFO order. */
+    final long sequence;
+    /** Enqueuing time, Unix UTC time in ns. */
+    final long enqueuedAt;
+    /** Expiration time, Unix UTC time in ns. */
+    final long expiresAt;
+    /** Result of the downlink. */
+    final CompletableFuture<DlDataRes> result = new CompletableFuture<>();
+    /** State of the entry, guarded by the endpoint queue. */
+    EnumState state = EnumState.WAITING;
+    /** Routing attempt, guarded by the entry. */
+    int attempt;
+    /** Base stations the downlink is queued at, guarded by the entry. */
+    List<ServiceCenterConnection> targets = Collections.emptyList();
+    /** Base stations selected by every attempt, by EUI64, guarded by the entry. */
+    final Set<EUI64> tried = new HashSet<>();
+    /** Base stations a restored downlink was queued at before the restart, that did not report a failure yet. */
+    Set<EUI64> restored = Collections.emptySet();
+    /** Base stations the downlink is still admitted at, guarded by the entry. */
+    Set<ServiceCenterConnection> admitted = Collections.emptySet();
+    /** Number of base stations that did not report a failure yet, guarded by the entry. */
+    int pendingTargets;
+    /** Last failure reported by a base station, guarded by the entry. */
+    DlDataRes lastResult;
+
+    /**
+     * Constructor.
+     *
+     * @param msg
+     *                   the downlink.
+     * @param sequence
+     *                   sequence number of the entry.
+     * @param enqueuedAt
+     *                   enqueuing time, Unix UTC time in ns.
+     * @param expiresAt
+     *                   expiration time, Unix UTC time in ns.
+     */
+    DownlinkEntry(final DlDataQue msg, final long sequence, final long enqueuedAt, final long expiresAt) {
+        this.msg = msg;
+        this.sequence = sequence;
+        this.enqueuedAt = enqueuedAt;
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * Method to check the expOnly flag.
+     *
+     * @return TRUE if the downlink must only be sent if the end point expects a response.
+     */
+    boolean isExpOnly() {
+        return Boolean.TRUE.equals(this.msg.getExpOnly());
+    }
+
+    /**
+     * Method to create a result generated by the service center itself.
+     *
+     * @param result
+     *               the result, “expired”, “revoked”, ...
+     * @return the result object.
+     */
+    DlDataRes localResult(final String result) {
+        return new DlDataRes(this.msg.getEpEui(), this.msg.getQueId(), 0, 0, result);
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.EnumTrafficClass;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Fast path for the downlinks answering an uplink with an opened downlink window.
+ * <p>
+ * The application stages the downlink of an end point in advance. As soon as an uplink with dlOpen or responseExp is
+ * decoded, the staged downlink is queued at the receiving base station directly from the receiver thread, without
+ * waiting for the application handler. The fast path has to be registered as the first interceptor of the service
+ * center.
+ *
+ * @author FendtC
+ */
+public class DownlinkFastPath implements IMessageInterceptor {
+
+    /** Default duration between the reception of an uplink by the service center and the end of the window. */
+    public static final Duration DEFAULT_WINDOW = Duration.ofMillis(250);
+    /** Default response timeout of the base stations. */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    /** Duration between the reception of an uplink by the service center and the end of the queueing window. */
+    @Getter
+    private final Duration window;
+    /** Response timeout of the base stations. */
+    private final Duration timeout;
+    /** Staged downlinks, by end point. */
+    private final Map<EUI64, Staged> staged = new ConcurrentHashMap<>();
+    /** Metrics of the fast path. */
+    @Getter
+    private final FastPathMetrics metrics;
+
+    /**
+     * Constructor with the default settings.
+     */
+    public DownlinkFastPath() {
+        this(DownlinkFastPath.DEFAULT_WINDOW, DownlinkFastPath.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param window
+     *                Duration between the reception of an uplink by the service center and the end of the downlink
+     *                queueing window.
+     * @param timeout
+     *                Response timeout of the base stations.
+     */
+    public DownlinkFastPath(final Duration window, final Duration timeout) {
+        Validate.isTrue(!window.isNegative() && !window.isZero(), "window must be positive, is: %s", window); //$NON-NLS-1$
+        this.window = window;
+        this.timeout = Validate.notNull(timeout);
+        this.metrics = new FastPathMetrics(window);
+    }
+
+    /**
+     * Method to stage the downlink of an end point, replacing any previously staged one.
+     *
+     * @param msg
+     *            the downlink to send in the next window of the end point.
+     * @return the response of the base station, once the downlink is queued.
+     */
+    public CompletableFuture<Api> stage(final DlDataQue msg) {
+        final var entry = new Staged(msg);
+        final var previous = this.staged.put(msg.getEpEui(), entry);
+        if (previous != null) {
+            previous.result.cancel(false);
+        }
+        return entry.result;
+    }
+
+    /**
+     * Method to remove the staged downlink of an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @return TRUE if a downlink was staged.
+     */
+    public boolean unstage(final EUI64 epEui) {
+        final var previous = this.staged.remove(epEui);
+        if (previous != null) {
+            previous.result.cancel(false);
+        }
+        return previous != null;
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        if (apiObj instanceof UlData) {
+            final var ulData = (UlData) apiObj;
+            if (ulData.isDlOpen() || ulData.isResponseExp()) {
+                this.uplink(client, ulData);
+            }
+        }
+        return false;
+    }
+
+    private void uplink(final ServiceCenterConnection client, final UlData ulData) {
+        final var entry = this.staged.remove(ulData.getEpEui());
+        if (entry == null) {
+            if (ulData.isResponseExp()) {
+                this.metrics.unanswered();
+            }
+            return;
+        }
+        // local clock only: the rxTime of the base station may be skewed
+        final var elapsed = Math.max(0, System.nanoTime() - client.getReceivedAt());
+        if (elapsed > this.window.toNanos()) {
+            // too late for this window, keep the downlink for the next one
+            this.metrics.missed();
+            if (this.staged.putIfAbsent(ulData.getEpEui(), entry) != null) {
+                // replaced meanwhile by a newer downlink, as by stage()
+                entry.result.cancel(false);
+            }
+            return;
+        }
+        this.metrics.hit(elapsed);
+        // the response window is short, bypass the data plane backlog
+        client.request(entry.msg, this.timeout, EnumTrafficClass.CONTROL).whenComplete((rsp, ex) -> {
+            if (ex == null) {
+                entry.result.complete(rsp);
+            } else {
+                entry.result.completeExceptionally(ex);
+            }
+        });
+    }
+
+    /**
+     * Staged downlink.
+     */
+    private static final class Staged {
+        /** The downlink. */
+        private final DlDataQue msg;
+        /** Response of the base station. */
+        private final CompletableFuture<Api> result = new CompletableFuture<>();
+
+        private Staged(final DlDataQue msg) {
+            this.msg = msg;
+        }
+    }
+}
@@ -0,0 +1,511 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.journal.EnumSyncPolicy;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Durable log of the pending downlinks, so they survive a restart of the service center.
+ * <p>
+ * The log appends a PUT record per enqueued downlink, a DISPATCHED record once it is queued at base stations and a
+ * DONE record per finished one to memory-mapped segment files. An index of the pending downlinks, by queue ID, is
+ * rebuilt on open by a sequential scan of the record headers. The compaction rewrites the oldest segment once most of
+ * it is dead: its pending downlinks are appended again, followed by their DISPATCHED record, and the segment is
+ * deleted. Compacting the oldest segment first guarantees the DONE records it holds only refer to PUT records of the
+ * same segment, which are dropped with it.
+ * <p>
+ * Record layout: the length (written last, so a torn record is ignored), the type, the queue ID, then for a PUT the
+ * enqueuing and expiration times and the MsgPack downlink, for a DISPATCHED the EUI64s of the base stations.
+ *
+ * @author FendtC
+ */
+public class DownlinkLog implements AutoCloseable {
+
+    /** Default size of the segments. */
+    public static final int DEFAULT_SEGMENT_SIZE = 16 << 20;
+    /** Default ratio of pending bytes below which the oldest segment is compacted. */
+    public static final double DEFAULT_LIVE_RATIO = 0.5;
+    /** Default interval of the compaction and periodic flush. */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(10);
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(DownlinkLog.class);
+    /** Suffix of the segment files. */
+    private static final String SUFFIX = ".dlog"; //$NON-NLS-1$
+    /** Length marking the end of a segment. */
+    private static final int END_OF_SEGMENT = -1;
+    /** Type of the PUT records. */
+    private static final byte PUT = 1;
+    /** Type of the DONE records. */
+    private static final byte DONE = 2;
+    /** Type of the DISPATCHED records. */
+    private static final byte DISPATCHED = 3;
+    /** Size of the DONE records, and of the common part of the records after the length. */
+    private static final int DONE_SIZE = 1 + Long.BYTES;
+    /** Size of the PUT records without the downlink. */
+    private static final int PUT_SIZE = DownlinkLog.DONE_SIZE + (Long.BYTES * 2);
+
+    /** Directory of the log. */
+    @Getter
+    private final Path directory;
+    /** Size of the new segments. */
+    private final int segmentSize;
+    /** Flush policy. */
+    private final EnumSyncPolicy syncPolicy;
+    /** Ratio of pending bytes below which the oldest segment is compacted. */
+    private final double liveRatio;
+    /** The segments, by ID. */
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    /** Locations of the PUT records of the pending downlinks, segment ID and position, by queue ID. */
+    private final Map<Long, Long> index = new HashMap<>();
+    /** Base stations of the pending downlinks already queued at base stations, by queue ID. */
+    private final Map<Long, List<EUI64>> dispatched = new HashMap<>();
+    /** Segment receiving the appends. */
+    private Segment active;
+    /** Background compaction. */
+    private final ScheduledExecutorService compactor;
+    /** Listener of the records, NULL if none. */
+    private IDownlinkLogListener listener;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param directory
+     *                  Directory of the log.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public DownlinkLog(final Path directory) throws IOException {
+        this(directory, DownlinkLog.DEFAULT_SEGMENT_SIZE, EnumSyncPolicy.INTERVAL, DownlinkLog.DEFAULT_LIVE_RATIO,
+                DownlinkLog.DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructor with arguments. The existing segments of the directory are reopened and indexed.
+     *
+     * @param directory
+     *                    Directory of the log.
+     * @param segmentSize
+     *                    Size of the new segments, in bytes.
+     * @param syncPolicy
+     *                    Flush policy.
+     * @param liveRatio
+     *                    Ratio of pending bytes below which the oldest segment is compacted.
+     * @param interval
+     *                    Interval of the compaction, and of the {@link EnumSyncPolicy#INTERVAL} flush.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public DownlinkLog(final Path directory, final int segmentSize, final EnumSyncPolicy syncPolicy,
+            final double liveRatio, final Duration interval) throws IOException {
+        Validate.isTrue(segmentSize >= 4096, "segmentSize must be at least 4096, is: %d", segmentSize); //$NON-NLS-1$
+        Validate.inclusiveBetween(0.0, 1.0, liveRatio);
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.syncPolicy = Validate.notNull(syncPolicy);
+        this.liveRatio = liveRatio;
+        this.open();
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-downlink-log"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var millis = interval.toMillis();
+        this.compactor.scheduleWithFixedDelay(() -> {
+            try {
+                this.compact();
+                if (this.syncPolicy == EnumSyncPolicy.INTERVAL) {
+                    this.sync();
+                }
+            } catch (final IOException | RuntimeException e) {
+                DownlinkLog.LOG.error("Downlink log compaction failed", e); //$NON-NLS-1$
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method to log an enqueued downlink.
+     *
+     * @param msg
+     *                   the downlink, with its queue ID.
+     * @param enqueuedAt
+     *                   enqueuing time, Unix UTC time in ns.
+     * @param expiresAt
+     *                   expiration time, Unix UTC time in ns.
+     * @throws IOException
+     *                     on I/O failure, or if the downlink does not fit in a segment.
+     */
+    public void put(final DlDataQue msg, final long enqueuedAt, final long expiresAt) throws IOException {
+        final IDownlinkLogListener current;
+        synchronized (this) {
+            this.append(msg, enqueuedAt, expiresAt);
+            current = this.listener;
+        }
+        if (current != null) {
+            current.awaitCapacity();
+        }
+    }
+
+    private void append(final DlDataQue msg, final long enqueuedAt, final long expiresAt) throws IOException {
+        final var payload = msg.toMsgPack();
+        final var size = DownlinkLog.PUT_SIZE + payload.length;
+        final var buffer = this.reserve(size);
+        final var pos = this.active.position;
+        buffer.put(pos + Integer.BYTES, DownlinkLog.PUT);
+        buffer.putLong(pos + Integer.BYTES + 1, msg.getQueId());
+        buffer.putLong(pos + Integer.BYTES + DownlinkLog.DONE_SIZE, enqueuedAt);
+        buffer.putLong(pos + Integer.BYTES + DownlinkLog.DONE_SIZE + Long.BYTES, expiresAt);
+        buffer.position(pos + Integer.BYTES + DownlinkLog.PUT_SIZE);
+        buffer.put(payload);
+        this.commit(size);
+        final var previous = this.index.put(msg.getQueId(), DownlinkLog.location(this.active.id, pos));
+        if (previous != null) {
+            this.release(previous);
+        }
+        this.dispatched.remove(msg.getQueId());
+        this.active.live += Integer.BYTES + size;
+        if (this.listener != null) {
+            this.listener.put(msg.getQueId(), payload, enqueuedAt, expiresAt);
+        }
+    }
+
+    /**
+     * Method to log a downlink queued at base stations: it is not dispatched again after a restart, as the base
+     * stations may have sent it already, until all of them reported a failure.
+     *
+     * @param queId
+     *                the queue ID of the downlink.
+     * @param targets
+     *                the base stations the downlink is queued at.
+     * @throws IOException
+     *                     on I/O failure, or if the record does not fit in a segment.
+     */
+    public synchronized void dispatched(final long queId, final List<EUI64> targets) throws IOException {
+        if (!this.index.containsKey(queId)) {
+            return;
+        }
+        final var copy = List.copyOf(targets);
+        this.appendDispatched(queId, copy);
+        this.dispatched.put(queId, copy);
+        if (this.listener != null) {
+            this.listener.dispatched(queId, copy);
+        }
+    }
+
+    /**
+     * Method to log a finished downlink: sent, failed, expired or revoked.
+     *
+     * @param queId
+     *              the queue ID of the downlink.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public synchronized void done(final long queId) throws IOException {
+        final var location = this.index.remove(queId);
+        if (location == null) {
+            return;
+        }
+        this.release(location);
+        this.dispatched.remove(queId);
+        this.append(DownlinkLog.DONE, queId);
+        if (this.listener != null) {
+            this.listener.done(queId);
+        }
+    }
+
+    /**
+     * Setter method.
+     *
+     * @param logListener
+     *                    listener of the records, NULL for none.
+     */
+    public synchronized void setListener(final IDownlinkLogListener logListener) {
+        this.listener = logListener;
+    }
+
+    /**
+     * Method to iterate over the pending downlinks, in log order.
+     *
+     * @param consumer
+     *                 consumer of the pending downlinks.
+     * @throws IOException
+     *                     on invalid record.
+     */
+    public synchronized void forEach(final Consumer<PendingDownlink> consumer) throws IOException {
+        for (final var segment : this.segments.values()) {
+            final var buffer = segment.buffer.duplicate();
+            for (var pos = 0; pos < segment.position; pos += Integer.BYTES + buffer.getInt(pos)) {
+                if ((buffer.get(pos + Integer.BYTES) == DownlinkLog.PUT) && Long.valueOf(DownlinkLog.location(
+                        segment.id, pos)).equals(this.index.get(buffer.getLong(pos + Integer.BYTES + 1)))) {
+                    final var payload = new byte[buffer.getInt(pos) - DownlinkLog.PUT_SIZE];
+                    buffer.position(pos + Integer.BYTES + DownlinkLog.PUT_SIZE);
+                    buffer.get(payload);
+                    final var msg = (DlDataQue) Api.fromMsgPack(payload);
+                    consumer.accept(new PendingDownlink(msg,
+                            buffer.getLong(pos + Integer.BYTES + DownlinkLog.DONE_SIZE),
+                            buffer.getLong(pos + Integer.BYTES + DownlinkLog.DONE_SIZE + Long.BYTES),
+                            this.dispatched.containsKey(msg.getQueId()),
+                            this.dispatched.getOrDefault(msg.getQueId(), Collections.emptyList())));
+                }
+            }
+        }
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of pending downlinks.
+     */
+    public synchronized int size() {
+        return this.index.size();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of segment files.
+     */
+    public synchronized int getSegmentCount() {
+        return this.segments.size();
+    }
+
+    /**
+     * Method to compact the oldest segments, as long as their pending bytes are below the live ratio.
+     *
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public synchronized void compact() throws IOException {
+        while (this.segments.size() > 1) {
+            final var oldest = this.segments.firstEntry().getValue();
+            if (oldest.live > (oldest.position * this.liveRatio)) {
+                return;
+            }
+            final var buffer = oldest.buffer.duplicate();
+            var moved = 0;
+            for (var pos = 0; pos < oldest.position; pos += Integer.BYTES + buffer.getInt(pos)) {
+                final var queId = buffer.getLong(pos + Integer.BYTES + 1);
+                if ((buffer.get(pos + Integer.BYTES) == DownlinkLog.PUT)
+                        && Long.valueOf(DownlinkLog.location(oldest.id, pos)).equals(this.index.get(queId))) {
+                    final var size = buffer.getInt(pos);
+                    final var target = this.reserve(size);
+                    final var to = this.active.position;
+                    target.position(to + Integer.BYTES);
+                    target.put(buffer.duplicate().position(pos + Integer.BYTES).limit(pos + Integer.BYTES + size));
+                    this.commit(size);
+                    this.index.put(queId, DownlinkLog.location(this.active.id, to));
+                    this.active.live += Integer.BYTES + size;
+                    final var targets = this.dispatched.get(queId);
+                    if (targets != null) {
+                        this.appendDispatched(queId, targets);
+                    }
+                    moved++;
+                }
+            }
+            // the copies must be durable before the originals disappear
+            this.active.buffer.force();
+            this.segments.remove(oldest.id);
+            Files.deleteIfExists(oldest.path);
+            DownlinkLog.LOG.debug("Downlink log segment {} compacted, {} downlinks moved", oldest.path, moved); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method to flush the active segment to the storage.
+     */
+    public void sync() {
+        final Segment segment;
+        synchronized (this) {
+            segment = this.active;
+        }
+        segment.buffer.force();
+    }
+
+    @Override
+    public void close() {
+        this.compactor.shutdownNow();
+        synchronized (this) {
+            this.segments.values().forEach(s -> s.buffer.force());
+        }
+    }
+
+    private void open() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            for (final var path : files.filter(p -> p.getFileName().toString().endsWith(DownlinkLog.SUFFIX))
+                    .collect(Collectors.toList())) {
+                final var name = path.getFileName().toString();
+                final var id = Long.parseLong(name.substring(0, name.length() - DownlinkLog.SUFFIX.length()));
+                this.segments.put(id, new Segment(id, path, this.segmentSize));
+            }
+        }
+        if (this.segments.isEmpty()) {
+            this.roll();
+            return;
+        }
+        // rebuild the index, the later records of a queue ID override the earlier ones
+        for (final var segment : this.segments.values()) {
+            final var buffer = segment.buffer;
+            var pos = 0;
+            while ((pos + Integer.BYTES) <= buffer.capacity()) {
+                final var size = buffer.getInt(pos);
+                if ((size < DownlinkLog.DONE_SIZE) || ((pos + Integer.BYTES + size) > buffer.capacity())) {
+                    break;
+                }
+                final var queId = buffer.getLong(pos + Integer.BYTES + 1);
+                final var type = buffer.get(pos + Integer.BYTES);
+                Long previous = null;
+                if (type == DownlinkLog.PUT) {
+                    previous = this.index.put(queId, DownlinkLog.location(segment.id, pos));
+                    this.dispatched.remove(queId);
+                    segment.live += Integer.BYTES + size;
+                } else if (type == DownlinkLog.DISPATCHED) {
+                    if (this.index.containsKey(queId)) {
+                        final List<EUI64> targets = new ArrayList<>();
+                        for (var at = pos + Integer.BYTES + DownlinkLog.DONE_SIZE; at < (pos + Integer.BYTES + size);
+                                at += Long.BYTES) {
+                            targets.add(EUI64.fromLong(buffer.getLong(at)));
+                        }
+                        this.dispatched.put(queId, targets);
+                    }
+                } else {
+                    previous = this.index.remove(queId);
+                    this.dispatched.remove(queId);
+                }
+                if (previous != null) {
+                    this.release(previous);
+                }
+                pos += Integer.BYTES + size;
+            }
+            segment.position = pos;
+        }
+        this.active = this.segments.lastEntry().getValue();
+        DownlinkLog.LOG.info("Downlink log {} reopened, {} segments, {} pending downlinks", this.directory, //$NON-NLS-1$
+                this.segments.size(), this.index.size());
+    }
+
+    private MappedByteBuffer reserve(final int size) throws IOException {
+        final var needed = Integer.BYTES + size + Integer.BYTES;
+        if (needed > this.segmentSize) {
+            throw new IOException("Downlink too large for the log: " + size); //$NON-NLS-1$
+        }
+        if ((this.active.position + needed) > this.active.buffer.capacity()) {
+            this.active.buffer.putInt(this.active.position, DownlinkLog.END_OF_SEGMENT);
+            this.active.buffer.force();
+            this.roll();
+        }
+        return this.active.buffer;
+    }
+
+    private void appendDispatched(final long queId, final List<EUI64> targets) throws IOException {
+        final var size = DownlinkLog.DONE_SIZE + (Long.BYTES * targets.size());
+        final var buffer = this.reserve(size);
+        final var pos = this.active.position;
+        buffer.put(pos + Integer.BYTES, DownlinkLog.DISPATCHED);
+        buffer.putLong(pos + Integer.BYTES + 1, queId);
+        for (var i = 0; i < targets.size(); i++) {
+            buffer.putLong(pos + Integer.BYTES + DownlinkLog.DONE_SIZE + (Long.BYTES * i), targets.get(i).asLong());
+        }
+        this.commit(size);
+    }
+
+    private void append(final byte type, final long queId) throws IOException {
+        final var buffer = this.reserve(DownlinkLog.DONE_SIZE);
+        final var pos = this.active.position;
+        buffer.put(pos + Integer.BYTES, type);
+        buffer.putLong(pos + Integer.BYTES + 1, queId);
+        this.commit(DownlinkLog.DONE_SIZE);
+    }
+
+    private void commit(final int size) {
+        final var buffer = this.active.buffer;
+        buffer.putInt(this.active.position, size);
+        this.active.position += Integer.BYTES + size;
+        if (this.syncPolicy == EnumSyncPolicy.EVERY_APPEND) {
+            buffer.force();
+        }
+    }
+
+    private void release(final long location) {
+        final var segment = this.segments.get(location >>> Integer.SIZE);
+        if (segment != null) {
+            segment.live -= Integer.BYTES + segment.buffer.getInt((int) location);
+        }
+    }
+
+    private void roll() throws IOException {
+        final var id = this.segments.isEmpty() ? 0 : (this.segments.lastKey() + 1);
+        final var path = this.directory.resolve(String.format("%020d%s", id, DownlinkLog.SUFFIX)); //$NON-NLS-1$
+        this.active = new Segment(id, path, this.segmentSize);
+        this.segments.put(id, this.active);
+    }
+
+    private static long location(final long segment, final int pos) {
+        return (segment << Integer.SIZE) | pos;
+    }
+
+    /**
+     * Mapped segment file of the log.
+     */
+    private static final class Segment {
+        /** ID of the segment, increasing. */
+        private final long id;
+        /** The file. */
+        private final Path path;
+        /** The mapped file. */
+        private final MappedByteBuffer buffer;
+        /** Position following the last record. */
+        private int position;
+        /** Bytes of the PUT records of the pending downlinks. */
+        private long live;
+
+        private Segment(final long id, final Path path, final int size) throws IOException {
+            this.id = id;
+            this.path = path;
+            try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+            }
+        }
+    }
+}
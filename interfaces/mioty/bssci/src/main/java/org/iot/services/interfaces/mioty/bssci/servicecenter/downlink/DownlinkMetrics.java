@@ -0,0 +1,158 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the downlink queue manager.
+ *
+ * @author FendtC
+ */
+public final class DownlinkMetrics {
+    /** Number of downlinks waiting in the service center queues. */
+    private final AtomicLong depth = new AtomicLong();
+    /** Number of downlinks enqueued. */
+    private final LongAdder enqueued = new LongAdder();
+    /** Number of downlinks sent. */
+    private final LongAdder sent = new LongAdder();
+    /** Number of downlinks failed. */
+    private final LongAdder failed = new LongAdder();
+    /** Number of downlinks expired. */
+    private final LongAdder expired = new LongAdder();
+    /** Number of downlinks revoked. */
+    private final LongAdder revoked = new LongAdder();
+    /** Sum of the time-to-transmit of the sent downlinks, in ns. */
+    private final LongAdder timeToTransmit = new LongAdder();
+    /** Maximum time-to-transmit, in ns. */
+    private final AtomicLong maxTimeToTransmit = new AtomicLong();
+
+    /**
+     * Constructor.
+     */
+    DownlinkMetrics() {
+        super();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of downlinks waiting in the service center queues.
+     */
+    public long getDepth() {
+        return this.depth.get();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of downlinks enqueued.
+     */
+    public long getEnqueued() {
+        return this.enqueued.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of downlinks sent.
+     */
+    public long getSent() {
+        return this.sent.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of downlinks failed.
+     */
+    public long getFailed() {
+        return this.failed.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of downlinks expired.
+     */
+    public long getExpired() {
+        return this.expired.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of downlinks revoked.
+     */
+    public long getRevoked() {
+        return this.revoked.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the average time between the enqueuing and the transmission of a downlink.
+     */
+    public Duration getAverageTimeToTransmit() {
+        final var count = this.sent.sum();
+        return Duration.ofNanos(count == 0 ? 0 : this.timeToTransmit.sum() / count);
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the maximum time between the enqueuing and the transmission of a downlink.
+     */
+    public Duration getMaxTimeToTransmit() {
+        return Duration.ofNanos(this.maxTimeToTransmit.get());
+    }
+
+    void waiting(final int delta) {
+        this.depth.addAndGet(delta);
+    }
+
+    void enqueued() {
+        this.enqueued.increment();
+    }
+
+    void sent(final long nanos) {
+        this.sent.increment();
+        this.timeToTransmit.add(nanos);
+        this.maxTimeToTransmit.accumulateAndGet(nanos, Math::max);
+    }
+
+    void failed() {
+        this.failed.increment();
+    }
+
+    void expired() {
+        this.expired.increment();
+    }
+
+    void revoked() {
+        this.revoked.increment();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("depth=%d enqueued=%d sent=%d failed=%d expired=%d revoked=%d avgTtt=%s maxTtt=%s", //$NON-NLS-1$
+                this.getDepth(), this.getEnqueued(), this.getSent(), this.getFailed(), this.getExpired(),
+                this.getRevoked(), this.getAverageTimeToTransmit(), this.getMaxTimeToTransmit());
+    }
+}
@@ -0,0 +1,666 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataRes;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataRev;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.downlink.DownlinkEntry.EnumState;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Service center side downlink queue, per end point.
+ * <p>
+ * Downlinks wait in the service center, ordered by priority (highest first) and enqueuing time, and are queued at the
+ * base stations selected by the {@link IDownlinkRouter} as soon as the end point has less than
+ * {@link #getMaxOutstanding()} downlinks queued at the base stations. The results (DlDataRes) are correlated by queue
+ * ID. Downlinks flagged with expOnly are only released when the end point expects a response. The manager has to be
+ * registered as interceptor of the service center. With a {@link DownlinkLog}, see {@link #recover(DownlinkLog)}, the
+ * pending downlinks survive a restart.
+ *
+ * @author FendtC
+ */
+public class DownlinkQueueManager implements IMessageInterceptor, AutoCloseable {
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(DownlinkQueueManager.class);
+
+    /** Result of a sent downlink. */
+    public static final String RESULT_SENT = "sent"; //$NON-NLS-1$
+    /** Result of an expired downlink. */
+    public static final String RESULT_EXPIRED = "expired"; //$NON-NLS-1$
+    /** Result of a revoked downlink. */
+    public static final String RESULT_REVOKED = "revoked"; //$NON-NLS-1$
+    /** Result of a downlink without any available base station. */
+    public static final String RESULT_UNROUTABLE = "unroutable"; //$NON-NLS-1$
+
+    /** Default number of downlinks queued at the base stations per end point. */
+    public static final int DEFAULT_OUTSTANDING = 1;
+    /** Default response timeout of the base stations. */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+    /** Maximum number of results of unknown downlinks kept until the recovery. */
+    static final int MAX_EARLY_RESULTS = 4096;
+
+    /** Router of the downlinks. */
+    private final IDownlinkRouter router;
+    /** Maximum number of downlinks queued at the base stations, per end point. */
+    @Getter
+    private final int maxOutstanding;
+    /** Response timeout of the base stations. */
+    private final Duration timeout;
+    /** Queues by end point. */
+    private final Map<EUI64, EndpointQueue> queues = new ConcurrentHashMap<>();
+    /** Entries by queue ID. */
+    private final Map<Long, DownlinkEntry> entries = new ConcurrentHashMap<>();
+    /** Generator of the queue IDs. */
+    private final AtomicLong queIds = new AtomicLong(TimeUnit.MILLISECONDS.toMicros(System.currentTimeMillis()));
+    /** Generator of the entry sequence numbers. */
+    private final AtomicLong sequence = new AtomicLong();
+    /** Scheduler for the expiration. */
+    private final ScheduledExecutorService scheduler;
+    /** Metrics of the manager. */
+    @Getter
+    private final DownlinkMetrics metrics = new DownlinkMetrics();
+    /** Durable log of the pending downlinks, set once by the recovery. */
+    private volatile Optional<DownlinkLog> log = Optional.empty();
+    /** Results of unknown downlinks received before the recovery, by queue ID, guarded by itself. */
+    private final Map<Long, EarlyResult> earlyResults = new LinkedHashMap<>();
+    /** TRUE once recovered, or once enqueuing without recovery, guarded by the early results. */
+    private volatile boolean recovered;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param router
+     *               Router of the downlinks.
+     */
+    public DownlinkQueueManager(final IDownlinkRouter router) {
+        this(router, DownlinkQueueManager.DEFAULT_OUTSTANDING, DownlinkQueueManager.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param router
+     *                       Router of the downlinks.
+     * @param maxOutstanding
+     *                       Maximum number of downlinks queued at the base stations, per end point.
+     * @param timeout
+     *                       Response timeout of the base stations.
+     */
+    public DownlinkQueueManager(final IDownlinkRouter router, final int maxOutstanding, final Duration timeout) {
+        Validate.isTrue(maxOutstanding > 0, "maxOutstanding must be positive, is: %d", maxOutstanding); //$NON-NLS-1$
+        this.router = Validate.notNull(router);
+        this.maxOutstanding = maxOutstanding;
+        this.timeout = Validate.notNull(timeout);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-downlink-expiration"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.scheduler.scheduleWithFixedDelay(this::purgeExpired, 1, 1, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Method to enqueue a downlink. A queue ID is assigned if the downlink has none.
+     *
+     * @param msg
+     *                   the downlink.
+     * @param timeToLive
+     *                   maximum time the downlink may wait before its transmission.
+     * @return the result of the downlink, “sent” on success.
+     */
+    public CompletableFuture<DlDataRes> enqueue(final DlDataQue msg, final Duration timeToLive) {
+        if (!this.recovered && this.log.isEmpty()) {
+            // no recovery anymore
+            this.replayEarlyResults();
+        }
+        if (msg.getQueId() == 0) {
+            msg.setQueId(this.queIds.incrementAndGet());
+        }
+        final var now = DownlinkQueueManager.now();
+        final var entry = new DownlinkEntry(msg, this.sequence.incrementAndGet(), now, now + timeToLive.toNanos());
+        Validate.isTrue(this.entries.putIfAbsent(msg.getQueId(), entry) == null, "queue ID %d already in use", //$NON-NLS-1$
+                msg.getQueId());
+        if (this.log.isPresent()) {
+            try {
+                this.log.get().put(msg, entry.enqueuedAt, entry.expiresAt);
+            } catch (final IOException e) {
+                this.entries.remove(msg.getQueId(), entry);
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        this.add(entry);
+        return entry.result;
+    }
+
+    /**
+     * Method to make the downlinks durable. The pending downlinks of the log are enqueued again with their remaining
+     * time to live, then every downlink is logged until finished. Called once, before the first enqueuing and once the
+     * base stations had time to reconnect: a recovered downlink without any base station finishes as unroutable. The
+     * downlinks already queued at base stations are not dispatched again, to never send them twice: they wait for the
+     * results of the base stations they were queued at, are dispatched again once all of them reported a failure, and
+     * expire without any result. The results of unknown downlinks received before the recovery
+     * are answered and kept, up to {@value #MAX_EARLY_RESULTS}, then applied to the recovered downlinks.
+     *
+     * @param downlinkLog
+     *                    the log of the pending downlinks.
+     * @return the results of the recovered downlinks, by queue ID.
+     * @throws IOException
+     *                     on invalid log.
+     */
+    public Map<Long, CompletableFuture<DlDataRes>> recover(final DownlinkLog downlinkLog) throws IOException {
+        Validate.validState(this.log.isEmpty(), "log already set"); //$NON-NLS-1$
+        final List<PendingDownlink> pendings = new ArrayList<>();
+        downlinkLog.forEach(pendings::add);
+        this.log = Optional.of(downlinkLog);
+        final Map<Long, CompletableFuture<DlDataRes>> recovered = new HashMap<>();
+        for (final var pending : pendings) {
+            final var msg = pending.getMsg();
+            final var entry = new DownlinkEntry(msg, this.sequence.incrementAndGet(), pending.getEnqueuedAt(),
+                    pending.getExpiresAt());
+            if (this.entries.putIfAbsent(msg.getQueId(), entry) == null) {
+                recovered.put(msg.getQueId(), entry.result);
+                if (pending.isDispatched()) {
+                    this.restore(entry, pending.getTargets());
+                } else {
+                    this.add(entry);
+                }
+            }
+        }
+        final var replayed = this.replayEarlyResults();
+        DownlinkQueueManager.LOG.info("{} pending downlinks recovered, {} early results", //$NON-NLS-1$
+                recovered.size(), replayed);
+        return recovered;
+    }
+
+    private int replayEarlyResults() {
+        final List<EarlyResult> replayed;
+        synchronized (this.earlyResults) {
+            this.recovered = true;
+            replayed = new ArrayList<>(this.earlyResults.values());
+            this.earlyResults.clear();
+        }
+        var count = 0;
+        for (final var early : replayed) {
+            final var entry = this.entries.get(early.res.getQueId());
+            if (entry != null) {
+                // answered already on reception
+                this.apply(entry, early.client, early.res);
+                count++;
+            } else {
+                DownlinkQueueManager.LOG.debug("Result of the unknown downlink {} dropped", //$NON-NLS-1$
+                        early.res.getQueId());
+            }
+        }
+        return count;
+    }
+
+    private void add(final DownlinkEntry entry) {
+        final var msg = entry.msg;
+        this.metrics.enqueued();
+        this.metrics.waiting(1);
+        final var queue = this.queues.compute(msg.getEpEui(), (k, q) -> {
+            final var current = q == null ? new EndpointQueue() : q;
+            current.add(entry);
+            return current;
+        });
+        this.pump(queue, false);
+    }
+
+    private void restore(final DownlinkEntry entry, final List<EUI64> targets) {
+        this.metrics.enqueued();
+        entry.state = EnumState.DISPATCHED;
+        synchronized (entry) {
+            // a failure of one of them does not dispatch it again while the others may still send it
+            entry.restored = new HashSet<>(targets);
+            entry.tried.addAll(targets);
+            entry.pendingTargets = targets.size();
+        }
+        this.queues.compute(entry.msg.getEpEui(), (k, q) -> {
+            final var current = q == null ? new EndpointQueue() : q;
+            synchronized (current) {
+                current.outstanding++;
+            }
+            return current;
+        });
+        final var delay = Math.max(0, entry.expiresAt - DownlinkQueueManager.now()) + this.timeout.toNanos();
+        this.scheduler.schedule(() -> this.expireDispatched(entry), delay, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Method to revoke a downlink. A downlink already queued at base stations is revoked there with DlDataRev.
+     *
+     * @param queId
+     *              the queue ID of the downlink.
+     * @return TRUE if the downlink was still pending.
+     */
+    public boolean revoke(final long queId) {
+        final var entry = this.entries.get(queId);
+        if (entry == null) {
+            return false;
+        }
+        final var queue = this.queues.get(entry.msg.getEpEui());
+        if (queue == null) {
+            // purged: the downlink is finished
+            return false;
+        }
+        final EnumState previous;
+        synchronized (queue) {
+            previous = entry.state;
+            if (previous == EnumState.DONE) {
+                return false;
+            }
+            // a waiting entry is left in the priority queue, and skipped when it reaches the head
+            entry.state = EnumState.DONE;
+            if (previous == EnumState.WAITING) {
+                this.metrics.waiting(-1);
+            } else {
+                queue.outstanding--;
+            }
+        }
+        if (previous == EnumState.DISPATCHED) {
+            final List<ServiceCenterConnection> targets;
+            synchronized (entry) {
+                targets = entry.targets;
+            }
+            // sent without the lock of the entry, a request may block on the queue of its base station
+            targets.forEach(c -> {
+                c.request(new DlDataRev(entry.msg.getEpEui(), queId), this.timeout);
+                this.closeAdmission(entry, c, false);
+            });
+        }
+        this.metrics.revoked();
+        this.completed(entry, entry.localResult(DownlinkQueueManager.RESULT_REVOKED));
+        this.pump(queue, false);
+        return true;
+    }
+
+    /**
+     * Method to drop every waiting downlink that is expired. Called periodically.
+     */
+    public void purgeExpired() {
+        final var now = DownlinkQueueManager.now();
+        for (final Map.Entry<EUI64, EndpointQueue> e : this.queues.entrySet()) {
+            final var queue = e.getValue();
+            this.pump(queue, false);
+            synchronized (queue) {
+                queue.waiting.removeIf(entry -> this.expire(queue, entry, now));
+                queue.expOnly.removeIf(entry -> this.expire(queue, entry, now));
+            }
+            this.queues.computeIfPresent(e.getKey(), (k, q) -> q.isEmpty() ? null : q);
+        }
+    }
+
+    /**
+     * Method to retrieve the number of downlinks waiting in the service center for an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @return the number of waiting downlinks.
+     */
+    public int getDepth(final EUI64 epEui) {
+        final var queue = this.queues.get(epEui);
+        if (queue == null) {
+            return 0;
+        }
+        synchronized (queue) {
+            return (int) (queue.waiting.stream().filter(e -> e.state == EnumState.WAITING).count()
+                    + queue.expOnly.stream().filter(e -> e.state == EnumState.WAITING).count());
+        }
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        if (apiObj instanceof DlDataRes) {
+            return this.result(client, (DlDataRes) apiObj);
+        }
+        if (apiObj instanceof UlData) {
+            final var ulData = (UlData) apiObj;
+            final var queue = this.queues.get(ulData.getEpEui());
+            if (queue != null) {
+                this.pump(queue, ulData.isResponseExp());
+            }
+        }
+        return false;
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+    private boolean result(final ServiceCenterConnection client, final DlDataRes res) {
+        var entry = this.entries.get(res.getQueId());
+        if ((entry == null) && !this.recovered) {
+            synchronized (this.earlyResults) {
+                if (!this.recovered && (this.earlyResults.size() < DownlinkQueueManager.MAX_EARLY_RESULTS)) {
+                    // maybe a downlink of the log, applied by the recovery
+                    this.earlyResults.put(res.getQueId(), new EarlyResult(client, res));
+                    client.respond(res.createResponse(), res);
+                    return true;
+                }
+            }
+            entry = this.entries.get(res.getQueId());
+        }
+        if (entry == null) {
+            return false;
+        }
+        client.respond(res.createResponse(), res);
+        this.apply(entry, client, res);
+        return true;
+    }
+
+    private void apply(final DownlinkEntry entry, final ServiceCenterConnection client, final DlDataRes res) {
+        if (DownlinkQueueManager.RESULT_SENT.equals(res.getResult())) {
+            this.closeAdmission(entry, client, true);
+            final var queue = this.queues.get(entry.msg.getEpEui());
+            if (queue == null) {
+                return;
+            }
+            synchronized (queue) {
+                if (entry.state != EnumState.DISPATCHED) {
+                    return;
+                }
+                entry.state = EnumState.DONE;
+                queue.outstanding--;
+            }
+            // the downlink is not needed anymore at the other base stations
+            final List<ServiceCenterConnection> targets;
+            synchronized (entry) {
+                targets = entry.targets;
+            }
+            targets.stream().filter(c -> c != client).forEach(c -> {
+                c.request(new DlDataRev(entry.msg.getEpEui(), entry.msg.getQueId()), this.timeout);
+                this.closeAdmission(entry, c, false);
+            });
+            final var txTime = res.getTxTime() > 0 ? res.getTxTime() : DownlinkQueueManager.now();
+            this.metrics.sent(Math.max(0, txTime - entry.enqueuedAt));
+            this.completed(entry, res);
+            this.pump(queue, false);
+        } else {
+            this.failed(entry, client, res);
+        }
+    }
+
+    private void pump(final EndpointQueue queue, final boolean responseExp) {
+        final var now = DownlinkQueueManager.now();
+        DownlinkEntry entry;
+        while ((entry = queue.next(now, responseExp, this.maxOutstanding)) != null) {
+            if (entry.state == EnumState.DONE) {
+                this.metrics.expired();
+                this.completed(entry, entry.localResult(DownlinkQueueManager.RESULT_EXPIRED));
+            } else {
+                this.metrics.waiting(-1);
+                this.dispatch(entry);
+            }
+        }
+    }
+
+    private void dispatch(final DownlinkEntry entry) {
+        final List<ServiceCenterConnection> targets;
+        synchronized (entry) {
+            targets = this.router.route(entry.msg, entry.attempt, entry.tried);
+            entry.targets = targets;
+            entry.targets.forEach(c -> entry.tried.add(c.getEui()));
+            entry.admitted = new HashSet<>(entry.targets);
+            entry.pendingTargets = entry.targets.size();
+            if ((entry.pendingTargets > 0) && this.log.isPresent()) {
+                try {
+                    this.log.get().dispatched(entry.msg.getQueId(), entry.targets.stream()
+                            .map(ServiceCenterConnection::getEui).collect(Collectors.toList()));
+                } catch (final IOException e) {
+                    DownlinkQueueManager.LOG.error("Cannot log the dispatch of the downlink {}", //$NON-NLS-1$
+                            entry.msg.getQueId(), e);
+                }
+            }
+        }
+        if (!targets.isEmpty()) {
+            // sent without the lock of the entry, a request may block on the queue of its base station while a result
+            // handler of the entry waits for the lock
+            for (final ServiceCenterConnection target : targets) {
+                target.request(entry.msg, this.timeout).whenComplete((rsp, ex) -> {
+                    if (ex != null) {
+                        DownlinkQueueManager.LOG.debug("downlink {} rejected by {}: {}", entry.msg.getQueId(), //$NON-NLS-1$
+                                target.getEui(), ex.getMessage());
+                        this.failed(entry, target, entry.localResult("rejected")); //$NON-NLS-1$
+                    }
+                });
+            }
+            return;
+        }
+        final var queue = this.queues.get(entry.msg.getEpEui());
+        if (queue == null) {
+            return;
+        }
+        synchronized (queue) {
+            if (entry.state != EnumState.DISPATCHED) {
+                return;
+            }
+            entry.state = EnumState.DONE;
+            queue.outstanding--;
+        }
+        this.metrics.failed();
+        this.completed(entry, entry.lastResult == null ? entry.localResult(DownlinkQueueManager.RESULT_UNROUTABLE)
+                : entry.lastResult);
+        this.pump(queue, false);
+    }
+
+    private void failed(final DownlinkEntry entry, final ServiceCenterConnection client, final DlDataRes res) {
+        this.closeAdmission(entry, client, false);
+        final boolean retry;
+        synchronized (entry) {
+            if (entry.targets.isEmpty() && !entry.restored.remove(client.getEui())) {
+                // restored downlink, not queued at this base station before the restart
+                return;
+            }
+            entry.lastResult = res;
+            entry.pendingTargets--;
+            if ((entry.pendingTargets > 0) || (entry.state != EnumState.DISPATCHED)) {
+                return;
+            }
+            if (DownlinkQueueManager.RESULT_EXPIRED.equals(res.getResult())
+                    || (entry.expiresAt < DownlinkQueueManager.now())) {
+                entry.attempt = -1;
+            } else {
+                entry.attempt++;
+            }
+            retry = entry.attempt >= 0;
+        }
+        if (retry) {
+            // try the next base stations
+            this.dispatch(entry);
+            return;
+        }
+        final var queue = this.queues.get(entry.msg.getEpEui());
+        if (queue == null) {
+            return;
+        }
+        synchronized (queue) {
+            if (entry.state != EnumState.DISPATCHED) {
+                return;
+            }
+            entry.state = EnumState.DONE;
+            queue.outstanding--;
+        }
+        this.metrics.expired();
+        this.completed(entry, res);
+        this.pump(queue, false);
+    }
+
+    /**
+     * Method to close the admission of a downlink at a base station, once: the budget of a base station that did not
+     * send the downlink is given back.
+     */
+    private void closeAdmission(final DownlinkEntry entry, final ServiceCenterConnection client, final boolean sent) {
+        synchronized (entry) {
+            if (!entry.admitted.remove(client)) {
+                return;
+            }
+        }
+        this.router.completed(entry.msg, client, sent);
+    }
+
+    private void expireDispatched(final DownlinkEntry entry) {
+        final var queue = this.queues.get(entry.msg.getEpEui());
+        if (queue == null) {
+            return;
+        }
+        synchronized (queue) {
+            synchronized (entry) {
+                if ((entry.state != EnumState.DISPATCHED) || !entry.targets.isEmpty()) {
+                    // finished, or dispatched again after a failure reported by a base station
+                    return;
+                }
+            }
+            entry.state = EnumState.DONE;
+            queue.outstanding--;
+        }
+        this.metrics.expired();
+        this.completed(entry, entry.localResult(DownlinkQueueManager.RESULT_EXPIRED));
+        this.pump(queue, false);
+    }
+
+    private boolean expire(final EndpointQueue queue, final DownlinkEntry entry, final long now) {
+        if (entry.state == EnumState.DONE) {
+            return true;
+        }
+        if (entry.expiresAt >= now) {
+            return false;
+        }
+        entry.state = EnumState.DONE;
+        this.metrics.waiting(-1);
+        this.metrics.expired();
+        this.completed(entry, entry.localResult(DownlinkQueueManager.RESULT_EXPIRED));
+        return true;
+    }
+
+    private void completed(final DownlinkEntry entry, final DlDataRes res) {
+        this.entries.remove(entry.msg.getQueId(), entry);
+        if (this.log.isPresent()) {
+            try {
+                this.log.get().done(entry.msg.getQueId());
+            } catch (final IOException e) {
+                DownlinkQueueManager.LOG.error("Cannot log the end of the downlink {}", entry.msg.getQueId(), e); //$NON-NLS-1$
+            }
+        }
+        entry.result.complete(res);
+    }
+
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /**
+     * Result of a base station, received before the recovery.
+     */
+    private static final class EarlyResult {
+        /** The base station connection. */
+        private final ServiceCenterConnection client;
+        /** The result. */
+        private final DlDataRes res;
+
+        private EarlyResult(final ServiceCenterConnection client, final DlDataRes res) {
+            this.client = client;
+            this.res = res;
+        }
+    }
+
+    /**
+     * Downlink queue of one end point.
+     */
+    private final class EndpointQueue {
+        /** Downlinks to send. */
+        private final PriorityQueue<DownlinkEntry> waiting = new PriorityQueue<>(DownlinkEntry.ORDER);
+        /** Downlinks to send only when the end point expects a response. */
+        private final PriorityQueue<DownlinkEntry> expOnly = new PriorityQueue<>(DownlinkEntry.ORDER);
+        /** Number of downlinks queued at the base stations. */
+        private int outstanding;
+
+        private synchronized boolean isEmpty() {
+            return this.waiting.isEmpty() && this.expOnly.isEmpty() && (this.outstanding == 0);
+        }
+
+        private synchronized void add(final DownlinkEntry entry) {
+            (entry.isExpOnly() ? this.expOnly : this.waiting).add(entry);
+        }
+
+        /**
+         * Method to retrieve the next entry to dispatch, marked as dispatched. Expired entries are returned marked as
+         * done.
+         */
+        private synchronized DownlinkEntry next(final long now, final boolean responseExp, final int max) {
+            while (this.outstanding < max) {
+                final var candidate = this.peek(responseExp);
+                if (candidate == null) {
+                    return null;
+                }
+                (candidate == this.waiting.peek() ? this.waiting : this.expOnly).poll();
+                if (candidate.state == EnumState.WAITING) {
+                    if (candidate.expiresAt < now) {
+                        candidate.state = EnumState.DONE;
+                        DownlinkQueueManager.this.metrics.waiting(-1);
+                    } else {
+                        candidate.state = EnumState.DISPATCHED;
+                        this.outstanding++;
+                    }
+                    return candidate;
+                }
+            }
+            return null;
+        }
+
+        private DownlinkEntry peek(final boolean responseExp) {
+            final var first = this.waiting.peek();
+            if (!responseExp) {
+                return first;
+            }
+            final var second = this.expOnly.peek();
+            if ((first == null) || ((second != null) && (DownlinkEntry.ORDER.compare(second, first) < 0))) {
+                return second;
+            }
+            return first;
+        }
+    }
+}
@@ -0,0 +1,262 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.api.main.StatusRsp;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Accountant of the regulatory transmit budget of the base stations.
+ * <p>
+ * Each base station has a token bucket of {@code limit * window} airtime, refilled at {@code limit} seconds of airtime
+ * per second. The bucket is implemented as a generic cell rate algorithm: its whole state is one theoretical arrival
+ * time per base station, updated with a compare-and-set, so admissions are lock-free. The airtime of a downlink is
+ * estimated with a linear model of its user data size. The airtime of a downlink not sent by the base station is given
+ * back on its completion, see {@link #completed(ServiceCenterConnection, DlDataQue, boolean)}. The bucket is reconciled
+ * with the duty cycle reported in the StatusRsp of the base station, plus the airtime admitted and not sent yet; the
+ * accountant has to be registered as interceptor of the service center.
+ *
+ * @author FendtC
+ */
+public class DutyCycleAccountant implements IDownlinkAdmission, IMessageInterceptor {
+
+    /** Default duty cycle limit. */
+    public static final double DEFAULT_LIMIT = 0.1;
+    /** Default sliding window of the duty cycle. */
+    public static final Duration DEFAULT_WINDOW = Duration.ofHours(1);
+    /** Default fixed airtime of a downlink (preamble, header, ...). */
+    public static final Duration DEFAULT_OVERHEAD = Duration.ofMillis(100);
+    /** Default airtime per user data byte. */
+    public static final Duration DEFAULT_PER_BYTE = Duration.ofMillis(4);
+
+    /** Duty cycle limit, fraction of TX time. */
+    @Getter
+    private final double limit;
+    /** Sliding window of the duty cycle, in ns. */
+    private final long window;
+    /** Fixed airtime of a downlink, in ns. */
+    private final long overhead;
+    /** Airtime per user data byte, in ns. */
+    private final long perByte;
+    /** Buckets by base station. */
+    private final Map<EUI64, Bucket> buckets = new ConcurrentHashMap<>();
+    /** Number of admitted downlinks. */
+    private final LongAdder admitted = new LongAdder();
+    /** Number of rejected downlinks. */
+    private final LongAdder rejected = new LongAdder();
+
+    /**
+     * Constructor with the default settings.
+     */
+    public DutyCycleAccountant() {
+        this(DutyCycleAccountant.DEFAULT_LIMIT, DutyCycleAccountant.DEFAULT_WINDOW, DutyCycleAccountant.DEFAULT_OVERHEAD,
+                DutyCycleAccountant.DEFAULT_PER_BYTE);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param limit
+     *                 Duty cycle limit, fraction of TX time in ]0, 1].
+     * @param window
+     *                 Sliding window of the duty cycle.
+     * @param overhead
+     *                 Fixed airtime of a downlink.
+     * @param perByte
+     *                 Airtime per user data byte.
+     */
+    public DutyCycleAccountant(final double limit, final Duration window, final Duration overhead,
+            final Duration perByte) {
+        Validate.inclusiveBetween(Double.MIN_VALUE, 1.0, limit);
+        this.limit = limit;
+        this.window = window.toNanos();
+        this.overhead = overhead.toNanos();
+        this.perByte = perByte.toNanos();
+    }
+
+    /**
+     * Method to estimate the airtime of a downlink. Only one user data entry of a counter dependent downlink is sent, so
+     * the largest one is accounted.
+     *
+     * @param msg
+     *            the downlink.
+     * @return the estimated airtime, in ns.
+     */
+    public long estimateAirtime(final DlDataQue msg) {
+        var bytes = 0;
+        if (msg.getUserData() != null) {
+            for (final byte[] data : msg.getUserData()) {
+                bytes = Math.max(bytes, data == null ? 0 : data.length);
+            }
+        }
+        return this.overhead + (bytes * this.perByte);
+    }
+
+    @Override
+    public boolean admit(final ServiceCenterConnection client, final DlDataQue msg) {
+        return this.tryAcquire(client.getEui(), this.estimateAirtime(msg));
+    }
+
+    @Override
+    public void completed(final ServiceCenterConnection client, final DlDataQue msg, final boolean sent) {
+        if (sent) {
+            this.transmitted(client.getEui(), this.estimateAirtime(msg));
+        } else {
+            this.release(client.getEui(), this.estimateAirtime(msg));
+        }
+    }
+
+    /**
+     * Method to account an airtime to a base station, if its budget allows it.
+     *
+     * @param bsEui
+     *                the base station EUI64.
+     * @param airtime
+     *                the airtime, in ns.
+     * @return TRUE if admitted.
+     */
+    public boolean tryAcquire(final EUI64 bsEui, final long airtime) {
+        final var bucket = this.bucket(bsEui);
+        final var cost = (long) (airtime / this.limit);
+        while (true) {
+            final var now = System.nanoTime();
+            final var tat = bucket.tat.get();
+            final var next = Math.max(tat, now) + cost;
+            if ((next - now) > this.window) {
+                this.rejected.increment();
+                return false;
+            }
+            if (bucket.tat.compareAndSet(tat, next)) {
+                bucket.inflight.addAndGet(cost);
+                this.admitted.increment();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Method to give back an airtime that was accounted but not used, e.g. for an expired downlink.
+     *
+     * @param bsEui
+     *                the base station EUI64.
+     * @param airtime
+     *                the airtime, in ns.
+     */
+    public void release(final EUI64 bsEui, final long airtime) {
+        final var cost = (long) (airtime / this.limit);
+        final var bucket = this.bucket(bsEui);
+        bucket.inflight.accumulateAndGet(cost, (inflight, c) -> Math.max(0, inflight - c));
+        bucket.tat.accumulateAndGet(cost, (tat, c) -> Math.max(System.nanoTime(), tat - c));
+    }
+
+    /**
+     * Method to record the transmission of an accounted airtime: it is covered by the next reported duty cycle.
+     *
+     * @param bsEui
+     *                the base station EUI64.
+     * @param airtime
+     *                the airtime, in ns.
+     */
+    public void transmitted(final EUI64 bsEui, final long airtime) {
+        final var cost = (long) (airtime / this.limit);
+        this.bucket(bsEui).inflight.accumulateAndGet(cost, (inflight, c) -> Math.max(0, inflight - c));
+    }
+
+    /**
+     * Method to reconcile the budget of a base station with its reported duty cycle. The airtime admitted and not
+     * sent yet is not reported, so it stays accounted.
+     *
+     * @param bsEui
+     *                  the base station EUI64.
+     * @param dutyCycle
+     *                  the fraction of TX time of the base station over the sliding window.
+     */
+    public void reconcile(final EUI64 bsEui, final double dutyCycle) {
+        final var used = Math.min(1.0, Math.max(0.0, dutyCycle / this.limit));
+        final var bucket = this.bucket(bsEui);
+        bucket.tat.set(System.nanoTime() + (long) (used * this.window) + bucket.inflight.get());
+    }
+
+    /**
+     * Method to retrieve the remaining airtime of a base station.
+     *
+     * @param bsEui
+     *              the base station EUI64.
+     * @return the airtime that can still be admitted now.
+     */
+    public Duration getRemainingAirtime(final EUI64 bsEui) {
+        final var used = Math.max(0, this.bucket(bsEui).tat.get() - System.nanoTime());
+        return Duration.ofNanos((long) (Math.max(0, this.window - used) * this.limit));
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of admitted downlinks.
+     */
+    public long getAdmitted() {
+        return this.admitted.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of rejected downlinks.
+     */
+    public long getRejected() {
+        return this.rejected.sum();
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        if ((apiObj instanceof StatusRsp) && (client.getEui() != null)) {
+            this.reconcile(client.getEui(), ((StatusRsp) apiObj).getDutyCycle());
+        }
+        return false;
+    }
+
+    private Bucket bucket(final EUI64 bsEui) {
+        final var bucket = this.buckets.get(bsEui);
+        if (bucket != null) {
+            return bucket;
+        }
+        return this.buckets.computeIfAbsent(bsEui, k -> new Bucket());
+    }
+
+    /**
+     * Budget of one base station.
+     */
+    private static final class Bucket {
+        /** Theoretical arrival time, in ns on the {@link System#nanoTime()} scale. */
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+        /** Cost of the admitted downlinks not sent yet, in ns. */
+        private final AtomicLong inflight = new AtomicLong();
+    }
+}
@@ -0,0 +1,117 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Metrics of the downlink fast path.
+ *
+ * @author FendtC
+ */
+public final class FastPathMetrics {
+    /** Duration of the downlink window, in ns. */
+    private final long window;
+    /** Number of staged downlinks sent in time. */
+    private final LongAdder hits = new LongAdder();
+    /** Number of windows missed because the uplink was handled too late. */
+    private final LongAdder missed = new LongAdder();
+    /** Number of windows with an expected response but without any staged downlink. */
+    private final LongAdder unanswered = new LongAdder();
+    /** Sum of the latency budget consumed by the sent downlinks, in ns. */
+    private final LongAdder consumed = new LongAdder();
+    /** Maximum latency budget consumed, in ns. */
+    private final AtomicLong maxConsumed = new AtomicLong();
+
+    /**
+     * Constructor.
+     *
+     * @param window
+     *               Duration of the downlink window.
+     */
+    FastPathMetrics(final Duration window) {
+        this.window = window.toNanos();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of staged downlinks sent in time.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of windows missed because the uplink was handled too late.
+     */
+    public long getMissed() {
+        return this.missed.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of windows with an expected response but without any staged downlink.
+     */
+    public long getUnanswered() {
+        return this.unanswered.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the average fraction of the window consumed between the reception and the sending of a downlink.
+     */
+    public double getAverageBudgetConsumed() {
+        final var count = this.hits.sum();
+        return count == 0 ? 0.0 : (double) this.consumed.sum() / count / this.window;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the maximum fraction of the window consumed between the reception and the sending of a downlink.
+     */
+    public double getMaxBudgetConsumed() {
+        return (double) this.maxConsumed.get() / this.window;
+    }
+
+    void hit(final long elapsed) {
+        this.hits.increment();
+        this.consumed.add(elapsed);
+        this.maxConsumed.accumulateAndGet(elapsed, Math::max);
+    }
+
+    void missed() {
+        this.missed.increment();
+    }
+
+    void unanswered() {
+        this.unanswered.increment();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d missed=%d unanswered=%d avgBudget=%.3f maxBudget=%.3f", this.getHits(), //$NON-NLS-1$
+                this.getMissed(), this.getUnanswered(), this.getAverageBudgetConsumed(), this.getMaxBudgetConsumed());
+    }
+}
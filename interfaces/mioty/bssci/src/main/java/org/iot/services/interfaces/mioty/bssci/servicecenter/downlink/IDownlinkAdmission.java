@@ -0,0 +1,58 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+
+/**
+ * Admission control of the downlinks, checked by the routers for every candidate base station.
+ *
+ * @author FendtC
+ */
+@FunctionalInterface
+public interface IDownlinkAdmission {
+
+    /** Admission accepting every downlink. */
+    IDownlinkAdmission ALL = (client, msg) -> true;
+
+    /**
+     * Method to admit a downlink at a base station. An admitted downlink is accounted to the base station.
+     *
+     * @param client
+     *               the base station connection.
+     * @param msg
+     *               the downlink.
+     * @return TRUE if the downlink may be queued at the base station.
+     */
+    boolean admit(ServiceCenterConnection client, DlDataQue msg);
+
+    /**
+     * Method to close the accounting of a downlink admitted at a base station.
+     *
+     * @param client
+     *               the base station connection.
+     * @param msg
+     *               the downlink.
+     * @param sent
+     *               TRUE if the base station sent the downlink, FALSE if it did not (revoked, failed, expired, or sent
+     *               by another base station), so its accounting is given back.
+     */
+    default void completed(final ServiceCenterConnection client, final DlDataQue msg, final boolean sent) {
+        // nothing accounted
+    }
+}
@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.util.List;
+
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Listener of the records of a {@link DownlinkLog}, e.g. to replicate them. Called under the lock of the log, once the
+ * record is logged, except {@link #awaitCapacity()}.
+ *
+ * @author FendtC
+ */
+public interface IDownlinkLogListener {
+
+    /**
+     * Event method, for an enqueued downlink.
+     *
+     * @param queId
+     *                   the queue ID of the downlink.
+     * @param payload
+     *                   the MsgPack downlink.
+     * @param enqueuedAt
+     *                   enqueuing time, Unix UTC time in ns.
+     * @param expiresAt
+     *                   expiration time, Unix UTC time in ns.
+     */
+    void put(long queId, byte[] payload, long enqueuedAt, long expiresAt);
+
+    /**
+     * Event method, for a downlink queued at base stations.
+     *
+     * @param queId
+     *                the queue ID of the downlink.
+     * @param targets
+     *                the base stations the downlink is queued at.
+     */
+    default void dispatched(final long queId, final List<EUI64> targets) {
+        // not needed by every listener
+    }
+
+    /**
+     * Event method, for a finished downlink.
+     *
+     * @param queId
+     *              the queue ID of the downlink.
+     */
+    void done(long queId);
+
+    /**
+     * Method to wait until the listener accepts more records (back-pressure), called without the lock of the log after
+     * an enqueued downlink.
+     */
+    default void awaitCapacity() {
+        // never full
+    }
+}
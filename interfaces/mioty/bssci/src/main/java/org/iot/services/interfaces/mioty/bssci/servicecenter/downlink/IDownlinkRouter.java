@@ -0,0 +1,61 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.util.List;
+import java.util.Set;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Router of the downlinks, selecting the base stations to queue a downlink at.
+ *
+ * @author FendtC
+ */
+@FunctionalInterface
+public interface IDownlinkRouter {
+
+    /**
+     * Method to select the base stations for a downlink.
+     *
+     * @param msg
+     *                the downlink to route.
+     * @param attempt
+     *                0 for the first attempt, incremented each time the previous base stations failed.
+     * @param tried
+     *                the base stations selected by the previous attempts, by EUI64, not to select again.
+     * @return the base stations to use, empty if no (more) base station is available.
+     */
+    List<ServiceCenterConnection> route(DlDataQue msg, int attempt, Set<EUI64> tried);
+
+    /**
+     * Method to report the end of a downlink at a base station selected by {@link #route(DlDataQue, int, Set)}, e.g. to
+     * close its admission.
+     *
+     * @param msg
+     *               the downlink.
+     * @param client
+     *               the base station connection.
+     * @param sent
+     *               TRUE if the base station sent the downlink.
+     */
+    default void completed(final DlDataQue msg, final ServiceCenterConnection client, final boolean sent) {
+        // nothing to close
+    }
+}
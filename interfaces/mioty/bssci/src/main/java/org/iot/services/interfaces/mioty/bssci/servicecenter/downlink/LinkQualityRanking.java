@@ -0,0 +1,278 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlRxStat;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Ranking of the base stations per end point, based on the live link quality.
+ * <p>
+ * The uplink SNR and RSSI (UlData) and the downlink signal and noise levels reported by the end point (DlRxStat) are
+ * smoothed with an exponentially weighted moving average. The score of a base station is its smoothed uplink SNR,
+ * blended with its smoothed downlink SNR once known. Each end point keeps its best base stations sorted in place, so
+ * updates and lookups do not allocate once the end point is known. The ranking has to be registered as interceptor of
+ * the service center.
+ *
+ * @author FendtC
+ */
+public class LinkQualityRanking implements IMessageInterceptor {
+
+    /** Default number of base stations ranked per end point. */
+    public static final int DEFAULT_CANDIDATES = 8;
+    /** Default smoothing factor of the moving averages. */
+    public static final double DEFAULT_ALPHA = 0.2;
+    /** Default weight of the downlink SNR in the score. */
+    public static final double DEFAULT_DL_WEIGHT = 0.5;
+
+    /** Number of base stations ranked per end point. */
+    @Getter
+    private final int candidates;
+    /** Smoothing factor of the moving averages. */
+    @Getter
+    private final double alpha;
+    /** Weight of the downlink SNR in the score. */
+    @Getter
+    private final double dlWeight;
+    /** Links by end point. */
+    private final Map<EUI64, EndpointLinks> links = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor with the default settings.
+     */
+    public LinkQualityRanking() {
+        this(LinkQualityRanking.DEFAULT_CANDIDATES, LinkQualityRanking.DEFAULT_ALPHA,
+                LinkQualityRanking.DEFAULT_DL_WEIGHT);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param candidates
+     *                   Number of base stations ranked per end point.
+     * @param alpha
+     *                   Smoothing factor of the moving averages, in ]0, 1].
+     * @param dlWeight
+     *                   Weight of the downlink SNR in the score, in [0, 1].
+     */
+    public LinkQualityRanking(final int candidates, final double alpha, final double dlWeight) {
+        Validate.isTrue(candidates > 0, "candidates must be positive, is: %d", candidates); //$NON-NLS-1$
+        Validate.inclusiveBetween(Double.MIN_VALUE, 1.0, alpha);
+        Validate.inclusiveBetween(0.0, 1.0, dlWeight);
+        this.candidates = candidates;
+        this.alpha = alpha;
+        this.dlWeight = dlWeight;
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        if (apiObj instanceof UlData) {
+            final var ulData = (UlData) apiObj;
+            this.uplink(ulData.getEpEui(), client.getEui(), ulData.getRssi(), ulData.getSnr());
+        } else if (apiObj instanceof DlRxStat) {
+            final var dlRxStat = (DlRxStat) apiObj;
+            this.downlink(dlRxStat.getEpEui(), client.getEui(), dlRxStat.getDlRxSignalLevel(),
+                    dlRxStat.getDlRxNoiseLevel());
+        }
+        return false;
+    }
+
+    /**
+     * Method to update the ranking with an uplink.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @param bsEui
+     *              the receiving base station EUI64.
+     * @param rssi
+     *              the reception signal level.
+     * @param snr
+     *              the reception SNR.
+     */
+    public void uplink(final EUI64 epEui, final EUI64 bsEui, final double rssi, final double snr) {
+        var endpoint = this.links.get(epEui);
+        if (endpoint == null) {
+            endpoint = this.links.computeIfAbsent(epEui, k -> new EndpointLinks(this.candidates));
+        }
+        endpoint.uplink(bsEui, rssi, snr);
+    }
+
+    /**
+     * Method to update the ranking with a downlink reception status of the end point.
+     *
+     * @param epEui
+     *                    the end point EUI64.
+     * @param bsEui
+     *                    the transmitting base station EUI64.
+     * @param signalLevel
+     *                    the end point reception signal level.
+     * @param noiseLevel
+     *                    the end point reception noise level.
+     */
+    public void downlink(final EUI64 epEui, final EUI64 bsEui, final double signalLevel, final double noiseLevel) {
+        final var endpoint = this.links.get(epEui);
+        if (endpoint != null) {
+            endpoint.downlink(bsEui, signalLevel - noiseLevel);
+        }
+    }
+
+    /**
+     * Method to retrieve a ranked base station of an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @param rank
+     *              the rank, 0 for the best base station.
+     * @return the base station EUI64, or NULL if the end point has less ranked base stations.
+     */
+    public EUI64 candidate(final EUI64 epEui, final int rank) {
+        final var endpoint = this.links.get(epEui);
+        return endpoint == null ? null : endpoint.get(rank);
+    }
+
+    /**
+     * Method to forget an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     */
+    public void remove(final EUI64 epEui) {
+        this.links.remove(epEui);
+    }
+
+    /**
+     * Links of one end point, sorted by descending score.
+     */
+    private final class EndpointLinks {
+        /** Base stations. */
+        private final EUI64[] stations;
+        /** Smoothed uplink RSSI. */
+        private final double[] rssi;
+        /** Smoothed uplink SNR. */
+        private final double[] snr;
+        /** Smoothed downlink SNR, NaN until known. */
+        private final double[] dlSnr;
+        /** Score. */
+        private final double[] score;
+        /** Number of ranked base stations. */
+        private int size;
+
+        private EndpointLinks(final int capacity) {
+            this.stations = new EUI64[capacity];
+            this.rssi = new double[capacity];
+            this.snr = new double[capacity];
+            this.dlSnr = new double[capacity];
+            this.score = new double[capacity];
+        }
+
+        private synchronized void uplink(final EUI64 bsEui, final double rssiVal, final double snrVal) {
+            var index = this.indexOf(bsEui);
+            if (index < 0) {
+                if (this.size == this.stations.length) {
+                    // a new base station replaces the worst one only if it scores better, so the ranking is stable
+                    final var worst = this.size - 1;
+                    if ((snrVal < this.score[worst])
+                            || ((snrVal == this.score[worst]) && (rssiVal <= this.rssi[worst]))) {
+                        return;
+                    }
+                    index = worst;
+                } else {
+                    index = this.size++;
+                }
+                this.stations[index] = bsEui;
+                this.rssi[index] = rssiVal;
+                this.snr[index] = snrVal;
+                this.dlSnr[index] = Double.NaN;
+            } else {
+                final var a = LinkQualityRanking.this.alpha;
+                this.rssi[index] += a * (rssiVal - this.rssi[index]);
+                this.snr[index] += a * (snrVal - this.snr[index]);
+            }
+            this.rank(index);
+        }
+
+        private synchronized void downlink(final EUI64 bsEui, final double snrVal) {
+            final var index = this.indexOf(bsEui);
+            if (index >= 0) {
+                this.dlSnr[index] = Double.isNaN(this.dlSnr[index]) ? snrVal
+                        : this.dlSnr[index] + (LinkQualityRanking.this.alpha * (snrVal - this.dlSnr[index]));
+                this.rank(index);
+            }
+        }
+
+        private synchronized EUI64 get(final int rank) {
+            return (rank >= 0) && (rank < this.size) ? this.stations[rank] : null;
+        }
+
+        private int indexOf(final EUI64 bsEui) {
+            for (var i = 0; i < this.size; i++) {
+                if (this.stations[i].equals(bsEui)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Method to compute the score of an entry and to move it to its rank.
+         */
+        private void rank(final int index) {
+            final var w = LinkQualityRanking.this.dlWeight;
+            this.score[index] = Double.isNaN(this.dlSnr[index]) ? this.snr[index]
+                    : ((1.0 - w) * this.snr[index]) + (w * this.dlSnr[index]);
+            var i = index;
+            while ((i > 0) && this.better(i, i - 1)) {
+                this.swap(i, i - 1);
+                i--;
+            }
+            while ((i < (this.size - 1)) && this.better(i + 1, i)) {
+                this.swap(i, i + 1);
+                i++;
+            }
+        }
+
+        private boolean better(final int i, final int j) {
+            return (this.score[i] > this.score[j]) || ((this.score[i] == this.score[j]) && (this.rssi[i] > this.rssi[j]));
+        }
+
+        private void swap(final int i, final int j) {
+            final var station = this.stations[i];
+            this.stations[i] = this.stations[j];
+            this.stations[j] = station;
+            LinkQualityRanking.swap(this.rssi, i, j);
+            LinkQualityRanking.swap(this.snr, i, j);
+            LinkQualityRanking.swap(this.dlSnr, i, j);
+            LinkQualityRanking.swap(this.score, i, j);
+        }
+    }
+
+    private static void swap(final double[] values, final int i, final int j) {
+        final var tmp = values[i];
+        values[i] = values[j];
+        values[j] = tmp;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.BssciServiceCenter;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Router queueing every downlink at the connected base station with the best link to the end point. Each failed
+ * attempt falls back to the best base station of the ranking not tried yet. End points without any known link are broadcast.
+ *
+ * @author FendtC
+ */
+public class LinkQualityRouter implements IDownlinkRouter {
+    /** The service center. */
+    private final BssciServiceCenter scs;
+    /** The ranking of the base stations. */
+    private final LinkQualityRanking ranking;
+    /** Router for the end points without any known link. */
+    private final BroadcastRouter fallback;
+    /** Admission control of the downlinks. */
+    private IDownlinkAdmission admission = IDownlinkAdmission.ALL;
+
+    /**
+     * Constructor.
+     *
+     * @param scs
+     *                the service center.
+     * @param ranking
+     *                the ranking of the base stations.
+     */
+    public LinkQualityRouter(final BssciServiceCenter scs, final LinkQualityRanking ranking) {
+        this.scs = scs;
+        this.ranking = ranking;
+        this.fallback = new BroadcastRouter(scs);
+    }
+
+    /**
+     * Method to set the admission control of the downlinks. Base stations refusing a downlink are skipped.
+     *
+     * @param admissionCtrl
+     *                      the admission control.
+     * @return the router.
+     */
+    public LinkQualityRouter withAdmission(final IDownlinkAdmission admissionCtrl) {
+        this.admission = Validate.notNull(admissionCtrl);
+        this.fallback.withAdmission(admissionCtrl);
+        return this;
+    }
+
+    @Override
+    public List<ServiceCenterConnection> route(final DlDataQue msg, final int attempt, final Set<EUI64> tried) {
+        final var epEui = msg.getEpEui();
+        if (this.ranking.candidate(epEui, 0) == null) {
+            return this.fallback.route(msg, attempt, tried);
+        }
+        // the best connected and admitting base station not tried yet
+        for (var rank = 0; rank < this.ranking.getCandidates(); rank++) {
+            final var bsEui = this.ranking.candidate(epEui, rank);
+            if (bsEui == null) {
+                break;
+            }
+            if (tried.contains(bsEui)) {
+                continue;
+            }
+            final var client = this.scs.getClient(bsEui);
+            if ((client != null) && client.isConnected() && this.admission.admit(client, msg)) {
+                return Collections.singletonList(client);
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    @Override
+    public void completed(final DlDataQue msg, final ServiceCenterConnection client, final boolean sent) {
+        this.admission.completed(client, msg, sent);
+    }
+}
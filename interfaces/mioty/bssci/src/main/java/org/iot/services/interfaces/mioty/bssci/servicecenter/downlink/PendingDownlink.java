@@ -0,0 +1,45 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.downlink;
+
+import java.util.List;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Downlink recovered from the {@link DownlinkLog}, not finished before the restart.
+ *
+ * @author FendtC
+ */
+@Getter
+@AllArgsConstructor
+public final class PendingDownlink {
+    /** The downlink. */
+    private final DlDataQue msg;
+    /** Enqueuing time, Unix UTC time in ns. */
+    private final long enqueuedAt;
+    /** Expiration time, Unix UTC time in ns. */
+    private final long expiresAt;
+    /** TRUE if the downlink was queued at base stations before the restart. */
+    private final boolean dispatched;
+    /** The base stations the downlink was last queued at, empty if not dispatched. */
+    private final List<EUI64> targets;
+}
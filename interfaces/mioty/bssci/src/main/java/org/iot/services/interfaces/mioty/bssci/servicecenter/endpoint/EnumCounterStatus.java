@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.endpoint;
+
+/**
+ * Classification of a received end point packet counter.
+ *
+ * @author FendtC
+ */
+public enum EnumCounterStatus {
+    /** Counter newer than every counter received so far. */
+    NEW,
+    /** Counter inside the window, missing so far (late reception). */
+    REORDERED,
+    /** Counter inside the window, already received before the copy window. */
+    DUPLICATE,
+    /** Counter older than the window, potential replay. */
+    REPLAY,
+    /** Counter just received, copy from another base station: not counted. */
+    COPY;
+}
@@ -0,0 +1,46 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.endpoint;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Packet loss statistics of one end point or of the whole fleet.
+ *
+ * @author FendtC
+ */
+@Getter
+@AllArgsConstructor
+public final class LossStatistics {
+    /** Number of distinct packets received. */
+    private final long received;
+    /** Number of packets missing. */
+    private final long lost;
+    /** Number of duplicated receptions. */
+    private final long duplicates;
+    /** Number of replayed or out-of-window counters. */
+    private final long replays;
+    /** Packet error rate, over the sliding window for an end point, overall for the fleet. */
+    private final double packetErrorRate;
+
+    @Override
+    public String toString() {
+        return String.format("received=%d lost=%d duplicates=%d replays=%d per=%.4f", this.received, this.lost, //$NON-NLS-1$
+                this.duplicates, this.replays, this.packetErrorRate);
+    }
+}
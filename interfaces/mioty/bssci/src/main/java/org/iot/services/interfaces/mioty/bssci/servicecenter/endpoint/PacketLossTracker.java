@@ -0,0 +1,461 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.endpoint;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.Att;
+import org.iot.services.interfaces.mioty.bssci.api.main.Det;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Tracker of the packet counters of the end points, to detect losses, duplicates and replays.
+ * <p>
+ * Each end point keeps the highest counter received and a 64 bit bitmap of the last 64 counters, so an update is a
+ * few primitive operations. A gap counts the missing counters as lost; a late reception inside the window recovers
+ * them. Counters older than the window are flagged as replays and, if configured, dropped (the uplink is still
+ * acknowledged). The copies of the last counter received by other base stations within the copy window are not
+ * counted. An attachment restarts the window, as the end point restarts its counter; a detachment forgets the end
+ * point. The tracker has to be registered as interceptor of the service center; the attachments propagated by the
+ * service center itself have to be reported with {@link #reset(EUI64)}.
+ * <p>
+ * The windows are stored in primitive open addressing tables, split in segments with their own lock and growing with
+ * the fleet: there is no object per end point.
+ *
+ * @author FendtC
+ */
+public class PacketLossTracker implements IMessageInterceptor {
+
+    /** Size of the sliding window. */
+    public static final int WINDOW = Long.SIZE;
+    /** Default size of the end point packet counter, in bits. */
+    public static final int DEFAULT_COUNTER_BITS = 32;
+    /** Delay after the reception of a counter during which the same counter is a copy from another base station. */
+    public static final Duration COPY_WINDOW = Duration.ofSeconds(2);
+
+    /** Number of segments. */
+    private static final int SEGMENTS = 64;
+    /** Initial number of slots of a segment. */
+    private static final int INITIAL_SLOTS = 16;
+
+    /** Shift to sign-extend a counter difference. */
+    private final int shift;
+    /** TRUE to drop the replayed uplinks. */
+    @Getter
+    private final boolean dropReplays;
+    /** Windows of the end points, by segment of their EUI64 hash. */
+    private final Segment[] segments = new Segment[PacketLossTracker.SEGMENTS];
+    /** Fleet counter. */
+    private final LongAdder received = new LongAdder();
+    /** Fleet counter. */
+    private final LongAdder lost = new LongAdder();
+    /** Fleet counter. */
+    private final LongAdder duplicates = new LongAdder();
+    /** Fleet counter. */
+    private final LongAdder replays = new LongAdder();
+    /** Fleet counter. */
+    private final LongAdder copies = new LongAdder();
+
+    /**
+     * Constructor with the default settings.
+     */
+    public PacketLossTracker() {
+        this(PacketLossTracker.DEFAULT_COUNTER_BITS, false);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param counterBits
+     *                    Size of the end point packet counter in bits, for the wrap-around.
+     * @param dropReplays
+     *                    TRUE to drop the replayed uplinks.
+     */
+    public PacketLossTracker(final int counterBits, final boolean dropReplays) {
+        Validate.inclusiveBetween(8, 32, counterBits);
+        this.shift = Integer.SIZE - counterBits;
+        this.dropReplays = dropReplays;
+        for (var i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment(PacketLossTracker.INITIAL_SLOTS);
+        }
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        if (apiObj instanceof UlData) {
+            final var ulData = (UlData) apiObj;
+            final var status = this.update(ulData.getEpEui(), ulData.getPacketCnt());
+            if ((status == EnumCounterStatus.REPLAY) && this.dropReplays) {
+                client.respond(ulData.createResponse(), ulData);
+                return true;
+            }
+        } else if (apiObj instanceof Att) {
+            this.reset(((Att) apiObj).getEpEui());
+        } else if (apiObj instanceof Det) {
+            this.remove(((Det) apiObj).getEpEui());
+        }
+        return false;
+    }
+
+    /**
+     * Method to track a received packet counter.
+     *
+     * @param epEui
+     *                  the end point EUI64.
+     * @param packetCnt
+     *                  the packet counter.
+     * @return the classification of the counter.
+     */
+    public EnumCounterStatus update(final EUI64 epEui, final int packetCnt) {
+        final var key = epEui.asLong();
+        final var hash = PacketLossTracker.mix(key);
+        final var segment = this.segment(hash);
+        final EnumCounterStatus status;
+        final long gap;
+        synchronized (segment) {
+            status = segment.update(segment.insert(key, hash), packetCnt, this.shift, System.nanoTime());
+            gap = segment.gap;
+        }
+        switch (status) {
+        case NEW:
+        case REORDERED:
+            this.received.increment();
+            this.lost.add(gap);
+            break;
+        case DUPLICATE:
+            this.duplicates.increment();
+            break;
+        case COPY:
+            this.copies.increment();
+            break;
+        default:
+            this.replays.increment();
+            break;
+        }
+        return status;
+    }
+
+    /**
+     * Method to retrieve the statistics of an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @return the statistics, or NULL if the end point is unknown.
+     */
+    public LossStatistics getStatistics(final EUI64 epEui) {
+        final var key = epEui.asLong();
+        final var hash = PacketLossTracker.mix(key);
+        final var segment = this.segment(hash);
+        synchronized (segment) {
+            final var slot = segment.find(key, hash);
+            if (slot < 0) {
+                return null;
+            }
+            return new LossStatistics(segment.received[slot], segment.lost[slot], segment.duplicates[slot],
+                    segment.replays[slot], segment.packetErrorRate(slot));
+        }
+    }
+
+    /**
+     * Method to retrieve the statistics of the whole fleet.
+     *
+     * @return the statistics.
+     */
+    public LossStatistics getFleetStatistics() {
+        final var rcv = this.received.sum();
+        final var lst = this.lost.sum();
+        return new LossStatistics(rcv, lst, this.duplicates.sum(), this.replays.sum(),
+                (rcv + lst) == 0 ? 0.0 : (double) lst / (rcv + lst));
+    }
+
+    /**
+     * Method to retrieve the number of copies of the same counter received by several base stations.
+     *
+     * @return the number of copies, not counted in the statistics.
+     */
+    public long getCopies() {
+        return this.copies.sum();
+    }
+
+    /**
+     * Method to restart the window of an end point, e.g. on (re)attachment, as its counter restarts. The statistics
+     * are kept.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     */
+    public void reset(final EUI64 epEui) {
+        final var key = epEui.asLong();
+        final var hash = PacketLossTracker.mix(key);
+        final var segment = this.segment(hash);
+        synchronized (segment) {
+            final var slot = segment.find(key, hash);
+            if (slot >= 0) {
+                segment.span[slot] = 0;
+            }
+        }
+    }
+
+    /**
+     * Method to forget an end point, e.g. on detach.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     */
+    public void remove(final EUI64 epEui) {
+        final var key = epEui.asLong();
+        final var hash = PacketLossTracker.mix(key);
+        final var segment = this.segment(hash);
+        synchronized (segment) {
+            final var slot = segment.find(key, hash);
+            if (slot >= 0) {
+                segment.remove(slot);
+            }
+        }
+    }
+
+    private Segment segment(final long hash) {
+        // the high bits select the segment, the low ones the slot
+        return this.segments[(int) (hash >>> 58)];
+    }
+
+    private static long mix(final long key) {
+        // murmur3 finalizer
+        var h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Open addressing table of the sliding windows of a segment, with linear probing, one primitive array by field.
+     */
+    private static final class Segment {
+        /** TRUE if the slot is used. */
+        private boolean[] used;
+        /** EUI64 of the end points. */
+        private long[] keys;
+        /** Highest counter received. */
+        private int[] highest;
+        /** Bit i set if the counter highest - i is received. */
+        private long[] bitmap;
+        /** Number of counters tracked in the window, 0 before the first reception. */
+        private int[] span;
+        /** Last counter received. */
+        private int[] last;
+        /** Reception time of the last counter, in ns. */
+        private long[] lastAt;
+        /** Counters. */
+        private long[] received;
+        /** Counters. */
+        private long[] lost;
+        /** Counters. */
+        private long[] duplicates;
+        /** Counters. */
+        private long[] replays;
+        /** Mask of the slot indexes. */
+        private int mask;
+        /** Number of used slots. */
+        private int size;
+        /** Number of lost counters of the last update. */
+        private long gap;
+
+        private Segment(final int slots) {
+            this.allocate(slots);
+        }
+
+        private void allocate(final int slots) {
+            this.used = new boolean[slots];
+            this.keys = new long[slots];
+            this.highest = new int[slots];
+            this.bitmap = new long[slots];
+            this.span = new int[slots];
+            this.last = new int[slots];
+            this.lastAt = new long[slots];
+            this.received = new long[slots];
+            this.lost = new long[slots];
+            this.duplicates = new long[slots];
+            this.replays = new long[slots];
+            this.mask = slots - 1;
+        }
+
+        private int find(final long key, final long hash) {
+            for (var slot = (int) hash & this.mask; this.used[slot]; slot = (slot + 1) & this.mask) {
+                if (this.keys[slot] == key) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private int insert(final long key, final long hash) {
+            var slot = (int) hash & this.mask;
+            for (; this.used[slot]; slot = (slot + 1) & this.mask) {
+                if (this.keys[slot] == key) {
+                    return slot;
+                }
+            }
+            if ((this.size + 1) * 2 > this.used.length) {
+                // at most half full, so the probes stay short
+                this.grow();
+                return this.insert(key, hash);
+            }
+            this.used[slot] = true;
+            this.keys[slot] = key;
+            this.size++;
+            return slot;
+        }
+
+        private void grow() {
+            final var bigger = new Segment(this.used.length * 2);
+            for (var i = 0; i < this.used.length; i++) {
+                if (this.used[i]) {
+                    var slot = (int) PacketLossTracker.mix(this.keys[i]) & bigger.mask;
+                    while (bigger.used[slot]) {
+                        slot = (slot + 1) & bigger.mask;
+                    }
+                    bigger.move(this, i, slot);
+                }
+            }
+            this.take(bigger);
+        }
+
+        private void remove(final int slot) {
+            // backward shift, so the following keys of the chain stay reachable without tombstones
+            var hole = slot;
+            for (var next = (slot + 1) & this.mask; this.used[next]; next = (next + 1) & this.mask) {
+                final var home = (int) PacketLossTracker.mix(this.keys[next]) & this.mask;
+                if (((next - home) & this.mask) >= ((next - hole) & this.mask)) {
+                    this.move(this, next, hole);
+                    hole = next;
+                }
+            }
+            this.used[hole] = false;
+            this.keys[hole] = 0;
+            this.highest[hole] = 0;
+            this.bitmap[hole] = 0;
+            this.span[hole] = 0;
+            this.last[hole] = 0;
+            this.lastAt[hole] = 0;
+            this.received[hole] = 0;
+            this.lost[hole] = 0;
+            this.duplicates[hole] = 0;
+            this.replays[hole] = 0;
+            this.size--;
+        }
+
+        private void take(final Segment from) {
+            this.used = from.used;
+            this.keys = from.keys;
+            this.highest = from.highest;
+            this.bitmap = from.bitmap;
+            this.span = from.span;
+            this.last = from.last;
+            this.lastAt = from.lastAt;
+            this.received = from.received;
+            this.lost = from.lost;
+            this.duplicates = from.duplicates;
+            this.replays = from.replays;
+            this.mask = from.mask;
+        }
+
+        private void move(final Segment from, final int src, final int dst) {
+            this.used[dst] = true;
+            this.keys[dst] = from.keys[src];
+            this.highest[dst] = from.highest[src];
+            this.bitmap[dst] = from.bitmap[src];
+            this.span[dst] = from.span[src];
+            this.last[dst] = from.last[src];
+            this.lastAt[dst] = from.lastAt[src];
+            this.received[dst] = from.received[src];
+            this.lost[dst] = from.lost[src];
+            this.duplicates[dst] = from.duplicates[src];
+            this.replays[dst] = from.replays[src];
+        }
+
+        private EnumCounterStatus update(final int slot, final int packetCnt, final int shift, final long now) {
+            this.gap = 0;
+            final var span = this.span[slot];
+            if ((span > 0) && (packetCnt == this.last[slot])
+                    && ((now - this.lastAt[slot]) < PacketLossTracker.COPY_WINDOW.toNanos())) {
+                return EnumCounterStatus.COPY;
+            }
+            this.last[slot] = packetCnt;
+            this.lastAt[slot] = now;
+            if (span == 0) {
+                this.highest[slot] = packetCnt;
+                this.bitmap[slot] = 1L;
+                this.span[slot] = 1;
+                this.received[slot]++;
+                return EnumCounterStatus.NEW;
+            }
+            // difference modulo the counter size
+            final var diff = ((packetCnt - this.highest[slot]) << shift) >> shift;
+            if (diff > 0) {
+                this.bitmap[slot] = diff >= PacketLossTracker.WINDOW ? 1L : (this.bitmap[slot] << diff) | 1L;
+                this.span[slot] = (int) Math.min(PacketLossTracker.WINDOW, (long) span + diff);
+                this.highest[slot] = packetCnt;
+                this.gap = diff - 1L;
+                this.lost[slot] += this.gap;
+                this.received[slot]++;
+                return EnumCounterStatus.NEW;
+            }
+            final var age = -diff;
+            if (age >= PacketLossTracker.WINDOW) {
+                this.replays[slot]++;
+                return EnumCounterStatus.REPLAY;
+            }
+            final var bit = 1L << age;
+            if ((this.bitmap[slot] & bit) != 0) {
+                this.duplicates[slot]++;
+                return EnumCounterStatus.DUPLICATE;
+            }
+            this.bitmap[slot] |= bit;
+            if (age < span) {
+                // was counted as lost
+                this.gap = -1L;
+                this.lost[slot]--;
+            } else {
+                // older than the first reception
+                this.span[slot] = age + 1;
+            }
+            this.received[slot]++;
+            return EnumCounterStatus.REORDERED;
+        }
+
+        private double packetErrorRate(final int slot) {
+            final var span = this.span[slot];
+            if (span == 0) {
+                // window restarted, nothing received since
+                return 0.0;
+            }
+            final var mask = span >= PacketLossTracker.WINDOW ? -1L : (1L << span) - 1L;
+            return 1.0 - ((double) Long.bitCount(this.bitmap[slot] & mask) / span);
+        }
+    }
+}
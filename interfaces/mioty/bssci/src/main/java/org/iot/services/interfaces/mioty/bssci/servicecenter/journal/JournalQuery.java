@@ -0,0 +1,102 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.journal;
+
+import java.time.Duration;
+import java.time.Instant;
+
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Criteria of a journal query, every criterion is optional.
+ *
+ * @author FendtC
+ */
+@Getter
+public final class JournalQuery {
+    /** Start of the time range, inclusive. */
+    private Instant from = Instant.EPOCH;
+    /** End of the time range, inclusive. */
+    private Instant to = Instant.ofEpochMilli(Long.MAX_VALUE);
+    /** End point, NULL for every end point. */
+    private EUI64 epEui;
+    /** Base station, NULL for every base station. */
+    private EUI64 bsEui;
+
+    /**
+     * Setter method.
+     *
+     * @param start
+     *              Start of the time range, inclusive.
+     * @return the current object, after modification.
+     */
+    public JournalQuery from(final Instant start) {
+        this.from = start;
+        return this;
+    }
+
+    /**
+     * Setter method.
+     *
+     * @param end
+     *            End of the time range, inclusive.
+     * @return the current object, after modification.
+     */
+    public JournalQuery to(final Instant end) {
+        this.to = end;
+        return this;
+    }
+
+    /**
+     * Setter method, for a time range ending now.
+     *
+     * @param duration
+     *                 Length of the time range.
+     * @return the current object, after modification.
+     */
+    public JournalQuery last(final Duration duration) {
+        this.to = Instant.now();
+        this.from = this.to.minus(duration);
+        return this;
+    }
+
+    /**
+     * Setter method.
+     *
+     * @param endpoint
+     *                 End point EUI64.
+     * @return the current object, after modification.
+     */
+    public JournalQuery endpoint(final EUI64 endpoint) {
+        this.epEui = endpoint;
+        return this;
+    }
+
+    /**
+     * Setter method.
+     *
+     * @param baseStation
+     *                    Base station EUI64.
+     * @return the current object, after modification.
+     */
+    public JournalQuery baseStation(final EUI64 baseStation) {
+        this.bsEui = baseStation;
+        return this;
+    }
+}
@@ -0,0 +1,304 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.utils.MsgPackPeek;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Query engine over the uplink journal, with an index per segment.
+ * <p>
+ * A background indexer tails the journal, so the appends stay untouched: it records a sparse time index and the
+ * posting lists of the end points. The index of a sealed segment is persisted next to it and reloaded on start, the
+ * others are rebuilt by scanning their segment. A query only visits the segments overlapping its time range, through
+ * the posting list of its end point if any, and streams the records lazily from the mapped segments.
+ *
+ * @author FendtC
+ */
+public class JournalQueryEngine implements AutoCloseable {
+
+    /** Default interval of the background indexing. */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofSeconds(1);
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(JournalQueryEngine.class);
+    /** Field name. */
+    private static final byte[] KEY_EP_EUI = MsgPackPeek.key("epEui"); //$NON-NLS-1$
+
+    /** The journal. */
+    private final UplinkJournal journal;
+    /** The indexes, by segment base offset. */
+    private final Map<Long, SegmentIndex> indexes = new ConcurrentSkipListMap<>();
+    /** Scratch buffer of the indexer. */
+    private byte[] scratch = new byte[256];
+    /** Background indexer. */
+    private final ScheduledExecutorService indexer;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param journal
+     *                the journal to index.
+     */
+    public JournalQueryEngine(final UplinkJournal journal) {
+        this(journal, JournalQueryEngine.DEFAULT_INTERVAL);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param journal
+     *                 the journal to index.
+     * @param interval
+     *                 interval of the background indexing.
+     */
+    public JournalQueryEngine(final UplinkJournal journal, final Duration interval) {
+        this.journal = Validate.notNull(journal);
+        this.indexer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-journal-indexer"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var millis = interval.toMillis();
+        this.indexer.scheduleWithFixedDelay(this::catchUp, 0, millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method to query the journal. The index is brought up to date first; the records are read lazily while the
+     * stream is consumed.
+     *
+     * @param query
+     *              the criteria.
+     * @return the matching records, in append order.
+     */
+    public Stream<JournalRecord> query(final JournalQuery query) {
+        this.catchUp();
+        final var from = query.getFrom().toEpochMilli();
+        final var to = query.getTo().toEpochMilli();
+        final List<SegmentIndex> selected = new ArrayList<>();
+        for (final var index : this.indexes.values()) {
+            if (index.overlaps(from, to)) {
+                selected.add(index);
+            }
+        }
+        final var iterator = new RecordIterator(query, selected, from, to);
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
+    /**
+     * Method to index the records appended since the last call.
+     */
+    public synchronized void catchUp() {
+        try {
+            // drop the indexes of the expired segments
+            for (final var base : this.indexes.keySet()) {
+                if (!this.journal.segments.containsKey(base)) {
+                    this.indexes.remove(base);
+                    Files.deleteIfExists(this.indexPath(base));
+                }
+            }
+            final var committed = this.journal.getCommitted();
+            for (final var segment : this.journal.segments.values()) {
+                var index = this.indexes.get(segment.base);
+                if (index == null) {
+                    index = this.load(segment.base);
+                    this.indexes.put(segment.base, index);
+                }
+                if (!index.sealed) {
+                    this.scan(segment, index, committed);
+                }
+            }
+        } catch (final IOException | RuntimeException e) {
+            JournalQueryEngine.LOG.error("Journal indexing failed", e); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public void close() {
+        this.indexer.shutdownNow();
+    }
+
+    private SegmentIndex load(final long base) {
+        final var path = this.indexPath(base);
+        if (Files.exists(path)) {
+            try {
+                return SegmentIndex.read(base, path);
+            } catch (final IOException e) {
+                JournalQueryEngine.LOG.warn("Rebuilding the journal index {}", path, e); //$NON-NLS-1$
+            }
+        }
+        return new SegmentIndex(base);
+    }
+
+    private void scan(final JournalSegment segment, final SegmentIndex index, final long committed)
+            throws IOException {
+        final ByteBuffer view = segment.buffer.duplicate();
+        final var limit = Math.min(segment.capacity(), committed - segment.base);
+        var pos = index.indexed;
+        while ((pos + Integer.BYTES) <= limit) {
+            final var length = view.getInt(pos);
+            if (length == UplinkJournal.END_OF_SEGMENT) {
+                index.sealed = true;
+                break;
+            }
+            if ((length <= 0) || ((pos + UplinkJournal.HEADER + length) > limit)) {
+                break;
+            }
+            if (this.scratch.length < length) {
+                this.scratch = new byte[Math.max(length, this.scratch.length * 2)];
+            }
+            view.position(pos + UplinkJournal.HEADER);
+            view.get(this.scratch, 0, length);
+            final var epEui = MsgPackPeek.find(this.scratch, JournalQueryEngine.KEY_EP_EUI);
+            index.add(pos, view.getLong(pos + Integer.BYTES), epEui >= 0, MsgPackPeek.readLong(this.scratch, epEui, 0));
+            pos += UplinkJournal.HEADER + length;
+        }
+        index.indexed = pos;
+        if (index.sealed) {
+            index.write(this.indexPath(segment.base));
+        }
+    }
+
+    private Path indexPath(final long base) {
+        return this.journal.getDirectory().resolve(String.format("%020d%s", base, SegmentIndex.SUFFIX)); //$NON-NLS-1$
+    }
+
+    /**
+     * Lazy iterator over the matching records.
+     */
+    private final class RecordIterator implements Iterator<JournalRecord> {
+        /** The criteria. */
+        private final JournalQuery query;
+        /** Segments to visit. */
+        private final Iterator<SegmentIndex> segments;
+        /** Start of the time range. */
+        private final long from;
+        /** End of the time range. */
+        private final long to;
+        /** Current segment, NULL if none. */
+        private JournalSegment segment;
+        /** Limit of the current segment, its indexed part. */
+        private int limit;
+        /** Positions of the end point records of the current segment, NULL for a sequential scan. */
+        private int[] postings;
+        /** Next posting, or next scan position. */
+        private int cursor;
+        /** Next matching record, NULL if not read yet. */
+        private JournalRecord next;
+
+        private RecordIterator(final JournalQuery query, final List<SegmentIndex> segments, final long from,
+                final long to) {
+            this.query = query;
+            this.segments = segments.iterator();
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.next == null) {
+                if ((this.segment == null) && !this.open()) {
+                    return false;
+                }
+                this.next = this.advance();
+            }
+            return true;
+        }
+
+        @Override
+        public JournalRecord next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final var rec = this.next;
+            this.next = null;
+            return rec;
+        }
+
+        private boolean open() {
+            while (this.segments.hasNext()) {
+                final var index = this.segments.next();
+                final var candidate = JournalQueryEngine.this.journal.segments.get(index.base);
+                if (candidate != null) {
+                    this.segment = candidate;
+                    this.limit = index.indexed;
+                    if (this.query.getEpEui() != null) {
+                        this.postings = index.postings(this.query.getEpEui().asLong());
+                        this.cursor = 0;
+                    } else {
+                        this.postings = null;
+                        this.cursor = index.seek(this.from);
+                    }
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private JournalRecord advance() {
+            while (true) {
+                final int pos;
+                if (this.postings != null) {
+                    if (this.cursor >= this.postings.length) {
+                        break;
+                    }
+                    pos = this.postings[this.cursor++];
+                } else {
+                    if (this.cursor >= this.limit) {
+                        break;
+                    }
+                    pos = this.cursor;
+                    this.cursor += UplinkJournal.HEADER + this.segment.buffer.getInt(pos);
+                }
+                final var time = this.segment.buffer.getLong(pos + Integer.BYTES);
+                if ((this.postings == null) && (time > this.to)) {
+                    break;
+                }
+                if ((time >= this.from) && (time <= this.to) && ((this.query.getBsEui() == null)
+                        || (this.segment.buffer.getLong(pos + Integer.BYTES + Long.BYTES) == this.query.getBsEui()
+                                .asLong()))) {
+                    return this.segment.read(pos);
+                }
+            }
+            // segment exhausted
+            this.segment = null;
+            return null;
+        }
+    }
+}
@@ -0,0 +1,136 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Reader tailing the journal with its own offset. A named reader persists its offset on {@link #commit()} and resumes
+ * from it. A reader is used by a single thread.
+ *
+ * @author FendtC
+ */
+public final class JournalReader {
+
+    /** Suffix of the offset files. */
+    private static final String SUFFIX = ".offset"; //$NON-NLS-1$
+
+    /** The journal. */
+    private final UplinkJournal journal;
+    /** File of the persisted offset, NULL for a transient reader. */
+    private final Path offsetFile;
+    /** Offset of the next record. */
+    @Getter
+    private long offset;
+    /** Segment being read. */
+    private JournalSegment segment;
+    /** View of the segment being read. */
+    private ByteBuffer view;
+
+    /**
+     * Constructor.
+     *
+     * @param journal
+     *                the journal.
+     * @param name
+     *                the name of the reader, NULL for a transient reader.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    JournalReader(final UplinkJournal journal, final String name) throws IOException {
+        this.journal = journal;
+        this.offsetFile = name == null ? null : journal.getDirectory().resolve(name + JournalReader.SUFFIX);
+        if ((this.offsetFile != null) && Files.exists(this.offsetFile)) {
+            this.offset = ByteBuffer.wrap(Files.readAllBytes(this.offsetFile)).getLong();
+        } else {
+            this.offset = journal.getFirstOffset();
+        }
+    }
+
+    /**
+     * Method to read the next record.
+     *
+     * @return the record, or NULL if the reader is at the end of the journal.
+     */
+    public JournalRecord poll() {
+        while (this.offset < this.journal.getCommitted()) {
+            if ((this.segment == null) || (this.offset < this.segment.base)
+                    || (this.offset >= (this.segment.base + this.segment.capacity()))) {
+                final var entry = this.journal.segments.floorEntry(this.offset);
+                if (entry == null) {
+                    // older records expired
+                    this.offset = this.journal.getFirstOffset();
+                    continue;
+                }
+                this.segment = entry.getValue();
+                this.view = this.segment.buffer.duplicate();
+            }
+            final var pos = (int) (this.offset - this.segment.base);
+            final var length = (pos + Integer.BYTES) <= this.view.capacity() ? this.view.getInt(pos)
+                    : UplinkJournal.END_OF_SEGMENT;
+            if (length <= 0) {
+                // end of segment (or an expired segment replaced by the next one)
+                final var next = this.journal.segments.higherKey(this.segment.base);
+                if (next == null) {
+                    return null;
+                }
+                this.offset = next;
+                continue;
+            }
+            final var payload = new byte[length];
+            this.view.position(pos + UplinkJournal.HEADER);
+            this.view.get(payload);
+            final var rec = new JournalRecord(this.offset, this.view.getLong(pos + Integer.BYTES),
+                    EUI64.fromLong(this.view.getLong(pos + Integer.BYTES + Long.BYTES)), payload);
+            this.offset += UplinkJournal.HEADER + length;
+            return rec;
+        }
+        return null;
+    }
+
+    /**
+     * Method to move the reader.
+     *
+     * @param newOffset
+     *                  offset of a record, e.g. {@link JournalRecord#getOffset()}.
+     */
+    public void seek(final long newOffset) {
+        this.offset = newOffset;
+    }
+
+    /**
+     * Method to persist the offset of a named reader.
+     *
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public void commit() throws IOException {
+        if (this.offsetFile != null) {
+            final var tmp = this.offsetFile.resolveSibling(this.offsetFile.getFileName() + ".tmp"); //$NON-NLS-1$
+            Files.write(tmp, ByteBuffer.allocate(Long.BYTES).putLong(this.offset).array());
+            Files.move(tmp, this.offsetFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+}
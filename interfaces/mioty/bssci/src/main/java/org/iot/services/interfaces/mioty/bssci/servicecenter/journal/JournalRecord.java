@@ -0,0 +1,54 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.journal;
+
+import java.io.IOException;
+
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Record of the journal: a raw received frame with its reception metadata.
+ *
+ * @author FendtC
+ */
+@Getter
+@AllArgsConstructor
+public final class JournalRecord {
+    /** Offset of the record in the journal. */
+    private final long offset;
+    /** Reception time by the service center, in ms since the epoch. */
+    private final long receivedAt;
+    /** EUI64 of the base station. */
+    private final EUI64 bsEui;
+    /** Raw MsgPack message. */
+    private final byte[] payload;
+
+    /**
+     * Method to decode the message.
+     *
+     * @return the message.
+     * @throws IOException
+     *                     on invalid message.
+     */
+    public Api decode() throws IOException {
+        return Api.fromMsgPack(this.payload);
+    }
+}
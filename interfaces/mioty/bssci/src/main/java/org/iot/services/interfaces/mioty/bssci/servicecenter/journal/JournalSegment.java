@@ -0,0 +1,90 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.journal;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Memory mapped segment file of the journal.
+ *
+ * @author FendtC
+ */
+final class JournalSegment {
+
+    /** Offset of the first byte of the segment in the journal. */
+    final long base;
+    /** The file. */
+    final Path path;
+    /** The mapped file. */
+    final MappedByteBuffer buffer;
+    /** Time of the last record, in ms since the epoch, for the retention. */
+    volatile long lastWrite;
+
+    /**
+     * Constructor, maps the file and creates it if needed.
+     *
+     * @param base
+     *             Offset of the segment in the journal.
+     * @param path
+     *             The file.
+     * @param size
+     *             Size of the segment, used if the file is new.
+     * @throws IOException
+     *                     on mapping failure.
+     */
+    JournalSegment(final long base, final Path path, final int size) throws IOException {
+        this.base = base;
+        this.path = path;
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            final var length = channel.size() > 0 ? channel.size() : size;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+        this.lastWrite = path.toFile().lastModified();
+    }
+
+    /**
+     * Method to read the record at a position.
+     *
+     * @param pos
+     *            position of the record in the segment.
+     * @return the record.
+     */
+    JournalRecord read(final int pos) {
+        final var view = this.buffer.duplicate();
+        final var payload = new byte[view.getInt(pos)];
+        view.position(pos + UplinkJournal.HEADER);
+        view.get(payload);
+        return new JournalRecord(this.base + pos, view.getLong(pos + Integer.BYTES),
+                EUI64.fromLong(view.getLong(pos + Integer.BYTES + Long.BYTES)), payload);
+    }
+
+    /**
+     * Method to retrieve the size of the segment.
+     *
+     * @return the size, in bytes.
+     */
+    int capacity() {
+        return this.buffer.capacity();
+    }
+}
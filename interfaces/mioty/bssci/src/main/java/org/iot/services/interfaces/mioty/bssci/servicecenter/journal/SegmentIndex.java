@@ -0,0 +1,239 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.journal;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Index of a journal segment: a sparse time index (one entry every {@link #TIME_STRIDE} records) and the posting lists
+ * of the end points (positions of their records).
+ *
+ * @author FendtC
+ */
+final class SegmentIndex {
+
+    /** Number of records between two entries of the time index. */
+    static final int TIME_STRIDE = 128;
+    /** Suffix of the index files. */
+    static final String SUFFIX = ".index"; //$NON-NLS-1$
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+
+    /** Base offset of the segment. */
+    final long base;
+    /** Position following the last indexed record. */
+    int indexed;
+    /** TRUE once the whole sealed segment is indexed. */
+    boolean sealed;
+    /** Time of the oldest record. */
+    private long minTime = Long.MAX_VALUE;
+    /** Time of the newest record. */
+    private long maxTime = Long.MIN_VALUE;
+    /** Number of indexed records. */
+    private int records;
+    /** Times of the time index. */
+    private long[] times = new long[16];
+    /** Positions of the time index. */
+    private int[] positions = new int[16];
+    /** Number of entries of the time index. */
+    private int entries;
+    /** Posting lists, by end point EUI64 as long. */
+    private final Map<Long, int[]> postings = new HashMap<>();
+
+    /**
+     * Constructor.
+     *
+     * @param base
+     *             Base offset of the segment.
+     */
+    SegmentIndex(final long base) {
+        this.base = base;
+    }
+
+    /**
+     * Method to index a record.
+     *
+     * @param pos
+     *                 position of the record.
+     * @param time
+     *                 reception time of the record.
+     * @param hasEpEui
+     *                 TRUE if the record belongs to an end point.
+     * @param epEui
+     *                 the end point EUI64, as long.
+     */
+    synchronized void add(final int pos, final long time, final boolean hasEpEui, final long epEui) {
+        if ((this.records % SegmentIndex.TIME_STRIDE) == 0) {
+            if (this.entries == this.times.length) {
+                this.times = Arrays.copyOf(this.times, this.entries * 2);
+                this.positions = Arrays.copyOf(this.positions, this.entries * 2);
+            }
+            this.times[this.entries] = time;
+            this.positions[this.entries++] = pos;
+        }
+        this.records++;
+        this.minTime = Math.min(this.minTime, time);
+        this.maxTime = Math.max(this.maxTime, time);
+        if (hasEpEui) {
+            // posting list: [size, positions...]
+            var list = this.postings.get(epEui);
+            if (list == null) {
+                list = new int[4];
+            } else if ((list[0] + 1) == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+            }
+            list[++list[0]] = pos;
+            this.postings.put(epEui, list);
+        }
+    }
+
+    /**
+     * Method to check if the segment may contain records of a time range.
+     *
+     * @param from
+     *             start of the range, in ms.
+     * @param to
+     *             end of the range, in ms.
+     * @return TRUE if the range overlaps the records.
+     */
+    synchronized boolean overlaps(final long from, final long to) {
+        return (this.records > 0) && (this.minTime <= to) && (this.maxTime >= from);
+    }
+
+    /**
+     * Method to find where to start a scan from a time.
+     *
+     * @param from
+     *             start of the range, in ms.
+     * @return the position of the last sparse entry before the time.
+     */
+    synchronized int seek(final long from) {
+        var low = 0;
+        var high = this.entries - 1;
+        var result = 0;
+        while (low <= high) {
+            final var mid = (low + high) >>> 1;
+            if (this.times[mid] < from) {
+                result = this.positions[mid];
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Method to retrieve the positions of the records of an end point.
+     *
+     * @param epEui
+     *              the end point EUI64, as long.
+     * @return the positions, in append order.
+     */
+    synchronized int[] postings(final long epEui) {
+        final var list = this.postings.get(epEui);
+        return list == null ? new int[0] : Arrays.copyOfRange(list, 1, list[0] + 1);
+    }
+
+    /**
+     * Method to persist the index of a sealed segment.
+     *
+     * @param path
+     *             the index file.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    synchronized void write(final Path path) throws IOException {
+        final var tmp = path.resolveSibling(path.getFileName() + ".tmp"); //$NON-NLS-1$
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(SegmentIndex.VERSION);
+            out.writeInt(this.indexed);
+            out.writeLong(this.minTime);
+            out.writeLong(this.maxTime);
+            out.writeInt(this.records);
+            out.writeInt(this.entries);
+            for (var i = 0; i < this.entries; i++) {
+                out.writeLong(this.times[i]);
+                out.writeInt(this.positions[i]);
+            }
+            out.writeInt(this.postings.size());
+            for (final var entry : this.postings.entrySet()) {
+                final var list = entry.getValue();
+                out.writeLong(entry.getKey());
+                out.writeInt(list[0]);
+                for (var i = 1; i <= list[0]; i++) {
+                    out.writeInt(list[i]);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Method to load the index of a sealed segment.
+     *
+     * @param base
+     *             Base offset of the segment.
+     * @param path
+     *             the index file.
+     * @return the index.
+     * @throws IOException
+     *                     on I/O failure or unknown format.
+     */
+    static SegmentIndex read(final long base, final Path path) throws IOException {
+        try (var in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != SegmentIndex.VERSION) {
+                throw new IOException("Unknown index format: " + path); //$NON-NLS-1$
+            }
+            final var index = new SegmentIndex(base);
+            index.indexed = in.readInt();
+            index.minTime = in.readLong();
+            index.maxTime = in.readLong();
+            index.records = in.readInt();
+            index.entries = in.readInt();
+            index.times = new long[Math.max(1, index.entries)];
+            index.positions = new int[Math.max(1, index.entries)];
+            for (var i = 0; i < index.entries; i++) {
+                index.times[i] = in.readLong();
+                index.positions[i] = in.readInt();
+            }
+            final var count = in.readInt();
+            for (var i = 0; i < count; i++) {
+                final var key = in.readLong();
+                final var size = in.readInt();
+                final var list = new int[size + 1];
+                list[0] = size;
+                for (var j = 1; j <= size; j++) {
+                    list[j] = in.readInt();
+                }
+                index.postings.put(key, list);
+            }
+            index.sealed = true;
+            return index;
+        }
+    }
+}
@@ -0,0 +1,373 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.journal;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.zip.CRC32C;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.utils.MsgPackPeek;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Append-only journal of the received uplink frames, stored in memory mapped segment files.
+ * <p>
+ * A record is {@code [int length][long receivedAt][long bsEui][int crc][payload]}, the length being written last so a
+ * partial record is never visible to the readers. The CRC32C of the times, EUI64 and payload detects the records torn
+ * by a power loss, as the mapped pages are not written to the storage in order: the recovery stops at the first
+ * mismatch and clears the rest of the segment. A segment ends with a zero length (not written yet) or
+ * {@link #END_OF_SEGMENT}. The offset
+ * of a record is its position in the whole journal; the readers ({@link #reader(String)}) tail the journal with their
+ * own offsets. The segments roll over when full, and the sealed segments older than the retention are deleted. An
+ * append copies the frame into the mapped file, without allocation.
+ *
+ * @author FendtC
+ */
+public class UplinkJournal implements AutoCloseable {
+
+    /** Default size of a segment. */
+    public static final int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    /** Default retention of the sealed segments. */
+    public static final Duration DEFAULT_RETENTION = Duration.ofDays(1);
+    /** Default interval of the {@link EnumSyncPolicy#INTERVAL} policy. */
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofSeconds(1);
+    /** Size of the record header. */
+    static final int HEADER = Integer.BYTES + Long.BYTES + Long.BYTES + Integer.BYTES;
+    /** Position of the checksum in the record header. */
+    static final int CHECKSUM = UplinkJournal.HEADER - Integer.BYTES;
+    /** Length marking the end of a segment. */
+    static final int END_OF_SEGMENT = -1;
+    /** Suffix of the segment files. */
+    static final String SUFFIX = ".journal"; //$NON-NLS-1$
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(UplinkJournal.class);
+    /** Field name. */
+    private static final byte[] KEY_COMMAND = MsgPackPeek.key("command"); //$NON-NLS-1$
+    /** Journaled commands. */
+    private static final byte[][] COMMANDS = { MsgPackPeek.key("ulData"), MsgPackPeek.key("vm.ulData"), //$NON-NLS-1$ //$NON-NLS-2$
+            MsgPackPeek.key("att"), MsgPackPeek.key("det") }; //$NON-NLS-1$ //$NON-NLS-2$
+
+    /** Directory of the journal. */
+    @Getter
+    private final Path directory;
+    /** Size of the new segments. */
+    private final int segmentSize;
+    /** Flush policy. */
+    @Getter
+    private final EnumSyncPolicy syncPolicy;
+    /** Retention of the sealed segments. */
+    @Getter
+    private final Duration retention;
+    /** The segments, by base offset. */
+    final ConcurrentSkipListMap<Long, JournalSegment> segments = new ConcurrentSkipListMap<>();
+    /** Segment receiving the appends. */
+    private JournalSegment active;
+    /** Write position in the active segment. */
+    private int position;
+    /** Offset following the last complete record, published to the readers. */
+    private volatile long committed;
+    /** Periodic flush, NULL if not needed. */
+    private final ScheduledExecutorService syncer;
+    /** Checksum of the appends. */
+    private final CRC32C crc = new CRC32C();
+
+    /**
+     * Constructor with the default settings: periodic flush.
+     *
+     * @param directory
+     *                  Directory of the journal.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public UplinkJournal(final Path directory) throws IOException {
+        this(directory, UplinkJournal.DEFAULT_SEGMENT_SIZE, EnumSyncPolicy.INTERVAL,
+                UplinkJournal.DEFAULT_SYNC_INTERVAL, UplinkJournal.DEFAULT_RETENTION);
+    }
+
+    /**
+     * Constructor with arguments. The existing segments of the directory are reopened.
+     *
+     * @param directory
+     *                     Directory of the journal.
+     * @param segmentSize
+     *                     Size of the new segments, in bytes.
+     * @param syncPolicy
+     *                     Flush policy.
+     * @param syncInterval
+     *                     Interval of the {@link EnumSyncPolicy#INTERVAL} policy.
+     * @param retention
+     *                     Retention of the sealed segments.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public UplinkJournal(final Path directory, final int segmentSize, final EnumSyncPolicy syncPolicy,
+            final Duration syncInterval, final Duration retention) throws IOException {
+        Validate.isTrue(segmentSize >= 4096, "segmentSize must be at least 4096, is: %d", segmentSize); //$NON-NLS-1$
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        this.syncPolicy = Validate.notNull(syncPolicy);
+        this.retention = Validate.notNull(retention);
+        this.open();
+        if (syncPolicy == EnumSyncPolicy.INTERVAL) {
+            this.syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                final var thread = new Thread(r, "bssci-journal-sync"); //$NON-NLS-1$
+                thread.setDaemon(true);
+                return thread;
+            });
+            final var millis = syncInterval.toMillis();
+            this.syncer.scheduleWithFixedDelay(this::sync, millis, millis, TimeUnit.MILLISECONDS);
+        } else {
+            this.syncer = null;
+        }
+    }
+
+    /**
+     * Method to check if a raw frame is journaled: uplinks, attachments and detachments.
+     *
+     * @param payload
+     *                the raw MsgPack message.
+     * @return TRUE if the frame is journaled.
+     */
+    public boolean accepts(final byte[] payload) {
+        final var command = MsgPackPeek.find(payload, UplinkJournal.KEY_COMMAND);
+        for (final byte[] name : UplinkJournal.COMMANDS) {
+            if (MsgPackPeek.isString(payload, command, name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method to append a frame.
+     *
+     * @param bsEui
+     *                base station EUI64, as long.
+     * @param payload
+     *                the raw MsgPack message.
+     * @return the offset of the record.
+     * @throws IOException
+     *                     if a new segment cannot be created.
+     */
+    public synchronized long append(final long bsEui, final byte[] payload) throws IOException {
+        Validate.isTrue(payload.length > 0, "empty payload"); //$NON-NLS-1$
+        final var size = UplinkJournal.HEADER + payload.length;
+        if ((size + Integer.BYTES) > this.segmentSize) {
+            throw new IOException("Frame too large for the journal: " + payload.length); //$NON-NLS-1$
+        }
+        if ((this.position + size + Integer.BYTES) > this.active.capacity()) {
+            this.active.buffer.putInt(this.position, UplinkJournal.END_OF_SEGMENT);
+            this.roll(this.active.base + this.active.capacity());
+        }
+        final var buffer = this.active.buffer;
+        final var now = System.currentTimeMillis();
+        buffer.putLong(this.position + Integer.BYTES, now);
+        buffer.putLong(this.position + Integer.BYTES + Long.BYTES, bsEui);
+        buffer.position(this.position + UplinkJournal.HEADER);
+        buffer.put(payload);
+        this.crc.reset();
+        this.crc.update(buffer.limit(this.position + UplinkJournal.CHECKSUM).position(this.position + Integer.BYTES));
+        this.crc.update(payload);
+        buffer.limit(buffer.capacity());
+        buffer.putInt(this.position + UplinkJournal.CHECKSUM, (int) this.crc.getValue());
+        // the length last: the record is complete once visible
+        buffer.putInt(this.position, payload.length);
+        final var offset = this.active.base + this.position;
+        this.position += size;
+        this.active.lastWrite = now;
+        this.committed = this.active.base + this.position;
+        if (this.syncPolicy == EnumSyncPolicy.EVERY_APPEND) {
+            buffer.force();
+        }
+        return offset;
+    }
+
+    /**
+     * Method to open a reader at the oldest record, with an offset persisted under a name.
+     *
+     * @param name
+     *             the name of the reader, NULL for a transient reader.
+     * @return the reader, at its persisted offset, or at the oldest record.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public JournalReader reader(final String name) throws IOException {
+        return new JournalReader(this, name);
+    }
+
+    /**
+     * Method to retrieve the offset of the oldest retained record.
+     *
+     * @return the offset.
+     */
+    public long getFirstOffset() {
+        final var first = this.segments.firstEntry();
+        return first == null ? 0 : first.getKey();
+    }
+
+    /**
+     * Method to retrieve the segment holding an offset.
+     *
+     * @param offset
+     *               the offset.
+     * @return the base offset of the segment, or -1 if the offset is not retained.
+     */
+    public long segmentOf(final long offset) {
+        final var base = this.segments.floorKey(offset);
+        return base == null ? -1 : base;
+    }
+
+    /**
+     * Method to retrieve the segment following a segment, which seals it.
+     *
+     * @param base
+     *             the base offset of the segment.
+     * @return the base offset of the next segment, or -1 if the segment is being appended.
+     */
+    public long segmentAfter(final long base) {
+        final var next = this.segments.higherKey(base);
+        return next == null ? -1 : next;
+    }
+
+    /**
+     * Method to retrieve the offset following the last record.
+     *
+     * @return the offset.
+     */
+    public long getCommitted() {
+        return this.committed;
+    }
+
+    /**
+     * Method to flush the active segment to the storage.
+     */
+    public void sync() {
+        final JournalSegment segment;
+        synchronized (this) {
+            segment = this.active;
+        }
+        segment.buffer.force();
+    }
+
+    @Override
+    public void close() {
+        if (this.syncer != null) {
+            this.syncer.shutdownNow();
+        }
+        this.segments.values().forEach(s -> s.buffer.force());
+    }
+
+    private void open() throws IOException {
+        try (var files = Files.list(this.directory)) {
+            for (final var path : files.filter(p -> p.getFileName().toString().endsWith(UplinkJournal.SUFFIX))
+                    .collect(Collectors.toList())) {
+                final var name = path.getFileName().toString();
+                final var base = Long.parseLong(name.substring(0, name.length() - UplinkJournal.SUFFIX.length()));
+                this.segments.put(base, new JournalSegment(base, path, this.segmentSize));
+            }
+        }
+        if (this.segments.isEmpty()) {
+            this.roll(0);
+            return;
+        }
+        // recover the write position of the last segment
+        this.active = this.segments.lastEntry().getValue();
+        final var buffer = this.active.buffer;
+        var pos = 0;
+        while ((pos + Integer.BYTES) <= buffer.capacity()) {
+            final var length = buffer.getInt(pos);
+            if ((length <= 0) || ((pos + UplinkJournal.HEADER + length) > buffer.capacity())
+                    || !this.isIntact(buffer, pos, length)) {
+                break;
+            }
+            pos += UplinkJournal.HEADER + length;
+        }
+        if (UplinkJournal.isDirty(buffer, pos)) {
+            // torn record: clear it and the records behind it, an append of the same size would expose them
+            UplinkJournal.LOG.warn("Journal segment {} truncated at {}", this.active.path, pos); //$NON-NLS-1$
+            final var zeros = new byte[64 << 10];
+            for (var at = pos; at < buffer.capacity(); at += zeros.length) {
+                buffer.position(at);
+                buffer.put(zeros, 0, Math.min(zeros.length, buffer.capacity() - at));
+            }
+            buffer.force();
+        }
+        this.position = pos;
+        this.committed = this.active.base + pos;
+        UplinkJournal.LOG.info("Journal {} reopened, {} segments, offset {}", this.directory, //$NON-NLS-1$
+                this.segments.size(), this.committed);
+    }
+
+    private static boolean isDirty(final ByteBuffer buffer, final int from) {
+        var pos = from;
+        for (; (pos + Long.BYTES) <= buffer.capacity(); pos += Long.BYTES) {
+            if (buffer.getLong(pos) != 0) {
+                return true;
+            }
+        }
+        for (; pos < buffer.capacity(); pos++) {
+            if (buffer.get(pos) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isIntact(final ByteBuffer buffer, final int pos, final int length) {
+        final var view = buffer.duplicate();
+        this.crc.reset();
+        this.crc.update(view.limit(pos + UplinkJournal.CHECKSUM).position(pos + Integer.BYTES));
+        this.crc.update(view.limit(pos + UplinkJournal.HEADER + length).position(pos + UplinkJournal.HEADER));
+        return (int) this.crc.getValue() == buffer.getInt(pos + UplinkJournal.CHECKSUM);
+    }
+
+    private void roll(final long base) throws IOException {
+        final var path = this.directory.resolve(String.format("%020d%s", base, UplinkJournal.SUFFIX)); //$NON-NLS-1$
+        this.active = new JournalSegment(base, path, this.segmentSize);
+        this.segments.put(base, this.active);
+        this.position = 0;
+        this.committed = base;
+        this.expire();
+    }
+
+    private void expire() {
+        final var limit = System.currentTimeMillis() - this.retention.toMillis();
+        for (final var segment : this.segments.values()) {
+            if ((segment != this.active) && (segment.lastWrite < limit)) {
+                this.segments.remove(segment.base);
+                try {
+                    Files.deleteIfExists(segment.path);
+                } catch (final IOException e) {
+                    UplinkJournal.LOG.warn("Cannot delete the journal segment {}", segment.path, e); //$NON-NLS-1$
+                }
+            }
+        }
+    }
+}
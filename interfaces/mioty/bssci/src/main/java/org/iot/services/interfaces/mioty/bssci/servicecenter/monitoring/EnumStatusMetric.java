@@ -0,0 +1,35 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.monitoring;
+
+/**
+ * Metrics of the base station status history.
+ *
+ * @author FendtC
+ */
+public enum EnumStatusMetric {
+    /** Fraction of TX time, sliding window over one hour. */
+    DUTY_CYCLE,
+    /** System uptime in seconds. */
+    UPTIME,
+    /** System temperature in degree Celsius. */
+    TEMPERATURE,
+    /** CPU utilization, normalized to 1.0 for all cores. */
+    CPU_LOAD,
+    /** Memory utilization, normalized to 1.0. */
+    MEM_LOAD;
+}
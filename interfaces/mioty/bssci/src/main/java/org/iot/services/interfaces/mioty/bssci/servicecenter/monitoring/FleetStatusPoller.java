@@ -0,0 +1,197 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.monitoring;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.main.Status;
+import org.iot.services.interfaces.mioty.bssci.api.main.StatusRsp;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.BssciServiceCenter;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Periodic poller of the status of every connected base station.
+ * <p>
+ * The polling period is divided in slots, and each base station is polled in the slot given by its EUI64, so the
+ * Status requests are spread over the whole period instead of hitting the fleet at once. The answers are kept in a
+ * {@link StatusHistory} per base station.
+ *
+ * @author FendtC
+ */
+public class FleetStatusPoller implements AutoCloseable {
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(FleetStatusPoller.class);
+
+    /** Default polling period. */
+    public static final Duration DEFAULT_PERIOD = Duration.ofMinutes(1);
+    /** Default number of slots per period. */
+    public static final int DEFAULT_SLOTS = 60;
+    /** Default number of samples kept per base station. */
+    public static final int DEFAULT_CAPACITY = 1440;
+
+    /** The service center. */
+    private final BssciServiceCenter scs;
+    /** Polling period. */
+    @Getter
+    private final Duration period;
+    /** Number of slots per period. */
+    private final int slots;
+    /** Number of samples kept per base station. */
+    private final int capacity;
+    /** Histories by base station. */
+    private final Map<EUI64, StatusHistory> histories = new ConcurrentHashMap<>();
+    /** The scheduler. */
+    private final ScheduledExecutorService scheduler;
+    /** Current slot. */
+    private int slot;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param scs
+     *            the service center.
+     */
+    public FleetStatusPoller(final BssciServiceCenter scs) {
+        this(scs, FleetStatusPoller.DEFAULT_PERIOD, FleetStatusPoller.DEFAULT_SLOTS, FleetStatusPoller.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param scs
+     *                 the service center.
+     * @param period
+     *                 Polling period.
+     * @param slots
+     *                 Number of slots per period.
+     * @param capacity
+     *                 Number of samples kept per base station.
+     */
+    public FleetStatusPoller(final BssciServiceCenter scs, final Duration period, final int slots,
+            final int capacity) {
+        Validate.isTrue(slots > 0, "slots must be positive, is: %d", slots); //$NON-NLS-1$
+        Validate.isTrue(period.toMillis() >= slots, "period too short for %d slots: %s", slots, period); //$NON-NLS-1$
+        Validate.isTrue(capacity > 0, "capacity must be positive, is: %d", capacity); //$NON-NLS-1$
+        this.scs = scs;
+        this.period = period;
+        this.slots = slots;
+        this.capacity = capacity;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-status-poller"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Method to start the polling.
+     *
+     * @return the poller.
+     */
+    public FleetStatusPoller start() {
+        final var tick = this.period.toMillis() / this.slots;
+        this.scheduler.scheduleAtFixedRate(this::tick, tick, tick, TimeUnit.MILLISECONDS);
+        return this;
+    }
+
+    /**
+     * Method to retrieve the status history of a base station.
+     *
+     * @param bsEui
+     *              the base station EUI64.
+     * @return the history, or NULL if the base station was never polled.
+     */
+    public StatusHistory getHistory(final EUI64 bsEui) {
+        return this.histories.get(bsEui);
+    }
+
+    /**
+     * Method to aggregate a metric of a base station over the last given duration.
+     *
+     * @param bsEui
+     *               the base station EUI64.
+     * @param metric
+     *               the metric to aggregate.
+     * @param window
+     *               the duration to aggregate, up to now.
+     * @param result
+     *               the object receiving the aggregate.
+     * @return the given result object.
+     */
+    public StatusAggregate aggregate(final EUI64 bsEui, final EnumStatusMetric metric, final Duration window,
+            final StatusAggregate result) {
+        final var history = this.histories.get(bsEui);
+        if (history == null) {
+            return result.set(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        final var now = FleetStatusPoller.now();
+        return history.aggregate(metric, now - window.toNanos(), now + 1, result);
+    }
+
+    /**
+     * Method to drop the history of a base station.
+     *
+     * @param bsEui
+     *              the base station EUI64.
+     */
+    public void forget(final EUI64 bsEui) {
+        this.histories.remove(bsEui);
+    }
+
+    @Override
+    public void close() {
+        this.scheduler.shutdownNow();
+    }
+
+    private void tick() {
+        final var current = this.slot;
+        this.slot = (current + 1) % this.slots;
+        for (final ServiceCenterConnection client : this.scs.getClients()) {
+            final var eui = client.getEui();
+            if ((eui != null) && (Math.floorMod(eui.hashCode(), this.slots) == current)) {
+                this.poll(client, eui);
+            }
+        }
+    }
+
+    private void poll(final ServiceCenterConnection client, final EUI64 eui) {
+        client.request(new Status(), this.period).whenComplete((rsp, ex) -> {
+            if (ex != null) {
+                FleetStatusPoller.LOG.debug("status poll of {} failed: {}", eui, ex.getMessage()); //$NON-NLS-1$
+            } else if (rsp instanceof StatusRsp) {
+                this.histories.computeIfAbsent(eui, k -> new StatusHistory(this.capacity)).add(FleetStatusPoller.now(),
+                        (StatusRsp) rsp);
+            }
+        });
+    }
+
+    private static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.monitoring;
+
+import lombok.Getter;
+
+/**
+ * Aggregate of a status metric over a time window. The object is mutable so that it can be reused between queries.
+ *
+ * @author FendtC
+ */
+@Getter
+public final class StatusAggregate {
+    /** Number of samples in the window. */
+    private int count;
+    /** Minimum value, NaN without samples. */
+    private double min = Double.NaN;
+    /** Maximum value, NaN without samples. */
+    private double max = Double.NaN;
+    /** Average value, NaN without samples. */
+    private double avg = Double.NaN;
+    /** 95th percentile, NaN without samples. */
+    private double p95 = Double.NaN;
+
+    /**
+     * Setter method.
+     *
+     * @param countVal
+     *                 Number of samples in the window.
+     * @param minVal
+     *                 Minimum value.
+     * @param maxVal
+     *                 Maximum value.
+     * @param avgVal
+     *                 Average value.
+     * @param p95Val
+     *                 95th percentile.
+     * @return the aggregate.
+     */
+    StatusAggregate set(final int countVal, final double minVal, final double maxVal, final double avgVal,
+            final double p95Val) {
+        this.count = countVal;
+        this.min = minVal;
+        this.max = maxVal;
+        this.avg = avgVal;
+        this.p95 = p95Val;
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("count=%d min=%f max=%f avg=%f p95=%f", this.count, this.min, this.max, this.avg, //$NON-NLS-1$
+                this.p95);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.monitoring;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.main.StatusRsp;
+
+/**
+ * History of the status of one base station, kept in fixed-size ring buffers of primitives. Optional values that are
+ * not reported are stored as NaN and ignored by the aggregates.
+ *
+ * @author FendtC
+ */
+public final class StatusHistory {
+    /** Reception time of the samples, Unix UTC time in ns. */
+    private final long[] time;
+    /** Samples, by metric ordinal. */
+    private final double[][] values;
+    /** Scratch buffer for the percentiles. */
+    private final double[] scratch;
+    /** Last reported geographic location [Latitude, Longitude, Altitude], NaN if unknown. */
+    private final float[] geoLocation = { Float.NaN, Float.NaN, Float.NaN };
+    /** Index of the next sample. */
+    private int next;
+    /** Number of samples. */
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *                 Number of samples kept.
+     */
+    public StatusHistory(final int capacity) {
+        Validate.isTrue(capacity > 0, "capacity must be positive, is: %d", capacity); //$NON-NLS-1$
+        this.time = new long[capacity];
+        this.values = new double[EnumStatusMetric.values().length][capacity];
+        this.scratch = new double[capacity];
+    }
+
+    /**
+     * Method to add a sample.
+     *
+     * @param rxTime
+     *               Reception time of the status, Unix UTC time in ns.
+     * @param rsp
+     *               the status.
+     */
+    public synchronized void add(final long rxTime, final StatusRsp rsp) {
+        final var i = this.next;
+        this.time[i] = rxTime;
+        this.values[EnumStatusMetric.DUTY_CYCLE.ordinal()][i] = rsp.getDutyCycle();
+        this.values[EnumStatusMetric.UPTIME.ordinal()][i] = rsp.getUptime() == null ? Double.NaN : rsp.getUptime();
+        this.values[EnumStatusMetric.TEMPERATURE.ordinal()][i] = StatusHistory.value(rsp.getTemp());
+        this.values[EnumStatusMetric.CPU_LOAD.ordinal()][i] = StatusHistory.value(rsp.getCpuLoad());
+        this.values[EnumStatusMetric.MEM_LOAD.ordinal()][i] = StatusHistory.value(rsp.getMemLoad());
+        final var geo = rsp.getGeoLocation();
+        if (geo != null) {
+            System.arraycopy(geo, 0, this.geoLocation, 0, Math.min(geo.length, this.geoLocation.length));
+        }
+        this.next = (i + 1) % this.time.length;
+        this.size = Math.min(this.size + 1, this.time.length);
+    }
+
+    /**
+     * Method to aggregate a metric over a time window, without any allocation.
+     *
+     * @param metric
+     *               the metric to aggregate.
+     * @param from
+     *               start of the window (inclusive), Unix UTC time in ns.
+     * @param to
+     *               end of the window (exclusive), Unix UTC time in ns.
+     * @param result
+     *               the object receiving the aggregate.
+     * @return the given result object.
+     */
+    public synchronized StatusAggregate aggregate(final EnumStatusMetric metric, final long from, final long to,
+            final StatusAggregate result) {
+        final var samples = this.values[metric.ordinal()];
+        final var capacity = this.time.length;
+        var count = 0;
+        var min = Double.POSITIVE_INFINITY;
+        var max = Double.NEGATIVE_INFINITY;
+        var sum = 0.0;
+        for (var n = 0; n < this.size; n++) {
+            final var i = ((this.next - this.size) + n + capacity) % capacity;
+            final var v = samples[i];
+            if ((this.time[i] >= from) && (this.time[i] < to) && !Double.isNaN(v)) {
+                this.scratch[count++] = v;
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+                sum += v;
+            }
+        }
+        if (count == 0) {
+            return result.set(0, Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        }
+        final var rank = (int) Math.ceil(0.95 * count) - 1;
+        return result.set(count, min, max, sum / count, StatusHistory.select(this.scratch, count, rank));
+    }
+
+    /**
+     * Method to retrieve the last sample of a metric.
+     *
+     * @param metric
+     *               the metric.
+     * @return the last value, NaN if unknown.
+     */
+    public synchronized double last(final EnumStatusMetric metric) {
+        if (this.size == 0) {
+            return Double.NaN;
+        }
+        return this.values[metric.ordinal()][((this.next - 1) + this.time.length) % this.time.length];
+    }
+
+    /**
+     * Method to retrieve the last reported geographic location.
+     *
+     * @param location
+     *                 array receiving [Latitude, Longitude, Altitude], NaN if unknown.
+     * @return the given array.
+     */
+    public synchronized float[] geoLocation(final float[] location) {
+        System.arraycopy(this.geoLocation, 0, location, 0, Math.min(location.length, this.geoLocation.length));
+        return location;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of samples.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    private static double value(final Double v) {
+        return v == null ? Double.NaN : v;
+    }
+
+    /**
+     * Quickselect of the k-th smallest value of the first n values, reordering them in place.
+     */
+    private static double select(final double[] a, final int n, final int k) {
+        var lo = 0;
+        var hi = n - 1;
+        while (lo < hi) {
+            final var pivot = a[(lo + hi) >>> 1];
+            var i = lo;
+            var j = hi;
+            while (i <= j) {
+                while (a[i] < pivot) {
+                    i++;
+                }
+                while (a[j] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    final var tmp = a[i];
+                    a[i] = a[j];
+                    a[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                break;
+            }
+        }
+        return a[k];
+    }
+}
@@ -0,0 +1,31 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.overload;
+
+/**
+ * Overload level of the service center, each level includes the shedding of the previous ones.
+ *
+ * @author FendtC
+ */
+public enum EnumOverloadLevel {
+    /** Every message is dispatched. */
+    NORMAL,
+    /** The sub channel uplinks are acknowledged and dropped. */
+    SHED_BULK,
+    /** The uplinks are acknowledged on reception and dispatched behind the other traffic. */
+    DELAY_DATA;
+}
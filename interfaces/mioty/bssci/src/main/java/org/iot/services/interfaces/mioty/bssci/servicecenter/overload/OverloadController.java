@@ -0,0 +1,241 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.overload;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmUlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Overload controller of the incoming messages, in the spirit of CoDel.
+ * <p>
+ * The controller observes the sojourn time of the received messages in the dispatch queues, the latency of the
+ * handlers and the depth of the data queues. Per interval, a minimal sojourn time (a standing queue) or an average handler latency
+ * above the target raises the level by one step, both below the target lower it by one step; a data queue depth above
+ * the limit raises the level to the maximum at once. Only the uplinks are shed: first the sub channel uplinks are dropped,
+ * then the uplinks are delayed, and dropped once the bulk queue of their connection is full. All are acknowledged to
+ * the base station on reception. The control plane is never shed. The samples are recorded without lock by the
+ * dispatcher threads of every connection.
+ *
+ * @author FendtC
+ */
+public class OverloadController {
+
+    /** Default target of the sojourn time. */
+    public static final Duration DEFAULT_TARGET = Duration.ofMillis(50);
+    /** Default interval of the level changes. */
+    public static final Duration DEFAULT_INTERVAL = Duration.ofMillis(500);
+    /** Default limit of the data queue depth of a connection, 3/4 of the capacity of its dispatch queues. */
+    public static final int DEFAULT_MAX_DEPTH = (ServiceCenterConnection.INBOUND_CAPACITY * 3) / 4;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(OverloadController.class);
+
+    /** Target of the sojourn time, in ns. */
+    private final long target;
+    /** Interval of the level changes, in ns. */
+    private final long interval;
+    /** Limit of the data queue depth of a connection. */
+    @Getter
+    private final int maxDepth;
+    /** Current level. */
+    @Getter
+    private volatile EnumOverloadLevel level = EnumOverloadLevel.NORMAL;
+    /** Start of the current interval, in ns. */
+    private final AtomicLong intervalStart = new AtomicLong(System.nanoTime());
+    /** Minimal sojourn time of the current interval, in ns. */
+    private final LongAccumulator minSojourn = new LongAccumulator(Math::min, Long.MAX_VALUE);
+    /** Sum of the handler latencies of the current interval, in ns. */
+    private final LongAdder latencySum = new LongAdder();
+    /** Number of messages dispatched in the current interval. */
+    private final LongAdder samples = new LongAdder();
+    /** Minimal sojourn time of the last interval, in ns. */
+    private volatile long sojourn;
+    /** Average handler latency of the last interval, in ns. */
+    private volatile long latency;
+    /** Number of dropped messages. */
+    private final LongAdder dropped = new LongAdder();
+    /** Number of delayed messages. */
+    private final LongAdder delayed = new LongAdder();
+    /** Number of level changes. */
+    private final LongAdder transitions = new LongAdder();
+
+    /**
+     * Constructor with the default settings.
+     */
+    public OverloadController() {
+        this(OverloadController.DEFAULT_TARGET, OverloadController.DEFAULT_INTERVAL,
+                OverloadController.DEFAULT_MAX_DEPTH);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param target
+     *                 Target of the sojourn time of the received messages.
+     * @param interval
+     *                 Minimum duration above or below the target before a level change.
+     * @param maxDepth
+     *                 Limit of the data queue depth of a connection, raising the level to the maximum, below
+     *                 {@link ServiceCenterConnection#INBOUND_CAPACITY}: a full data queue blocks the receiver.
+     */
+    public OverloadController(final Duration target, final Duration interval, final int maxDepth) {
+        Validate.isTrue((maxDepth > 0) && (maxDepth < ServiceCenterConnection.INBOUND_CAPACITY),
+                "maxDepth must be positive and below %d, is: %d", ServiceCenterConnection.INBOUND_CAPACITY, //$NON-NLS-1$
+                maxDepth);
+        this.target = target.toNanos();
+        this.interval = interval.toNanos();
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Method to decide the handling of a received message, called on the receiver thread.
+     *
+     * @param apiObj
+     *               the received message.
+     * @param depth
+     *               number of messages waiting in the data dispatch queue of the connection.
+     * @return the action to apply.
+     */
+    public EnumShedAction admit(final Api apiObj, final int depth) {
+        if ((depth > this.maxDepth) && (this.level != EnumOverloadLevel.DELAY_DATA)) {
+            this.change(EnumOverloadLevel.DELAY_DATA);
+        }
+        final var current = this.level;
+        if (current == EnumOverloadLevel.NORMAL) {
+            return EnumShedAction.DISPATCH;
+        }
+        if (apiObj instanceof VmUlData) {
+            this.dropped.increment();
+            return EnumShedAction.DROP;
+        }
+        if ((apiObj instanceof UlData) && (current == EnumOverloadLevel.DELAY_DATA)) {
+            this.delayed.increment();
+            return EnumShedAction.DELAY;
+        }
+        return EnumShedAction.DISPATCH;
+    }
+
+    /**
+     * Method to record the dispatching of a message, called on the dispatcher thread.
+     *
+     * @param sojournNanos
+     *                     time spent in the dispatch queue, in ns.
+     * @param latencyNanos
+     *                     time spent in the handlers, in ns.
+     */
+    public void dispatched(final long sojournNanos, final long latencyNanos) {
+        this.minSojourn.accumulate(sojournNanos);
+        this.latencySum.add(latencyNanos);
+        this.samples.increment();
+        final var now = System.nanoTime();
+        final var start = this.intervalStart.get();
+        // one dispatcher closes the interval
+        if (((now - start) >= this.interval) && this.intervalStart.compareAndSet(start, now)) {
+            this.evaluate();
+        }
+    }
+
+    /**
+     * Method to record a delayed message dropped because the bulk queue of its connection is full.
+     */
+    public void overflowed() {
+        this.dropped.increment();
+    }
+
+    /**
+     * Method to retrieve the minimal sojourn time in the dispatch queues during the last interval.
+     *
+     * @return the sojourn time.
+     */
+    public Duration getSojourn() {
+        return Duration.ofNanos(this.sojourn);
+    }
+
+    /**
+     * Method to retrieve the average handler latency during the last interval.
+     *
+     * @return the latency.
+     */
+    public Duration getLatency() {
+        return Duration.ofNanos(this.latency);
+    }
+
+    /**
+     * Method to retrieve the number of dropped messages.
+     *
+     * @return the number of messages.
+     */
+    public long getDropped() {
+        return this.dropped.sum();
+    }
+
+    /**
+     * Method to retrieve the number of delayed messages.
+     *
+     * @return the number of messages.
+     */
+    public long getDelayed() {
+        return this.delayed.sum();
+    }
+
+    /**
+     * Method to retrieve the number of level changes.
+     *
+     * @return the number of changes.
+     */
+    public long getTransitions() {
+        return this.transitions.sum();
+    }
+
+    private void evaluate() {
+        final var count = this.samples.sumThenReset();
+        final var min = this.minSojourn.getThenReset();
+        final var sum = this.latencySum.sumThenReset();
+        if (count == 0) {
+            return;
+        }
+        this.sojourn = min;
+        this.latency = sum / count;
+        final var isAbove = (min > this.target) || (this.latency > this.target);
+        final var levels = EnumOverloadLevel.values();
+        final var ordinal = this.level.ordinal() + (isAbove ? 1 : -1);
+        if ((ordinal >= 0) && (ordinal < levels.length)) {
+            this.change(levels[ordinal]);
+        }
+    }
+
+    private synchronized void change(final EnumOverloadLevel next) {
+        if (this.level != next) {
+            OverloadController.LOG.warn("Overload level {} -> {}, sojourn {}, latency {}", this.level, next, //$NON-NLS-1$
+                    this.getSojourn(), this.getLatency());
+            this.level = next;
+            this.transitions.increment();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.persistence;
+
+/**
+ * Types of the records of the state snapshots and write-ahead log.
+ *
+ * @author FendtC
+ */
+public enum EnumStateRecord {
+    /** New session: base station EUI64, base station UUID, service center UUID. */
+    SESSION,
+    /** Complete session, in the snapshots: the {@link #SESSION} fields, operation IDs, disconnection, operations. */
+    SESSION_STATE,
+    /** Highest operation ID received from a base station: EUI64, operation ID. */
+    BS_OP_ID,
+    /** Operation IDs reserved by the service center, down to the given one: EUI64, operation ID. */
+    SC_OP_ID,
+    /** Operation of the service center waiting for its acknowledgment: EUI64, operation ID, MsgPack message. */
+    SENT,
+    /** Acknowledged operation of the service center: EUI64, operation ID. */
+    ACKNOWLEDGED,
+    /** Connection change: EUI64, time of the disconnection in ms, 0 if connected. */
+    CONNECTED,
+    /** State of an end point, see {@link RecordCodec#putEndpoint}. */
+    ENDPOINT,
+    /** Forgotten end point: EUI64. */
+    ENDPOINT_REMOVED,
+    /** Queued downlink, replicated only: queue ID, enqueuing and expiration times, MsgPack downlink. */
+    DOWNLINK_PUT,
+    /** Finished downlink, replicated only: queue ID. */
+    DOWNLINK_DONE,
+    /** Downlink queued at base stations, replicated only: queue ID, number and EUI64s of the base stations. */
+    DOWNLINK_DISPATCHED;
+
+    /** The values, by ordinal. */
+    private static final EnumStateRecord[] VALUES = EnumStateRecord.values();
+
+    /**
+     * Method to decode a type.
+     *
+     * @param code
+     *             the code, see {@link #ordinal()}.
+     * @return the type.
+     * @throws IllegalArgumentException
+     *                                  on unknown code.
+     */
+    public static EnumStateRecord of(final int code) {
+        if ((code < 0) || (code >= EnumStateRecord.VALUES.length)) {
+            throw new IllegalArgumentException("Unknown state record type: " + code); //$NON-NLS-1$
+        }
+        return EnumStateRecord.VALUES[code];
+    }
+}
@@ -0,0 +1,47 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Destination of encoded {@link RecordCodec} frames: a snapshot file, a replication stream.
+ *
+ * @author FendtC
+ */
+@FunctionalInterface
+public interface IFrameSink {
+
+    /**
+     * Method to write frames.
+     *
+     * @param frames
+     *               complete frames, between the position and the limit of the buffer, valid during the call only.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    void write(ByteBuffer frames) throws IOException;
+
+    /**
+     * Method to wait until the destination accepts more frames (back-pressure), called by the writer once it released
+     * its own locks.
+     */
+    default void awaitCapacity() {
+        // never full
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Consumer of the decoded state records.
+ *
+ * @author FendtC
+ */
+@FunctionalInterface
+public interface IStateRecordConsumer {
+
+    /**
+     * Method to consume a record.
+     *
+     * @param type
+     *             the type of the record.
+     * @param body
+     *             the body of the record, between its position and limit, read with the {@link RecordCodec} getters.
+     * @throws IOException
+     *                     on invalid record.
+     */
+    void accept(EnumStateRecord type, ByteBuffer body) throws IOException;
+}
@@ -0,0 +1,315 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.UUID;
+import java.util.zip.CRC32C;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.state.EndpointState;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Binary codec of the state records, shared by the snapshots, the write-ahead log and the replication.
+ * <p>
+ * A frame is {@code [int length][int crc][byte type][body]}, the length counting the checksum, the type and the body,
+ * the CRC32C covering the type and the body. The writer side accumulates frames into a growing heap buffer, reused
+ * across records; the reader side are static getters on the body buffers given by
+ * {@link #forEach(ByteBuffer, int, int, IStateRecordConsumer)}, which stops at the first frame torn or corrupted on
+ * the storage. Not thread safe.
+ *
+ * @author FendtC
+ */
+public final class RecordCodec {
+
+    /** Size of the frame header: length, checksum and type. */
+    public static final int HEADER = Integer.BYTES + Integer.BYTES + 1;
+    /** Position of the checksum in the frame. */
+    private static final int CHECKSUM = Integer.BYTES;
+
+    /** The encoded frames. */
+    private ByteBuffer buffer;
+    /** Position of the frame being encoded, -1 if none. */
+    private int start = -1;
+    /** Checksum of the frames. */
+    private final CRC32C crc = new CRC32C();
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *                 initial capacity, in bytes.
+     */
+    public RecordCodec(final int capacity) {
+        this.buffer = ByteBuffer.allocate(Math.max(capacity, RecordCodec.HEADER));
+    }
+
+    /**
+     * Method to discard the encoded frames.
+     *
+     * @return the codec.
+     */
+    public RecordCodec clear() {
+        this.buffer.clear();
+        this.start = -1;
+        return this;
+    }
+
+    /**
+     * Method to start a frame.
+     *
+     * @param type
+     *             the type of the record.
+     * @return the codec.
+     */
+    public RecordCodec begin(final EnumStateRecord type) {
+        Validate.validState(this.start < 0, "Frame not ended"); //$NON-NLS-1$
+        this.ensure(RecordCodec.HEADER);
+        this.start = this.buffer.position();
+        this.buffer.putInt(0);
+        this.buffer.putInt(0);
+        this.buffer.put((byte) type.ordinal());
+        return this;
+    }
+
+    /**
+     * Method to end the current frame, writing its length and checksum.
+     *
+     * @return the codec.
+     */
+    public RecordCodec end() {
+        Validate.validState(this.start >= 0, "No frame begun"); //$NON-NLS-1$
+        final var end = this.buffer.position();
+        this.crc.reset();
+        this.crc.update(this.buffer.duplicate().position(this.start + RecordCodec.HEADER - 1).limit(end));
+        this.buffer.putInt(this.start + RecordCodec.CHECKSUM, (int) this.crc.getValue());
+        this.buffer.putInt(this.start, end - this.start - Integer.BYTES);
+        this.start = -1;
+        return this;
+    }
+
+    /**
+     * Method to append an int.
+     *
+     * @param value
+     *              the value.
+     * @return the codec.
+     */
+    public RecordCodec putInt(final int value) {
+        this.ensure(Integer.BYTES).putInt(value);
+        return this;
+    }
+
+    /**
+     * Method to append a long.
+     *
+     * @param value
+     *              the value.
+     * @return the codec.
+     */
+    public RecordCodec putLong(final long value) {
+        this.ensure(Long.BYTES).putLong(value);
+        return this;
+    }
+
+    /**
+     * Method to append an EUI64.
+     *
+     * @param eui
+     *            the EUI64.
+     * @return the codec.
+     */
+    public RecordCodec putEui(final EUI64 eui) {
+        return this.putLong(eui.asLong());
+    }
+
+    /**
+     * Method to append a UUID, which may be NULL.
+     *
+     * @param uuid
+     *             the UUID.
+     * @return the codec.
+     */
+    public RecordCodec putUuid(final UUID uuid) {
+        this.ensure(1 + (Long.BYTES * 2)).put((byte) (uuid == null ? 0 : 1));
+        if (uuid == null) {
+            return this.putLong(0).putLong(0);
+        }
+        return this.putLong(uuid.getMostSignificantBits()).putLong(uuid.getLeastSignificantBits());
+    }
+
+    /**
+     * Method to append a byte array, length prefixed.
+     *
+     * @param bytes
+     *              the bytes.
+     * @return the codec.
+     */
+    public RecordCodec putBytes(final byte[] bytes) {
+        this.ensure(Integer.BYTES + bytes.length).putInt(bytes.length).put(bytes);
+        return this;
+    }
+
+    /**
+     * Method to append the state of an end point.
+     *
+     * @param state
+     *              the state.
+     * @return the codec.
+     */
+    public RecordCodec putEndpoint(final EndpointState state) {
+        this.putEui(state.getEpEui());
+        this.ensure(1).put((byte) state.flags());
+        return this.putBytes(state.getNwkSnKey()).putInt(state.getShAddr()).putInt(state.getLastPacketCnt())
+                .putLong(state.getUpdatedAt());
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of encoded bytes.
+     */
+    public int size() {
+        return this.buffer.position();
+    }
+
+    /**
+     * Method to access the encoded frames, without copy.
+     *
+     * @return a read-only buffer of the frames, valid until the next change of the codec.
+     */
+    public ByteBuffer frames() {
+        return this.buffer.asReadOnlyBuffer().flip();
+    }
+
+    /**
+     * Method to read an EUI64.
+     *
+     * @param body
+     *             the record body.
+     * @return the EUI64.
+     */
+    public static EUI64 getEui(final ByteBuffer body) {
+        return EUI64.fromLong(body.getLong());
+    }
+
+    /**
+     * Method to read a UUID.
+     *
+     * @param body
+     *             the record body.
+     * @return the UUID, or NULL.
+     */
+    public static UUID getUuid(final ByteBuffer body) {
+        final var present = body.get() != 0;
+        final var uuid = new UUID(body.getLong(), body.getLong());
+        return present ? uuid : null;
+    }
+
+    /**
+     * Method to read a length prefixed byte array.
+     *
+     * @param body
+     *             the record body.
+     * @return the bytes.
+     * @throws IOException
+     *                     on invalid length.
+     */
+    public static byte[] getBytes(final ByteBuffer body) throws IOException {
+        final var length = body.getInt();
+        if ((length < 0) || (length > body.remaining())) {
+            throw new IOException("Invalid length in state record: " + length); //$NON-NLS-1$
+        }
+        final var bytes = new byte[length];
+        body.get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Method to read the state of an end point.
+     *
+     * @param body
+     *             the record body.
+     * @return the state.
+     * @throws IOException
+     *                     on invalid record.
+     */
+    public static EndpointState getEndpoint(final ByteBuffer body) throws IOException {
+        final var epEui = RecordCodec.getEui(body);
+        final var flags = body.get();
+        final var key = RecordCodec.getBytes(body);
+        return EndpointState.decode(epEui, flags, key, body.getInt(), body.getInt(), body.getLong());
+    }
+
+    /**
+     * Method to decode the frames of a buffer, up to the first incomplete one.
+     *
+     * @param buffer
+     *                 the buffer, not modified.
+     * @param from
+     *                 position of the first frame.
+     * @param to
+     *                 limit of the frames.
+     * @param consumer
+     *                 consumer of the records.
+     * @return the position following the last complete frame, before the first torn or corrupted one.
+     * @throws IOException
+     *                     on invalid record: unknown type, or body rejected by the consumer.
+     */
+    public static int forEach(final ByteBuffer buffer, final int from, final int to,
+            final IStateRecordConsumer consumer) throws IOException {
+        final var body = buffer.duplicate();
+        final var checksum = new CRC32C();
+        var pos = from;
+        while ((pos + RecordCodec.HEADER) <= to) {
+            // a zero length is a frame not written yet, a negative one the end of a log file
+            final var length = buffer.getInt(pos);
+            if ((length < (RecordCodec.HEADER - Integer.BYTES)) || ((pos + Integer.BYTES + length) > to)) {
+                break;
+            }
+            body.limit(pos + Integer.BYTES + length);
+            body.position(pos + RecordCodec.CHECKSUM + Integer.BYTES);
+            checksum.reset();
+            checksum.update(body);
+            if ((int) checksum.getValue() != buffer.getInt(pos + RecordCodec.CHECKSUM)) {
+                // torn or corrupted frame
+                break;
+            }
+            body.position(pos + RecordCodec.HEADER);
+            final var code = buffer.get(pos + RecordCodec.HEADER - 1);
+            try {
+                final var type = EnumStateRecord.of(code);
+                consumer.accept(type, body);
+            } catch (final RuntimeException e) {
+                throw new IOException("Invalid state record " + code + " at " + pos, e); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            pos += Integer.BYTES + length;
+        }
+        return pos;
+    }
+
+    private ByteBuffer ensure(final int bytes) {
+        if (this.buffer.remaining() < bytes) {
+            final var grown = ByteBuffer.allocate(Math.max(this.buffer.capacity() * 2,
+                    this.buffer.position() + bytes));
+            this.buffer = grown.put(this.buffer.flip());
+        }
+        return this.buffer;
+    }
+}
@@ -0,0 +1,689 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.persistence;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlRxStatQry;
+import org.iot.services.interfaces.mioty.bssci.api.main.Ping;
+import org.iot.services.interfaces.mioty.bssci.api.main.Status;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmStatus;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.journal.EnumSyncPolicy;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.session.ISessionListener;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.session.Session;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.session.SessionRegistry;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.state.EndpointState;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.state.IEndpointStateStore;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Persistence of the service center state across restarts: the sessions with their operation IDs and unacknowledged
+ * operations, and optionally the end point registry.
+ * <p>
+ * The state is saved by periodic snapshots, plus a write-ahead log ({@link StateWal}) of the changes since the last
+ * snapshot. The constructor restores the state: it maps the newest snapshot, then replays the log. The replay is
+ * idempotent, so a snapshot may capture changes also logged after it. To keep the log small on the hot path:
+ * <ul>
+ * <li>the service center operation IDs are reserved by blocks of {@link #OP_ID_RESERVATION}, a restored session
+ * resumes below its reservation, so an ID is never reused;</li>
+ * <li>the base station operation IDs are logged at the flush interval: a resume request above the restored one is
+ * still accepted, one below it falls back to a new session;</li>
+ * <li>the unacknowledged queries ({@link #isDurable(Api)}) are neither logged nor saved, their answer only matters
+ * to a caller gone with the restart; the other operations are logged with the encoding of their sending.</li>
+ * </ul>
+ * Usage: create it on the sessions of the service center ({@code BssciServiceCenter.getSessions()}) before starting
+ * the service center, and use {@link #getEndpoints()} as the end point registry, so its changes are logged.
+ *
+ * @author FendtC
+ */
+public class StatePersistence implements ISessionListener, AutoCloseable {
+
+    /** Default interval of the snapshots. */
+    public static final Duration DEFAULT_SNAPSHOT_INTERVAL = Duration.ofMinutes(5);
+    /** Default interval of the flush of the log. */
+    public static final Duration DEFAULT_SYNC_INTERVAL = Duration.ofSeconds(1);
+    /** Number of service center operation IDs reserved by a log record. */
+    public static final int OP_ID_RESERVATION = 1024;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(StatePersistence.class);
+    /** Suffix of the snapshot files. */
+    private static final String SUFFIX = ".snapshot"; //$NON-NLS-1$
+    /** Magic number of the snapshots, "BSSN". */
+    private static final int MAGIC = 0x4253534E;
+    /** Format version of the snapshots. */
+    private static final int VERSION = 2;
+    /** Size of the snapshot header: magic, version, generation, creation time. */
+    private static final int HEADER = (Integer.BYTES * 2) + (Long.BYTES * 2);
+    /** Size above which the snapshot frames are written out. */
+    private static final int FLUSH_SIZE = 1 << 20;
+    /** Queries of the service center, not sent again after a restart. */
+    private static final Set<Class<? extends Api>> QUERIES = Set.of(Ping.class, Status.class, DlRxStatQry.class,
+            VmStatus.class);
+
+    /** Directory of the snapshots and log. */
+    @Getter
+    private final Path directory;
+    /** The sessions of the service center. */
+    private final SessionRegistry sessions;
+    /** The end point registry, without logging. */
+    private final Optional<IEndpointStateStore> store;
+    /** The end point registry, logging its changes. */
+    @Getter
+    private final Optional<IEndpointStateStore> endpoints;
+    /** The write-ahead log. */
+    private final StateWal wal;
+    /** Codec of the log records, guarded by the instance. */
+    private final RecordCodec codec = new RecordCodec(256);
+    /** Codec of the snapshots, guarded by itself. */
+    private final RecordCodec snapshotCodec = new RecordCodec(StatePersistence.FLUSH_SIZE);
+    /** Lowest reserved service center operation ID, by base station. */
+    private final Map<EUI64, Integer> reserved = new ConcurrentHashMap<>();
+    /** Last logged base station operation ID, by base station. */
+    private final Map<EUI64, Integer> loggedBsOpIds = new ConcurrentHashMap<>();
+    /** Snapshots and flush. */
+    private final ScheduledExecutorService scheduler;
+    /** Replication of the logged changes, NULL if none. */
+    private volatile IFrameSink replica;
+    /** Number of sessions restored. */
+    @Getter
+    private int restoredSessions;
+    /** Number of log records replayed. */
+    @Getter
+    private long replayedRecords;
+    /** Duration of the restoration, in ms. */
+    @Getter
+    private long restoreMillis;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param directory
+     *                  Directory of the snapshots and log.
+     * @param sessions
+     *                  The sessions of the service center.
+     * @param store
+     *                  The end point registry, NULL if none.
+     * @throws IOException
+     *                     on I/O failure, or invalid snapshot or log.
+     */
+    public StatePersistence(final Path directory, final SessionRegistry sessions, final IEndpointStateStore store)
+            throws IOException {
+        this(directory, sessions, store, StateWal.DEFAULT_FILE_SIZE, EnumSyncPolicy.INTERVAL,
+                StatePersistence.DEFAULT_SYNC_INTERVAL, StatePersistence.DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Constructor with arguments. The state is restored from the directory, then its changes are persisted.
+     *
+     * @param directory
+     *                         Directory of the snapshots and log.
+     * @param sessions
+     *                         The sessions of the service center.
+     * @param store
+     *                         The end point registry, NULL if none.
+     * @param walFileSize
+     *                         Size of the log files, in bytes.
+     * @param syncPolicy
+     *                         Flush policy of the log.
+     * @param syncInterval
+     *                         Interval of the logging of the base station operation IDs, and of the
+     *                         {@link EnumSyncPolicy#INTERVAL} flush.
+     * @param snapshotInterval
+     *                         Interval of the snapshots.
+     * @throws IOException
+     *                     on I/O failure, or invalid snapshot or log.
+     */
+    public StatePersistence(final Path directory, final SessionRegistry sessions, final IEndpointStateStore store,
+            final int walFileSize, final EnumSyncPolicy syncPolicy, final Duration syncInterval,
+            final Duration snapshotInterval) throws IOException {
+        this.directory = Files.createDirectories(directory);
+        this.sessions = Validate.notNull(sessions);
+        this.store = Optional.ofNullable(store);
+        this.endpoints = this.store.map(LoggedStore::new);
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-state-snapshot"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.wal = new StateWal(directory, walFileSize, syncPolicy, () -> {
+            if (!this.scheduler.isShutdown()) {
+                this.scheduler.execute(this::snapshotSafe);
+            }
+        });
+        this.restore();
+        sessions.setListener(this);
+        final var syncMillis = syncInterval.toMillis();
+        this.scheduler.scheduleWithFixedDelay(() -> {
+            this.logBsOpIds();
+            if (syncPolicy == EnumSyncPolicy.INTERVAL) {
+                this.wal.sync();
+            }
+        }, syncMillis, syncMillis, TimeUnit.MILLISECONDS);
+        final var snapshotMillis = snapshotInterval.toMillis();
+        this.scheduler.scheduleWithFixedDelay(this::snapshotSafe, snapshotMillis, snapshotMillis,
+                TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method to take a snapshot, then delete the older snapshots and the log they cover. The changes are logged
+     * meanwhile.
+     *
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public void snapshot() throws IOException {
+        synchronized (this.snapshotCodec) {
+            this.logBsOpIds();
+            final var generation = this.wal.roll();
+            final var path = this.snapshotPath(generation);
+            final var tmp = path.resolveSibling(path.getFileName() + ".tmp"); //$NON-NLS-1$
+            var sessionCount = 0;
+            try (var channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                final var header = ByteBuffer.allocate(StatePersistence.HEADER).putInt(StatePersistence.MAGIC)
+                        .putInt(StatePersistence.VERSION).putLong(generation).putLong(System.currentTimeMillis());
+                StatePersistence.write(channel, header.flip());
+                sessionCount = this.writeState(this.snapshotCodec.clear(), b -> StatePersistence.write(channel, b));
+                channel.force(true);
+            }
+            Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            for (final var older : this.snapshots().headMap(generation, false).values()) {
+                Files.deleteIfExists(older);
+            }
+            this.wal.truncate(generation);
+            StatePersistence.LOG.debug("State snapshot {} written, {} sessions", path, sessionCount); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * Method to write the whole state, e.g. to initialize a replica. The changes are logged meanwhile.
+     *
+     * @param sink
+     *             destination of the state frames.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public void writeState(final IFrameSink sink) throws IOException {
+        this.writeState(new RecordCodec(StatePersistence.FLUSH_SIZE), sink);
+    }
+
+    /**
+     * Method to replicate the logged changes, e.g. to a standby node.
+     *
+     * @param sink
+     *             destination of the frames of every change, called under the lock of the log, then waited for
+     *             outside of it; NULL for none.
+     */
+    public void replicateTo(final IFrameSink sink) {
+        this.replica = sink;
+    }
+
+    /**
+     * Method to switch to the standby mode: the sessions are changed by a replication, not by connections, so their
+     * changes are not logged again, see {@link #replicated(ByteBuffer)}.
+     */
+    public void standby() {
+        this.sessions.setListener(null);
+    }
+
+    /**
+     * Method to leave the standby mode, before serving the base stations.
+     */
+    public void promote() {
+        final var now = System.currentTimeMillis();
+        for (final var session : this.sessions.getAll()) {
+            // the connections of the primary are gone
+            if (session.getDisconnectedAt() == 0) {
+                session.restored(now);
+            }
+            this.reserved.put(session.getBsEui(), session.getLastScOpId());
+            this.loggedBsOpIds.put(session.getBsEui(), session.getLastBsOpId());
+        }
+        this.sessions.setListener(this);
+        StatePersistence.LOG.info("State of {} promoted, {} sessions", this.directory, //$NON-NLS-1$
+                this.sessions.getAll().size());
+    }
+
+    /**
+     * Method to apply and log the frames of a replication, in standby mode.
+     *
+     * @param frames
+     *               the frames, between the position and the limit of the buffer, which is not modified.
+     * @throws IOException
+     *                     on invalid record, or I/O failure.
+     */
+    public void replicated(final ByteBuffer frames) throws IOException {
+        RecordCodec.forEach(frames, frames.position(), frames.limit(), this::apply);
+        this.wal.append(frames);
+    }
+
+    @Override
+    public void created(final Session session) {
+        this.reserved.remove(session.getBsEui());
+        this.loggedBsOpIds.put(session.getBsEui(), session.getLastBsOpId());
+        synchronized (this) {
+            this.codec.clear().begin(EnumStateRecord.SESSION).putEui(session.getBsEui()).putUuid(session.getBsUuid())
+                    .putUuid(session.getScUuid()).end();
+            this.append(session);
+        }
+        this.awaitReplica();
+    }
+
+    @Override
+    public void sent(final Session session, final int opId, final Api apiObj, final byte[] payload) {
+        final var bsEui = session.getBsEui();
+        final var durable = (apiObj != null) && StatePersistence.isDurable(apiObj);
+        final var reservation = this.reserved.get(bsEui);
+        if (!durable && (reservation != null) && (opId >= reservation)) {
+            // nothing to log
+            return;
+        }
+        synchronized (this) {
+            this.codec.clear();
+            final var current = this.reserved.get(bsEui);
+            if ((current == null) || (opId < current)) {
+                final var next = opId - StatePersistence.OP_ID_RESERVATION;
+                // published before logged: a concurrent snapshot never keeps a reservation below the used IDs
+                this.reserved.put(bsEui, next);
+                this.codec.begin(EnumStateRecord.SC_OP_ID).putEui(bsEui).putInt(next).end();
+            }
+            if (durable) {
+                try {
+                    this.codec.begin(EnumStateRecord.SENT).putEui(bsEui).putInt(opId)
+                            .putBytes(payload != null ? payload : apiObj.toMsgPack()).end();
+                } catch (final IOException e) {
+                    StatePersistence.LOG.error("Cannot encode the operation {} of {}", opId, bsEui, e); //$NON-NLS-1$
+                }
+            }
+            this.append(session);
+        }
+        this.awaitReplica();
+    }
+
+    @Override
+    public void acknowledged(final Session session, final int opId, final Api apiObj) {
+        if (!StatePersistence.isDurable(apiObj)) {
+            // never logged
+            return;
+        }
+        synchronized (this) {
+            this.codec.clear().begin(EnumStateRecord.ACKNOWLEDGED).putEui(session.getBsEui()).putInt(opId).end();
+            this.append(session);
+        }
+        this.awaitReplica();
+    }
+
+    @Override
+    public void connected(final Session session, final boolean connected) {
+        synchronized (this) {
+            this.codec.clear().begin(EnumStateRecord.CONNECTED).putEui(session.getBsEui())
+                    .putLong(session.getDisconnectedAt()).end();
+            this.append(session);
+        }
+        this.awaitReplica();
+    }
+
+    @Override
+    public void close() {
+        this.sessions.setListener(null);
+        this.scheduler.shutdownNow();
+        this.logBsOpIds();
+        this.wal.close();
+    }
+
+    /**
+     * Method to check if an unacknowledged operation of the service center has to survive a restart.
+     *
+     * @param apiObj
+     *               the message of the operation.
+     * @return FALSE for the queries, whose answer only matters to their caller.
+     */
+    public static boolean isDurable(final Api apiObj) {
+        return !StatePersistence.QUERIES.contains(apiObj.getClass());
+    }
+
+    /**
+     * Method to apply a record to the state.
+     *
+     * @param type
+     *             the type of the record.
+     * @param body
+     *             the body of the record.
+     * @throws IOException
+     *                     on invalid record, or end point registry failure.
+     */
+    void apply(final EnumStateRecord type, final ByteBuffer body) throws IOException {
+        switch (type) {
+        case SESSION: {
+            final var bsEui = RecordCodec.getEui(body);
+            final var bsUuid = RecordCodec.getUuid(body);
+            final var scUuid = RecordCodec.getUuid(body);
+            final var existing = this.sessions.get(bsEui);
+            if ((existing == null) || !existing.getScUuid().equals(scUuid)) {
+                this.sessions.restore(new Session(bsEui, bsUuid, scUuid));
+            }
+            break;
+        }
+        case SESSION_STATE: {
+            final var session = new Session(RecordCodec.getEui(body), RecordCodec.getUuid(body),
+                    RecordCodec.getUuid(body));
+            session.received(body.getInt());
+            session.sent(body.getInt(), null);
+            session.restored(body.getLong());
+            for (var count = body.getInt(); count > 0; count--) {
+                session.sent(body.getInt(), Api.fromMsgPack(RecordCodec.getBytes(body)));
+            }
+            this.sessions.restore(session);
+            break;
+        }
+        case ENDPOINT:
+            if (this.store.isPresent()) {
+                this.store.get().put(RecordCodec.getEndpoint(body));
+            }
+            break;
+        case ENDPOINT_REMOVED:
+            if (this.store.isPresent()) {
+                this.store.get().remove(RecordCodec.getEui(body));
+            }
+            break;
+        case DOWNLINK_PUT:
+        case DOWNLINK_DISPATCHED:
+        case DOWNLINK_DONE:
+            // persisted by the downlink log
+            break;
+        default:
+            final var session = this.sessions.get(RecordCodec.getEui(body));
+            if (session != null) {
+                StatePersistence.apply(session, type, body);
+            }
+        }
+    }
+
+    private static void apply(final Session session, final EnumStateRecord type, final ByteBuffer body)
+            throws IOException {
+        switch (type) {
+        case BS_OP_ID:
+            session.received(body.getInt());
+            break;
+        case SC_OP_ID:
+            session.sent(body.getInt(), null);
+            break;
+        case SENT:
+            session.sent(body.getInt(), Api.fromMsgPack(RecordCodec.getBytes(body)));
+            break;
+        case ACKNOWLEDGED:
+            session.acknowledged(body.getInt());
+            break;
+        case CONNECTED:
+            session.restored(body.getLong());
+            break;
+        default:
+            throw new IOException("Unexpected state record: " + type); //$NON-NLS-1$
+        }
+    }
+
+    private void restore() throws IOException {
+        final var start = System.currentTimeMillis();
+        final var latest = this.snapshots().lastEntry();
+        var generation = 0L;
+        if (latest != null) {
+            try (var channel = FileChannel.open(latest.getValue(), StandardOpenOption.READ)) {
+                final var buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                if ((buffer.capacity() < StatePersistence.HEADER) || (buffer.getInt(0) != StatePersistence.MAGIC)
+                        || (buffer.getInt(Integer.BYTES) != StatePersistence.VERSION)) {
+                    throw new IOException("Invalid state snapshot: " + latest.getValue()); //$NON-NLS-1$
+                }
+                generation = buffer.getLong(Integer.BYTES * 2);
+                if (RecordCodec.forEach(buffer, StatePersistence.HEADER, buffer.capacity(),
+                        this::apply) != buffer.capacity()) {
+                    throw new IOException("Corrupted state snapshot: " + latest.getValue()); //$NON-NLS-1$
+                }
+            }
+        }
+        this.replayedRecords = this.wal.replay(generation, this::apply);
+        // the sessions connected at the shutdown wait for their base stations from now on
+        for (final var session : this.sessions.getAll()) {
+            if (session.getDisconnectedAt() == 0) {
+                session.restored(start);
+            }
+            this.reserved.put(session.getBsEui(), session.getLastScOpId());
+            this.loggedBsOpIds.put(session.getBsEui(), session.getLastBsOpId());
+        }
+        this.restoredSessions = this.sessions.getAll().size();
+        this.restoreMillis = System.currentTimeMillis() - start;
+        StatePersistence.LOG.info("State restored from {} in {} ms: snapshot {}, {} log records, {} sessions", //$NON-NLS-1$
+                this.directory, this.restoreMillis, generation, this.replayedRecords, this.restoredSessions);
+    }
+
+    private int writeState(final RecordCodec codec, final IFrameSink sink) throws IOException {
+        var sessionCount = 0;
+        for (final var session : this.sessions.getAll()) {
+            this.encode(codec, session);
+            sessionCount++;
+            StatePersistence.flush(sink, codec, StatePersistence.FLUSH_SIZE);
+        }
+        if (this.store.isPresent()) {
+            try {
+                this.store.get().forEach(state -> {
+                    codec.begin(EnumStateRecord.ENDPOINT).putEndpoint(state).end();
+                    try {
+                        StatePersistence.flush(sink, codec, StatePersistence.FLUSH_SIZE);
+                    } catch (final IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (final UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+        StatePersistence.flush(sink, codec, 0);
+        return sessionCount;
+    }
+
+    private void encode(final RecordCodec target, final Session session) throws IOException {
+        final var unacknowledged = new TreeMap<Integer, Api>();
+        session.getUnacknowledged().forEach((opId, apiObj) -> {
+            if (StatePersistence.isDurable(apiObj)) {
+                unacknowledged.put(opId, apiObj);
+            }
+        });
+        final var reservation = this.reserved.get(session.getBsEui());
+        target.begin(EnumStateRecord.SESSION_STATE).putEui(session.getBsEui()).putUuid(session.getBsUuid())
+                .putUuid(session.getScUuid()).putInt(session.getLastBsOpId())
+                .putInt(reservation == null ? session.getLastScOpId()
+                        : Math.min(reservation, session.getLastScOpId()))
+                .putLong(session.getDisconnectedAt()).putInt(unacknowledged.size());
+        for (final var entry : unacknowledged.entrySet()) {
+            target.putInt(entry.getKey()).putBytes(entry.getValue().toMsgPack());
+        }
+        target.end();
+    }
+
+    private void logBsOpIds() {
+        synchronized (this) {
+            this.codec.clear();
+            for (final var session : this.sessions.getAll()) {
+                final var opId = session.getLastBsOpId();
+                final var logged = this.loggedBsOpIds.put(session.getBsEui(), opId);
+                if ((logged == null) || (logged != opId)) {
+                    this.codec.begin(EnumStateRecord.BS_OP_ID).putEui(session.getBsEui()).putInt(opId).end();
+                }
+            }
+            try {
+                this.log(this.codec);
+            } catch (final IOException e) {
+                StatePersistence.LOG.error("Cannot log the base station operation IDs", e); //$NON-NLS-1$
+            }
+        }
+        this.loggedBsOpIds.keySet().removeIf(bsEui -> this.sessions.get(bsEui) == null);
+        this.reserved.keySet().removeIf(bsEui -> this.sessions.get(bsEui) == null);
+    }
+
+    private void append(final Session session) {
+        try {
+            this.log(this.codec);
+        } catch (final IOException e) {
+            StatePersistence.LOG.error("Cannot log the session change of {}", session.getBsEui(), e); //$NON-NLS-1$
+        }
+    }
+
+    private void log(final RecordCodec frames) throws IOException {
+        this.wal.append(frames);
+        final var sink = this.replica;
+        if ((sink != null) && (frames.size() > 0)) {
+            sink.write(frames.frames());
+        }
+    }
+
+    private void awaitReplica() {
+        final var sink = this.replica;
+        if (sink != null) {
+            sink.awaitCapacity();
+        }
+    }
+
+    private void snapshotSafe() {
+        try {
+            this.snapshot();
+        } catch (final IOException | RuntimeException e) {
+            StatePersistence.LOG.error("State snapshot failed", e); //$NON-NLS-1$
+        }
+    }
+
+    private TreeMap<Long, Path> snapshots() throws IOException {
+        final var result = new TreeMap<Long, Path>();
+        try (var list = Files.list(this.directory)) {
+            list.filter(p -> p.getFileName().toString().endsWith(StatePersistence.SUFFIX)).forEach(p -> {
+                final var name = p.getFileName().toString();
+                result.put(Long.parseLong(name.substring(0, name.length() - StatePersistence.SUFFIX.length())), p);
+            });
+        }
+        return result;
+    }
+
+    private Path snapshotPath(final long generation) {
+        return this.directory.resolve(String.format("%020d%s", generation, StatePersistence.SUFFIX)); //$NON-NLS-1$
+    }
+
+    private static void flush(final IFrameSink sink, final RecordCodec codec, final int threshold)
+            throws IOException {
+        if (codec.size() > threshold) {
+            sink.write(codec.frames());
+            codec.clear();
+        }
+    }
+
+    private static void write(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * View of the end point registry logging its changes.
+     */
+    private final class LoggedStore implements IEndpointStateStore {
+        /** The end point registry. */
+        private final IEndpointStateStore delegate;
+
+        private LoggedStore(final IEndpointStateStore delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Optional<EndpointState> get(final EUI64 epEui) throws IOException {
+            return this.delegate.get(epEui);
+        }
+
+        @Override
+        public void put(final EndpointState state) throws IOException {
+            this.delegate.put(state);
+            synchronized (StatePersistence.this) {
+                StatePersistence.this.codec.clear().begin(EnumStateRecord.ENDPOINT).putEndpoint(state).end();
+                StatePersistence.this.log(StatePersistence.this.codec);
+            }
+            StatePersistence.this.awaitReplica();
+        }
+
+        @Override
+        public void putAll(final Collection<EndpointState> states) throws IOException {
+            this.delegate.putAll(states);
+            synchronized (StatePersistence.this) {
+                final var target = StatePersistence.this.codec.clear();
+                for (final var state : states) {
+                    target.begin(EnumStateRecord.ENDPOINT).putEndpoint(state).end();
+                    if (target.size() > StatePersistence.FLUSH_SIZE) {
+                        StatePersistence.this.log(target);
+                        target.clear();
+                    }
+                }
+                StatePersistence.this.log(target);
+            }
+            StatePersistence.this.awaitReplica();
+        }
+
+        @Override
+        public void remove(final EUI64 epEui) throws IOException {
+            this.delegate.remove(epEui);
+            synchronized (StatePersistence.this) {
+                StatePersistence.this.codec.clear().begin(EnumStateRecord.ENDPOINT_REMOVED).putEui(epEui).end();
+                StatePersistence.this.log(StatePersistence.this.codec);
+            }
+            StatePersistence.this.awaitReplica();
+        }
+
+        @Override
+        public void forEach(final Consumer<EndpointState> consumer) throws IOException {
+            this.delegate.forEach(consumer);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            this.delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.delegate.close();
+        }
+    }
+}
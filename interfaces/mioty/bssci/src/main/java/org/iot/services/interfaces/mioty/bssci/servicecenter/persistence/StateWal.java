@@ -0,0 +1,297 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.persistence;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.journal.EnumSyncPolicy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Write-ahead log of the state changes, in memory mapped files of {@link RecordCodec} frames.
+ * <p>
+ * Each file is a generation: a snapshot of generation {@code G} is taken after {@link #roll()} opened the file
+ * {@code G}, so restoring it needs the files from {@code G} on. The length of the first frame of an append is written
+ * last, so the frames of an append become visible together. As the mapped pages are not written to the storage in
+ * order, a power loss may still tear an append: the reopen stops at the first frame failing its checksum, and clears
+ * the rest of the last file, as a shorter append would expose the stale frames behind it. A full file rolls over to the
+ * next generation and notifies the owner, which should snapshot soon.
+ *
+ * @author FendtC
+ */
+public class StateWal implements AutoCloseable {
+
+    /** Default size of the log files. */
+    public static final int DEFAULT_FILE_SIZE = 64 << 20;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(StateWal.class);
+    /** Suffix of the log files. */
+    static final String SUFFIX = ".wal"; //$NON-NLS-1$
+    /** Length marking the end of a file. */
+    private static final int END_OF_FILE = -1;
+
+    /** Directory of the log. */
+    @Getter
+    private final Path directory;
+    /** Size of the new files. */
+    private final int fileSize;
+    /** Flush policy. */
+    @Getter
+    private final EnumSyncPolicy syncPolicy;
+    /** Notified when a full file rolled over. */
+    private final Runnable onFull;
+    /** The files, by generation. */
+    private final TreeMap<Long, WalFile> files = new TreeMap<>();
+    /** File receiving the appends. */
+    private WalFile active;
+
+    /**
+     * Constructor. The existing files of the directory are reopened.
+     *
+     * @param directory
+     *                   Directory of the log.
+     * @param fileSize
+     *                   Size of the new files, in bytes.
+     * @param syncPolicy
+     *                   Flush policy, the {@link EnumSyncPolicy#INTERVAL} flush being left to the owner.
+     * @param onFull
+     *                   Notified, under the lock of the log, when a full file rolled over.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public StateWal(final Path directory, final int fileSize, final EnumSyncPolicy syncPolicy, final Runnable onFull)
+            throws IOException {
+        Validate.isTrue(fileSize >= 4096, "fileSize must be at least 4096, is: %d", fileSize); //$NON-NLS-1$
+        this.directory = Files.createDirectories(directory);
+        this.fileSize = fileSize;
+        this.syncPolicy = Validate.notNull(syncPolicy);
+        this.onFull = Validate.notNull(onFull);
+        this.open();
+    }
+
+    /**
+     * Method to append the frames encoded by a codec.
+     *
+     * @param codec
+     *              the codec, holding complete frames.
+     * @throws IOException
+     *                     on I/O failure, or if the frames do not fit in a file.
+     */
+    public void append(final RecordCodec codec) throws IOException {
+        this.append(codec.frames());
+    }
+
+    /**
+     * Method to append complete frames, e.g. received from a replication.
+     *
+     * @param frames
+     *               the frames, between the position and the limit of the buffer, which is not modified.
+     * @throws IOException
+     *                     on I/O failure, or if the frames do not fit in a file.
+     */
+    public synchronized void append(final ByteBuffer frames) throws IOException {
+        final var size = frames.remaining();
+        if (size == 0) {
+            return;
+        }
+        if ((size + Integer.BYTES) > this.fileSize) {
+            throw new IOException("State records too large for the log: " + size); //$NON-NLS-1$
+        }
+        if ((this.active.position + size + Integer.BYTES) > this.active.buffer.capacity()) {
+            this.active.buffer.putInt(this.active.position, StateWal.END_OF_FILE);
+            this.active.buffer.force();
+            this.roll();
+            this.onFull.run();
+        }
+        final var buffer = this.active.buffer;
+        final var pos = this.active.position;
+        final var start = frames.position();
+        buffer.position(pos + Integer.BYTES);
+        buffer.put(frames.duplicate().position(start + Integer.BYTES));
+        // the first length last: the frames are complete once visible
+        buffer.putInt(pos, frames.getInt(start));
+        this.active.position += size;
+        if (this.syncPolicy == EnumSyncPolicy.EVERY_APPEND) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * Method to start a new generation: the next appends go to a new file.
+     *
+     * @return the new generation.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public synchronized long roll() throws IOException {
+        final var generation = this.files.isEmpty() ? 0 : (this.files.lastKey() + 1);
+        final var path = this.directory.resolve(String.format("%020d%s", generation, StateWal.SUFFIX)); //$NON-NLS-1$
+        this.active = new WalFile(generation, path, this.fileSize);
+        this.files.put(generation, this.active);
+        return generation;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the generation receiving the appends.
+     */
+    public synchronized long getGeneration() {
+        return this.active.generation;
+    }
+
+    /**
+     * Method to replay the records, in log order.
+     *
+     * @param fromGeneration
+     *                       the first generation replayed.
+     * @param consumer
+     *                       consumer of the records.
+     * @return the number of records.
+     * @throws IOException
+     *                     on invalid record.
+     */
+    public synchronized long replay(final long fromGeneration, final IStateRecordConsumer consumer)
+            throws IOException {
+        final var count = new long[1];
+        for (final var file : this.files.tailMap(fromGeneration, true).values()) {
+            RecordCodec.forEach(file.buffer, 0, file.position, (type, body) -> {
+                count[0]++;
+                consumer.accept(type, body);
+            });
+        }
+        return count[0];
+    }
+
+    /**
+     * Method to delete the files of the generations covered by a snapshot.
+     *
+     * @param generation
+     *                   the first generation kept.
+     */
+    public synchronized void truncate(final long generation) {
+        final var obsolete = this.files.headMap(generation, false);
+        for (final var file : obsolete.values()) {
+            try {
+                Files.deleteIfExists(file.path);
+            } catch (final IOException e) {
+                StateWal.LOG.warn("Cannot delete the state log file {}", file.path, e); //$NON-NLS-1$
+            }
+        }
+        obsolete.clear();
+    }
+
+    /**
+     * Method to flush the active file to the storage.
+     */
+    public void sync() {
+        final WalFile file;
+        synchronized (this) {
+            file = this.active;
+        }
+        file.buffer.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        this.files.values().forEach(f -> f.buffer.force());
+    }
+
+    private void open() throws IOException {
+        try (var list = Files.list(this.directory)) {
+            for (final var path : list.filter(p -> p.getFileName().toString().endsWith(StateWal.SUFFIX))
+                    .collect(Collectors.toList())) {
+                final var name = path.getFileName().toString();
+                final var generation = Long.parseLong(name.substring(0, name.length() - StateWal.SUFFIX.length()));
+                this.files.put(generation, new WalFile(generation, path, this.fileSize));
+            }
+        }
+        if (this.files.isEmpty()) {
+            this.roll();
+            return;
+        }
+        for (final var file : this.files.values()) {
+            file.position = RecordCodec.forEach(file.buffer, 0, file.buffer.capacity(), (type, body) -> {
+                // only the frame boundaries matter
+            });
+        }
+        this.active = this.files.lastEntry().getValue();
+        if (StateWal.isDirty(this.active.buffer, this.active.position)) {
+            StateWal.LOG.warn("State log file {} truncated at {}", this.active.path, this.active.position); //$NON-NLS-1$
+            final var buffer = this.active.buffer;
+            final var zeros = new byte[64 << 10];
+            for (var at = this.active.position; at < buffer.capacity(); at += zeros.length) {
+                buffer.position(at);
+                buffer.put(zeros, 0, Math.min(zeros.length, buffer.capacity() - at));
+            }
+            buffer.force();
+        }
+        StateWal.LOG.info("State log {} reopened, {} files, generation {}", this.directory, this.files.size(), //$NON-NLS-1$
+                this.active.generation);
+    }
+
+    private static boolean isDirty(final ByteBuffer buffer, final int from) {
+        var pos = from;
+        for (; (pos + Long.BYTES) <= buffer.capacity(); pos += Long.BYTES) {
+            if (buffer.getLong(pos) != 0) {
+                return true;
+            }
+        }
+        for (; pos < buffer.capacity(); pos++) {
+            if (buffer.get(pos) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Mapped file of the log.
+     */
+    private static final class WalFile {
+        /** Generation of the file. */
+        private final long generation;
+        /** The file. */
+        private final Path path;
+        /** The mapped file. */
+        private final MappedByteBuffer buffer;
+        /** Position following the last frame. */
+        private int position;
+
+        private WalFile(final long generation, final Path path, final int size) throws IOException {
+            this.generation = generation;
+            this.path = path;
+            try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                    StandardOpenOption.WRITE)) {
+                this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+            }
+        }
+    }
+}
@@ -0,0 +1,274 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.propagation;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.AttPrp;
+import org.iot.services.interfaces.mioty.bssci.api.main.DetPrp;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Engine to stream a large amount of attach (or detach) propagations to a base station.
+ * <p>
+ * The operations are pipelined: up to {@link #getWindow()} operations are in flight at the same time, the sending rate
+ * is limited to protect the base station, and operations that are not acknowledged in time are retried with a copy of
+ * their message. The jobs of every base station share one scheduler thread: a job sends when a slot of its window is
+ * free and its rate allows it, nothing waits in between.
+ *
+ * @author FendtC
+ */
+public class BulkPropagator {
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(BulkPropagator.class);
+    /** Scheduler of the jobs, shared by the propagators. */
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(r -> {
+        final var thread = new Thread(r, "bssci-propagation"); //$NON-NLS-1$
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Default number of operations in flight. */
+    public static final int DEFAULT_WINDOW = 32;
+    /** Default maximum number of operations per second. */
+    public static final int DEFAULT_RATE = 500;
+    /** Default number of retries per operation. */
+    public static final int DEFAULT_RETRIES = 3;
+    /** Default response timeout. */
+    public static final Duration DEFAULT_TIMEOUT = Duration.ofSeconds(10);
+
+    /** Maximum number of operations waiting for their response. */
+    @Getter
+    private final int window;
+    /** Maximum number of operations sent per second. */
+    @Getter
+    private final int rate;
+    /** Maximum number of retries per operation. */
+    @Getter
+    private final int maxRetries;
+    /** Response timeout of one operation. */
+    @Getter
+    private final Duration timeout;
+    /** Minimal delay between two operations, in ns. */
+    private final long interval;
+
+    /**
+     * Constructor with the default settings.
+     */
+    public BulkPropagator() {
+        this(BulkPropagator.DEFAULT_WINDOW, BulkPropagator.DEFAULT_RATE, BulkPropagator.DEFAULT_RETRIES,
+                BulkPropagator.DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param window
+     *                   Maximum number of operations waiting for their response.
+     * @param rate
+     *                   Maximum number of operations sent per second.
+     * @param maxRetries
+     *                   Maximum number of retries per operation.
+     * @param timeout
+     *                   Response timeout of one operation.
+     */
+    public BulkPropagator(final int window, final int rate, final int maxRetries, final Duration timeout) {
+        Validate.isTrue(window > 0, "window must be positive, is: %d", window); //$NON-NLS-1$
+        Validate.isTrue(rate > 0, "rate must be positive, is: %d", rate); //$NON-NLS-1$
+        Validate.isTrue(maxRetries >= 0, "maxRetries must not be negative, is: %d", maxRetries); //$NON-NLS-1$
+        this.window = window;
+        this.rate = rate;
+        this.maxRetries = maxRetries;
+        this.timeout = Validate.notNull(timeout);
+        this.interval = TimeUnit.SECONDS.toNanos(1) / rate;
+    }
+
+    /**
+     * Method to propagate end point attachments to a base station.
+     *
+     * @param client
+     *                 the base station connection.
+     * @param messages
+     *                 the attach propagations.
+     * @param handler
+     *                 the optional progress handler.
+     * @return the final progress, once every operation is acknowledged or failed.
+     */
+    public CompletableFuture<PropagationProgress> attach(final ServiceCenterConnection client,
+            final Collection<AttPrp> messages, final IPropagationProgressHandler handler) {
+        return this.propagate(client, messages, handler);
+    }
+
+    /**
+     * Method to propagate end point detachments to a base station.
+     *
+     * @param client
+     *                 the base station connection.
+     * @param messages
+     *                 the detach propagations.
+     * @param handler
+     *                 the optional progress handler.
+     * @return the final progress, once every operation is acknowledged or failed.
+     */
+    public CompletableFuture<PropagationProgress> detach(final ServiceCenterConnection client,
+            final Collection<DetPrp> messages, final IPropagationProgressHandler handler) {
+        return this.propagate(client, messages, handler);
+    }
+
+    private CompletableFuture<PropagationProgress> propagate(final ServiceCenterConnection client,
+            final Collection<? extends Api> messages, final IPropagationProgressHandler handler) {
+        final var job = new Job(client, messages, handler);
+        if (job.progress.isDone()) {
+            job.result.complete(job.progress);
+        } else {
+            job.wake();
+        }
+        return job.result;
+    }
+
+    /**
+     * One operation to propagate.
+     */
+    private static final class Attempt {
+        /** Message to send. */
+        private final Api message;
+        /** Number of retries already done. */
+        private final int retries;
+
+        private Attempt(final Api message, final int retries) {
+            this.message = message;
+            this.retries = retries;
+        }
+    }
+
+    /**
+     * Propagation to one base station.
+     */
+    private final class Job {
+        /** the base station connection. */
+        private final ServiceCenterConnection client;
+        /** Operations to send, including the retries. */
+        private final Queue<Attempt> queue = new ConcurrentLinkedQueue<>();
+        /** Free slots of the in-flight window. */
+        private final Semaphore slots;
+        /** Progress of the propagation. */
+        private final PropagationProgress progress;
+        /** The optional progress handler. */
+        private final IPropagationProgressHandler handler;
+        /** Final result. */
+        private final CompletableFuture<PropagationProgress> result = new CompletableFuture<>();
+        /** TRUE while a run of {@link #pump()} is scheduled. */
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        /** Earliest time of the next operation, in ns, only used by the scheduler thread. */
+        private long next = System.nanoTime();
+
+        private Job(final ServiceCenterConnection client, final Collection<? extends Api> messages,
+                final IPropagationProgressHandler handler) {
+            this.client = client;
+            this.handler = handler;
+            this.slots = new Semaphore(BulkPropagator.this.window);
+            this.progress = new PropagationProgress(client.getEui(), messages.size());
+            messages.forEach(m -> this.queue.add(new Attempt(m, 0)));
+        }
+
+        private void wake() {
+            if (this.scheduled.compareAndSet(false, true)) {
+                BulkPropagator.SCHEDULER.execute(this::pump);
+            }
+        }
+
+        private void pump() {
+            this.scheduled.set(false);
+            while (!this.result.isDone() && !this.queue.isEmpty()) {
+                final var delay = this.next - System.nanoTime();
+                if (delay > 0) {
+                    if (this.scheduled.compareAndSet(false, true)) {
+                        BulkPropagator.SCHEDULER.schedule(this::pump, delay, TimeUnit.NANOSECONDS);
+                    }
+                    return;
+                }
+                if (!this.slots.tryAcquire()) {
+                    // woken again by the completion of an operation
+                    return;
+                }
+                final var attempt = this.queue.poll();
+                this.next = Math.max(this.next, System.nanoTime()) + BulkPropagator.this.interval;
+                this.client.request(attempt.message, BulkPropagator.this.timeout)
+                        .whenComplete((rsp, ex) -> this.completed(attempt, ex));
+            }
+        }
+
+        private void completed(final Attempt attempt, final Throwable ex) {
+            this.slots.release();
+            final boolean done;
+            if (ex == null) {
+                done = this.progress.acknowledge();
+            } else if ((attempt.retries < BulkPropagator.this.maxRetries) && this.client.isConnected()
+                    && this.retry(attempt)) {
+                BulkPropagator.LOG.debug("retry of propagation to {}: {}", this.client.getEui(), ex.getMessage()); //$NON-NLS-1$
+                this.progress.retry();
+                done = false;
+            } else {
+                BulkPropagator.LOG.warn("propagation to {} failed: {}", this.client.getEui(), ex.getMessage()); //$NON-NLS-1$
+                done = this.progress.fail();
+            }
+            if (this.handler != null) {
+                try {
+                    this.handler.progress(this.progress);
+                } catch (final Exception e) {
+                    BulkPropagator.LOG.error("error in the propagation progress handler", e); //$NON-NLS-1$
+                }
+            }
+            if (done) {
+                this.result.complete(this.progress);
+            } else if (!this.client.isConnected() && (ex instanceof IOException)) {
+                // nothing more can be propagated on a closed connection
+                this.result.completeExceptionally(ex);
+            } else {
+                this.wake();
+            }
+        }
+
+        private boolean retry(final Attempt attempt) {
+            // the sent message is still referenced by the session of the connection, it is not sent again
+            try {
+                this.queue.add(new Attempt(Api.fromMsgPack(attempt.message.toMsgPack()), attempt.retries + 1));
+                return true;
+            } catch (final IOException e) {
+                BulkPropagator.LOG.warn("propagation to {} not retried", this.client.getEui(), e); //$NON-NLS-1$
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.propagation;
+
+import java.util.Collection;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.AttPrp;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Provider of the end point attachments to propagate to a freshly connected base station.
+ *
+ * @author FendtC
+ */
+@FunctionalInterface
+public interface IAttachmentProvider {
+
+    /**
+     * Method to retrieve the attachments to propagate.
+     *
+     * @param bsEui
+     *              EUI64 of the connected base station.
+     * @return the attach propagation messages, never NULL.
+     */
+    Collection<AttPrp> attachments(EUI64 bsEui);
+}
@@ -0,0 +1,123 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.propagation;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Progress of a bulk propagation to a base station.
+ *
+ * @author FendtC
+ */
+public final class PropagationProgress {
+    /** EUI64 of the base station. */
+    @Getter
+    private final EUI64 bsEui;
+    /** Number of operations to propagate. */
+    @Getter
+    private final int total;
+    /** Number of operations acknowledged by the base station. */
+    private final AtomicInteger acknowledged = new AtomicInteger();
+    /** Number of operations that failed after all retries. */
+    private final AtomicInteger failed = new AtomicInteger();
+    /** Number of retries. */
+    private final AtomicInteger retried = new AtomicInteger();
+
+    /**
+     * Constructor.
+     *
+     * @param bsEui
+     *              EUI64 of the base station.
+     * @param total
+     *              Number of operations to propagate.
+     */
+    PropagationProgress(final EUI64 bsEui, final int total) {
+        this.bsEui = bsEui;
+        this.total = total;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of operations acknowledged by the base station.
+     */
+    public int getAcknowledged() {
+        return this.acknowledged.get();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of operations that failed after all retries.
+     */
+    public int getFailed() {
+        return this.failed.get();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of retries.
+     */
+    public int getRetried() {
+        return this.retried.get();
+    }
+
+    /**
+     * Method to check if every operation is either acknowledged or failed.
+     *
+     * @return TRUE if the propagation is finished.
+     */
+    public boolean isDone() {
+        return (this.acknowledged.get() + this.failed.get()) >= this.total;
+    }
+
+    /**
+     * Event method.
+     *
+     * @return TRUE if the propagation is finished by this event.
+     */
+    boolean acknowledge() {
+        return (this.acknowledged.incrementAndGet() + this.failed.get()) == this.total;
+    }
+
+    /**
+     * Event method.
+     *
+     * @return TRUE if the propagation is finished by this event.
+     */
+    boolean fail() {
+        return (this.acknowledged.get() + this.failed.incrementAndGet()) == this.total;
+    }
+
+    /**
+     * Event method.
+     */
+    void retry() {
+        this.retried.incrementAndGet();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d/%d acknowledged, %d failed, %d retried", this.bsEui, this.getAcknowledged(), //$NON-NLS-1$
+                this.total, this.getFailed(), this.getRetried());
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.ratelimit;
+
+/**
+ * Handling of a message above its rate limit.
+ *
+ * @author FendtC
+ */
+public enum EnumOverLimitAction {
+    /** The message is processed, only counted (monitoring mode). */
+    COUNT,
+    /** The message is discarded and answered with an error, not to be retried. */
+    DROP,
+    /** The message is discarded and answered with an error, to be retried later. */
+    REJECT,
+    /** The connection of the base station is closed. */
+    DISCONNECT;
+}
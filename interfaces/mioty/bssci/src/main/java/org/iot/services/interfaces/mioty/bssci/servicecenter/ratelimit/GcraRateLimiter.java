@@ -0,0 +1,180 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.ratelimit;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+
+import lombok.Getter;
+
+/**
+ * Rate limiter for a large number of keys, based on the generic cell rate algorithm (GCRA).
+ * <p>
+ * The state of a key is its theoretical arrival time only, refilled lazily on the next request. The keys and times are
+ * stored in primitive open addressing tables, split in segments with their own lock: there is no object per key. A key
+ * whose theoretical arrival time is in the past has no state worth keeping, its slot is reused by another key. If the
+ * probed slots of a new key are all in use the request is allowed (fail open) and counted.
+ *
+ * @author FendtC
+ */
+public class GcraRateLimiter {
+
+    /** Number of segments. */
+    private static final int SEGMENTS = 64;
+    /** Maximum number of probed slots. */
+    private static final int MAX_PROBES = 16;
+
+    /** Interval between two requests at the nominal rate, in ns. */
+    @Getter
+    private final long emissionInterval;
+    /** Tolerance of the burst, in ns. */
+    private final long tolerance;
+    /** The segments. */
+    private final Segment[] segments;
+    /** Origin of the times, so that a used slot never has a zero time. */
+    private final long origin = System.nanoTime() - 1;
+    /** Number of requests allowed because the table is full. */
+    private final LongAdder overflows = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param rate
+     *                 Nominal rate, in requests per second.
+     * @param burst
+     *                 Number of requests allowed in a burst.
+     * @param capacity
+     *                 Number of keys, rounded up to a power of two.
+     */
+    public GcraRateLimiter(final double rate, final int burst, final int capacity) {
+        Validate.isTrue(rate > 0, "rate must be positive, is: %f", rate); //$NON-NLS-1$
+        Validate.isTrue(burst > 0, "burst must be positive, is: %d", burst); //$NON-NLS-1$
+        Validate.isTrue(capacity > 0, "capacity must be positive, is: %d", capacity); //$NON-NLS-1$
+        this.emissionInterval = Math.max(1, (long) (TimeUnit.SECONDS.toNanos(1) / rate));
+        this.tolerance = this.emissionInterval * (burst - 1L);
+        final var perSegment = Integer.highestOneBit(Math.max(GcraRateLimiter.MAX_PROBES,
+                (capacity + GcraRateLimiter.SEGMENTS - 1) / GcraRateLimiter.SEGMENTS) * 2 - 1);
+        this.segments = new Segment[GcraRateLimiter.SEGMENTS];
+        for (var i = 0; i < this.segments.length; i++) {
+            this.segments[i] = new Segment(perSegment);
+        }
+    }
+
+    /**
+     * Method to request a cell for a key.
+     *
+     * @param key
+     *            the key, e.g. an EUI64 as long.
+     * @return TRUE if the request is within the limit.
+     */
+    public boolean tryAcquire(final long key) {
+        return this.tryAcquire(key, System.nanoTime());
+    }
+
+    /**
+     * Method to request a cell for a key at a given time.
+     *
+     * @param key
+     *             the key.
+     * @param time
+     *             the current time, from {@link System#nanoTime()}.
+     * @return TRUE if the request is within the limit.
+     */
+    public boolean tryAcquire(final long key, final long time) {
+        final var now = time - this.origin;
+        final var hash = GcraRateLimiter.mix(key);
+        final var segment = this.segments[(int) (hash >>> 58)];
+        synchronized (segment) {
+            final var slot = segment.slot(key, hash, now);
+            if (slot < 0) {
+                this.overflows.increment();
+                return true;
+            }
+            // an unused slot has tat = 0, never in the future
+            final var tat = Math.max(segment.tat[slot], now);
+            if ((tat - now) > this.tolerance) {
+                return false;
+            }
+            segment.tat[slot] = tat + this.emissionInterval;
+            return true;
+        }
+    }
+
+    /**
+     * Method to retrieve the number of requests allowed because every probed slot was in use.
+     *
+     * @return the number of requests.
+     */
+    public long getOverflows() {
+        return this.overflows.sum();
+    }
+
+    private static long mix(final long key) {
+        // murmur3 finalizer
+        var h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Open addressing table of a segment.
+     */
+    private static final class Segment {
+        /** The keys. */
+        private final long[] keys;
+        /** The theoretical arrival times, 0 for an unused slot. */
+        private final long[] tat;
+        /** Mask of the slot indexes. */
+        private final int mask;
+
+        private Segment(final int size) {
+            this.keys = new long[size];
+            this.tat = new long[size];
+            this.mask = size - 1;
+        }
+
+        private int slot(final long key, final long hash, final long now) {
+            var reusable = -1;
+            for (var i = 0; i < GcraRateLimiter.MAX_PROBES; i++) {
+                final var slot = (int) (hash + i) & this.mask;
+                if ((this.keys[slot] == key) && (this.tat[slot] != 0)) {
+                    return slot;
+                }
+                if (this.tat[slot] == 0) {
+                    // never used: the key is not further in the chain
+                    return this.claim(reusable < 0 ? slot : reusable, key);
+                }
+                if ((reusable < 0) && ((this.tat[slot] - now) <= 0)) {
+                    reusable = slot;
+                }
+            }
+            return reusable < 0 ? -1 : this.claim(reusable, key);
+        }
+
+        private int claim(final int slot, final long key) {
+            this.keys[slot] = key;
+            this.tat[slot] = 0;
+            return slot;
+        }
+    }
+}
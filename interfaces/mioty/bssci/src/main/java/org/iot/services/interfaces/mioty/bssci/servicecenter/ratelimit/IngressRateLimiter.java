@@ -0,0 +1,143 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.ratelimit;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.iot.services.interfaces.mioty.bssci.utils.MsgPackPeek;
+
+import lombok.Getter;
+
+/**
+ * Rate limitation of the incoming uplinks, by end point and by base station.
+ * <p>
+ * The limits are evaluated on the raw message, before its decoding: the command and the end point EUI64 are peeked
+ * from the MsgPack payload. Only the uplinks are limited, the control plane is never.
+ *
+ * @author FendtC
+ */
+public class IngressRateLimiter {
+
+    /** Default number of end point buckets. */
+    public static final int DEFAULT_CAPACITY = 1 << 20;
+    /** Error code of a rejected message (EAGAIN). */
+    public static final int ERROR_LIMITED = 11;
+    /** Error code of a dropped message (ECANCELED). */
+    public static final int ERROR_DROPPED = 125;
+
+    /** Field name. */
+    private static final byte[] KEY_COMMAND = MsgPackPeek.key("command"); //$NON-NLS-1$
+    /** Field name. */
+    private static final byte[] KEY_EP_EUI = MsgPackPeek.key("epEui"); //$NON-NLS-1$
+    /** Field name. */
+    private static final byte[] KEY_OP_ID = MsgPackPeek.key("opId"); //$NON-NLS-1$
+    /** Command name. */
+    private static final byte[] UL_DATA = MsgPackPeek.key("ulData"); //$NON-NLS-1$
+    /** Command name. */
+    private static final byte[] VM_UL_DATA = MsgPackPeek.key("vm.ulData"); //$NON-NLS-1$
+
+    /** Limiter by end point, NULL if not limited. */
+    private final GcraRateLimiter endpoints;
+    /** Limiter by base station, NULL if not limited. */
+    private final GcraRateLimiter baseStations;
+    /** Handling of the messages above the limit. */
+    @Getter
+    private final EnumOverLimitAction action;
+    /** Number of messages above the end point limit. */
+    private final LongAdder endpointLimited = new LongAdder();
+    /** Number of messages above the base station limit. */
+    private final LongAdder baseStationLimited = new LongAdder();
+
+    /**
+     * Constructor.
+     *
+     * @param endpoints
+     *                     Limiter by end point, NULL to not limit the end points.
+     * @param baseStations
+     *                     Limiter by base station, NULL to not limit the base stations.
+     * @param action
+     *                     Handling of the messages above the limit.
+     */
+    public IngressRateLimiter(final GcraRateLimiter endpoints, final GcraRateLimiter baseStations,
+            final EnumOverLimitAction action) {
+        this.endpoints = endpoints;
+        this.baseStations = baseStations;
+        this.action = Validate.notNull(action);
+    }
+
+    /**
+     * Method to check a raw incoming message against the limits, called on the receiver thread.
+     *
+     * @param bsEui
+     *                the base station EUI64, NULL before the connection.
+     * @param payload
+     *                the raw MsgPack message.
+     * @return FALSE if the message is above a limit and has to be handled by {@link #getAction()}.
+     */
+    public boolean admit(final EUI64 bsEui, final byte[] payload) {
+        final var command = MsgPackPeek.find(payload, IngressRateLimiter.KEY_COMMAND);
+        final var ulData = MsgPackPeek.isString(payload, command, IngressRateLimiter.UL_DATA);
+        if (!ulData && !MsgPackPeek.isString(payload, command, IngressRateLimiter.VM_UL_DATA)) {
+            return true;
+        }
+        final var now = System.nanoTime();
+        var admitted = true;
+        if ((this.baseStations != null) && (bsEui != null) && !this.baseStations.tryAcquire(bsEui.asLong(), now)) {
+            this.baseStationLimited.increment();
+            admitted = false;
+        }
+        if (admitted && ulData && (this.endpoints != null)) {
+            final var epEui = MsgPackPeek.find(payload, IngressRateLimiter.KEY_EP_EUI);
+            if ((epEui >= 0) && !this.endpoints.tryAcquire(MsgPackPeek.readLong(payload, epEui, 0), now)) {
+                this.endpointLimited.increment();
+                admitted = false;
+            }
+        }
+        return admitted || (this.action == EnumOverLimitAction.COUNT);
+    }
+
+    /**
+     * Method to peek the operation ID of a raw message, to answer it without decoding.
+     *
+     * @param payload
+     *                the raw MsgPack message.
+     * @return the operation ID, 0 if missing.
+     */
+    public static int peekOpId(final byte[] payload) {
+        return (int) MsgPackPeek.readLong(payload, MsgPackPeek.find(payload, IngressRateLimiter.KEY_OP_ID), 0);
+    }
+
+    /**
+     * Method to retrieve the number of messages above the end point limit.
+     *
+     * @return the number of messages.
+     */
+    public long getEndpointLimited() {
+        return this.endpointLimited.sum();
+    }
+
+    /**
+     * Method to retrieve the number of messages above the base station limit.
+     *
+     * @return the number of messages.
+     */
+    public long getBaseStationLimited() {
+        return this.baseStationLimited.sum();
+    }
+}
@@ -0,0 +1,53 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.replication;
+
+/**
+ * Types of the messages of the replication stream. A message is
+ * {@code [int length][byte type][long sequence][long sentAt][frames]}, the length counting what follows it, the
+ * frames being {@link org.iot.services.interfaces.mioty.bssci.servicecenter.persistence.RecordCodec} frames. The
+ * standby acknowledges the messages with a positive sequence by sending back the sequence, as a long.
+ *
+ * @author FendtC
+ */
+public enum EnumReplicationMessage {
+    /** Start of a full state transfer: the standby may hold stale entries. No frames. */
+    RESYNC_BEGIN,
+    /** Changes, or a part of the full state during a transfer. */
+    BATCH,
+    /** End of a full state transfer: the entries not transferred are stale. No frames. */
+    RESYNC_END;
+
+    /** The values, by ordinal. */
+    private static final EnumReplicationMessage[] VALUES = EnumReplicationMessage.values();
+
+    /**
+     * Method to decode a type.
+     *
+     * @param code
+     *             the code, see {@link #ordinal()}.
+     * @return the type.
+     * @throws IllegalArgumentException
+     *                                  on unknown code.
+     */
+    public static EnumReplicationMessage of(final int code) {
+        if ((code < 0) || (code >= EnumReplicationMessage.VALUES.length)) {
+            throw new IllegalArgumentException("Unknown replication message type: " + code); //$NON-NLS-1$
+        }
+        return EnumReplicationMessage.VALUES[code];
+    }
+}
@@ -0,0 +1,299 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.replication;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.DlDataQue;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.downlink.DownlinkLog;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.persistence.RecordCodec;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.persistence.StatePersistence;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Standby side of the hot-standby replication: applies the stream of a {@link StateReplicator} to a
+ * {@link StatePersistence} in standby mode, which logs it as its own changes, and to a {@link DownlinkLog}.
+ * <p>
+ * One primary is served at a time. After a full state transfer, the end points and downlinks not transferred are
+ * removed; the stale sessions expire by the retention of the service center. On failover, {@link #promote()} stops
+ * the replication; the service center is then started on the replicated state, and the downlinks recovered from the
+ * log.
+ *
+ * @author FendtC
+ */
+public class StandbyReplica implements AutoCloseable {
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(StandbyReplica.class);
+
+    /** The replicated state. */
+    private final StatePersistence persistence;
+    /** The replicated downlinks. */
+    private final Optional<DownlinkLog> downlinks;
+    /** The listening socket. */
+    private final ServerSocket server;
+    /** The acceptor. */
+    private final Thread acceptor;
+    /** The connection of the primary, NULL if none. */
+    private volatile Socket socket;
+    /** TRUE once promoted. */
+    @Getter
+    private volatile boolean promoted;
+    /** Number of records applied. */
+    @Getter
+    private volatile long applied;
+    /** Last sequence applied. */
+    @Getter
+    private volatile long lastSequence;
+    /** Delay between the sending and the application of the last message, in ms. */
+    @Getter
+    private volatile long lastDelayMillis;
+    /** End points not transferred yet during a full state transfer, NULL otherwise. */
+    private Set<Long> staleEndpoints;
+    /** Downlinks not transferred yet during a full state transfer, NULL otherwise. */
+    private Set<Long> staleDownlinks;
+
+    /**
+     * Constructor with arguments. The state is switched to the standby mode, and the replication accepted at once.
+     *
+     * @param persistence
+     *                    The replicated state.
+     * @param downlinks
+     *                    The replicated downlinks, NULL if none.
+     * @param address
+     *                    Listening address.
+     * @throws IOException
+     *                     if the address cannot be bound.
+     */
+    public StandbyReplica(final StatePersistence persistence, final DownlinkLog downlinks,
+            final InetSocketAddress address) throws IOException {
+        this.persistence = Validate.notNull(persistence);
+        this.downlinks = Optional.ofNullable(downlinks);
+        this.server = new ServerSocket();
+        this.server.setReuseAddress(true);
+        this.server.bind(address);
+        persistence.standby();
+        this.acceptor = new Thread(this::run, "bssci-state-standby"); //$NON-NLS-1$
+        this.acceptor.setDaemon(true);
+        this.acceptor.start();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the bound address.
+     */
+    public InetSocketAddress getAddress() {
+        return (InetSocketAddress) this.server.getLocalSocketAddress();
+    }
+
+    /**
+     * Method to promote the standby: the replication stops, and the state logs the changes of the service center
+     * from now on. The connections of the primary are considered lost.
+     *
+     * @throws InterruptedException
+     *                              if interrupted while waiting for the last message.
+     */
+    public void promote() throws InterruptedException {
+        this.promoted = true;
+        this.close();
+        this.acceptor.join();
+        this.persistence.promote();
+        StandbyReplica.LOG.info("Standby promoted at sequence {}, {} records applied", this.lastSequence, //$NON-NLS-1$
+                this.applied);
+    }
+
+    @Override
+    public void close() {
+        try {
+            this.server.close();
+        } catch (final IOException e) {
+            StandbyReplica.LOG.debug("Cannot close the replication listener", e); //$NON-NLS-1$
+        }
+        final var sock = this.socket;
+        if (sock != null) {
+            try {
+                sock.close();
+            } catch (final IOException e) {
+                StandbyReplica.LOG.debug("Cannot close the replication connection", e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private void run() {
+        while (!this.server.isClosed()) {
+            try (var sock = this.server.accept()) {
+                this.socket = sock;
+                sock.setTcpNoDelay(true);
+                StandbyReplica.LOG.info("Primary {} connected", sock.getRemoteSocketAddress()); //$NON-NLS-1$
+                this.serve(new DataInputStream(new BufferedInputStream(sock.getInputStream(),
+                        StateReplicator.MAX_MESSAGE)), new DataOutputStream(sock.getOutputStream()));
+            } catch (final EOFException e) {
+                StandbyReplica.LOG.info("Primary disconnected"); //$NON-NLS-1$
+            } catch (final IOException | RuntimeException e) {
+                if (!this.server.isClosed()) {
+                    StandbyReplica.LOG.warn("Replication failed", e); //$NON-NLS-1$
+                }
+            } finally {
+                this.socket = null;
+                // a partial transfer is completed by the next one
+                this.staleEndpoints = null;
+                this.staleDownlinks = null;
+            }
+        }
+    }
+
+    private void serve(final DataInputStream in, final DataOutputStream out) throws IOException {
+        var buffer = new byte[StateReplicator.MAX_MESSAGE];
+        while (!this.promoted) {
+            final var length = in.readInt() - StateReplicator.HEADER;
+            final var type = EnumReplicationMessage.of(in.readByte());
+            final var seq = in.readLong();
+            final var sentAt = in.readLong();
+            if (length > buffer.length) {
+                buffer = new byte[length];
+            }
+            in.readFully(buffer, 0, length);
+            switch (type) {
+            case RESYNC_BEGIN:
+                this.beginTransfer();
+                break;
+            case BATCH:
+                this.apply(ByteBuffer.wrap(buffer, 0, length));
+                break;
+            case RESYNC_END:
+                this.endTransfer();
+                break;
+            default:
+                throw new IOException("Unexpected replication message: " + type); //$NON-NLS-1$
+            }
+            this.lastDelayMillis = System.currentTimeMillis() - sentAt;
+            if (seq > 0) {
+                this.lastSequence = seq;
+                out.writeLong(seq);
+                out.flush();
+            }
+        }
+    }
+
+    private void apply(final ByteBuffer frames) throws IOException {
+        RecordCodec.forEach(frames, frames.position(), frames.limit(), (type, body) -> {
+            switch (type) {
+            case DOWNLINK_PUT:
+                final var queId = body.getLong();
+                final var enqueuedAt = body.getLong();
+                final var expiresAt = body.getLong();
+                if (this.downlinks.isPresent()) {
+                    this.downlinks.get().put((DlDataQue) Api.fromMsgPack(RecordCodec.getBytes(body)), enqueuedAt,
+                            expiresAt);
+                }
+                if (this.staleDownlinks != null) {
+                    this.staleDownlinks.remove(queId);
+                }
+                break;
+            case DOWNLINK_DISPATCHED:
+                if (this.downlinks.isPresent()) {
+                    final var dispatchedId = body.getLong();
+                    final List<EUI64> targets = new ArrayList<>();
+                    for (var i = body.getInt(); i > 0; i--) {
+                        targets.add(RecordCodec.getEui(body));
+                    }
+                    this.downlinks.get().dispatched(dispatchedId, targets);
+                }
+                break;
+            case DOWNLINK_DONE:
+                if (this.downlinks.isPresent()) {
+                    this.downlinks.get().done(body.getLong());
+                }
+                break;
+            case ENDPOINT:
+                if (this.staleEndpoints != null) {
+                    this.staleEndpoints.remove(body.getLong(body.position()));
+                }
+                break;
+            default:
+                break;
+            }
+        });
+        // the downlink records are skipped by the state
+        this.persistence.replicated(frames);
+        this.applied += StandbyReplica.count(frames);
+    }
+
+    private void beginTransfer() throws IOException {
+        final var start = System.currentTimeMillis();
+        this.staleEndpoints = new HashSet<>();
+        this.staleDownlinks = new HashSet<>();
+        if (this.persistence.getEndpoints().isPresent()) {
+            this.persistence.getEndpoints().get().forEach(state -> this.staleEndpoints.add(state.getEpEui().asLong()));
+        }
+        if (this.downlinks.isPresent()) {
+            this.downlinks.get().forEach(pending -> this.staleDownlinks.add(pending.getMsg().getQueId()));
+        }
+        StandbyReplica.LOG.info("State transfer started, {} end points and {} downlinks held, in {} ms", //$NON-NLS-1$
+                this.staleEndpoints.size(), this.staleDownlinks.size(), System.currentTimeMillis() - start);
+    }
+
+    private void endTransfer() throws IOException {
+        if (this.staleEndpoints == null) {
+            throw new IOException("State transfer end without start"); //$NON-NLS-1$
+        }
+        if (this.persistence.getEndpoints().isPresent()) {
+            final var store = this.persistence.getEndpoints().get();
+            for (final var epEui : this.staleEndpoints) {
+                store.remove(EUI64.fromLong(epEui));
+            }
+        }
+        if (this.downlinks.isPresent()) {
+            for (final var queId : this.staleDownlinks) {
+                this.downlinks.get().done(queId);
+            }
+        }
+        StandbyReplica.LOG.info("State transfer completed, {} stale end points and {} stale downlinks removed", //$NON-NLS-1$
+                this.staleEndpoints.size(), this.staleDownlinks.size());
+        this.staleEndpoints = null;
+        this.staleDownlinks = null;
+    }
+
+    private static int count(final ByteBuffer frames) {
+        var count = 0;
+        for (var pos = frames.position(); (pos + RecordCodec.HEADER) <= frames.limit(); pos += Integer.BYTES
+                + frames.getInt(pos)) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,536 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.replication;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.downlink.DownlinkLog;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.downlink.IDownlinkLogListener;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.downlink.PendingDownlink;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.persistence.EnumStateRecord;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.persistence.IFrameSink;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.persistence.RecordCodec;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.persistence.StatePersistence;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Primary side of the hot-standby replication: streams the changes logged by a {@link StatePersistence}, and the
+ * records of a {@link DownlinkLog}, to a {@link StandbyReplica}.
+ * <p>
+ * The changes are queued as they are logged, and a sender thread coalesces the queued changes into messages of up to
+ * {@link #MAX_MESSAGE} bytes. The bytes queued or sent but not acknowledged by the standby are bounded by the
+ * capacity: when it is reached, the logging threads wait for the acknowledgments (back-pressure), once they released
+ * their own locks, up to a maximal time. Beyond it, or beyond twice the capacity, or while the standby is unreachable,
+ * the changes are dropped and the standby is resynchronized by a full state transfer, as on every connection. The
+ * changes queued during a transfer are exempt from these bounds until the standby caught up with them, so a transfer
+ * does not trigger the next one. At most {@link #MAX_RESYNCS} transfers run per {@link #RESYNC_WINDOW}, the next ones
+ * wait. The lag is the age of the oldest change not acknowledged by the standby.
+ *
+ * @author FendtC
+ */
+public class StateReplicator implements IFrameSink, IDownlinkLogListener, AutoCloseable {
+
+    /** Default bound of the bytes not acknowledged by the standby. */
+    public static final int DEFAULT_CAPACITY = 64 << 20;
+    /** Default maximal wait of a logging thread on back-pressure. */
+    public static final Duration DEFAULT_MAX_BLOCK = Duration.ofMillis(100);
+    /** Maximal size of the frames of a message. */
+    public static final int MAX_MESSAGE = 1 << 20;
+    /** Maximal number of full state transfers per {@link #RESYNC_WINDOW}. */
+    public static final int MAX_RESYNCS = 3;
+    /** Window of the {@link #MAX_RESYNCS} ceiling. */
+    public static final Duration RESYNC_WINDOW = Duration.ofMinutes(1);
+    /** Size of the message header after the length: type, sequence, sending time. */
+    static final int HEADER = 1 + (Long.BYTES * 2);
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(StateReplicator.class);
+    /** Minimal delay between two connection attempts, in ms. */
+    private static final long MIN_BACKOFF = 100;
+    /** Maximal delay between two connection attempts, in ms. */
+    private static final long MAX_BACKOFF = 5000;
+
+    /** The replicated state. */
+    private final StatePersistence persistence;
+    /** The replicated downlinks. */
+    private final Optional<DownlinkLog> downlinks;
+    /** Address of the standby. */
+    @Getter
+    private final InetSocketAddress standby;
+    /** Bound of the bytes not acknowledged. */
+    private final long capacity;
+    /** Maximal wait on back-pressure, in ns. */
+    private final long maxBlock;
+    /** Codec of the downlink records, guarded by itself. */
+    private final RecordCodec codec = new RecordCodec(256);
+    /** Changes waiting for their sending, guarded by the instance. */
+    private final ArrayDeque<Batch> queue = new ArrayDeque<>();
+    /** Changes sent and waiting for their acknowledgment, guarded by the instance. */
+    private final ArrayDeque<Batch> inflight = new ArrayDeque<>();
+    /** Bytes queued or in flight, guarded by the instance. */
+    private long pendingBytes;
+    /** Next sequence, guarded by the instance. */
+    private long nextSeq = 1;
+    /** TRUE if the changes are dropped until the next full state transfer, guarded by the instance. */
+    private boolean resync = true;
+    /** Time of the oldest dropped change, in ns, 0 if none, guarded by the instance. */
+    private long droppedSince;
+    /** TRUE while the standby is connected, guarded by the instance. */
+    private boolean connected;
+    /** TRUE while a full state transfer is sent, guarded by the instance. */
+    private boolean transferring;
+    /** Backlog of the last transfer not acknowledged yet, exempt from the bounds, guarded by the instance. */
+    private long exempt;
+    /** Start times of the recent transfers, in ns, used by the sender. */
+    private final ArrayDeque<Long> recentResyncs = new ArrayDeque<>();
+    /** Number of full state transfers. */
+    @Getter
+    private volatile long resyncs;
+    /** Number of full state transfers delayed by the {@link #MAX_RESYNCS} ceiling. */
+    @Getter
+    private volatile long throttledResyncs;
+    /** Last sequence acknowledged by the standby. */
+    @Getter
+    private volatile long acknowledged;
+    /** FALSE once closed. */
+    private volatile boolean running = true;
+    /** The socket, NULL while disconnected. */
+    private volatile Socket socket;
+    /** Buffer of the messages, used by the sender. */
+    private final ByteBuffer message = ByteBuffer.allocate(StateReplicator.MAX_MESSAGE);
+    /** The sender. */
+    private final Thread sender;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param persistence
+     *                    The replicated state.
+     * @param downlinks
+     *                    The replicated downlinks, NULL if none.
+     * @param standby
+     *                    Address of the standby.
+     */
+    public StateReplicator(final StatePersistence persistence, final DownlinkLog downlinks,
+            final InetSocketAddress standby) {
+        this(persistence, downlinks, standby, StateReplicator.DEFAULT_CAPACITY, StateReplicator.DEFAULT_MAX_BLOCK);
+    }
+
+    /**
+     * Constructor with arguments. The replication starts at once.
+     *
+     * @param persistence
+     *                    The replicated state.
+     * @param downlinks
+     *                    The replicated downlinks, NULL if none.
+     * @param standby
+     *                    Address of the standby.
+     * @param capacity
+     *                    Bound of the bytes not acknowledged by the standby.
+     * @param maxBlock
+     *                    Maximal wait of a logging thread on back-pressure, before a resynchronization.
+     */
+    public StateReplicator(final StatePersistence persistence, final DownlinkLog downlinks,
+            final InetSocketAddress standby, final int capacity, final Duration maxBlock) {
+        Validate.isTrue(capacity >= StateReplicator.MAX_MESSAGE, "capacity must be at least %d, is: %d", //$NON-NLS-1$
+                StateReplicator.MAX_MESSAGE, capacity);
+        this.persistence = Validate.notNull(persistence);
+        this.downlinks = Optional.ofNullable(downlinks);
+        this.standby = Validate.notNull(standby);
+        this.capacity = capacity;
+        this.maxBlock = maxBlock.toNanos();
+        persistence.replicateTo(this);
+        this.downlinks.ifPresent(d -> d.setListener(this));
+        this.sender = new Thread(this::run, "bssci-state-replicator"); //$NON-NLS-1$
+        this.sender.setDaemon(true);
+        this.sender.start();
+    }
+
+    @Override
+    public void write(final ByteBuffer frames) {
+        this.offer(frames);
+    }
+
+    @Override
+    public void put(final long queId, final byte[] payload, final long enqueuedAt, final long expiresAt) {
+        synchronized (this.codec) {
+            this.offer(StateReplicator.encodePut(this.codec.clear(), queId, payload, enqueuedAt, expiresAt).frames());
+        }
+    }
+
+    @Override
+    public void dispatched(final long queId, final List<EUI64> targets) {
+        synchronized (this.codec) {
+            this.offer(StateReplicator.encodeDispatched(this.codec.clear(), queId, targets).frames());
+        }
+    }
+
+    @Override
+    public void done(final long queId) {
+        synchronized (this.codec) {
+            this.offer(this.codec.clear().begin(EnumStateRecord.DOWNLINK_DONE).putLong(queId).end().frames());
+        }
+    }
+
+    @Override
+    public void awaitCapacity() {
+        synchronized (this) {
+            final var deadline = System.nanoTime() + this.maxBlock;
+            // the sender does not consume the queue during a transfer
+            while (!this.resync && !this.transferring && (this.pendingBytes > (this.capacity + this.exempt))) {
+                final var remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    StateReplicator.LOG.warn("Standby {} too slow, {} bytes pending, resynchronizing", //$NON-NLS-1$
+                            this.standby, this.pendingBytes);
+                    this.dropAll();
+                    return;
+                }
+                try {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    this.dropAll();
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the age of the oldest change not acknowledged by the standby, in ms, 0 if the standby is up to date.
+     */
+    public synchronized long getLagMillis() {
+        var oldest = this.droppedSince;
+        for (final var batches : new ArrayDeque<?>[] { this.inflight, this.queue }) {
+            final var first = (Batch) batches.peekFirst();
+            if ((first != null) && ((oldest == 0) || (first.at < oldest))) {
+                oldest = first.at;
+            }
+        }
+        return oldest == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - oldest);
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the bytes queued or sent and not acknowledged by the standby.
+     */
+    public synchronized long getLagBytes() {
+        return this.pendingBytes;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return TRUE while the standby is connected.
+     */
+    public synchronized boolean isConnected() {
+        return this.connected;
+    }
+
+    @Override
+    public void close() {
+        this.running = false;
+        this.persistence.replicateTo(null);
+        this.downlinks.ifPresent(d -> d.setListener(null));
+        this.sender.interrupt();
+        this.disconnect();
+    }
+
+    private void offer(final ByteBuffer frames) {
+        final var bytes = new byte[frames.remaining()];
+        frames.duplicate().get(bytes);
+        final var now = System.nanoTime();
+        synchronized (this) {
+            // never waits here, under the locks of the caller: see awaitCapacity()
+            if (!this.resync && !this.transferring
+                    && ((this.pendingBytes + bytes.length) > ((this.capacity * 2) + this.exempt))) {
+                StateReplicator.LOG.warn("Standby {} too slow, {} bytes pending, resynchronizing", //$NON-NLS-1$
+                        this.standby, this.pendingBytes);
+                this.dropAll();
+            }
+            if (this.resync) {
+                // covered by the next full state transfer
+                if (this.droppedSince == 0) {
+                    this.droppedSince = now;
+                }
+                return;
+            }
+            this.queue.add(new Batch(this.nextSeq++, now, bytes));
+            this.pendingBytes += bytes.length;
+            this.notifyAll();
+        }
+    }
+
+    private void run() {
+        var backoff = StateReplicator.MIN_BACKOFF;
+        while (this.running) {
+            try (var sock = new Socket()) {
+                sock.setTcpNoDelay(true);
+                sock.connect(this.standby);
+                this.socket = sock;
+                final var out = new DataOutputStream(new BufferedOutputStream(sock.getOutputStream(),
+                        StateReplicator.MAX_MESSAGE));
+                final var acks = new Thread(() -> this.readAcks(sock), "bssci-state-replicator-acks"); //$NON-NLS-1$
+                acks.setDaemon(true);
+                acks.start();
+                synchronized (this) {
+                    this.connected = true;
+                }
+                backoff = StateReplicator.MIN_BACKOFF;
+                StateReplicator.LOG.info("Standby {} connected", this.standby); //$NON-NLS-1$
+                while (this.running) {
+                    if (this.isResyncNeeded()) {
+                        this.awaitResyncBudget();
+                        this.transfer(out);
+                    } else {
+                        this.sendBatches(out);
+                    }
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final IOException | UncheckedIOException e) {
+                if (this.isConnected()) {
+                    StateReplicator.LOG.warn("Standby {} lost", this.standby, e); //$NON-NLS-1$
+                }
+            } finally {
+                this.disconnect();
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            backoff = Math.min(backoff * 2, StateReplicator.MAX_BACKOFF);
+        }
+    }
+
+    private synchronized boolean isResyncNeeded() {
+        return this.resync;
+    }
+
+    private void awaitResyncBudget() throws InterruptedException {
+        final var window = StateReplicator.RESYNC_WINDOW.toNanos();
+        final var now = System.nanoTime();
+        while (!this.recentResyncs.isEmpty() && ((now - this.recentResyncs.peekFirst()) >= window)) {
+            this.recentResyncs.pollFirst();
+        }
+        if (this.recentResyncs.size() >= StateReplicator.MAX_RESYNCS) {
+            final var delay = (this.recentResyncs.pollFirst() + window) - now;
+            this.throttledResyncs++;
+            StateReplicator.LOG.warn("Standby {} resynchronized {} times in {}, next transfer in {} ms", //$NON-NLS-1$
+                    this.standby, StateReplicator.MAX_RESYNCS, StateReplicator.RESYNC_WINDOW,
+                    TimeUnit.NANOSECONDS.toMillis(delay));
+            TimeUnit.NANOSECONDS.sleep(delay);
+        }
+        this.recentResyncs.add(System.nanoTime());
+    }
+
+    private void transfer(final DataOutputStream out) throws IOException {
+        final Batch end;
+        synchronized (this) {
+            // the changes from now on are queued, and applied after the state: the replay is idempotent
+            this.queue.clear();
+            this.inflight.clear();
+            this.pendingBytes = 0;
+            this.resync = false;
+            this.transferring = true;
+            this.exempt = 0;
+            end = new Batch(this.nextSeq++, this.droppedSince == 0 ? System.nanoTime() : this.droppedSince,
+                    new byte[0]);
+            this.droppedSince = 0;
+            this.inflight.add(end);
+        }
+        final var start = System.currentTimeMillis();
+        StateReplicator.send(out, EnumReplicationMessage.RESYNC_BEGIN, 0, ByteBuffer.allocate(0));
+        this.persistence.writeState(frames -> StateReplicator.send(out, EnumReplicationMessage.BATCH, 0, frames));
+        if (this.downlinks.isPresent()) {
+            // snapshot first: the log stays locked only while read, not while the standby reads the socket
+            final List<PendingDownlink> pendings = new ArrayList<>();
+            this.downlinks.get().forEach(pendings::add);
+            final var state = new RecordCodec(StateReplicator.MAX_MESSAGE);
+            for (final var pending : pendings) {
+                final var queId = pending.getMsg().getQueId();
+                StateReplicator.encodePut(state, queId, pending.getMsg().toMsgPack(), pending.getEnqueuedAt(),
+                        pending.getExpiresAt());
+                if (pending.isDispatched()) {
+                    StateReplicator.encodeDispatched(state, queId, pending.getTargets());
+                }
+                if (state.size() > StateReplicator.MAX_MESSAGE) {
+                    StateReplicator.send(out, EnumReplicationMessage.BATCH, 0, state.frames());
+                    state.clear();
+                }
+            }
+            StateReplicator.send(out, EnumReplicationMessage.BATCH, 0, state.frames());
+        }
+        StateReplicator.send(out, EnumReplicationMessage.RESYNC_END, end.seq, ByteBuffer.allocate(0));
+        out.flush();
+        synchronized (this) {
+            this.transferring = false;
+            this.exempt = this.pendingBytes;
+        }
+        this.resyncs++;
+        StateReplicator.LOG.info("State transferred to standby {} in {} ms", this.standby, //$NON-NLS-1$
+                System.currentTimeMillis() - start);
+    }
+
+    private void sendBatches(final DataOutputStream out) throws IOException, InterruptedException {
+        var message = this.message;
+        message.clear();
+        long seq = 0;
+        synchronized (this) {
+            while (this.queue.isEmpty() && !this.resync && this.running) {
+                this.wait();
+            }
+            Batch batch;
+            // coalesce the queued changes, a larger change is sent alone
+            while (((batch = this.queue.peekFirst()) != null)
+                    && ((seq == 0) || (batch.frames.length <= message.remaining()))) {
+                this.queue.pollFirst();
+                this.inflight.add(batch);
+                seq = batch.seq;
+                if (batch.frames.length > message.remaining()) {
+                    message = ByteBuffer.wrap(batch.frames).position(batch.frames.length);
+                    break;
+                }
+                message.put(batch.frames);
+            }
+        }
+        if (seq != 0) {
+            StateReplicator.send(out, EnumReplicationMessage.BATCH, seq, message.flip());
+            out.flush();
+        }
+    }
+
+    private void readAcks(final Socket sock) {
+        try (var in = new DataInputStream(sock.getInputStream())) {
+            while (true) {
+                final var seq = in.readLong();
+                synchronized (this) {
+                    Batch first;
+                    while (((first = this.inflight.peekFirst()) != null) && (first.seq <= seq)) {
+                        this.inflight.pollFirst();
+                        this.pendingBytes -= first.frames.length;
+                    }
+                    this.exempt = Math.min(this.exempt, this.pendingBytes);
+                    this.notifyAll();
+                }
+                this.acknowledged = seq;
+            }
+        } catch (final IOException e) {
+            this.disconnect();
+        }
+    }
+
+    private synchronized void dropAll() {
+        this.resync = true;
+        this.queue.clear();
+        this.inflight.clear();
+        this.pendingBytes = 0;
+        this.exempt = 0;
+        this.transferring = false;
+        this.notifyAll();
+    }
+
+    private void disconnect() {
+        synchronized (this) {
+            if (this.connected && (this.droppedSince == 0)) {
+                this.droppedSince = System.nanoTime();
+            }
+            this.connected = false;
+            this.dropAll();
+        }
+        final var sock = this.socket;
+        this.socket = null;
+        if (sock != null) {
+            try {
+                sock.close();
+            } catch (final IOException e) {
+                StateReplicator.LOG.debug("Cannot close the connection to standby {}", this.standby, e); //$NON-NLS-1$
+            }
+        }
+    }
+
+    private static RecordCodec encodePut(final RecordCodec target, final long queId, final byte[] payload,
+            final long enqueuedAt, final long expiresAt) {
+        return target.begin(EnumStateRecord.DOWNLINK_PUT).putLong(queId).putLong(enqueuedAt).putLong(expiresAt)
+                .putBytes(payload).end();
+    }
+
+    private static RecordCodec encodeDispatched(final RecordCodec target, final long queId,
+            final List<EUI64> targets) {
+        target.begin(EnumStateRecord.DOWNLINK_DISPATCHED).putLong(queId).putInt(targets.size());
+        targets.forEach(target::putEui);
+        return target.end();
+    }
+
+    private static void send(final DataOutputStream out, final EnumReplicationMessage type, final long seq,
+            final ByteBuffer frames) throws IOException {
+        out.writeInt(StateReplicator.HEADER + frames.remaining());
+        out.writeByte(type.ordinal());
+        out.writeLong(seq);
+        out.writeLong(System.currentTimeMillis());
+        if (frames.hasArray()) {
+            out.write(frames.array(), frames.arrayOffset() + frames.position(), frames.remaining());
+        } else {
+            // read-only view of a codec
+            final var bytes = new byte[frames.remaining()];
+            frames.duplicate().get(bytes);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Changes of one logging.
+     */
+    private static final class Batch {
+        /** Sequence of the change. */
+        private final long seq;
+        /** Time of the change, in ns. */
+        private final long at;
+        /** The frames. */
+        private final byte[] frames;
+
+        private Batch(final long seq, final long at, final byte[] frames) {
+            this.seq = seq;
+            this.at = at;
+            this.frames = frames;
+        }
+    }
+}
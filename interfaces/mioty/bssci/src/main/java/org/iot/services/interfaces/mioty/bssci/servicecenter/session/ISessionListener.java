@@ -0,0 +1,72 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.session;
+
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+
+/**
+ * Listener of the changes of the sessions, e.g. to persist them. Called synchronously by the session, on the thread
+ * changing it.
+ *
+ * @author FendtC
+ */
+public interface ISessionListener {
+
+    /**
+     * Event method, for a new session.
+     *
+     * @param session
+     *                the session.
+     */
+    void created(Session session);
+
+    /**
+     * Event method, for an operation initiated by the service center.
+     *
+     * @param session
+     *                the session.
+     * @param opId
+     *                the operation ID.
+     * @param apiObj
+     *                the message, if its acknowledgment is tracked, else NULL.
+     * @param payload
+     *                the MsgPack message, NULL if not encoded yet.
+     */
+    void sent(Session session, int opId, Api apiObj, byte[] payload);
+
+    /**
+     * Event method, for the acknowledgment of an operation of the service center.
+     *
+     * @param session
+     *                the session.
+     * @param opId
+     *                the operation ID.
+     * @param apiObj
+     *                the acknowledged message.
+     */
+    void acknowledged(Session session, int opId, Api apiObj);
+
+    /**
+     * Event method, for a connection or disconnection.
+     *
+     * @param session
+     *                  the session.
+     * @param connected
+     *                  TRUE on connection, FALSE on disconnection.
+     */
+    void connected(Session session, boolean connected);
+}
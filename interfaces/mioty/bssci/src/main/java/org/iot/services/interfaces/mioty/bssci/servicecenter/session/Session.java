@@ -0,0 +1,204 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.session;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * State of a BSSCI session between the service center and one base station, kept across reconnections.
+ *
+ * @author FendtC
+ */
+public class Session {
+    /** EUI64 of the base station. */
+    @Getter
+    private final EUI64 bsEui;
+    /** UUID of the session, as given by the base station. */
+    @Getter
+    private final UUID bsUuid;
+    /** UUID of the session, as given by the service center. */
+    @Getter
+    private final UUID scUuid;
+    /** Highest operation ID received from the base station. */
+    private final AtomicInteger lastBsOpId = new AtomicInteger();
+    /** Last operation ID used by the service center (service center operation IDs are negative). */
+    private final AtomicInteger lastScOpId = new AtomicInteger();
+    /** Operations initiated by the service center and not yet acknowledged, by operation ID. */
+    private final Map<Integer, Api> unacknowledged = new ConcurrentSkipListMap<>();
+    /** Number of connections using the session. */
+    private final AtomicInteger connections = new AtomicInteger();
+    /** Time of the last disconnection, in ms, 0 while connected. */
+    private volatile long disconnectedAt;
+    /** Listener of the changes, NULL if none. */
+    private volatile ISessionListener listener;
+
+    /**
+     * Constructor.
+     *
+     * @param bsEui
+     *               EUI64 of the base station.
+     * @param bsUuid
+     *               UUID of the session, as given by the base station.
+     * @param scUuid
+     *               UUID of the session, as given by the service center.
+     */
+    public Session(final EUI64 bsEui, final UUID bsUuid, final UUID scUuid) {
+        this.bsEui = bsEui;
+        this.bsUuid = bsUuid;
+        this.scUuid = scUuid;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the highest operation ID received from the base station.
+     */
+    public int getLastBsOpId() {
+        return this.lastBsOpId.get();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the last operation ID used by the service center.
+     */
+    public int getLastScOpId() {
+        return this.lastScOpId.get();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the operations initiated by the service center and not yet acknowledged, by operation ID.
+     */
+    public Map<Integer, Api> getUnacknowledged() {
+        return this.unacknowledged;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the time of the last disconnection in ms, 0 while connected.
+     */
+    public long getDisconnectedAt() {
+        return this.disconnectedAt;
+    }
+
+    /**
+     * Event method, for any operation received from the base station.
+     *
+     * @param opId
+     *             the operation ID of the base station.
+     */
+    public void received(final int opId) {
+        this.lastBsOpId.accumulateAndGet(opId, Math::max);
+    }
+
+    /**
+     * Event method, for any operation initiated by the service center.
+     *
+     * @param opId
+     *               the operation ID of the service center.
+     * @param apiObj
+     *               the message, if its acknowledgment has to be tracked, else NULL.
+     */
+    public void sent(final int opId, final Api apiObj) {
+        this.sent(opId, apiObj, null);
+    }
+
+    /**
+     * Event method, for any operation initiated by the service center, with its encoding.
+     *
+     * @param opId
+     *                the operation ID of the service center.
+     * @param apiObj
+     *                the message, if its acknowledgment has to be tracked, else NULL.
+     * @param payload
+     *                the MsgPack message, NULL if not encoded yet.
+     */
+    public void sent(final int opId, final Api apiObj, final byte[] payload) {
+        this.lastScOpId.accumulateAndGet(opId, Math::min);
+        if (apiObj != null) {
+            this.unacknowledged.put(opId, apiObj);
+        }
+        final var current = this.listener;
+        if (current != null) {
+            current.sent(this, opId, apiObj, payload);
+        }
+    }
+
+    /**
+     * Event method, for the response of the base station to an operation of the service center.
+     *
+     * @param opId
+     *             the operation ID of the service center.
+     */
+    public void acknowledged(final int opId) {
+        final var apiObj = this.unacknowledged.remove(opId);
+        final var current = this.listener;
+        if ((apiObj != null) && (current != null)) {
+            current.acknowledged(this, opId, apiObj);
+        }
+    }
+
+    /**
+     * Event method.
+     *
+     * @param connected
+     *                  TRUE on connection, FALSE on disconnection.
+     */
+    public void connected(final boolean connected) {
+        if (connected) {
+            this.connections.incrementAndGet();
+            this.disconnectedAt = 0;
+        } else if (this.connections.decrementAndGet() <= 0) {
+            this.disconnectedAt = System.currentTimeMillis();
+        }
+        final var current = this.listener;
+        if (current != null) {
+            current.connected(this, connected);
+        }
+    }
+
+    /**
+     * Method to mark a session restored after a restart of the service center: no connection uses it.
+     *
+     * @param since
+     *              time of the disconnection in ms, or of the restart if the session was connected.
+     */
+    public void restored(final long since) {
+        this.disconnectedAt = since;
+    }
+
+    /**
+     * Setter method.
+     *
+     * @param sessionListener
+     *                        listener of the changes, NULL for none.
+     */
+    void setListener(final ISessionListener sessionListener) {
+        this.listener = sessionListener;
+    }
+}
@@ -0,0 +1,175 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.session;
+
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.main.Connect;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.iot.services.interfaces.mioty.bssci.utils.UuidUtils;
+
+import lombok.Getter;
+
+/**
+ * Registry of the BSSCI sessions, by base station.
+ * <p>
+ * A reconnection is resumable if the base station presents the UUID of its previous session, and if the service center
+ * knows every base station operation the base station requires (snBsOpId).
+ *
+ * @author FendtC
+ */
+public class SessionRegistry {
+
+    /** Default retention of a session after a disconnection. */
+    public static final Duration DEFAULT_RETENTION = Duration.ofHours(1);
+
+    /** Sessions by base station. */
+    private final Map<EUI64, Session> sessions = new ConcurrentHashMap<>();
+    /** Retention of a session after a disconnection. */
+    @Getter
+    private volatile Duration retention = SessionRegistry.DEFAULT_RETENTION;
+    /** Listener of the changes of the sessions, NULL if none. */
+    private volatile ISessionListener listener;
+
+    /**
+     * Setter method.
+     *
+     * @param retention
+     *                  the retention of a session after a disconnection.
+     * @return the registry.
+     */
+    public SessionRegistry setRetention(final Duration retention) {
+        this.retention = Validate.notNull(retention);
+        return this;
+    }
+
+    /**
+     * Setter method. The listener observes the existing and the new sessions.
+     *
+     * @param sessionListener
+     *                        listener of the changes of the sessions, NULL for none.
+     * @return the registry.
+     */
+    public SessionRegistry setListener(final ISessionListener sessionListener) {
+        this.listener = sessionListener;
+        this.sessions.values().forEach(s -> s.setListener(sessionListener));
+        return this;
+    }
+
+    /**
+     * Method to resume the previous session of a base station. The connection using it reports itself with
+     * {@link Session#connected(boolean)}.
+     *
+     * @param con
+     *            the connection request of the base station.
+     * @return the previous session, if it can be resumed.
+     */
+    public Optional<Session> resume(final Connect con) {
+        final var bsUuid = UuidUtils.convertIntsToUuid(con.getSnBsUuid());
+        final var session = this.get(con.getBsEui());
+        if ((bsUuid == null) || (session == null) || !Objects.equals(bsUuid, session.getBsUuid())) {
+            return Optional.empty();
+        }
+        if ((con.getSnBsOpId() != null) && (con.getSnBsOpId() > session.getLastBsOpId())) {
+            // the base station requires operations the service center never received
+            return Optional.empty();
+        }
+        if (con.getSnScOpId() != null) {
+            // every operation the base station knows is acknowledged
+            session.getUnacknowledged().keySet().removeIf(opId -> opId >= con.getSnScOpId());
+        }
+        return Optional.of(session);
+    }
+
+    /**
+     * Method to open a new session for a base station, replacing any previous one. The connection using it reports
+     * itself with {@link Session#connected(boolean)}.
+     *
+     * @param con
+     *            the connection request of the base station.
+     * @return the new session.
+     */
+    public Session create(final Connect con) {
+        final var session = new Session(con.getBsEui(), UuidUtils.convertIntsToUuid(con.getSnBsUuid()),
+                UUID.randomUUID());
+        final var current = this.listener;
+        session.setListener(current);
+        this.sessions.put(con.getBsEui(), session);
+        if (current != null) {
+            current.created(session);
+        }
+        return session;
+    }
+
+    /**
+     * Method to restore a session, e.g. from a snapshot, replacing any previous one. The session is not reported to
+     * the listener.
+     *
+     * @param session
+     *                the session.
+     */
+    public void restore(final Session session) {
+        session.setListener(this.listener);
+        this.sessions.put(session.getBsEui(), session);
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the sessions, expired ones included until purged.
+     */
+    public Collection<Session> getAll() {
+        return Collections.unmodifiableCollection(this.sessions.values());
+    }
+
+    /**
+     * Method to retrieve the session of a base station.
+     *
+     * @param bsEui
+     *              EUI64 of the base station.
+     * @return the session, or NULL if none or expired.
+     */
+    public Session get(final EUI64 bsEui) {
+        final var session = this.sessions.get(bsEui);
+        if ((session != null) && this.isExpired(session, System.currentTimeMillis())) {
+            this.sessions.remove(bsEui, session);
+            return null;
+        }
+        return session;
+    }
+
+    /**
+     * Method to drop every expired session.
+     */
+    public void purge() {
+        final var now = System.currentTimeMillis();
+        this.sessions.values().removeIf(s -> this.isExpired(s, now));
+    }
+
+    private boolean isExpired(final Session session, final long now) {
+        final var disconnectedAt = session.getDisconnectedAt();
+        return (disconnectedAt != 0) && ((now - disconnectedAt) > this.retention.toMillis());
+    }
+}
@@ -0,0 +1,126 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import java.util.Arrays;
+
+import org.apache.commons.lang3.Validate;
+
+import lombok.Getter;
+
+/**
+ * Count-min sketch of 64 bit keys: the estimate of a key never underestimates its count, and overestimates it by at
+ * most {@code e / width} of the total count with probability {@code 1 - exp(-depth)}. The memory is fixed,
+ * {@code depth * width} counters, whatever the number of keys. Not thread safe.
+ *
+ * @author FendtC
+ */
+public final class CountMinSketch {
+
+    /** Number of rows. */
+    @Getter
+    private final int depth;
+    /** Number of counters per row, a power of two. */
+    @Getter
+    private final int width;
+    /** The counters, row after row. */
+    private final long[] counters;
+    /** Sum of the counts. */
+    @Getter
+    private long total;
+
+    /**
+     * Constructor.
+     *
+     * @param depth
+     *              Number of rows.
+     * @param width
+     *              Number of counters per row, rounded up to a power of two.
+     */
+    public CountMinSketch(final int depth, final int width) {
+        Validate.inclusiveBetween(1, 16, depth);
+        Validate.isTrue(width > 0, "width must be positive, is: %d", width); //$NON-NLS-1$
+        this.depth = depth;
+        this.width = Integer.highestOneBit((width * 2) - 1);
+        this.counters = new long[depth * this.width];
+    }
+
+    /**
+     * Method to add a count to a key, with the conservative update (only the minimal counters grow).
+     *
+     * @param key
+     *              the key.
+     * @param count
+     *              the count to add, positive.
+     * @return the new estimate of the key.
+     */
+    public long add(final long key, final long count) {
+        this.total += count;
+        final var estimate = this.estimate(key) + count;
+        for (var row = 0; row < this.depth; row++) {
+            final var index = this.index(key, row);
+            if (this.counters[index] < estimate) {
+                this.counters[index] = estimate;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * Method to estimate the count of a key.
+     *
+     * @param key
+     *            the key.
+     * @return the estimate.
+     */
+    public long estimate(final long key) {
+        var min = Long.MAX_VALUE;
+        for (var row = 0; row < this.depth; row++) {
+            min = Math.min(min, this.counters[this.index(key, row)]);
+        }
+        return min;
+    }
+
+    /**
+     * Method to halve every counter, so the sketch follows the recent frequencies (aging).
+     */
+    public void halve() {
+        for (var i = 0; i < this.counters.length; i++) {
+            this.counters[i] >>>= 1;
+        }
+        this.total >>>= 1;
+    }
+
+    /**
+     * Method to reset the sketch.
+     */
+    public void clear() {
+        Arrays.fill(this.counters, 0);
+        this.total = 0;
+    }
+
+    private int index(final long key, final int row) {
+        // murmur3 finalizer, seeded by the row
+        var h = key + ((row + 1) * 0x9E3779B97F4A7C15L);
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (row * this.width) + ((int) h & (this.width - 1));
+    }
+}
@@ -0,0 +1,244 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.Att;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.Getter;
+
+/**
+ * Counter of the distinct active end points per base station and per hour or day, based on {@link HyperLogLog}.
+ * <p>
+ * Each base station and time bucket has an estimator of fixed size, so the memory does not depend on the number of
+ * end points. Unions over several base stations (a region) and several buckets (a time range) merge the estimators.
+ * The end points are counted on their uplinks and attachments; the counter has to be registered as interceptor of the
+ * service center. The buckets older than the retention are dropped when a new bucket starts.
+ *
+ * @author FendtC
+ */
+public class DistinctEndpointCounter implements IMessageInterceptor {
+
+    /** Default number of hourly buckets kept. */
+    public static final int DEFAULT_HOURS = 24;
+    /** Default number of daily buckets kept. */
+    public static final int DEFAULT_DAYS = 7;
+
+    /** Precision of the estimators. */
+    @Getter
+    private final int precision;
+    /** Number of buckets kept, by granularity. */
+    private final Map<EnumTimeBucket, Integer> retention = new EnumMap<>(EnumTimeBucket.class);
+    /** The estimators. */
+    private final Map<BucketKey, HyperLogLog> counters = new ConcurrentHashMap<>();
+    /** Latest bucket index, by granularity, to detect the new buckets. */
+    private final Map<EnumTimeBucket, Long> latest = new ConcurrentHashMap<>();
+
+    /**
+     * Constructor with the default settings.
+     */
+    public DistinctEndpointCounter() {
+        this(HyperLogLog.DEFAULT_PRECISION, DistinctEndpointCounter.DEFAULT_HOURS, DistinctEndpointCounter.DEFAULT_DAYS);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param precision
+     *                  Precision of the estimators, each one uses {@code 2^precision} bytes.
+     * @param hours
+     *                  Number of hourly buckets kept.
+     * @param days
+     *                  Number of daily buckets kept.
+     */
+    public DistinctEndpointCounter(final int precision, final int hours, final int days) {
+        Validate.isTrue(hours > 0, "hours must be positive, is: %d", hours); //$NON-NLS-1$
+        Validate.isTrue(days > 0, "days must be positive, is: %d", days); //$NON-NLS-1$
+        this.precision = precision;
+        this.retention.put(EnumTimeBucket.HOUR, hours);
+        this.retention.put(EnumTimeBucket.DAY, days);
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        final EUI64 epEui;
+        if (apiObj instanceof UlData) {
+            epEui = ((UlData) apiObj).getEpEui();
+        } else if (apiObj instanceof Att) {
+            epEui = ((Att) apiObj).getEpEui();
+        } else {
+            return false;
+        }
+        if (client.getEui() != null) {
+            this.add(client.getEui(), epEui, System.currentTimeMillis());
+        }
+        return false;
+    }
+
+    /**
+     * Method to count an active end point.
+     *
+     * @param bsEui
+     *                    the base station EUI64.
+     * @param epEui
+     *                    the end point EUI64.
+     * @param epochMillis
+     *                    the time of the activity, in ms since the epoch.
+     */
+    public void add(final EUI64 bsEui, final EUI64 epEui, final long epochMillis) {
+        final var bs = bsEui.asLong();
+        final var ep = epEui.asLong();
+        for (final var bucket : EnumTimeBucket.values()) {
+            final var index = bucket.index(epochMillis);
+            final var previous = this.latest.get(bucket);
+            if ((previous == null) || (previous < index)) {
+                this.latest.put(bucket, index);
+                this.expire(bucket, index);
+            }
+            final var key = new BucketKey(bs, bucket, index);
+            var counter = this.counters.get(key);
+            if (counter == null) {
+                counter = this.counters.computeIfAbsent(key, k -> new HyperLogLog(this.precision));
+            }
+            counter.add(ep);
+        }
+    }
+
+    /**
+     * Method to estimate the distinct end points of a base station in a bucket.
+     *
+     * @param bsEui
+     *               the base station EUI64.
+     * @param bucket
+     *               the granularity.
+     * @param time
+     *               a time within the bucket.
+     * @return the estimated number of end points.
+     */
+    public long count(final EUI64 bsEui, final EnumTimeBucket bucket, final Instant time) {
+        final var counter = this.counters.get(new BucketKey(bsEui.asLong(), bucket, bucket.index(time.toEpochMilli())));
+        return counter == null ? 0 : counter.estimate();
+    }
+
+    /**
+     * Method to estimate the distinct end points of several base stations over a time range: an end point seen by
+     * several base stations or in several buckets counts once.
+     *
+     * @param bsEuis
+     *               the base station EUI64s, e.g. of a region.
+     * @param bucket
+     *               the granularity.
+     * @param from
+     *               a time within the first bucket.
+     * @param to
+     *               a time within the last bucket.
+     * @return the estimated number of end points.
+     */
+    public long countUnion(final Collection<EUI64> bsEuis, final EnumTimeBucket bucket, final Instant from,
+            final Instant to) {
+        return this.union(bsEuis, bucket, from, to).estimate();
+    }
+
+    /**
+     * Method to merge the estimators of several base stations over a time range.
+     *
+     * @param bsEuis
+     *               the base station EUI64s.
+     * @param bucket
+     *               the granularity.
+     * @param from
+     *               a time within the first bucket.
+     * @param to
+     *               a time within the last bucket.
+     * @return a new estimator of the union.
+     */
+    public HyperLogLog union(final Collection<EUI64> bsEuis, final EnumTimeBucket bucket, final Instant from,
+            final Instant to) {
+        final var result = new HyperLogLog(this.precision);
+        final var first = bucket.index(from.toEpochMilli());
+        final var last = bucket.index(to.toEpochMilli());
+        for (final var bsEui : bsEuis) {
+            final var bs = bsEui.asLong();
+            for (var index = first; index <= last; index++) {
+                final var counter = this.counters.get(new BucketKey(bs, bucket, index));
+                if (counter != null) {
+                    result.merge(counter);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Method to forget a base station.
+     *
+     * @param bsEui
+     *              the base station EUI64.
+     */
+    public void forget(final EUI64 bsEui) {
+        final var bs = bsEui.asLong();
+        this.counters.keySet().removeIf(k -> k.bsEui == bs);
+    }
+
+    private void expire(final EnumTimeBucket bucket, final long index) {
+        final var oldest = (index - this.retention.get(bucket)) + 1;
+        this.counters.keySet().removeIf(k -> (k.bucket == bucket) && (k.index < oldest));
+    }
+
+    /**
+     * Identification of an estimator.
+     */
+    private static final class BucketKey {
+        /** Base station EUI64, as long. */
+        private final long bsEui;
+        /** Granularity. */
+        private final EnumTimeBucket bucket;
+        /** Index of the bucket. */
+        private final long index;
+
+        private BucketKey(final long bsEui, final EnumTimeBucket bucket, final long index) {
+            this.bsEui = bsEui;
+            this.bucket = bucket;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if (obj instanceof BucketKey) {
+                final var other = (BucketKey) obj;
+                return (this.bsEui == other.bsEui) && (this.bucket == other.bucket) && (this.index == other.index);
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * ((31 * Long.hashCode(this.bsEui)) + this.bucket.hashCode())) + Long.hashCode(this.index);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+/**
+ * Dimension and metric of a heavy hitter ranking.
+ *
+ * @author FendtC
+ */
+public enum EnumHeavyHitterKind {
+    /** End points by number of uplinks. */
+    ENDPOINT_MESSAGES,
+    /** End points by uplink user data bytes. */
+    ENDPOINT_BYTES,
+    /** Base stations by number of uplinks. */
+    BASE_STATION_MESSAGES,
+    /** Base stations by uplink user data bytes. */
+    BASE_STATION_BYTES;
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import java.time.Duration;
+
+import lombok.Getter;
+
+/**
+ * Granularity of the time buckets of the counters.
+ *
+ * @author FendtC
+ */
+public enum EnumTimeBucket {
+    /** Hourly buckets, UTC. */
+    HOUR(Duration.ofHours(1)),
+    /** Daily buckets, UTC. */
+    DAY(Duration.ofDays(1));
+
+    /** Length of a bucket. */
+    @Getter
+    private final Duration length;
+
+    EnumTimeBucket(final Duration length) {
+        this.length = length;
+    }
+
+    /**
+     * Method to compute the index of the bucket containing a time.
+     *
+     * @param epochMillis
+     *                    the time, in ms since the epoch.
+     * @return the index of the bucket.
+     */
+    public long index(final long epochMillis) {
+        return Math.floorDiv(epochMillis, this.length.toMillis());
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Entry of a heavy hitter ranking.
+ *
+ * @author FendtC
+ */
+@Getter
+@AllArgsConstructor
+public final class HeavyHitter {
+    /** EUI64 of the end point or base station. */
+    private final EUI64 eui;
+    /** Estimated count, never below the real count. */
+    private final long count;
+
+    @Override
+    public String toString() {
+        return this.eui + "=" + this.count; //$NON-NLS-1$
+    }
+}
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import java.time.Instant;
+import java.util.List;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Heavy hitter ranking over a time window.
+ *
+ * @author FendtC
+ */
+@Getter
+@AllArgsConstructor
+public final class HeavyHitterSnapshot {
+    /** Dimension and metric of the ranking. */
+    private final EnumHeavyHitterKind kind;
+    /** Start of the window. */
+    private final Instant from;
+    /** End of the window. */
+    private final Instant to;
+    /** Total count of the window, over every key. */
+    private final long total;
+    /** The ranking, largest count first. */
+    private final List<HeavyHitter> ranking;
+
+    @Override
+    public String toString() {
+        return this.kind + " " + this.from + ".." + this.to + " total=" + this.total + " " + this.ranking; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+    }
+}
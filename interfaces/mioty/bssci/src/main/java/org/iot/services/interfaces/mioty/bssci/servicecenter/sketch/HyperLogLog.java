@@ -0,0 +1,130 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import org.apache.commons.lang3.Validate;
+
+import lombok.Getter;
+
+/**
+ * HyperLogLog cardinality estimator of 64 bit keys, with the linear counting correction of the small cardinalities.
+ * The memory is fixed, {@code 2^precision} bytes, and the relative standard error is {@code 1.04 / sqrt(2^precision)}.
+ * Two estimators of the same precision merge without loss. Thread safe.
+ *
+ * @author FendtC
+ */
+public final class HyperLogLog {
+
+    /** Default precision: 4096 registers, 1.6% standard error. */
+    public static final int DEFAULT_PRECISION = 12;
+
+    /** Number of index bits. */
+    @Getter
+    private final int precision;
+    /** The registers, maximum rank of the hashes by index. */
+    private final byte[] registers;
+
+    /**
+     * Constructor.
+     *
+     * @param precision
+     *                  Number of index bits, from 4 to 18.
+     */
+    public HyperLogLog(final int precision) {
+        Validate.inclusiveBetween(4, 18, precision);
+        this.precision = precision;
+        this.registers = new byte[1 << precision];
+    }
+
+    /**
+     * Method to add a key.
+     *
+     * @param key
+     *            the key.
+     */
+    public void add(final long key) {
+        final var hash = HyperLogLog.mix(key);
+        final var index = (int) (hash >>> (Long.SIZE - this.precision));
+        // rank of the first 1 bit of the remaining bits, a sentinel bit bounds it
+        final var rank = (byte) (Long.numberOfLeadingZeros((hash << this.precision) | (1L << (this.precision - 1)))
+                + 1);
+        synchronized (this) {
+            if (this.registers[index] < rank) {
+                this.registers[index] = rank;
+            }
+        }
+    }
+
+    /**
+     * Method to merge another estimator, the union of both key sets.
+     *
+     * @param other
+     *              the other estimator, of the same precision.
+     * @return the current estimator.
+     */
+    public HyperLogLog merge(final HyperLogLog other) {
+        Validate.isTrue(other.precision == this.precision, "precision mismatch: %d != %d", other.precision, //$NON-NLS-1$
+                this.precision);
+        final byte[] copy;
+        synchronized (other) {
+            copy = other.registers.clone();
+        }
+        synchronized (this) {
+            for (var i = 0; i < copy.length; i++) {
+                if (this.registers[i] < copy[i]) {
+                    this.registers[i] = copy[i];
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Method to estimate the number of distinct keys.
+     *
+     * @return the estimate.
+     */
+    public synchronized long estimate() {
+        final var m = this.registers.length;
+        var sum = 0.0;
+        var zeros = 0;
+        for (final byte register : this.registers) {
+            sum += 1.0 / (1L << register);
+            if (register == 0) {
+                zeros++;
+            }
+        }
+        final var alpha = 0.7213 / (1.0 + (1.079 / m));
+        final var raw = (alpha * m * m) / sum;
+        if ((raw <= (2.5 * m)) && (zeros > 0)) {
+            // linear counting
+            return Math.round(m * Math.log((double) m / zeros));
+        }
+        return Math.round(raw);
+    }
+
+    private static long mix(final long key) {
+        // murmur3 finalizer
+        var h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
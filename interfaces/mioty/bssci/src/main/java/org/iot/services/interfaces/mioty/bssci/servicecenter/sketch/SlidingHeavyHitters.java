@@ -0,0 +1,137 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Heavy hitters over a sliding window, made of a ring of time buckets with their own count-min sketch and top-K. The
+ * oldest bucket is reset when the window slides; a snapshot merges the candidates and the estimates of the buckets.
+ * Thread safe.
+ *
+ * @author FendtC
+ */
+public final class SlidingHeavyHitters {
+
+    /** Length of a bucket, in ms. */
+    private final long bucketMillis;
+    /** Number of candidates kept per bucket. */
+    private final int capacity;
+    /** Sketches, by bucket. */
+    private final CountMinSketch[] sketches;
+    /** Candidates, by bucket. */
+    private final TopK[] tops;
+    /** Time index of the buckets. */
+    private final long[] epochs;
+
+    /**
+     * Constructor.
+     *
+     * @param buckets
+     *                     Number of buckets of the window.
+     * @param bucketLength
+     *                     Length of a bucket.
+     * @param depth
+     *                     Depth of the sketches.
+     * @param width
+     *                     Width of the sketches.
+     * @param capacity
+     *                     Number of candidates kept per bucket.
+     */
+    public SlidingHeavyHitters(final int buckets, final Duration bucketLength, final int depth, final int width,
+            final int capacity) {
+        Validate.isTrue(buckets > 0, "buckets must be positive, is: %d", buckets); //$NON-NLS-1$
+        this.bucketMillis = Math.max(1, bucketLength.toMillis());
+        this.capacity = capacity;
+        this.sketches = new CountMinSketch[buckets];
+        this.tops = new TopK[buckets];
+        this.epochs = new long[buckets];
+        for (var i = 0; i < buckets; i++) {
+            this.sketches[i] = new CountMinSketch(depth, width);
+            this.tops[i] = new TopK(capacity);
+            this.epochs[i] = Long.MIN_VALUE;
+        }
+    }
+
+    /**
+     * Method to add a count to a key.
+     *
+     * @param key
+     *                  the key.
+     * @param count
+     *                  the count.
+     * @param nowMillis
+     *                  the current time, in ms.
+     */
+    public synchronized void add(final long key, final long count, final long nowMillis) {
+        final var epoch = nowMillis / this.bucketMillis;
+        final var slot = (int) Math.floorMod(epoch, (long) this.epochs.length);
+        if (this.epochs[slot] != epoch) {
+            this.sketches[slot].clear();
+            this.tops[slot].clear();
+            this.epochs[slot] = epoch;
+        }
+        this.tops[slot].offer(key, this.sketches[slot].add(key, count));
+    }
+
+    /**
+     * Method to rank the keys over the window.
+     *
+     * @param kind
+     *                  the kind of the ranking, for the snapshot.
+     * @param size
+     *                  maximum number of keys of the ranking.
+     * @param nowMillis
+     *                  the current time, in ms.
+     * @return the snapshot.
+     */
+    public synchronized HeavyHitterSnapshot snapshot(final EnumHeavyHitterKind kind, final int size,
+            final long nowMillis) {
+        final var epoch = nowMillis / this.bucketMillis;
+        final var oldest = (epoch - this.epochs.length) + 1;
+        final Set<Long> candidates = new HashSet<>();
+        var total = 0L;
+        for (var slot = 0; slot < this.epochs.length; slot++) {
+            if ((this.epochs[slot] >= oldest) && (this.epochs[slot] <= epoch)) {
+                this.tops[slot].forEach(candidates::add);
+                total += this.sketches[slot].getTotal();
+            }
+        }
+        final var ranking = new ArrayList<HeavyHitter>(candidates.size());
+        for (final long key : candidates) {
+            var count = 0L;
+            for (var slot = 0; slot < this.epochs.length; slot++) {
+                if ((this.epochs[slot] >= oldest) && (this.epochs[slot] <= epoch)) {
+                    count += this.sketches[slot].estimate(key);
+                }
+            }
+            ranking.add(new HeavyHitter(EUI64.fromLong(key), count));
+        }
+        ranking.sort(Comparator.comparingLong(HeavyHitter::getCount).reversed());
+        return new HeavyHitterSnapshot(kind, Instant.ofEpochMilli(oldest * this.bucketMillis),
+                Instant.ofEpochMilli((epoch + 1) * this.bucketMillis), total,
+                ranking.subList(0, Math.min(size, ranking.size())));
+    }
+}
@@ -0,0 +1,193 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * Bounded set of the keys with the largest counts, as a min-heap on the counts: a new key replaces the smallest one
+ * if its count is larger. The counts of the keys only grow. The heap positions are indexed by an open addressing
+ * table of primitive keys, so an offer does not allocate. Not thread safe.
+ *
+ * @author FendtC
+ */
+public final class TopK {
+
+    /** The keys, in heap order. */
+    private final long[] keys;
+    /** The counts, in heap order. */
+    private final long[] counts;
+    /** Keys of the position table, linear probing. */
+    private final long[] slotKeys;
+    /** Heap position + 1 of the keys of the position table, 0 for a free slot. */
+    private final int[] slotPositions;
+    /** Number of keys. */
+    private int size;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity
+     *                 Maximum number of keys.
+     */
+    public TopK(final int capacity) {
+        Validate.isTrue(capacity > 0, "capacity must be positive, is: %d", capacity); //$NON-NLS-1$
+        this.keys = new long[capacity];
+        this.counts = new long[capacity];
+        final var slots = Integer.highestOneBit(capacity) << 2;
+        this.slotKeys = new long[slots];
+        this.slotPositions = new int[slots];
+    }
+
+    /**
+     * Method to offer the new count of a key.
+     *
+     * @param key
+     *              the key.
+     * @param count
+     *              the count of the key, never lower than a previous offer of the key.
+     */
+    public void offer(final long key, final long count) {
+        final var slot = this.slot(key);
+        final var position = this.slotPositions[slot] - 1;
+        if (position >= 0) {
+            this.counts[position] = count;
+            this.siftDown(position);
+        } else if (this.size < this.keys.length) {
+            this.keys[this.size] = key;
+            this.counts[this.size] = count;
+            this.put(slot, key, this.size);
+            this.siftUp(this.size++);
+        } else if (count > this.counts[0]) {
+            this.delete(this.slot(this.keys[0]));
+            this.keys[0] = key;
+            this.counts[0] = count;
+            // the deletion may have moved the free slot of the key
+            this.put(this.slot(key), key, 0);
+            this.siftDown(0);
+        }
+    }
+
+    /**
+     * Method to iterate over the keys, in no particular order.
+     *
+     * @param consumer
+     *                 the consumer of the keys.
+     */
+    public void forEach(final LongConsumer consumer) {
+        for (var i = 0; i < this.size; i++) {
+            consumer.accept(this.keys[i]);
+        }
+    }
+
+    /**
+     * Method to remove every key.
+     */
+    public void clear() {
+        Arrays.fill(this.slotPositions, 0);
+        this.size = 0;
+    }
+
+    private void siftUp(final int start) {
+        var i = start;
+        while (i > 0) {
+            final var parent = (i - 1) / 2;
+            if (this.counts[parent] <= this.counts[i]) {
+                return;
+            }
+            this.swap(i, parent);
+            i = parent;
+        }
+    }
+
+    private void siftDown(final int start) {
+        var i = start;
+        while (true) {
+            final var left = (2 * i) + 1;
+            if (left >= this.size) {
+                return;
+            }
+            final var right = left + 1;
+            final var child = (right < this.size) && (this.counts[right] < this.counts[left]) ? right : left;
+            if (this.counts[i] <= this.counts[child]) {
+                return;
+            }
+            this.swap(i, child);
+            i = child;
+        }
+    }
+
+    private void swap(final int a, final int b) {
+        final var key = this.keys[a];
+        final var count = this.counts[a];
+        this.keys[a] = this.keys[b];
+        this.counts[a] = this.counts[b];
+        this.keys[b] = key;
+        this.counts[b] = count;
+        this.slotPositions[this.slot(this.keys[a])] = a + 1;
+        this.slotPositions[this.slot(this.keys[b])] = b + 1;
+    }
+
+    private int slot(final long key) {
+        // at most half of the slots are in use, a free slot is always found
+        final var mask = this.slotKeys.length - 1;
+        var slot = TopK.hash(key) & mask;
+        while ((this.slotPositions[slot] != 0) && (this.slotKeys[slot] != key)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void put(final int slot, final long key, final int position) {
+        this.slotKeys[slot] = key;
+        this.slotPositions[slot] = position + 1;
+    }
+
+    private void delete(final int start) {
+        // backward shift: move up the keys whose probe sequence crosses the freed slot
+        final var mask = this.slotKeys.length - 1;
+        var free = start;
+        var slot = start;
+        while (true) {
+            slot = (slot + 1) & mask;
+            if (this.slotPositions[slot] == 0) {
+                break;
+            }
+            final var home = TopK.hash(this.slotKeys[slot]) & mask;
+            if (((slot - home) & mask) >= ((slot - free) & mask)) {
+                this.slotKeys[free] = this.slotKeys[slot];
+                this.slotPositions[free] = this.slotPositions[slot];
+                free = slot;
+            }
+        }
+        this.slotPositions[free] = 0;
+    }
+
+    private static int hash(final long key) {
+        // murmur3 finalizer
+        var h = key;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (int) h;
+    }
+}
@@ -0,0 +1,161 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.sketch;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.api.subchannel.vm.VmUlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+
+import lombok.Getter;
+
+/**
+ * Heavy hitter detection over the uplink traffic: the top-K end points and base stations by messages and by bytes,
+ * over a sliding window. The memory is bounded whatever the number of end points. The sketch has to be registered as
+ * interceptor of the service center; the sub channel uplinks only count for their base station. The copies of an uplink
+ * received by several base stations count once for the end point, and for each base station.
+ *
+ * @author FendtC
+ */
+public class TrafficSketch implements IMessageInterceptor {
+
+    /** Default number of buckets of the window. */
+    public static final int DEFAULT_BUCKETS = 6;
+    /** Default length of a bucket. */
+    public static final Duration DEFAULT_BUCKET_LENGTH = Duration.ofSeconds(10);
+    /** Default depth of the sketches. */
+    public static final int DEFAULT_DEPTH = 4;
+    /** Default width of the sketches. */
+    public static final int DEFAULT_WIDTH = 4096;
+    /** Default number of candidates kept per bucket. */
+    public static final int DEFAULT_CAPACITY = 100;
+    /** Delay after the reception of an uplink during which the same packet counter is a copy. */
+    public static final Duration COPY_WINDOW = Duration.ofSeconds(2);
+    /** Number of slots of the copy filter, power of 2. */
+    private static final int COPY_SLOTS = 1 << 14;
+
+    /** Number of candidates kept per bucket. */
+    @Getter
+    private final int capacity;
+    /** Heavy hitters, by kind. */
+    private final Map<EnumHeavyHitterKind, SlidingHeavyHitters> hitters = new EnumMap<>(EnumHeavyHitterKind.class);
+    /** Last uplink of the end points, by slot of the copy filter: EUI64. */
+    private final long[] copyEuis = new long[TrafficSketch.COPY_SLOTS];
+    /** Last uplink of the end points: packet counter. */
+    private final int[] copyCounters = new int[TrafficSketch.COPY_SLOTS];
+    /** Last uplink of the end points: reception time in ns, 0 if the slot is unused. */
+    private final long[] copyTimes = new long[TrafficSketch.COPY_SLOTS];
+
+    /**
+     * Constructor with the default settings: top 100 over one minute.
+     */
+    public TrafficSketch() {
+        this(TrafficSketch.DEFAULT_BUCKETS, TrafficSketch.DEFAULT_BUCKET_LENGTH, TrafficSketch.DEFAULT_DEPTH,
+                TrafficSketch.DEFAULT_WIDTH, TrafficSketch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param buckets
+     *                     Number of buckets of the window.
+     * @param bucketLength
+     *                     Length of a bucket.
+     * @param depth
+     *                     Depth of the sketches.
+     * @param width
+     *                     Width of the sketches.
+     * @param capacity
+     *                     Number of candidates kept per bucket, maximum size of the rankings.
+     */
+    public TrafficSketch(final int buckets, final Duration bucketLength, final int depth, final int width,
+            final int capacity) {
+        Validate.notNull(bucketLength);
+        this.capacity = capacity;
+        for (final var kind : EnumHeavyHitterKind.values()) {
+            this.hitters.put(kind, new SlidingHeavyHitters(buckets, bucketLength, depth, width, capacity));
+        }
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        final int[] userData;
+        if (apiObj instanceof UlData) {
+            final var ulData = (UlData) apiObj;
+            userData = ulData.getUserData();
+            final var epEui = ulData.getEpEui().asLong();
+            if (!this.isCopy(epEui, ulData.getPacketCnt())) {
+                this.count(EnumHeavyHitterKind.ENDPOINT_MESSAGES, EnumHeavyHitterKind.ENDPOINT_BYTES, epEui,
+                        userData);
+            }
+        } else if (apiObj instanceof VmUlData) {
+            userData = ((VmUlData) apiObj).getUserData();
+        } else {
+            return false;
+        }
+        if (client.getEui() != null) {
+            this.count(EnumHeavyHitterKind.BASE_STATION_MESSAGES, EnumHeavyHitterKind.BASE_STATION_BYTES,
+                    client.getEui().asLong(), userData);
+        }
+        return false;
+    }
+
+    /**
+     * Method to rank the keys over the current window.
+     *
+     * @param kind
+     *             the dimension and metric of the ranking.
+     * @param size
+     *             maximum size of the ranking, at most the capacity.
+     * @return the snapshot of the ranking.
+     */
+    public HeavyHitterSnapshot snapshot(final EnumHeavyHitterKind kind, final int size) {
+        return this.hitters.get(kind).snapshot(kind, size, System.currentTimeMillis());
+    }
+
+    private boolean isCopy(final long epEui, final int packetCnt) {
+        // direct mapped: a collision only forgets a copy, counted again
+        final var slot = (int) ((epEui ^ (epEui >>> 32)) * 0x9E3779B9L) & (TrafficSketch.COPY_SLOTS - 1);
+        final var now = System.nanoTime();
+        synchronized (this.copyEuis) {
+            if ((this.copyTimes[slot] != 0) && (this.copyEuis[slot] == epEui)
+                    && (this.copyCounters[slot] == packetCnt)
+                    && ((now - this.copyTimes[slot]) < TrafficSketch.COPY_WINDOW.toNanos())) {
+                return true;
+            }
+            this.copyEuis[slot] = epEui;
+            this.copyCounters[slot] = packetCnt;
+            this.copyTimes[slot] = now | 1;
+            return false;
+        }
+    }
+
+    private void count(final EnumHeavyHitterKind messages, final EnumHeavyHitterKind bytes, final long key,
+            final int[] userData) {
+        final var now = System.currentTimeMillis();
+        this.hitters.get(messages).add(key, 1, now);
+        if ((userData != null) && (userData.length > 0)) {
+            this.hitters.get(bytes).add(key, userData.length, now);
+        }
+    }
+}
@@ -0,0 +1,460 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.state;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.sketch.CountMinSketch;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Heap cache in front of an end point state store, with write-behind.
+ * <p>
+ * The cache follows W-TinyLFU: new entries enter a small LRU window; the window overflow competes with the
+ * least recently used entry of the main segmented LRU, and the one with the lowest estimated frequency, from a count-min
+ * sketch halved periodically, is evicted. A cached lookup is a concurrent map read; the accesses are recorded only when
+ * the policy lock is free, so readers never wait for each other.
+ * <p>
+ * The updates are applied to the cache at once and written to the backing store in batches by a background thread, or
+ * by the caller when too many are pending. The pending updates stay visible to the lookups until written. A state loaded
+ * on a miss is only cached if no update of the end point was cached, pending or written meanwhile.
+ *
+ * @author FendtC
+ */
+public class CachedEndpointStateStore implements IEndpointStateStore {
+
+    /** Default number of cached end points. */
+    public static final int DEFAULT_CAPACITY = 100_000;
+    /** Default interval of the write-behind. */
+    public static final Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(100);
+    /** Default number of pending updates above which the caller writes them. */
+    public static final int DEFAULT_MAX_PENDING = 10_000;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(CachedEndpointStateStore.class);
+    /** Marker of a pending removal. */
+    private static final EndpointState REMOVED = new EndpointState(null, false, null, 0, 0, false, false, false, false,
+            0);
+
+    /** The backing store. */
+    private final IEndpointStateStore backing;
+    /** Number of cached end points. */
+    private final int capacity;
+    /** Number of pending updates above which the caller writes them. */
+    private final int maxPending;
+    /** The cached entries. */
+    private final Map<EUI64, Node> data = new ConcurrentHashMap<>();
+    /** The updates not written yet. */
+    private final Map<EUI64, EndpointState> pending = new ConcurrentHashMap<>();
+    /** Lock of the eviction policy. */
+    private final ReentrantLock policy = new ReentrantLock();
+    /** Lock of the writes to the backing store. */
+    private final Object writeLock = new Object();
+    /** Number of batches written to the backing store, incremented before their updates stop being pending. */
+    private final AtomicLong batches = new AtomicLong();
+    /** Frequencies of the accesses, guarded by the policy lock. */
+    private final CountMinSketch sketch;
+    /** Admission window, guarded by the policy lock. */
+    private final AccessList window = new AccessList();
+    /** Main entries accessed once, guarded by the policy lock. */
+    private final AccessList probation = new AccessList();
+    /** Main entries accessed again, guarded by the policy lock. */
+    private final AccessList protectedList = new AccessList();
+    /** Size of the window. */
+    private final int windowSize;
+    /** Size of the protected segment. */
+    private final int protectedSize;
+    /** Number of recorded accesses since the last aging of the sketch. */
+    private int samples;
+    /** Background write-behind. */
+    private final ScheduledExecutorService writer;
+    /** Cache hits. */
+    private final LongAdder hits = new LongAdder();
+    /** Cache misses. */
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param backing
+     *                the backing store.
+     */
+    public CachedEndpointStateStore(final IEndpointStateStore backing) {
+        this(backing, CachedEndpointStateStore.DEFAULT_CAPACITY, CachedEndpointStateStore.DEFAULT_FLUSH_INTERVAL,
+                CachedEndpointStateStore.DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param backing
+     *                   the backing store.
+     * @param capacity
+     *                   number of cached end points.
+     * @param interval
+     *                   interval of the write-behind.
+     * @param maxPending
+     *                   number of pending updates above which the caller writes them.
+     */
+    public CachedEndpointStateStore(final IEndpointStateStore backing, final int capacity, final Duration interval,
+            final int maxPending) {
+        Validate.isTrue(capacity >= 2, "capacity must be at least 2, is: %d", capacity); //$NON-NLS-1$
+        Validate.isTrue(maxPending > 0, "maxPending must be positive, is: %d", maxPending); //$NON-NLS-1$
+        this.backing = Validate.notNull(backing);
+        this.capacity = capacity;
+        this.maxPending = maxPending;
+        this.windowSize = Math.max(1, capacity / 100);
+        this.protectedSize = (int) ((capacity - this.windowSize) * 0.8);
+        this.sketch = new CountMinSketch(4, capacity);
+        this.writer = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-state-writer"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var millis = interval.toMillis();
+        this.writer.scheduleWithFixedDelay(() -> {
+            try {
+                this.write();
+            } catch (final IOException | RuntimeException e) {
+                CachedEndpointStateStore.LOG.error("State write-behind failed", e); //$NON-NLS-1$
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Optional<EndpointState> get(final EUI64 epEui) throws IOException {
+        final var node = this.data.get(epEui);
+        if (node != null) {
+            this.hits.increment();
+            if (this.policy.tryLock()) {
+                try {
+                    this.accessed(node);
+                } finally {
+                    this.policy.unlock();
+                }
+            }
+            return Optional.of(node.value);
+        }
+        this.misses.increment();
+        final var written = this.batches.get();
+        final var pendingState = this.pending.get(epEui);
+        if (pendingState == CachedEndpointStateStore.REMOVED) {
+            return Optional.empty();
+        }
+        final var state = pendingState != null ? pendingState : this.backing.get(epEui).orElse(null);
+        return Optional.ofNullable(this.load(epEui, state, written));
+    }
+
+    @Override
+    public void put(final EndpointState state) throws IOException {
+        // pending before cached, for the loads in progress
+        this.pending.put(state.getEpEui(), state);
+        this.cache(state);
+        if (this.pending.size() > this.maxPending) {
+            // back-pressure: the caller writes the backlog
+            this.write();
+        }
+    }
+
+    @Override
+    public void remove(final EUI64 epEui) throws IOException {
+        this.policy.lock();
+        try {
+            // pending before uncached, for the loads in progress
+            this.pending.put(epEui, CachedEndpointStateStore.REMOVED);
+            final var node = this.data.remove(epEui);
+            if (node != null) {
+                node.list.unlink(node);
+            }
+        } finally {
+            this.policy.unlock();
+        }
+    }
+
+    @Override
+    public void forEach(final Consumer<EndpointState> consumer) throws IOException {
+        this.write();
+        this.backing.forEach(consumer);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        this.write();
+        this.backing.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.writer.shutdownNow();
+        this.flush();
+        this.backing.close();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of lookups served by the cache.
+     */
+    public long getHits() {
+        return this.hits.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of lookups served by the backing store.
+     */
+    public long getMisses() {
+        return this.misses.sum();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of updates not written yet.
+     */
+    public int getPending() {
+        return this.pending.size();
+    }
+
+    /**
+     * Method to write the pending updates to the backing store, as a batch.
+     */
+    private void write() throws IOException {
+        synchronized (this.writeLock) {
+            if (this.pending.isEmpty()) {
+                return;
+            }
+            final List<Map.Entry<EUI64, EndpointState>> batch = new ArrayList<>(this.pending.entrySet());
+            final List<EndpointState> puts = new ArrayList<>(batch.size());
+            for (final var entry : batch) {
+                if (entry.getValue() == CachedEndpointStateStore.REMOVED) {
+                    this.backing.remove(entry.getKey());
+                } else {
+                    puts.add(entry.getValue());
+                }
+            }
+            this.backing.putAll(puts);
+            this.batches.incrementAndGet();
+            // an update made meanwhile stays pending
+            batch.forEach(entry -> this.pending.remove(entry.getKey(), entry.getValue()));
+        }
+    }
+
+    /**
+     * Method to cache a state loaded on a miss, unless the end point was updated meanwhile.
+     *
+     * @return the current state, NULL if none.
+     */
+    private EndpointState load(final EUI64 epEui, final EndpointState loaded, final long written) {
+        this.policy.lock();
+        try {
+            final var node = this.data.get(epEui);
+            if (node != null) {
+                // cached meanwhile, by an update or another load
+                return node.value;
+            }
+            final var current = this.pending.get(epEui);
+            if (current == CachedEndpointStateStore.REMOVED) {
+                return null;
+            }
+            if (current != null) {
+                this.cache(current);
+                return current;
+            }
+            if ((loaded != null) && (this.batches.get() == written)) {
+                this.cache(loaded);
+            }
+            // else an update may have been written after the load: not cached, the next miss loads it again
+            return loaded;
+        } finally {
+            this.policy.unlock();
+        }
+    }
+
+    private void cache(final EndpointState state) {
+        final var key = state.getEpEui();
+        this.policy.lock();
+        try {
+            var node = this.data.get(key);
+            if (node != null) {
+                node.value = state;
+                this.accessed(node);
+                return;
+            }
+            node = new Node(key, state);
+            this.data.put(key, node);
+            this.record(key);
+            this.window.addFirst(node);
+            if (this.window.size > this.windowSize) {
+                final var candidate = this.window.removeLast();
+                this.probation.addFirst(candidate);
+                if (this.data.size() > this.capacity) {
+                    this.evict(candidate);
+                }
+            }
+        } finally {
+            this.policy.unlock();
+        }
+    }
+
+    /**
+     * Method to evict either the window overflow or the probation victim, whichever is less frequent.
+     */
+    private void evict(final Node candidate) {
+        var victim = this.probation.last();
+        if (victim == candidate) {
+            victim = this.protectedList.last();
+        }
+        final Node evicted;
+        if ((victim == null) || (this.sketch.estimate(CachedEndpointStateStore.key(candidate.key)) > this.sketch
+                .estimate(CachedEndpointStateStore.key(victim.key)))) {
+            evicted = victim == null ? candidate : victim;
+        } else {
+            evicted = candidate;
+        }
+        evicted.list.unlink(evicted);
+        this.data.remove(evicted.key, evicted);
+    }
+
+    private void accessed(final Node node) {
+        if (node.list == null) {
+            // evicted meanwhile
+            return;
+        }
+        this.record(node.key);
+        if (node.list == this.window) {
+            this.window.moveToFirst(node);
+        } else if (node.list == this.probation) {
+            this.probation.unlink(node);
+            this.protectedList.addFirst(node);
+            if (this.protectedList.size > this.protectedSize) {
+                this.probation.addFirst(this.protectedList.removeLast());
+            }
+        } else {
+            this.protectedList.moveToFirst(node);
+        }
+    }
+
+    private void record(final EUI64 key) {
+        this.sketch.add(CachedEndpointStateStore.key(key), 1);
+        if (++this.samples >= (this.capacity * 10)) {
+            this.sketch.halve();
+            this.samples = 0;
+        }
+    }
+
+    private static long key(final EUI64 eui) {
+        return eui.asLong();
+    }
+
+    /**
+     * Cached entry.
+     */
+    private static final class Node {
+        /** Key of the entry. */
+        private final EUI64 key;
+        /** Value of the entry. */
+        private volatile EndpointState value;
+        /** List of the entry. */
+        private AccessList list;
+        /** Previous entry of the list. */
+        private Node prev;
+        /** Next entry of the list. */
+        private Node next;
+
+        private Node(final EUI64 key, final EndpointState value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Doubly linked list of entries, most recent first.
+     */
+    private static final class AccessList {
+        /** Most recent entry. */
+        private Node head;
+        /** Least recent entry. */
+        private Node tail;
+        /** Number of entries. */
+        private int size;
+
+        private void addFirst(final Node node) {
+            node.list = this;
+            node.prev = null;
+            node.next = this.head;
+            if (this.head != null) {
+                this.head.prev = node;
+            } else {
+                this.tail = node;
+            }
+            this.head = node;
+            this.size++;
+        }
+
+        private void unlink(final Node node) {
+            if (node.prev != null) {
+                node.prev.next = node.next;
+            } else {
+                this.head = node.next;
+            }
+            if (node.next != null) {
+                node.next.prev = node.prev;
+            } else {
+                this.tail = node.prev;
+            }
+            node.prev = null;
+            node.next = null;
+            node.list = null;
+            this.size--;
+        }
+
+        private void moveToFirst(final Node node) {
+            if (this.head != node) {
+                this.unlink(node);
+                this.addFirst(node);
+            }
+        }
+
+        private Node last() {
+            return this.tail;
+        }
+
+        private Node removeLast() {
+            final var node = this.tail;
+            this.unlink(node);
+            return node;
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.state;
+
+import org.iot.services.interfaces.mioty.bssci.api.main.AttPrp;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * State of an attached end point, as propagated to the base stations. Immutable: the network session key is copied
+ * from the attach propagation and returned as a copy.
+ *
+ * @author FendtC
+ */
+@Getter
+@AllArgsConstructor
+public final class EndpointState {
+    /** Length of the network session key. */
+    public static final int KEY_LENGTH = 16;
+
+    /** Flag of the bidirectional end points. */
+    static final int FLAG_BIDI = 0x01;
+    /** Flag of the dual channel mode. */
+    static final int FLAG_DUAL_CHAN = 0x02;
+    /** Flag of the UL repetition. */
+    static final int FLAG_REPETITION = 0x04;
+    /** Flag of the wide carrier offset. */
+    static final int FLAG_WIDE_CARR_OFF = 0x08;
+    /** Flag of the long DL interblock distance. */
+    static final int FLAG_LONG_BLK_DIST = 0x10;
+
+    /** End Point EUI64. */
+    private final EUI64 epEui;
+    /** True if End Point is bidirectional. */
+    private final boolean bidi;
+    /** 16 Byte End Point network session key. */
+    @Getter(AccessLevel.NONE)
+    private final byte[] nwkSnKey;
+    /** End Point short address. */
+    private final int shAddr;
+    /** Last known End Point packet counter. */
+    private final int lastPacketCnt;
+    /** True if End Point uses dual channel mode. */
+    private final boolean dualChan;
+    /** True if End Point uses UL repetition. */
+    private final boolean repetition;
+    /** True if End Point uses wide carrier offset. */
+    private final boolean wideCarrOff;
+    /** True if End Point uses long DL interblock distance. */
+    private final boolean longBlkDist;
+    /** Time of the last update, in ms since the epoch. */
+    private final long updatedAt;
+
+    /**
+     * Method to create the state of an attach propagation.
+     *
+     * @param msg
+     *                  the attach propagation.
+     * @param updatedAt
+     *                  time of the update, in ms since the epoch.
+     * @return the state.
+     */
+    public static EndpointState of(final AttPrp msg, final long updatedAt) {
+        final var key = msg.getNwkSnKey();
+        return new EndpointState(msg.getEpEui(), msg.isBidi(), key == null ? null : key.clone(), msg.getShAddr(),
+                msg.getLastPacketCnt(), msg.isDualChan(), msg.isRepetition(), msg.isWideCarrOff(), msg.isLongBlkDist(),
+                updatedAt);
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return a copy of the network session key, NULL if none.
+     */
+    public byte[] getNwkSnKey() {
+        return this.nwkSnKey == null ? null : this.nwkSnKey.clone();
+    }
+
+    /**
+     * Method to create the attach propagation of the state.
+     *
+     * @return the attach propagation.
+     */
+    public AttPrp toAttPrp() {
+        return new AttPrp(this.epEui, this.bidi, this.getNwkSnKey(), this.shAddr, this.lastPacketCnt, this.dualChan,
+                this.repetition, this.wideCarrOff, this.longBlkDist);
+    }
+
+    /**
+     * Method to derive the state after an uplink.
+     *
+     * @param packetCnt
+     *                  the packet counter of the uplink.
+     * @param time
+     *                  time of the update, in ms since the epoch.
+     * @return the new state.
+     */
+    public EndpointState withLastPacketCnt(final int packetCnt, final long time) {
+        return new EndpointState(this.epEui, this.bidi, this.nwkSnKey, this.shAddr, packetCnt, this.dualChan,
+                this.repetition, this.wideCarrOff, this.longBlkDist, time);
+    }
+
+    /**
+     * Method to encode the boolean fields.
+     *
+     * @return the flags.
+     */
+    public int flags() {
+        return (this.bidi ? EndpointState.FLAG_BIDI : 0) | (this.dualChan ? EndpointState.FLAG_DUAL_CHAN : 0)
+                | (this.repetition ? EndpointState.FLAG_REPETITION : 0)
+                | (this.wideCarrOff ? EndpointState.FLAG_WIDE_CARR_OFF : 0)
+                | (this.longBlkDist ? EndpointState.FLAG_LONG_BLK_DIST : 0);
+    }
+
+    /**
+     * Method to decode a state.
+     *
+     * @param epEui
+     *                  End Point EUI64.
+     * @param flags
+     *                  the flags, see {@link #flags()}.
+     * @param nwkSnKey
+     *                  the network session key.
+     * @param shAddr
+     *                  End Point short address.
+     * @param packetCnt
+     *                  Last known End Point packet counter.
+     * @param updatedAt
+     *                  Time of the last update.
+     * @return the state.
+     */
+    public static EndpointState decode(final EUI64 epEui, final int flags, final byte[] nwkSnKey, final int shAddr,
+            final int packetCnt, final long updatedAt) {
+        return new EndpointState(epEui, (flags & EndpointState.FLAG_BIDI) != 0, nwkSnKey, shAddr, packetCnt,
+                (flags & EndpointState.FLAG_DUAL_CHAN) != 0, (flags & EndpointState.FLAG_REPETITION) != 0,
+                (flags & EndpointState.FLAG_WIDE_CARR_OFF) != 0, (flags & EndpointState.FLAG_LONG_BLK_DIST) != 0,
+                updatedAt);
+    }
+}
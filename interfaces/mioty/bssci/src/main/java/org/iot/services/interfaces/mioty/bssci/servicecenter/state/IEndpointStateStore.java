@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.state;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Consumer;
+
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+
+/**
+ * Store of the end point states. Implementations are thread safe; they may be local (see
+ * {@link MappedEndpointStateStore}) or delegate to a shared database.
+ *
+ * @author FendtC
+ */
+public interface IEndpointStateStore extends Closeable {
+
+    /**
+     * Method to retrieve the state of an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @return the state, empty if the end point is unknown.
+     * @throws IOException
+     *                     on storage failure.
+     */
+    Optional<EndpointState> get(EUI64 epEui) throws IOException;
+
+    /**
+     * Method to store the state of an end point, replacing the previous one.
+     *
+     * @param state
+     *              the state.
+     * @throws IOException
+     *                     on storage failure.
+     */
+    void put(EndpointState state) throws IOException;
+
+    /**
+     * Method to store several states at once, which implementations may batch.
+     *
+     * @param states
+     *               the states.
+     * @throws IOException
+     *                     on storage failure.
+     */
+    default void putAll(final Collection<EndpointState> states) throws IOException {
+        for (final var state : states) {
+            this.put(state);
+        }
+    }
+
+    /**
+     * Method to forget an end point, e.g. on detach.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @throws IOException
+     *                     on storage failure.
+     */
+    void remove(EUI64 epEui) throws IOException;
+
+    /**
+     * Method to iterate over the stored states, e.g. to propagate them to a base station.
+     *
+     * @param consumer
+     *                 consumer of the states.
+     * @throws IOException
+     *                     on storage failure.
+     */
+    void forEach(Consumer<EndpointState> consumer) throws IOException;
+
+    /**
+     * Method to make the stored states durable.
+     *
+     * @throws IOException
+     *                     on storage failure.
+     */
+    void flush() throws IOException;
+}
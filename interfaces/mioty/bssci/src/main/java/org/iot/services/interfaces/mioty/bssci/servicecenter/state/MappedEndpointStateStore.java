@@ -0,0 +1,339 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.state;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import lombok.Getter;
+
+/**
+ * Embedded end point state store: an open addressing hash table of fixed size records in a memory-mapped file. The
+ * table is rehashed into a file twice as large when it is 75% full.
+ * <p>
+ * A record is checksummed, so a record torn by a crash while being updated reads as missing rather than corrupt. The
+ * operating system flushes the pages, {@link #flush()} forces them to the storage.
+ *
+ * @author FendtC
+ */
+public class MappedEndpointStateStore implements IEndpointStateStore {
+
+    /** Default number of slots of a new table. */
+    public static final int DEFAULT_SLOTS = 1 << 16;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(MappedEndpointStateStore.class);
+    /** Magic number of the files, "BSSE". */
+    private static final int MAGIC = 0x42535345;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Size of the file header. */
+    private static final int HEADER = 16;
+    /** Size of a record. */
+    private static final int RECORD = 48;
+    /** Status of a free slot. */
+    private static final byte FREE = 0;
+    /** Status of a used slot. */
+    private static final byte USED = 1;
+    /** Status of a removed record, skipped by the lookups. */
+    private static final byte REMOVED = 2;
+    /** Offset of the flags in a record, the status being the first byte. */
+    private static final int FLAGS = 1;
+    /** Offset of the short address. */
+    private static final int SH_ADDR = 4;
+    /** Offset of the EUI64. */
+    private static final int EUI = 8;
+    /** Offset of the network session key. */
+    private static final int KEY = 16;
+    /** Offset of the packet counter. */
+    private static final int PACKET_CNT = 32;
+    /** Offset of the checksum. */
+    private static final int CHECKSUM = 36;
+    /** Offset of the update time. */
+    private static final int UPDATED_AT = 40;
+
+    /** The file. */
+    private final Path file;
+    /** The mapped file. */
+    private MappedByteBuffer buffer;
+    /** Number of slots, a power of two. */
+    @Getter
+    private int slots;
+    /** Number of records. */
+    private int size;
+    /** Number of removed records. */
+    private int removed;
+    /** Scratch record. */
+    private final byte[] scratch = new byte[MappedEndpointStateStore.RECORD];
+    /** Checksum of the records. */
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param file
+     *             the file of the table, created if missing.
+     * @throws IOException
+     *                     on I/O failure or invalid file.
+     */
+    public MappedEndpointStateStore(final Path file) throws IOException {
+        this(file, MappedEndpointStateStore.DEFAULT_SLOTS);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param file
+     *              the file of the table, created if missing.
+     * @param slots
+     *              number of slots of a new table, rounded up to a power of two.
+     * @throws IOException
+     *                     on I/O failure or invalid file.
+     */
+    public MappedEndpointStateStore(final Path file, final int slots) throws IOException {
+        Validate.isTrue(slots > 0, "slots must be positive, is: %d", slots); //$NON-NLS-1$
+        this.file = file;
+        if (Files.exists(file)) {
+            this.buffer = MappedEndpointStateStore.map(file, 0);
+            if ((this.buffer.getInt(0) != MappedEndpointStateStore.MAGIC)
+                    || (this.buffer.getInt(Integer.BYTES) != MappedEndpointStateStore.VERSION)) {
+                throw new IOException("Invalid state store " + file); //$NON-NLS-1$
+            }
+            this.slots = this.buffer.getInt(Integer.BYTES * 2);
+            for (var slot = 0; slot < this.slots; slot++) {
+                final var status = this.buffer.get(MappedEndpointStateStore.position(slot));
+                this.size += status == MappedEndpointStateStore.USED ? 1 : 0;
+                this.removed += status == MappedEndpointStateStore.REMOVED ? 1 : 0;
+            }
+            MappedEndpointStateStore.LOG.info("State store {} reopened, {} end points", file, this.size); //$NON-NLS-1$
+        } else {
+            this.slots = Integer.highestOneBit((slots * 2) - 1);
+            this.buffer = MappedEndpointStateStore.create(file, this.slots);
+        }
+    }
+
+    @Override
+    public synchronized Optional<EndpointState> get(final EUI64 epEui) {
+        final var slot = this.find(this.buffer, this.slots, epEui.asLong());
+        if ((slot < 0) || !this.valid(slot)) {
+            return Optional.empty();
+        }
+        return Optional.of(this.decode(epEui));
+    }
+
+    @Override
+    public synchronized void put(final EndpointState state) throws IOException {
+        Validate.isTrue((state.getNwkSnKey() != null) && (state.getNwkSnKey().length == EndpointState.KEY_LENGTH),
+                "nwkSnKey must have 16 bytes"); //$NON-NLS-1$
+        if (((this.size + this.removed + 1) * 4L) > (this.slots * 3L)) {
+            this.rehash(((this.size + 1) * 2L) > this.slots ? this.slots * 2 : this.slots);
+        }
+        final var eui = state.getEpEui().asLong();
+        var slot = this.find(this.buffer, this.slots, eui);
+        if (slot < 0) {
+            slot = this.free(this.buffer, this.slots, eui);
+            if (this.buffer.get(MappedEndpointStateStore.position(slot)) == MappedEndpointStateStore.REMOVED) {
+                this.removed--;
+            }
+            this.size++;
+        }
+        this.write(this.buffer, slot, state);
+    }
+
+    @Override
+    public synchronized void putAll(final Collection<EndpointState> states) throws IOException {
+        for (final var state : states) {
+            this.put(state);
+        }
+    }
+
+    @Override
+    public synchronized void remove(final EUI64 epEui) {
+        final var slot = this.find(this.buffer, this.slots, epEui.asLong());
+        if (slot >= 0) {
+            this.buffer.put(MappedEndpointStateStore.position(slot), MappedEndpointStateStore.REMOVED);
+            this.size--;
+            this.removed++;
+        }
+    }
+
+    @Override
+    public synchronized void forEach(final Consumer<EndpointState> consumer) {
+        for (var slot = 0; slot < this.slots; slot++) {
+            final var pos = MappedEndpointStateStore.position(slot);
+            if ((this.buffer.get(pos) == MappedEndpointStateStore.USED) && this.valid(slot)) {
+                consumer.accept(this.decode(EUI64.fromLong(this.buffer.getLong(pos + MappedEndpointStateStore.EUI))));
+            }
+        }
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of stored end points.
+     */
+    public synchronized int size() {
+        return this.size;
+    }
+
+    @Override
+    public synchronized void flush() {
+        this.buffer.force();
+    }
+
+    @Override
+    public synchronized void close() {
+        this.buffer.force();
+    }
+
+    private int find(final ByteBuffer table, final int count, final long eui) {
+        final var mask = count - 1;
+        for (var slot = MappedEndpointStateStore.hash(eui) & mask;; slot = (slot + 1) & mask) {
+            final var pos = MappedEndpointStateStore.position(slot);
+            final var status = table.get(pos);
+            if (status == MappedEndpointStateStore.FREE) {
+                return -1;
+            }
+            if ((status == MappedEndpointStateStore.USED) && (table.getLong(pos + MappedEndpointStateStore.EUI) == eui)) {
+                return slot;
+            }
+        }
+    }
+
+    private int free(final ByteBuffer table, final int count, final long eui) {
+        final var mask = count - 1;
+        for (var slot = MappedEndpointStateStore.hash(eui) & mask;; slot = (slot + 1) & mask) {
+            if (table.get(MappedEndpointStateStore.position(slot)) != MappedEndpointStateStore.USED) {
+                return slot;
+            }
+        }
+    }
+
+    private void write(final ByteBuffer table, final int slot, final EndpointState state) {
+        final var record = ByteBuffer.wrap(this.scratch);
+        record.put(MappedEndpointStateStore.FLAGS, (byte) state.flags());
+        record.putInt(MappedEndpointStateStore.SH_ADDR, state.getShAddr());
+        record.putLong(MappedEndpointStateStore.EUI, state.getEpEui().asLong());
+        record.position(MappedEndpointStateStore.KEY);
+        record.put(state.getNwkSnKey());
+        record.putInt(MappedEndpointStateStore.PACKET_CNT, state.getLastPacketCnt());
+        record.putLong(MappedEndpointStateStore.UPDATED_AT, state.getUpdatedAt());
+        record.putInt(MappedEndpointStateStore.CHECKSUM, this.checksum(this.scratch));
+        final var pos = MappedEndpointStateStore.position(slot);
+        // the status is written last, so a new record is only visible once complete
+        final var view = table.duplicate();
+        view.position(pos + 1);
+        view.put(this.scratch, 1, MappedEndpointStateStore.RECORD - 1);
+        table.put(pos, MappedEndpointStateStore.USED);
+    }
+
+    /**
+     * Method to decode the record loaded in the scratch by {@link #valid(int)}.
+     */
+    private EndpointState decode(final EUI64 epEui) {
+        final var record = ByteBuffer.wrap(this.scratch);
+        final var key = new byte[EndpointState.KEY_LENGTH];
+        record.position(MappedEndpointStateStore.KEY);
+        record.get(key);
+        return EndpointState.decode(epEui, record.get(MappedEndpointStateStore.FLAGS), key,
+                record.getInt(MappedEndpointStateStore.SH_ADDR), record.getInt(MappedEndpointStateStore.PACKET_CNT),
+                record.getLong(MappedEndpointStateStore.UPDATED_AT));
+    }
+
+    /**
+     * Method to load a record in the scratch and verify its checksum.
+     */
+    private boolean valid(final int slot) {
+        this.buffer.duplicate().position(MappedEndpointStateStore.position(slot)).get(this.scratch);
+        return ByteBuffer.wrap(this.scratch).getInt(MappedEndpointStateStore.CHECKSUM) == this.checksum(this.scratch);
+    }
+
+    private int checksum(final byte[] record) {
+        this.crc.reset();
+        this.crc.update(record, 1, MappedEndpointStateStore.CHECKSUM - 1);
+        this.crc.update(record, MappedEndpointStateStore.UPDATED_AT, Long.BYTES);
+        return (int) this.crc.getValue();
+    }
+
+    private void rehash(final int count) throws IOException {
+        if (count > ((Integer.MAX_VALUE - MappedEndpointStateStore.HEADER) / MappedEndpointStateStore.RECORD)) {
+            throw new IOException("State store full " + this.file); //$NON-NLS-1$
+        }
+        final var tmp = this.file.resolveSibling(this.file.getFileName() + ".tmp"); //$NON-NLS-1$
+        Files.deleteIfExists(tmp);
+        final var table = MappedEndpointStateStore.create(tmp, count);
+        var copied = 0;
+        for (var slot = 0; slot < this.slots; slot++) {
+            final var pos = MappedEndpointStateStore.position(slot);
+            if ((this.buffer.get(pos) == MappedEndpointStateStore.USED) && this.valid(slot)) {
+                final var target = this.free(table, count, this.buffer.getLong(pos + MappedEndpointStateStore.EUI));
+                final var view = table.duplicate();
+                view.position(MappedEndpointStateStore.position(target));
+                view.put(this.scratch);
+                copied++;
+            }
+        }
+        table.force();
+        Files.move(tmp, this.file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        MappedEndpointStateStore.LOG.debug("State store {} rehashed from {} to {} slots", this.file, this.slots, count); //$NON-NLS-1$
+        this.buffer = table;
+        this.slots = count;
+        this.size = copied;
+        this.removed = 0;
+    }
+
+    private static MappedByteBuffer create(final Path path, final int count) throws IOException {
+        final var table = MappedEndpointStateStore.map(path,
+                MappedEndpointStateStore.HEADER + ((long) count * MappedEndpointStateStore.RECORD));
+        table.putInt(0, MappedEndpointStateStore.MAGIC);
+        table.putInt(Integer.BYTES, MappedEndpointStateStore.VERSION);
+        table.putInt(Integer.BYTES * 2, count);
+        return table;
+    }
+
+    private static MappedByteBuffer map(final Path path, final long size) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, channel.size()));
+        }
+    }
+
+    private static int position(final int slot) {
+        return MappedEndpointStateStore.HEADER + (slot * MappedEndpointStateStore.RECORD);
+    }
+
+    private static int hash(final long eui) {
+        var h = eui * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 32;
+        return (int) h;
+    }
+}
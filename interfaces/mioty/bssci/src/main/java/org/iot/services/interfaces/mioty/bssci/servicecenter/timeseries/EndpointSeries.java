@@ -0,0 +1,147 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.timeseries;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Series of an end point: its compacted and sealed chunks, and the open chunk being appended.
+ *
+ * @author FendtC
+ */
+final class EndpointSeries {
+
+    /** The compacted and sealed chunks. */
+    private final List<GorillaChunk> chunks = new ArrayList<>();
+    /** The open chunk, NULL if none. */
+    private GorillaChunk head;
+
+    /**
+     * Method to append a sample.
+     *
+     * @param time
+     *                   time of the sample, in ms.
+     * @param rssi
+     *                   RSSI of the sample.
+     * @param snr
+     *                   SNR of the sample.
+     * @param maxSamples
+     *                   number of samples of a chunk.
+     */
+    synchronized void append(final long time, final double rssi, final double snr, final int maxSamples) {
+        if ((this.head != null) && (this.head.count >= maxSamples)) {
+            this.head.seal();
+            this.chunks.add(this.head);
+            this.head = null;
+        }
+        if (this.head == null) {
+            this.head = new GorillaChunk(time);
+        }
+        this.head.append(time, rssi, snr);
+    }
+
+    /**
+     * Method to iterate over the samples within a time range, in chunk order.
+     *
+     * @param from
+     *                 start of the range, inclusive.
+     * @param to
+     *                 end of the range, inclusive.
+     * @param consumer
+     *                 consumer of the samples.
+     */
+    synchronized void forEach(final long from, final long to, final ISampleConsumer consumer) {
+        for (final var chunk : this.chunks) {
+            if ((chunk.end >= from) && (chunk.start <= to)) {
+                chunk.forEach(from, to, consumer);
+            }
+        }
+        if ((this.head != null) && (this.head.end >= from) && (this.head.start <= to)) {
+            this.head.forEach(from, to, consumer);
+        }
+    }
+
+    /**
+     * Method to collect the chunks in memory to compact, sealing an idle open chunk.
+     *
+     * @param cutoff
+     *               time before which the chunks are compacted.
+     * @return the chunks, still in the series until {@link #compacted(GorillaChunk)}.
+     */
+    synchronized List<GorillaChunk> collect(final long cutoff) {
+        if ((this.head != null) && (this.head.end < cutoff)) {
+            this.head.seal();
+            this.chunks.add(this.head);
+            this.head = null;
+        }
+        final List<GorillaChunk> result = new ArrayList<>();
+        for (final var chunk : this.chunks) {
+            if ((chunk.file == null) && (chunk.end < cutoff)) {
+                result.add(chunk);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Method to add a compacted chunk, replacing the same chunk in memory if any.
+     *
+     * @param compacted
+     *                  the compacted chunk.
+     */
+    synchronized void compacted(final GorillaChunk compacted) {
+        for (var i = 0; i < this.chunks.size(); i++) {
+            final var chunk = this.chunks.get(i);
+            if ((chunk.file == null) && (chunk.start == compacted.start) && (chunk.end == compacted.end)
+                    && (chunk.count == compacted.count)) {
+                this.chunks.set(i, compacted);
+                return;
+            }
+        }
+        var i = this.chunks.size();
+        while ((i > 0) && (this.chunks.get(i - 1).start > compacted.start)) {
+            i--;
+        }
+        this.chunks.add(i, compacted);
+    }
+
+    /**
+     * Method to drop the chunks of an expired file.
+     *
+     * @param file
+     *             the expired file.
+     * @return TRUE if the series is empty.
+     */
+    synchronized boolean expire(final SeriesFile file) {
+        this.chunks.removeIf(chunk -> chunk.file == file);
+        return this.chunks.isEmpty() && (this.head == null);
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of samples in memory, compacted chunks excluded.
+     */
+    synchronized long getMemorySamples() {
+        var samples = this.head == null ? 0L : this.head.count;
+        for (final var chunk : this.chunks) {
+            samples += chunk.file == null ? chunk.count : 0;
+        }
+        return samples;
+    }
+}
@@ -0,0 +1,221 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.timeseries;
+
+import org.iot.services.interfaces.mioty.bssci.utils.BitReader;
+import org.iot.services.interfaces.mioty.bssci.utils.BitWriter;
+import org.iot.services.interfaces.mioty.bssci.utils.XorDoubleDecoder;
+import org.iot.services.interfaces.mioty.bssci.utils.XorDoubleEncoder;
+
+/**
+ * Chunk of a series, Gorilla compressed: the timestamps as delta-of-delta with variable size codes, the RSSI and SNR
+ * XOR'ed with their previous value. A chunk is open while appended, then sealed in memory, then compacted to a
+ * {@link SeriesFile}.
+ * <p>
+ * The timestamp codes are widened from the original second resolution to ms: {@code 0} for a regular interval,
+ * {@code 10} and 12 bits (+/-2s of jitter), {@code 110} and 20 bits (+/-8min), {@code 1110} and 32 bits (+/-24 days),
+ * {@code 1111} and the raw 64 bits.
+ *
+ * @author FendtC
+ */
+final class GorillaChunk {
+
+    /** Time of the oldest sample. */
+    long start;
+    /** Time of the newest sample. */
+    long end;
+    /** Number of samples. */
+    int count;
+    /** Bit stream of an open chunk, NULL once sealed. */
+    private BitWriter writer;
+    /** Encoder of the RSSI of an open chunk. */
+    private XorDoubleEncoder rssi;
+    /** Encoder of the SNR of an open chunk. */
+    private XorDoubleEncoder snr;
+    /** Previous time. */
+    private long previous;
+    /** Previous delta. */
+    private long delta;
+    /** Bytes of a chunk sealed in memory, NULL otherwise. */
+    private byte[] data;
+    /** File of a compacted chunk, NULL otherwise. */
+    final SeriesFile file;
+    /** Position of a compacted chunk in its file. */
+    final int position;
+    /** Length of a compacted chunk. */
+    final int length;
+
+    /**
+     * Constructor of an open chunk.
+     *
+     * @param start
+     *              Time of the first sample.
+     */
+    GorillaChunk(final long start) {
+        this.start = start;
+        this.end = start;
+        this.writer = new BitWriter(32);
+        this.rssi = new XorDoubleEncoder();
+        this.snr = new XorDoubleEncoder();
+        this.file = null;
+        this.position = 0;
+        this.length = 0;
+    }
+
+    /**
+     * Constructor of a compacted chunk.
+     *
+     * @param file
+     *                 File of the chunk.
+     * @param position
+     *                 Position of the chunk in its file.
+     * @param length
+     *                 Length of the chunk.
+     * @param start
+     *                 Time of the oldest sample.
+     * @param end
+     *                 Time of the newest sample.
+     * @param count
+     *                 Number of samples.
+     */
+    GorillaChunk(final SeriesFile file, final int position, final int length, final long start, final long end,
+            final int count) {
+        this.file = file;
+        this.position = position;
+        this.length = length;
+        this.start = start;
+        this.end = end;
+        this.count = count;
+    }
+
+    /**
+     * Method to append a sample to an open chunk.
+     *
+     * @param time
+     *                  time of the sample, in ms.
+     * @param rssiValue
+     *                  RSSI of the sample.
+     * @param snrValue
+     *                  SNR of the sample.
+     */
+    void append(final long time, final double rssiValue, final double snrValue) {
+        if (this.count == 0) {
+            this.writer.writeBits(time, Long.SIZE);
+        } else {
+            final var next = time - this.previous;
+            final var dod = next - this.delta;
+            if (dod == 0) {
+                this.writer.writeBit(false);
+            } else if ((dod >= -2047) && (dod <= 2048)) {
+                this.writer.writeBits(0b10, 2);
+                this.writer.writeBits(dod + 2047, 12);
+            } else if ((dod >= -524_287) && (dod <= 524_288)) {
+                this.writer.writeBits(0b110, 3);
+                this.writer.writeBits(dod + 524_287, 20);
+            } else if ((dod >= Integer.MIN_VALUE + 1) && (dod <= Integer.MAX_VALUE + 1L)) {
+                this.writer.writeBits(0b1110, 4);
+                this.writer.writeBits(dod + Integer.MAX_VALUE, 32);
+            } else {
+                this.writer.writeBits(0b1111, 4);
+                this.writer.writeBits(dod, Long.SIZE);
+            }
+            this.delta = next;
+        }
+        this.previous = time;
+        this.rssi.write(this.writer, rssiValue);
+        this.snr.write(this.writer, snrValue);
+        this.start = Math.min(this.start, time);
+        this.end = Math.max(this.end, time);
+        this.count++;
+    }
+
+    /**
+     * Method to seal an open chunk, trimming its bytes.
+     */
+    void seal() {
+        if (this.writer != null) {
+            this.data = this.writer.toByteArray();
+            this.writer = null;
+            this.rssi = null;
+            this.snr = null;
+        }
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return TRUE while the chunk is appended.
+     */
+    boolean isOpen() {
+        return this.writer != null;
+    }
+
+    /**
+     * Method to get the compressed bytes of a chunk in memory.
+     *
+     * @return the bytes, a copy for an open chunk.
+     */
+    byte[] bytes() {
+        if (this.writer != null) {
+            return this.writer.toByteArray();
+        }
+        return this.data != null ? this.data : this.file.read(this.position, this.length);
+    }
+
+    /**
+     * Method to iterate over the samples of the chunk within a time range.
+     *
+     * @param from
+     *                 start of the range, inclusive.
+     * @param to
+     *                 end of the range, inclusive.
+     * @param consumer
+     *                 consumer of the samples.
+     */
+    void forEach(final long from, final long to, final ISampleConsumer consumer) {
+        final var in = new BitReader(this.bytes());
+        final var rssiDecoder = new XorDoubleDecoder();
+        final var snrDecoder = new XorDoubleDecoder();
+        long time = 0;
+        long step = 0;
+        for (var i = 0; i < this.count; i++) {
+            if (i == 0) {
+                time = in.readBits(Long.SIZE);
+            } else {
+                final long dod;
+                if (!in.readBit()) {
+                    dod = 0;
+                } else if (!in.readBit()) {
+                    dod = in.readBits(12) - 2047;
+                } else if (!in.readBit()) {
+                    dod = in.readBits(20) - 524_287;
+                } else if (!in.readBit()) {
+                    dod = in.readBits(32) - Integer.MAX_VALUE;
+                } else {
+                    dod = in.readBits(Long.SIZE);
+                }
+                step += dod;
+                time += step;
+            }
+            final var rssiValue = rssiDecoder.read(in);
+            final var snrValue = snrDecoder.read(in);
+            if ((time >= from) && (time <= to)) {
+                consumer.accept(time, rssiValue, snrValue);
+            }
+        }
+    }
+}
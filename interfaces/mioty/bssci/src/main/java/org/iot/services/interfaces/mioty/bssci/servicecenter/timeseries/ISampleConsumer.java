@@ -0,0 +1,38 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.timeseries;
+
+/**
+ * Consumer of the samples of a signal quality series, without boxing them.
+ *
+ * @author FendtC
+ */
+@FunctionalInterface
+public interface ISampleConsumer {
+
+    /**
+     * Handling method.
+     *
+     * @param time
+     *             time of the sample, in ms since the epoch.
+     * @param rssi
+     *             RSSI of the sample.
+     * @param snr
+     *             SNR of the sample.
+     */
+    void accept(long time, double rssi, double snr);
+}
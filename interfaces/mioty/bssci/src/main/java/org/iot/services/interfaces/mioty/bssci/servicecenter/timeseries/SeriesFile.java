@@ -0,0 +1,152 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.timeseries;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+import org.apache.commons.lang3.Validate;
+
+/**
+ * File of compacted chunks, written once and then mapped read-only.
+ * <p>
+ * Layout: magic, version, then for each chunk the end point EUI64, its oldest and newest times, its sample count, its
+ * length and its bytes.
+ *
+ * @author FendtC
+ */
+final class SeriesFile {
+
+    /** Suffix of the files. */
+    static final String SUFFIX = ".series"; //$NON-NLS-1$
+    /** Magic number of the files, "BSST". */
+    private static final int MAGIC = 0x42535354;
+    /** Version of the file format. */
+    private static final int VERSION = 1;
+    /** Size of the header of a chunk. */
+    private static final int CHUNK_HEADER = (Long.BYTES * 3) + (Integer.BYTES * 2);
+
+    /** The file. */
+    final Path path;
+    /** Time of the newest sample of the file. */
+    long end = Long.MIN_VALUE;
+    /** The mapped file. */
+    private final MappedByteBuffer buffer;
+
+    private SeriesFile(final Path path) throws IOException {
+        this.path = path;
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    /**
+     * Method to write a file of chunks.
+     *
+     * @param path
+     *               the file.
+     * @param chunks
+     *               the sealed chunks, by end point EUI64 as long.
+     * @param loaded
+     *               consumer of the compacted chunks replacing the written ones.
+     * @return the file.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    static SeriesFile write(final Path path, final Map<Long, List<GorillaChunk>> chunks,
+            final BiConsumer<Long, GorillaChunk> loaded) throws IOException {
+        final var tmp = path.resolveSibling(path.getFileName() + ".tmp"); //$NON-NLS-1$
+        try (var out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), 64 << 10))) {
+            out.writeInt(SeriesFile.MAGIC);
+            out.writeInt(SeriesFile.VERSION);
+            for (final var entry : chunks.entrySet()) {
+                for (final var chunk : entry.getValue()) {
+                    final var bytes = chunk.bytes();
+                    Validate.validState((out.size() + (long) SeriesFile.CHUNK_HEADER + bytes.length) < Integer.MAX_VALUE,
+                            "Series file too large"); //$NON-NLS-1$
+                    out.writeLong(entry.getKey());
+                    out.writeLong(chunk.start);
+                    out.writeLong(chunk.end);
+                    out.writeInt(chunk.count);
+                    out.writeInt(bytes.length);
+                    out.write(bytes);
+                }
+            }
+        }
+        Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return SeriesFile.read(path, loaded);
+    }
+
+    /**
+     * Method to map a file of chunks.
+     *
+     * @param path
+     *               the file.
+     * @param loaded
+     *               consumer of the chunks of the file, by end point EUI64 as long.
+     * @return the file.
+     * @throws IOException
+     *                     on I/O failure or invalid file.
+     */
+    static SeriesFile read(final Path path, final BiConsumer<Long, GorillaChunk> loaded) throws IOException {
+        final var file = new SeriesFile(path);
+        final var buffer = file.buffer;
+        if ((buffer.capacity() < (Integer.BYTES * 2)) || (buffer.getInt(0) != SeriesFile.MAGIC)
+                || (buffer.getInt(Integer.BYTES) != SeriesFile.VERSION)) {
+            throw new IOException("Invalid series file " + path); //$NON-NLS-1$
+        }
+        var pos = Integer.BYTES * 2;
+        while ((pos + SeriesFile.CHUNK_HEADER) <= buffer.capacity()) {
+            final var length = buffer.getInt(pos + (Long.BYTES * 3) + Integer.BYTES);
+            if ((length < 0) || ((pos + SeriesFile.CHUNK_HEADER + length) > buffer.capacity())) {
+                throw new IOException("Truncated series file " + path); //$NON-NLS-1$
+            }
+            final var chunk = new GorillaChunk(file, pos + SeriesFile.CHUNK_HEADER, length,
+                    buffer.getLong(pos + Long.BYTES), buffer.getLong(pos + (Long.BYTES * 2)),
+                    buffer.getInt(pos + (Long.BYTES * 3)));
+            file.end = Math.max(file.end, chunk.end);
+            loaded.accept(buffer.getLong(pos), chunk);
+            pos += SeriesFile.CHUNK_HEADER + length;
+        }
+        return file;
+    }
+
+    /**
+     * Method to read the bytes of a chunk.
+     *
+     * @param position
+     *                 position of the chunk.
+     * @param length
+     *                 length of the chunk.
+     * @return the bytes.
+     */
+    byte[] read(final int position, final int length) {
+        final var bytes = new byte[length];
+        this.buffer.duplicate().position(position).get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.timeseries;
+
+import java.time.Instant;
+
+import lombok.Getter;
+
+/**
+ * Downsampled bucket of a signal quality series.
+ *
+ * @author FendtC
+ */
+public final class SignalBucket {
+    /** Start of the bucket. */
+    @Getter
+    private final Instant start;
+    /** Number of samples. */
+    @Getter
+    private int count;
+    /** Lowest RSSI. */
+    @Getter
+    private double minRssi = Double.POSITIVE_INFINITY;
+    /** Highest RSSI. */
+    @Getter
+    private double maxRssi = Double.NEGATIVE_INFINITY;
+    /** Lowest SNR. */
+    @Getter
+    private double minSnr = Double.POSITIVE_INFINITY;
+    /** Highest SNR. */
+    @Getter
+    private double maxSnr = Double.NEGATIVE_INFINITY;
+    /** Sum of the RSSI. */
+    private double sumRssi;
+    /** Sum of the SNR. */
+    private double sumSnr;
+
+    /**
+     * Constructor.
+     *
+     * @param start
+     *              Start of the bucket.
+     */
+    SignalBucket(final Instant start) {
+        this.start = start;
+    }
+
+    /**
+     * Method to add a sample.
+     *
+     * @param rssi
+     *             RSSI of the sample.
+     * @param snr
+     *             SNR of the sample.
+     */
+    void add(final double rssi, final double snr) {
+        this.count++;
+        this.minRssi = Math.min(this.minRssi, rssi);
+        this.maxRssi = Math.max(this.maxRssi, rssi);
+        this.minSnr = Math.min(this.minSnr, snr);
+        this.maxSnr = Math.max(this.maxSnr, snr);
+        this.sumRssi += rssi;
+        this.sumSnr += snr;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the mean RSSI.
+     */
+    public double getAvgRssi() {
+        return this.sumRssi / this.count;
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the mean SNR.
+     */
+    public double getAvgSnr() {
+        return this.sumSnr / this.count;
+    }
+}
@@ -0,0 +1,302 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.servicecenter.timeseries;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.apache.commons.lang3.Validate;
+import org.iot.services.interfaces.mioty.bssci.api.Api;
+import org.iot.services.interfaces.mioty.bssci.api.main.UlData;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.IMessageInterceptor;
+import org.iot.services.interfaces.mioty.bssci.servicecenter.ServiceCenterConnection;
+import org.iot.services.interfaces.mioty.bssci.utils.EUI64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Store of the RSSI/SNR history of the end points, taken from their uplinks.
+ * <p>
+ * Each end point has a series of Gorilla compressed chunks, a few bytes per sample instead of an object. The recent
+ * chunks stay in memory; a background compaction moves the chunks older than the memory window to mapped files in the
+ * directory, which are reloaded on start and deleted past the retention. The store has to be registered as
+ * interceptor of the service center.
+ *
+ * @author FendtC
+ */
+public class SignalQualityStore implements IMessageInterceptor, AutoCloseable {
+
+    /** Default retention of the samples. */
+    public static final Duration DEFAULT_RETENTION = Duration.ofDays(30);
+    /** Default age of the samples moved to the files. */
+    public static final Duration DEFAULT_MEMORY_WINDOW = Duration.ofHours(6);
+    /** Default number of samples of a chunk. */
+    public static final int DEFAULT_CHUNK_SAMPLES = 120;
+    /** Default interval of the compaction. */
+    public static final Duration DEFAULT_COMPACTION_INTERVAL = Duration.ofMinutes(10);
+    /** Maximum number of buckets of a downsampling query. */
+    private static final int MAX_BUCKETS = 100_000;
+
+    /** Logger of the class. */
+    private static final Logger LOG = LoggerFactory.getLogger(SignalQualityStore.class);
+
+    /** Directory of the files. */
+    private final Path directory;
+    /** Retention of the samples, in ms. */
+    private final long retention;
+    /** Age of the samples moved to the files, in ms. */
+    private final long memoryWindow;
+    /** Number of samples of a chunk. */
+    private final int chunkSamples;
+    /** The series, by end point EUI64 as long. */
+    private final Map<Long, EndpointSeries> series = new ConcurrentHashMap<>();
+    /** The files, oldest first. */
+    private final List<SeriesFile> files = new CopyOnWriteArrayList<>();
+    /** Background compaction. */
+    private final ScheduledExecutorService compactor;
+
+    /**
+     * Constructor with the default settings.
+     *
+     * @param directory
+     *                  directory of the files.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public SignalQualityStore(final Path directory) throws IOException {
+        this(directory, SignalQualityStore.DEFAULT_RETENTION, SignalQualityStore.DEFAULT_MEMORY_WINDOW,
+                SignalQualityStore.DEFAULT_CHUNK_SAMPLES, SignalQualityStore.DEFAULT_COMPACTION_INTERVAL);
+    }
+
+    /**
+     * Constructor with arguments. The files of the directory are reloaded.
+     *
+     * @param directory
+     *                     directory of the files.
+     * @param retention
+     *                     retention of the samples.
+     * @param memoryWindow
+     *                     age of the samples moved to the files.
+     * @param chunkSamples
+     *                     number of samples of a chunk.
+     * @param interval
+     *                     interval of the compaction.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public SignalQualityStore(final Path directory, final Duration retention, final Duration memoryWindow,
+            final int chunkSamples, final Duration interval) throws IOException {
+        Validate.isTrue(chunkSamples > 1, "chunkSamples must be greater than 1, is: %d", chunkSamples); //$NON-NLS-1$
+        this.directory = Files.createDirectories(directory);
+        this.retention = retention.toMillis();
+        this.memoryWindow = memoryWindow.toMillis();
+        this.chunkSamples = chunkSamples;
+        try (var paths = Files.list(directory)) {
+            for (final var path : paths.filter(p -> p.getFileName().toString().endsWith(SeriesFile.SUFFIX)).sorted()
+                    .collect(Collectors.toList())) {
+                this.files.add(SeriesFile.read(path, (ep, chunk) -> this.series(ep).compacted(chunk)));
+            }
+        }
+        this.compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final var thread = new Thread(r, "bssci-signal-compactor"); //$NON-NLS-1$
+            thread.setDaemon(true);
+            return thread;
+        });
+        final var millis = interval.toMillis();
+        this.compactor.scheduleWithFixedDelay(() -> {
+            try {
+                this.compact(System.currentTimeMillis() - this.memoryWindow);
+            } catch (final IOException | RuntimeException e) {
+                SignalQualityStore.LOG.error("Signal quality compaction failed", e); //$NON-NLS-1$
+            }
+        }, millis, millis, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public boolean intercept(final ServiceCenterConnection client, final Api apiObj) {
+        if (apiObj instanceof UlData) {
+            final var ulData = (UlData) apiObj;
+            this.add(ulData.getEpEui(), TimeUnit.NANOSECONDS.toMillis(ulData.getRxTime()), ulData.getRssi(),
+                    ulData.getSnr());
+        }
+        return false;
+    }
+
+    /**
+     * Method to add a sample.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @param time
+     *              time of the sample, in ms since the epoch.
+     * @param rssi
+     *              RSSI of the sample.
+     * @param snr
+     *              SNR of the sample.
+     */
+    public void add(final EUI64 epEui, final long time, final double rssi, final double snr) {
+        this.series(epEui.asLong()).append(time, rssi, snr, this.chunkSamples);
+    }
+
+    /**
+     * Method to iterate over the samples of an end point, in chunk order.
+     *
+     * @param epEui
+     *                 the end point EUI64.
+     * @param from
+     *                 start of the time range, inclusive.
+     * @param to
+     *                 end of the time range, inclusive.
+     * @param consumer
+     *                 consumer of the samples.
+     */
+    public void forEach(final EUI64 epEui, final Instant from, final Instant to, final ISampleConsumer consumer) {
+        final var endpoint = this.series.get(epEui.asLong());
+        if (endpoint != null) {
+            endpoint.forEach(from.toEpochMilli(), to.toEpochMilli(), consumer);
+        }
+    }
+
+    /**
+     * Method to downsample the samples of an end point.
+     *
+     * @param epEui
+     *              the end point EUI64.
+     * @param from
+     *              start of the time range, inclusive.
+     * @param to
+     *              end of the time range, exclusive.
+     * @param step
+     *              duration of a bucket.
+     * @return the non empty buckets, in time order.
+     */
+    public List<SignalBucket> downsample(final EUI64 epEui, final Instant from, final Instant to,
+            final Duration step) {
+        final var start = from.toEpochMilli();
+        final var stepMillis = step.toMillis();
+        Validate.isTrue(stepMillis > 0, "step must be positive, is: %s", step); //$NON-NLS-1$
+        final var count = ((to.toEpochMilli() - start) + stepMillis - 1) / stepMillis;
+        Validate.isTrue((count >= 0) && (count <= SignalQualityStore.MAX_BUCKETS), "Too many buckets: %d", count); //$NON-NLS-1$
+        final var buckets = new SignalBucket[(int) count];
+        this.forEach(epEui, from, to.minusMillis(1), (time, rssi, snr) -> {
+            final var i = (int) ((time - start) / stepMillis);
+            if (buckets[i] == null) {
+                buckets[i] = new SignalBucket(Instant.ofEpochMilli(start + (i * stepMillis)));
+            }
+            buckets[i].add(rssi, snr);
+        });
+        final List<SignalBucket> result = new ArrayList<>();
+        for (final var bucket : buckets) {
+            if (bucket != null) {
+                result.add(bucket);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Method to move the samples older than a cutoff to a new file, and to delete the files past the retention.
+     *
+     * @param cutoff
+     *               time before which the samples are moved, in ms since the epoch.
+     * @throws IOException
+     *                     on I/O failure.
+     */
+    public synchronized void compact(final long cutoff) throws IOException {
+        final Map<Long, List<GorillaChunk>> chunks = new HashMap<>();
+        for (final var entry : this.series.entrySet()) {
+            final var collected = entry.getValue().collect(cutoff);
+            if (!collected.isEmpty()) {
+                chunks.put(entry.getKey(), collected);
+            }
+        }
+        if (!chunks.isEmpty()) {
+            var name = System.currentTimeMillis();
+            if (!this.files.isEmpty()) {
+                name = Math.max(name, SignalQualityStore.nameOf(this.files.get(this.files.size() - 1)) + 1);
+            }
+            final var path = this.directory.resolve(String.format("%020d%s", name, SeriesFile.SUFFIX)); //$NON-NLS-1$
+            this.files.add(SeriesFile.write(path, chunks, (ep, chunk) -> this.series(ep).compacted(chunk)));
+            SignalQualityStore.LOG.debug("Compacted {} series to {}", chunks.size(), path); //$NON-NLS-1$
+        }
+        final var expiry = System.currentTimeMillis() - this.retention;
+        for (final var file : this.files) {
+            if (file.end < expiry) {
+                this.files.remove(file);
+                for (final var ep : this.series.keySet()) {
+                    this.series.computeIfPresent(ep, (k, endpoint) -> endpoint.expire(file) ? null : endpoint);
+                }
+                Files.deleteIfExists(file.path);
+                SignalQualityStore.LOG.info("Signal quality file {} expired", file.path); //$NON-NLS-1$
+            }
+        }
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of end points with samples.
+     */
+    public int getEndpoints() {
+        return this.series.size();
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of samples held in memory, not compacted yet.
+     */
+    public long getMemorySamples() {
+        return this.series.values().stream().mapToLong(EndpointSeries::getMemorySamples).sum();
+    }
+
+    /**
+     * Method to stop the compaction, moving every sample to the files so they survive a restart.
+     */
+    @Override
+    public void close() {
+        this.compactor.shutdownNow();
+        try {
+            this.compact(Long.MAX_VALUE);
+        } catch (final IOException e) {
+            SignalQualityStore.LOG.error("Signal quality compaction failed", e); //$NON-NLS-1$
+        }
+    }
+
+    private EndpointSeries series(final long epEui) {
+        final var endpoint = this.series.get(epEui);
+        return endpoint != null ? endpoint : this.series.computeIfAbsent(epEui, k -> new EndpointSeries());
+    }
+
+    private static long nameOf(final SeriesFile file) {
+        final var name = file.path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SeriesFile.SUFFIX.length()));
+    }
+}
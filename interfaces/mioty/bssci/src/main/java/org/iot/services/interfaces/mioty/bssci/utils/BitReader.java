@@ -0,0 +1,128 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.utils;
+
+import java.nio.BufferUnderflowException;
+
+/**
+ * Bit stream reader, most significant bit first, the counterpart of {@link BitWriter}.
+ *
+ * @author FendtC
+ */
+public final class BitReader {
+
+    /** The bytes to read. */
+    private final byte[] buffer;
+    /** Position of the next byte. */
+    private int position;
+    /** End of the bytes to read. */
+    private final int limit;
+    /** Loaded bits not read yet. */
+    private long pending;
+    /** Number of loaded bits. */
+    private int pendingBits;
+
+    /**
+     * Constructor.
+     *
+     * @param buffer
+     *               the bytes to read.
+     */
+    public BitReader(final byte[] buffer) {
+        this(buffer, 0, buffer.length);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param buffer
+     *               the bytes to read.
+     * @param offset
+     *               offset of the first byte.
+     * @param length
+     *               number of bytes.
+     */
+    public BitReader(final byte[] buffer, final int offset, final int length) {
+        this.buffer = buffer;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    /**
+     * Method to read a single bit.
+     *
+     * @return the bit.
+     */
+    public boolean readBit() {
+        return this.readBits(1) != 0;
+    }
+
+    /**
+     * Method to read an unsigned value.
+     *
+     * @param bits
+     *             the number of bits, 0 to 64.
+     * @return the value.
+     * @throws BufferUnderflowException
+     *                                  past the end of the bytes.
+     */
+    public long readBits(final int bits) {
+        if (bits > 32) {
+            final var high = this.readBits(bits - 32);
+            return (high << 32) | this.readBits(32);
+        }
+        if (bits == 0) {
+            return 0;
+        }
+        while (this.pendingBits < bits) {
+            if (this.position >= this.limit) {
+                throw new BufferUnderflowException();
+            }
+            this.pending = (this.pending << Byte.SIZE) | (this.buffer[this.position++] & 0xFF);
+            this.pendingBits += Byte.SIZE;
+        }
+        this.pendingBits -= bits;
+        return (this.pending >>> this.pendingBits) & (-1L >>> (Long.SIZE - bits));
+    }
+
+    /**
+     * Method to read an unsigned variable length value.
+     *
+     * @return the value.
+     */
+    public long readVarLong() {
+        long value = 0;
+        for (var shift = 0; shift < Long.SIZE; shift += 7) {
+            final var b = this.readBits(Byte.SIZE);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Method to read a signed zig-zag encoded variable length value.
+     *
+     * @return the value.
+     */
+    public long readZigZag() {
+        final var raw = this.readVarLong();
+        return (raw >>> 1) ^ -(raw & 1);
+    }
+}
@@ -0,0 +1,156 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.utils;
+
+import java.util.Arrays;
+
+/**
+ * Growable bit stream writer, most significant bit first, for the compact encodings.
+ * <p>
+ * A writer is used by a single thread and can be reused after {@link #reset()}.
+ *
+ * @author FendtC
+ */
+public final class BitWriter {
+
+    /** Written bytes. */
+    private byte[] buffer;
+    /** Number of complete bytes. */
+    private int bytes;
+    /** Pending bits, less than a byte. */
+    private long pending;
+    /** Number of pending bits. */
+    private int pendingBits;
+
+    /**
+     * Constructor with a default capacity.
+     */
+    public BitWriter() {
+        this(64);
+    }
+
+    /**
+     * Constructor with arguments.
+     *
+     * @param capacity
+     *                 initial capacity, in bytes.
+     */
+    public BitWriter(final int capacity) {
+        this.buffer = new byte[Math.max(capacity, 8)];
+    }
+
+    /**
+     * Method to write a single bit.
+     *
+     * @param bit
+     *            the bit.
+     */
+    public void writeBit(final boolean bit) {
+        this.writeBits(bit ? 1 : 0, 1);
+    }
+
+    /**
+     * Method to write the low bits of a value.
+     *
+     * @param value
+     *              the value.
+     * @param bits
+     *              the number of bits to write, 0 to 64.
+     */
+    public void writeBits(final long value, final int bits) {
+        if (bits > 32) {
+            this.writeBits(value >>> 32, bits - 32);
+            this.writeBits(value, 32);
+            return;
+        }
+        if (bits == 0) {
+            return;
+        }
+        this.pending = (this.pending << bits) | (value & (-1L >>> (Long.SIZE - bits)));
+        this.pendingBits += bits;
+        if (this.pendingBits >= Byte.SIZE) {
+            this.ensure(Integer.BYTES + 1);
+            while (this.pendingBits >= Byte.SIZE) {
+                this.pendingBits -= Byte.SIZE;
+                this.buffer[this.bytes++] = (byte) (this.pending >>> this.pendingBits);
+            }
+            this.pending &= (1L << this.pendingBits) - 1;
+        }
+    }
+
+    /**
+     * Method to write an unsigned variable length value, 7 bits per byte.
+     *
+     * @param value
+     *              the value, unsigned.
+     */
+    public void writeVarLong(final long value) {
+        var remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            this.writeBits((remaining & 0x7F) | 0x80, Byte.SIZE);
+            remaining >>>= 7;
+        }
+        this.writeBits(remaining, Byte.SIZE);
+    }
+
+    /**
+     * Method to write a signed variable length value, zig-zag encoded so small magnitudes stay short.
+     *
+     * @param value
+     *              the value.
+     */
+    public void writeZigZag(final long value) {
+        this.writeVarLong((value << 1) ^ (value >> (Long.SIZE - 1)));
+    }
+
+    /**
+     * Getter method.
+     *
+     * @return the number of written bits.
+     */
+    public long bitCount() {
+        return ((long) this.bytes * Byte.SIZE) + this.pendingBits;
+    }
+
+    /**
+     * Method to get the written bytes, the last one padded with zero bits.
+     *
+     * @return a copy of the written bytes.
+     */
+    public byte[] toByteArray() {
+        final var result = Arrays.copyOf(this.buffer, this.bytes + (this.pendingBits > 0 ? 1 : 0));
+        if (this.pendingBits > 0) {
+            result[this.bytes] = (byte) (this.pending << (Byte.SIZE - this.pendingBits));
+        }
+        return result;
+    }
+
+    /**
+     * Method to clear the writer, keeping its buffer.
+     */
+    public void reset() {
+        this.bytes = 0;
+        this.pending = 0;
+        this.pendingBits = 0;
+    }
+
+    private void ensure(final int extra) {
+        if ((this.bytes + extra) > this.buffer.length) {
+            this.buffer = Arrays.copyOf(this.buffer, Math.max(this.buffer.length * 2, this.bytes + extra));
+        }
+    }
+}
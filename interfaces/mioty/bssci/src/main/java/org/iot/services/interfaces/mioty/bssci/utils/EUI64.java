@@ -62,6 +62,17 @@ public final class EUI64 {
         return new EUI64(new BigInteger(bytes));
     }
 
+    /**
+     * Method to create an EUI64 based on its 64 bit representation.
+     *
+     * @param val
+     *            EUI64 as long, see {@link #asLong()}.
+     * @return EUI64 object.
+     */
+    public static EUI64 fromLong(final long val) {
+        return new EUI64(new BigInteger(Long.toUnsignedString(val)));
+    }
+
     /**
      * Method to create an EUI64 based on its hex-string representation.
      *
@@ -101,6 +112,15 @@ public final class EUI64 {
         return this.value;
     }
 
+    /**
+     * Method to retrieve the 64 bit representation of the object, e.g. as compact key.
+     *
+     * @return the EUI64 as long, values above {@link Long#MAX_VALUE} are negative.
+     */
+    public long asLong() {
+        return this.value.longValue();
+    }
+
     @Override
     public boolean equals(final Object obj) {
         if (obj instanceof EUI64) {
@@ -0,0 +1,282 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.utils;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Utility class to peek at the top level fields of a raw MsgPack message without decoding it.
+ * <p>
+ * The methods neither allocate nor throw: a malformed or truncated message is reported as a missing field.
+ *
+ * @author FendtC
+ */
+public final class MsgPackPeek {
+
+    /** Result of a failed lookup. */
+    public static final int NOT_FOUND = -1;
+
+    /**
+     * hidden constructor.
+     */
+    private MsgPackPeek() {
+        super();
+    }
+
+    /**
+     * Method to encode a field name, once, for the lookups.
+     *
+     * @param name
+     *             the field name.
+     * @return the UTF-8 bytes of the name.
+     */
+    public static byte[] key(final String name) {
+        return name.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method to find the value of a field of the top level map.
+     *
+     * @param msg
+     *            the raw MsgPack message.
+     * @param key
+     *            the encoded field name, see {@link #key(String)}.
+     * @return the offset of the value, or {@link #NOT_FOUND}.
+     */
+    public static int find(final byte[] msg, final byte[] key) {
+        if (msg.length == 0) {
+            return MsgPackPeek.NOT_FOUND;
+        }
+        final var b = msg[0] & 0xFF;
+        long entries;
+        int pos;
+        if ((b & 0xF0) == 0x80) {
+            entries = b & 0x0F;
+            pos = 1;
+        } else if ((b == 0xDE) && (msg.length >= 3)) {
+            entries = MsgPackPeek.uint(msg, 1, 2);
+            pos = 3;
+        } else if ((b == 0xDF) && (msg.length >= 5)) {
+            entries = MsgPackPeek.uint(msg, 1, 4);
+            pos = 5;
+        } else {
+            return MsgPackPeek.NOT_FOUND;
+        }
+        for (; (entries > 0) && (pos >= 0); entries--) {
+            final var value = MsgPackPeek.skip(msg, pos);
+            if ((value >= 0) && MsgPackPeek.isString(msg, pos, key)) {
+                return value;
+            }
+            pos = MsgPackPeek.skip(msg, value);
+        }
+        return MsgPackPeek.NOT_FOUND;
+    }
+
+    /**
+     * Method to compare a string value.
+     *
+     * @param msg
+     *                 the raw MsgPack message.
+     * @param pos
+     *                 offset of the value.
+     * @param expected
+     *                 the expected UTF-8 bytes.
+     * @return TRUE if the value is a string equal to the expected bytes.
+     */
+    public static boolean isString(final byte[] msg, final int pos, final byte[] expected) {
+        if ((pos < 0) || (pos >= msg.length)) {
+            return false;
+        }
+        final var b = msg[pos] & 0xFF;
+        final long len;
+        final int start;
+        if ((b & 0xE0) == 0xA0) {
+            len = b & 0x1F;
+            start = pos + 1;
+        } else if ((b >= 0xD9) && (b <= 0xDB)) {
+            final var size = 1 << (b - 0xD9);
+            if ((pos + size) >= msg.length) {
+                return false;
+            }
+            len = MsgPackPeek.uint(msg, pos + 1, size);
+            start = pos + 1 + size;
+        } else {
+            return false;
+        }
+        if ((len != expected.length) || ((start + len) > msg.length)) {
+            return false;
+        }
+        for (var i = 0; i < expected.length; i++) {
+            if (msg[start + i] != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method to read an integer value. An unsigned 64 bit value is returned with the same bits, as
+     * {@link EUI64#asLong()}.
+     *
+     * @param msg
+     *                 the raw MsgPack message.
+     * @param pos
+     *                 offset of the value.
+     * @param fallback
+     *                 the value to return if the value is not an integer.
+     * @return the value.
+     */
+    public static long readLong(final byte[] msg, final int pos, final long fallback) {
+        if ((pos < 0) || (pos >= msg.length)) {
+            return fallback;
+        }
+        final var b = msg[pos] & 0xFF;
+        if (b <= 0x7F) {
+            return b;
+        }
+        if (b >= 0xE0) {
+            return (byte) b;
+        }
+        final int size;
+        final boolean signed;
+        if ((b >= 0xCC) && (b <= 0xCF)) {
+            size = 1 << (b - 0xCC);
+            signed = false;
+        } else if ((b >= 0xD0) && (b <= 0xD3)) {
+            size = 1 << (b - 0xD0);
+            signed = true;
+        } else {
+            return fallback;
+        }
+        if ((pos + size) >= msg.length) {
+            return fallback;
+        }
+        final var value = MsgPackPeek.uint(msg, pos + 1, size);
+        if (signed && (size < Long.BYTES)) {
+            final var shift = Long.SIZE - (size * Byte.SIZE);
+            return (value << shift) >> shift;
+        }
+        return value;
+    }
+
+    /**
+     * Method to skip a value. The nested arrays and maps are skipped iteratively, whatever their depth: the values of
+     * a container follow its header, so only the number of values left to skip is kept.
+     *
+     * @param msg
+     *            the raw MsgPack message.
+     * @param pos
+     *            offset of the value.
+     * @return the offset following the value, or {@link #NOT_FOUND} if the message is malformed.
+     */
+    public static int skip(final byte[] msg, final int pos) {
+        var next = pos;
+        for (var remaining = 1L; (remaining > 0) && (next >= 0); remaining--) {
+            final var count = MsgPackPeek.entries(msg, next);
+            if (count > 0) {
+                // container: its header, then its values
+                remaining += count;
+                next = MsgPackPeek.header(msg, next);
+            } else {
+                next = MsgPackPeek.skipScalar(msg, next);
+            }
+        }
+        return next;
+    }
+
+    private static long entries(final byte[] msg, final int pos) {
+        if ((pos < 0) || (pos >= msg.length)) {
+            return 0;
+        }
+        final var b = msg[pos] & 0xFF;
+        if ((b & 0xF0) == 0x80) {
+            return 2L * (b & 0x0F);
+        } else if ((b & 0xF0) == 0x90) {
+            return b & 0x0F;
+        } else if ((b == 0xDC) || (b == 0xDD)) {
+            final var size = b == 0xDC ? 2 : 4;
+            return (pos + size) >= msg.length ? 0 : MsgPackPeek.uint(msg, pos + 1, size);
+        } else if ((b == 0xDE) || (b == 0xDF)) {
+            final var size = b == 0xDE ? 2 : 4;
+            return (pos + size) >= msg.length ? 0 : 2 * MsgPackPeek.uint(msg, pos + 1, size);
+        }
+        return 0;
+    }
+
+    private static int header(final byte[] msg, final int pos) {
+        final var b = msg[pos] & 0xFF;
+        if ((b == 0xDC) || (b == 0xDE)) {
+            return pos + 3;
+        } else if ((b == 0xDD) || (b == 0xDF)) {
+            return pos + 5;
+        }
+        return pos + 1;
+    }
+
+    private static int skipScalar(final byte[] msg, final int pos) {
+        if ((pos < 0) || (pos >= msg.length)) {
+            return MsgPackPeek.NOT_FOUND;
+        }
+        final var b = msg[pos] & 0xFF;
+        long next;
+        if ((b <= 0x7F) || (b >= 0xE0) || ((b >= 0xC0) && (b <= 0xC3))) {
+            // fixint, nil, bool
+            next = pos + 1L;
+        } else if ((b & 0xE0) == 0xA0) {
+            next = pos + 1L + (b & 0x1F);
+        } else if (((b & 0xE0) == 0x80) || ((b >= 0xDC) && (b <= 0xDF))) {
+            // empty container, or truncated header
+            final var size = (b & 0xE0) == 0x80 ? 0 : 1 << (1 + ((b - 0xDC) & 0x01));
+            next = (pos + size) >= msg.length ? MsgPackPeek.NOT_FOUND : pos + 1L + size;
+        } else if ((b >= 0xC4) && (b <= 0xC6)) {
+            // bin 8/16/32
+            next = MsgPackPeek.sized(msg, pos, 1 << (b - 0xC4));
+        } else if ((b >= 0xD9) && (b <= 0xDB)) {
+            // str 8/16/32
+            next = MsgPackPeek.sized(msg, pos, 1 << (b - 0xD9));
+        } else if ((b >= 0xC7) && (b <= 0xC9)) {
+            // ext 8/16/32, one type byte
+            next = MsgPackPeek.sized(msg, pos, 1 << (b - 0xC7));
+            next = next < 0 ? next : next + 1;
+        } else if ((b == 0xCA) || (b == 0xCB)) {
+            next = pos + 1L + (b == 0xCA ? 4 : 8);
+        } else if ((b >= 0xCC) && (b <= 0xD3)) {
+            next = pos + 1L + (1 << ((b - 0xCC) & 0x03));
+        } else if ((b >= 0xD4) && (b <= 0xD8)) {
+            // fixext, one type byte
+            next = pos + 2L + (1 << (b - 0xD4));
+        } else {
+            return MsgPackPeek.NOT_FOUND;
+        }
+        return (next < 0) || (next > msg.length) ? MsgPackPeek.NOT_FOUND : (int) next;
+    }
+
+    private static long sized(final byte[] msg, final int pos, final int size) {
+        if ((pos + size) >= msg.length) {
+            return MsgPackPeek.NOT_FOUND;
+        }
+        return pos + 1L + size + MsgPackPeek.uint(msg, pos + 1, size);
+    }
+
+    private static long uint(final byte[] msg, final int pos, final int size) {
+        var value = 0L;
+        for (var i = 0; i < size; i++) {
+            value = (value << Byte.SIZE) | (msg[pos + i] & 0xFF);
+        }
+        return value;
+    }
+}
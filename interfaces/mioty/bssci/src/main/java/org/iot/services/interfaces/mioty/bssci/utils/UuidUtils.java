@@ -99,6 +99,25 @@ public final class UuidUtils {
         return new UUID(high, low);
     }
 
+    /**
+     * Method to convert an integer array (one byte per integer) to a UUID.
+     *
+     * @param intsParam
+     *                  the integer array to convert.
+     * @return the associated UUID
+     */
+    public static UUID convertIntsToUuid(final int[] intsParam) {
+        if (intsParam == null) {
+            return null;
+        }
+        final var len = intsParam.length;
+        final var bytes = new byte[len];
+        for (var index = 0; index < len; index++) {
+            bytes[index] = (byte) intsParam[index];
+        }
+        return UuidUtils.convertBytesToUuid(bytes);
+    }
+
     /**
      * method to fill a byte array with random data.
      *
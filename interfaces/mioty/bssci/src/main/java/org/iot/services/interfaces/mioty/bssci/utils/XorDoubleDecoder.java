@@ -0,0 +1,69 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.utils;
+
+/**
+ * Streaming decoder of a double series written by {@link XorDoubleEncoder}.
+ *
+ * @author FendtC
+ */
+public final class XorDoubleDecoder {
+
+    /** Bits of the previous value. */
+    private long previous;
+    /** Leading zeros of the current window. */
+    private int leading;
+    /** Trailing zeros of the current window. */
+    private int trailing;
+    /** TRUE once the first value is read. */
+    private boolean started;
+
+    /**
+     * Method to decode the next value.
+     *
+     * @param in
+     *           the bit stream.
+     * @return the value.
+     */
+    public double read(final BitReader in) {
+        if (!this.started) {
+            this.started = true;
+            this.previous = in.readBits(Long.SIZE);
+        } else if (in.readBit()) {
+            if (in.readBit()) {
+                this.leading = (int) in.readBits(5);
+                var significant = (int) in.readBits(6);
+                if (significant == 0) {
+                    significant = Long.SIZE;
+                }
+                this.trailing = Long.SIZE - this.leading - significant;
+            }
+            final var significant = Long.SIZE - this.leading - this.trailing;
+            this.previous ^= in.readBits(significant) << this.trailing;
+        }
+        return Double.longBitsToDouble(this.previous);
+    }
+
+    /**
+     * Method to restart the series.
+     */
+    public void reset() {
+        this.started = false;
+        this.leading = 0;
+        this.trailing = 0;
+    }
+}
@@ -0,0 +1,86 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ * 
+ *       http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.iot.services.interfaces.mioty.bssci.utils;
+
+/**
+ * Streaming encoder of a double series, XOR'ing each value with the previous one (Gorilla encoding): a repeated value
+ * costs a bit and slowly varying measurements only store their few changing mantissa bits.
+ *
+ * @author FendtC
+ */
+public final class XorDoubleEncoder {
+
+    /** Bits of the previous value. */
+    private long previous;
+    /** Leading zeros of the current window. */
+    private int leading = Integer.MAX_VALUE;
+    /** Trailing zeros of the current window. */
+    private int trailing;
+    /** TRUE once the first value is written. */
+    private boolean started;
+
+    /**
+     * Method to encode the next value.
+     *
+     * @param out
+     *              the bit stream.
+     * @param value
+     *              the value.
+     */
+    public void write(final BitWriter out, final double value) {
+        final var bits = Double.doubleToRawLongBits(value);
+        if (!this.started) {
+            this.started = true;
+            this.previous = bits;
+            out.writeBits(bits, Long.SIZE);
+            return;
+        }
+        final var xor = bits ^ this.previous;
+        this.previous = bits;
+        if (xor == 0) {
+            out.writeBit(false);
+            return;
+        }
+        out.writeBit(true);
+        // 5 bits of leading zeros
+        final var lead = Math.min(Long.numberOfLeadingZeros(xor), 31);
+        final var trail = Long.numberOfTrailingZeros(xor);
+        if ((lead >= this.leading) && (trail >= this.trailing)) {
+            // fits in the previous window
+            out.writeBit(false);
+            out.writeBits(xor >>> this.trailing, Long.SIZE - this.leading - this.trailing);
+        } else {
+            this.leading = lead;
+            this.trailing = trail;
+            final var significant = Long.SIZE - lead - trail;
+            out.writeBit(true);
+            out.writeBits(lead, 5);
+            // 64 significant bits are written as 0
+            out.writeBits(significant, 6);
+            out.writeBits(xor >>> trail, significant);
+        }
+    }
+
+    /**
+     * Method to restart the series.
+     */
+    public void reset() {
+        this.started = false;
+        this.leading = Integer.MAX_VALUE;
+        this.trailing = 0;
+    }
+}